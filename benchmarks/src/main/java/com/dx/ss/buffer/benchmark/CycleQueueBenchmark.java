@@ -0,0 +1,51 @@
+package com.dx.ss.buffer.benchmark;
+
+import com.dx.ss.buffer.queue.ArrayCycleQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ArrayCycleQueue#next()}的开销，缓冲池每次切换缓冲区都会调用。
+ * 循环队列非线程安全，只测试单线程。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CycleQueueBenchmark {
+
+    /**
+     * 队列中的元素个数
+     */
+    @Param({"2", "8"})
+    public int size;
+
+    private ArrayCycleQueue<Object> queue;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        queue = new ArrayCycleQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            queue.offer(new Object());
+        }
+    }
+
+    @Benchmark
+    public Object next() {
+        return queue.next();
+    }
+}
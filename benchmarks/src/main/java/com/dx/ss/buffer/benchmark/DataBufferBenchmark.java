@@ -0,0 +1,71 @@
+package com.dx.ss.buffer.benchmark;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.ArrayDataBuffer;
+import com.dx.ss.buffer.core.DataBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ArrayDataBuffer#put(Object)}的开销，分别测试允许和不允许重复数据两种情况。
+ * 缓冲区写满之后清空，清空的开销分摊到每次写入中。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataBufferBenchmark {
+
+    /**
+     * 缓冲区容量
+     */
+    @Param({"1000", "100000"})
+    public int capacity;
+
+    /**
+     * 是否允许重复数据
+     */
+    @Param({"true", "false"})
+    public boolean allowDuplicate;
+
+    private DataBuffer<Object> buffer;
+
+    private Object[] data;
+
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DataBufferOptions options = new DataBufferOptions.Builder()
+                .capacity(capacity).allowDuplicate(allowDuplicate).build();
+        buffer = new ArrayDataBuffer<>(options);
+        data = new Object[capacity];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = "DATA_" + i;
+        }
+    }
+
+    @Benchmark
+    public Object put() {
+        if (buffer.isFull()) {
+            buffer.clear();
+        }
+        Object o = data[index];
+        index = index + 1 == data.length ? 0 : index + 1;
+        return buffer.put(o);
+    }
+}
@@ -0,0 +1,99 @@
+package com.dx.ss.buffer.benchmark;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.BufferFlusher;
+import com.dx.ss.buffer.core.DataBuffer;
+import com.dx.ss.buffer.factory.ArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.ConcurrentArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.DataBufferFactory;
+import com.dx.ss.buffer.queue.ArrayCycleQueue;
+import com.dx.ss.buffer.queue.CycleQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 切换并flush一个写满的缓冲区的开销：
+ * 从循环队列中取出下一个缓冲区，封存，直接交出底层数组给{@link BufferFlusher}持久化，
+ * 直到归还数组并回调完成。配合 -prof gc 可以观察每次flush的分配量。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlushBenchmark {
+
+    /**
+     * 缓冲区容量
+     */
+    @Param({"1000", "10000"})
+    public int capacity;
+
+    /**
+     * 是否使用无锁缓冲区
+     */
+    @Param({"false", "true"})
+    public boolean lockFree;
+
+    /**
+     * 持久化层每次调用的延迟（单位：纳秒）
+     */
+    @Param({"0"})
+    public long persistLatencyNanos;
+
+    private BufferFlusher<Object> flusher;
+
+    private CycleQueue<DataBuffer<Object>> queue;
+
+    private DataBuffer<Object> buffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DataBufferFactory factory = lockFree ? new ConcurrentArrayDataBufferFactory() : new ArrayDataBufferFactory();
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(capacity).build();
+        List<DataBuffer<Object>> buffers = new ArrayList<>(2);
+        buffers.add(factory.createDataBuffer(options));
+        buffers.add(factory.createDataBuffer(options));
+        queue = new ArrayCycleQueue<>(buffers);
+        flusher = new BufferFlusher<>("FlushBenchmark-flusher");
+        flusher.setPersistStorage(new StubPersistStorage<>(persistLatencyNanos));
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        buffer = queue.next();
+        for (int i = 0; i < capacity; i++) {
+            buffer.put("DATA_" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void swapAndFlush() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        flusher.flush(buffer, (n, cause) -> done.countDown());
+        done.await();
+    }
+}
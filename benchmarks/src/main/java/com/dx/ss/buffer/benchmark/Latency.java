@@ -0,0 +1,30 @@
+package com.dx.ss.buffer.benchmark;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 模拟存储层的访问延迟
+ */
+final class Latency {
+
+    private Latency() {
+    }
+
+    /**
+     * 停顿指定的时间，不足一毫秒的延迟通过自旋模拟，避免线程调度的误差
+     *
+     * @param nanos 延迟（单位：纳秒）
+     */
+    static void pause(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + nanos;
+        if (nanos >= 1_000_000) {
+            LockSupport.parkNanos(nanos);
+        }
+        while (System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+}
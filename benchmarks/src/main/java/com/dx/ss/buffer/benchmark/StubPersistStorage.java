@@ -0,0 +1,44 @@
+package com.dx.ss.buffer.benchmark;
+
+import com.dx.ss.buffer.storage.PersistStorage;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于内存的持久化层，只计数不保存数据，每次调用有固定的延迟
+ */
+public class StubPersistStorage<E> implements PersistStorage<E> {
+
+    private final long latencyNanos;
+
+    private final LongAdder stored = new LongAdder();
+
+    /**
+     * @param latencyNanos 每次调用的延迟（单位：纳秒）
+     */
+    public StubPersistStorage(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public E store(E e) {
+        Latency.pause(latencyNanos);
+        stored.increment();
+        return e;
+    }
+
+    @Override
+    public int store(List<E> list) {
+        Latency.pause(latencyNanos);
+        stored.add(list.size());
+        return list.size();
+    }
+
+    /**
+     * 已经持久化的数据量
+     */
+    public long getStored() {
+        return stored.sum();
+    }
+}
@@ -0,0 +1,60 @@
+package com.dx.ss.buffer.benchmark;
+
+import com.dx.ss.buffer.storage.TemporaryStorage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于内存的临时存储层，只计数不保存数据，每次调用有固定的延迟
+ */
+public class StubTemporaryStorage<E> implements TemporaryStorage<E> {
+
+    private final long latencyNanos;
+
+    private final LongAdder stored = new LongAdder();
+
+    /**
+     * @param latencyNanos 每次调用的延迟（单位：纳秒）
+     */
+    public StubTemporaryStorage(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public E store(E e) {
+        Latency.pause(latencyNanos);
+        stored.increment();
+        return e;
+    }
+
+    @Override
+    public int store(List<E> list) {
+        Latency.pause(latencyNanos);
+        stored.add(list.size());
+        return list.size();
+    }
+
+    @Override
+    public List<E> getAll() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void clear() {
+        Latency.pause(latencyNanos);
+    }
+
+    @Override
+    public void clear(long epoch) {
+        Latency.pause(latencyNanos);
+    }
+
+    /**
+     * 已经写入的数据量
+     */
+    public long getStored() {
+        return stored.sum();
+    }
+}
@@ -0,0 +1,129 @@
+package com.dx.ss.buffer.benchmark;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.TwinsBufferPool;
+import com.dx.ss.buffer.factory.ArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.ConcurrentArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.DataBufferFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TwinsBufferPool#submit(Object)}在不同生产者线程数下的吞吐量和延迟分布。
+ * <p>
+ * 持久化层和临时存储层都是内存中的桩实现，通过参数模拟访问延迟。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitBenchmark {
+
+    /**
+     * 缓冲区容量
+     */
+    @Param({"10000"})
+    public int capacity;
+
+    /**
+     * 是否使用无锁缓冲区
+     */
+    @Param({"false", "true"})
+    public boolean lockFree;
+
+    /**
+     * 持久化层每次调用的延迟（单位：纳秒）
+     */
+    @Param({"0", "1000000"})
+    public long persistLatencyNanos;
+
+    /**
+     * 临时存储层每次调用的延迟（单位：纳秒），为负数表示不启用临时存储层
+     */
+    @Param({"-1"})
+    public long temporaryLatencyNanos;
+
+    private TwinsBufferPool<Object> pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DataBufferFactory factory = lockFree ? new ConcurrentArrayDataBufferFactory() : new ArrayDataBufferFactory();
+        DataBufferOptions options = new DataBufferOptions.Builder()
+                .capacity(capacity).threshold(new BigDecimal("0.8")).build();
+        pool = new TwinsBufferPool<>(factory.createDataBuffer(options), factory.createDataBuffer(options));
+        pool.setPersistStorage(new StubPersistStorage<>(persistLatencyNanos));
+        if (temporaryLatencyNanos >= 0) {
+            pool.setTemporaryStorage(new StubTemporaryStorage<>(temporaryLatencyNanos));
+            pool.setEnableTemporaryStorage(true);
+        }
+        pool.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown(true);
+    }
+
+    /**
+     * 每个生产者线程提交的数据
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+
+        private final Object[] data = new Object[1024];
+
+        private int index;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = "DATA_" + Thread.currentThread().getId() + "_" + i;
+            }
+        }
+
+        Object next() {
+            return data[index++ & (data.length - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void submit1(Producer producer) {
+        pool.submit(producer.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void submit4(Producer producer) {
+        pool.submit(producer.next());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void submit16(Producer producer) {
+        pool.submit(producer.next());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void submit64(Producer producer) {
+        pool.submit(producer.next());
+    }
+}
@@ -0,0 +1,630 @@
+package com.dx.ss.buffer.codec;
+
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.objenesis.SpringObjenesis;
+import org.springframework.objenesis.instantiator.ObjectInstantiator;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按数据类型的结构编码的二进制编解码器。
+ * <p>
+ * 每种数据类型的结构（所有非static、非transient的字段，包括父类的字段，按名称排序）只解析一次。
+ * 一个数据块的开头是类型表，每种类型只写入一次类名和结构指纹，之后每条数据只写入类型序号和各个字段的值，
+ * 不写入字段名。整数使用变长编码，字符串使用UTF-8，基本类型的包装类、字符串、byte[]、{@link Date}、
+ * {@link BigDecimal}和枚举直接编码，其他类型的字段使用JDK序列化。
+ * <p>
+ * 单条数据没有类型表，只写入类型和结构指纹。预先注册的类型写入注册的序号，否则写入类名，
+ * 注册的顺序决定序号，只能在末尾追加新的类型，调整顺序之前需要先恢复临时存储中的数据。
+ * <p>
+ * 解码时按类名加载类型，结构指纹不一致（字段增删或者类型变化）时抛出{@link IllegalStateException}，
+ * 因此数据类型变化之前需要先恢复临时存储中的数据。创建对象不调用构造方法。
+ * 编码使用按线程复用的输出缓冲区，{@link #sizeOf(Object)}和{@link #encode(Object, ByteBuffer)}不会分配字节数组。
+ *
+ * @param <E> 数据类型
+ */
+public class BinaryBufferCodec<E> implements BufferCodec<E> {
+
+    /**
+     * 编码格式的版本，不会与JDK序列化的首字节0xAC混淆
+     */
+    private static final int VERSION = 0x42;
+
+    /**
+     * 单条数据的编码格式
+     */
+    private static final int SINGLE = 0x43;
+
+    /**
+     * 单条数据的类型标记：null
+     */
+    private static final int TAG_NULL = 0;
+
+    /**
+     * 单条数据的类型标记：之后是类名，大于该值时表示注册的类型
+     */
+    private static final int TAG_NAMED = 1;
+
+    /**
+     * 输出缓冲区超过该容量时不再按线程保留，避免偶尔的大数据块长期占用内存
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final ThreadLocal<BinaryOutput> OUTPUT = ThreadLocal.withInitial(() -> new BinaryOutput(1024));
+
+    private static final SpringObjenesis OBJENESIS = new SpringObjenesis();
+
+    private static final SerializingConverter SERIALIZER = new SerializingConverter();
+
+    private final DeserializingConverter deserializer;
+
+    private final ClassLoader classLoader;
+
+    private final ConcurrentMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Schema> schemasByName = new ConcurrentHashMap<>();
+
+    /**
+     * 预先注册的类型，构造之后不再修改
+     */
+    private final Schema[] registry;
+
+    /**
+     * 注册的类型与序号
+     */
+    private final Map<Class<?>, Integer> registered = new HashMap<>();
+
+    public BinaryBufferCodec() {
+        this(ClassUtils.getDefaultClassLoader());
+    }
+
+    /**
+     * @param types 预先注册的数据类型
+     */
+    public BinaryBufferCodec(Class<?>... types) {
+        this(ClassUtils.getDefaultClassLoader(), types);
+    }
+
+    /**
+     * @param classLoader 解码时加载数据类型的类加载器
+     * @param types       预先注册的数据类型
+     */
+    public BinaryBufferCodec(ClassLoader classLoader, Class<?>... types) {
+        this.classLoader = classLoader;
+        this.deserializer = new DeserializingConverter(classLoader);
+        this.registry = new Schema[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == null || registered.putIfAbsent(types[i], i) != null) {
+                throw new IllegalArgumentException("types is not a legal value.");
+            }
+            registry[i] = schemaOf(types[i]);
+        }
+    }
+
+    @Override
+    public byte[] encode(E e) {
+        BinaryOutput out = OUTPUT.get();
+        try {
+            writeSingle(out, e);
+            return out.toByteArray();
+        } finally {
+            release(out);
+        }
+    }
+
+    /**
+     * 直接从按线程复用的输出缓冲区复制到目标缓冲区。
+     */
+    @Override
+    public int encode(E e, ByteBuffer target) {
+        BinaryOutput out = OUTPUT.get();
+        try {
+            writeSingle(out, e);
+            if (out.size() <= target.remaining()) {
+                out.writeTo(target);
+            }
+            return out.size();
+        } finally {
+            release(out);
+        }
+    }
+
+    /**
+     * 编码到按线程复用的输出缓冲区计算大小，不分配字节数组。
+     */
+    @Override
+    public int sizeOf(E e) {
+        BinaryOutput out = OUTPUT.get();
+        try {
+            writeSingle(out, e);
+            return out.size();
+        } finally {
+            release(out);
+        }
+    }
+
+    /**
+     * 兼容以单条数据的数据块编码的旧数据。
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E decode(byte[] bytes) {
+        if (bytes.length > 0 && bytes[0] == VERSION) {
+            List<E> list = decodeAll(bytes);
+            if (list.size() != 1) {
+                throw new IllegalStateException("Expect 1 element but found " + list.size() + ".");
+            }
+            return list.get(0);
+        }
+        BinaryInput in = new BinaryInput(bytes);
+        int version = in.readByte();
+        if (version != SINGLE) {
+            throw new IllegalStateException("Unknown encoding version: " + version);
+        }
+        int tag = in.readVarInt();
+        if (tag == TAG_NULL) {
+            return null;
+        }
+        Schema schema;
+        if (tag == TAG_NAMED) {
+            schema = schemaOf(in.readString());
+        } else if (tag - TAG_NAMED - 1 < registry.length) {
+            schema = registry[tag - TAG_NAMED - 1];
+        } else {
+            throw new IllegalStateException("Unknown registered type: " + tag);
+        }
+        if (schema.fingerprint != in.readInt()) {
+            throw new IllegalStateException("Schema of " + schema.name + " has changed since the data was encoded.");
+        }
+        return (E) schema.read(in, deserializer);
+    }
+
+    /**
+     * 以单条数据的格式编码到输出缓冲区
+     */
+    private void writeSingle(BinaryOutput out, E e) {
+        out.reset();
+        out.writeByte(SINGLE);
+        if (e == null) {
+            out.writeVarInt(TAG_NULL);
+            return;
+        }
+        Schema schema = schemaOf(e.getClass());
+        Integer index = registered.get(schema.type);
+        if (index != null) {
+            out.writeVarInt(TAG_NAMED + 1 + index);
+        } else {
+            out.writeVarInt(TAG_NAMED);
+            out.writeString(schema.name);
+        }
+        out.writeInt(schema.fingerprint);
+        schema.write(out, e);
+    }
+
+    /**
+     * 输出缓冲区超过保留的容量时不再按线程保留
+     */
+    private static void release(BinaryOutput out) {
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            OUTPUT.remove();
+        }
+    }
+
+    @Override
+    public byte[] encodeAll(List<E> list) {
+        BinaryOutput out = OUTPUT.get();
+        out.reset();
+        try {
+            List<Schema> table = new ArrayList<>(2);
+            Schema last = null;
+            for (E e : list) {
+                if (e != null && (last == null || last.type != e.getClass())) {
+                    last = schemaOf(e.getClass());
+                    if (!table.contains(last)) {
+                        table.add(last);
+                    }
+                }
+            }
+            out.writeByte(VERSION);
+            out.writeVarInt(table.size());
+            for (Schema schema : table) {
+                out.writeString(schema.name);
+                out.writeInt(schema.fingerprint);
+            }
+            out.writeVarInt(list.size());
+            last = null;
+            int lastIndex = 0;
+            for (E e : list) {
+                if (e == null) {
+                    out.writeVarInt(0);
+                    continue;
+                }
+                if (last == null || last.type != e.getClass()) {
+                    last = schemaOf(e.getClass());
+                    lastIndex = table.indexOf(last);
+                }
+                out.writeVarInt(lastIndex + 1);
+                last.write(out, e);
+            }
+            return out.toByteArray();
+        } finally {
+            release(out);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<E> decodeAll(byte[] bytes) {
+        BinaryInput in = new BinaryInput(bytes);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unknown encoding version: " + version);
+        }
+        Schema[] table = new Schema[in.readVarInt()];
+        for (int i = 0; i < table.length; i++) {
+            String name = in.readString();
+            int fingerprint = in.readInt();
+            Schema schema = schemaOf(name);
+            if (schema.fingerprint != fingerprint) {
+                throw new IllegalStateException("Schema of " + name + " has changed since the data was encoded.");
+            }
+            table[i] = schema;
+        }
+        int count = in.readVarInt();
+        List<E> list = new ArrayList<>(Math.min(count, bytes.length));
+        for (int i = 0; i < count; i++) {
+            int index = in.readVarInt();
+            if (index == 0) {
+                list.add(null);
+            } else if (index > table.length) {
+                throw new IllegalStateException("Unknown type index: " + index);
+            } else {
+                list.add((E) table[index - 1].read(in, deserializer));
+            }
+        }
+        return list;
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        Schema schema = schemas.get(type);
+        return schema != null ? schema : schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private Schema schemaOf(String name) {
+        Schema schema = schemasByName.get(name);
+        if (schema == null) {
+            try {
+                schema = schemaOf(ClassUtils.forName(name, classLoader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new IllegalStateException("Can not load encoded type: " + name, e);
+            }
+            schemasByName.putIfAbsent(name, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * 字段的编码方式
+     */
+    private enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE,
+        BOXED_BOOLEAN, BOXED_BYTE, BOXED_SHORT, BOXED_CHAR, BOXED_INT, BOXED_LONG, BOXED_FLOAT, BOXED_DOUBLE,
+        STRING, BYTES, DATE, BIG_DECIMAL, ENUM, OBJECT;
+
+        static Kind of(Class<?> t) {
+            if (t.isPrimitive()) {
+                if (t == boolean.class) {
+                    return BOOLEAN;
+                } else if (t == byte.class) {
+                    return BYTE;
+                } else if (t == short.class) {
+                    return SHORT;
+                } else if (t == char.class) {
+                    return CHAR;
+                } else if (t == int.class) {
+                    return INT;
+                } else if (t == long.class) {
+                    return LONG;
+                } else if (t == float.class) {
+                    return FLOAT;
+                }
+                return DOUBLE;
+            }
+            if (t == Boolean.class) {
+                return BOXED_BOOLEAN;
+            } else if (t == Byte.class) {
+                return BOXED_BYTE;
+            } else if (t == Short.class) {
+                return BOXED_SHORT;
+            } else if (t == Character.class) {
+                return BOXED_CHAR;
+            } else if (t == Integer.class) {
+                return BOXED_INT;
+            } else if (t == Long.class) {
+                return BOXED_LONG;
+            } else if (t == Float.class) {
+                return BOXED_FLOAT;
+            } else if (t == Double.class) {
+                return BOXED_DOUBLE;
+            } else if (t == String.class) {
+                return STRING;
+            } else if (t == byte[].class) {
+                return BYTES;
+            } else if (t == Date.class) {
+                return DATE;
+            } else if (t == BigDecimal.class) {
+                return BIG_DECIMAL;
+            } else if (t.isEnum()) {
+                return ENUM;
+            }
+            return OBJECT;
+        }
+    }
+
+    /**
+     * 一种数据类型的结构
+     */
+    private static final class Schema {
+
+        private final Class<?> type;
+
+        private final String name;
+
+        /**
+         * 字段名称与编码方式的指纹
+         */
+        private final int fingerprint;
+
+        private final FieldCodec[] fields;
+
+        private final ObjectInstantiator<?> instantiator;
+
+        private Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        list.add(field);
+                    }
+                }
+            }
+            //getDeclaredFields的顺序不确定，按名称排序保证编码稳定
+            list.sort(Comparator.comparing(Field::getName).thenComparing(f -> f.getDeclaringClass().getName()));
+            StringBuilder signature = new StringBuilder(type.getName());
+            this.fields = new FieldCodec[list.size()];
+            for (int i = 0; i < fields.length; i++) {
+                Field field = list.get(i);
+                field.setAccessible(true);
+                fields[i] = new FieldCodec(field, Kind.of(field.getType()));
+                signature.append(';').append(field.getName()).append(':').append(fields[i].kind);
+                if (fields[i].kind == Kind.ENUM || fields[i].kind == Kind.OBJECT) {
+                    signature.append(':').append(field.getType().getName());
+                }
+            }
+            this.type = type;
+            this.name = type.getName();
+            this.fingerprint = signature.toString().hashCode();
+            this.instantiator = OBJENESIS.getInstantiatorOf(type);
+        }
+
+        private void write(BinaryOutput out, Object obj) {
+            try {
+                for (FieldCodec field : fields) {
+                    field.write(out, obj);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Can not encode " + name, e);
+            }
+        }
+
+        private Object read(BinaryInput in, DeserializingConverter deserializer) {
+            Object obj = instantiator.newInstance();
+            try {
+                for (FieldCodec field : fields) {
+                    field.read(in, obj, deserializer);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Can not decode " + name, e);
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * 一个字段的编解码
+     */
+    private static final class FieldCodec {
+
+        private final Field field;
+
+        private final Kind kind;
+
+        private FieldCodec(Field field, Kind kind) {
+            this.field = field;
+            this.kind = kind;
+        }
+
+        private void write(BinaryOutput out, Object obj) throws IllegalAccessException {
+            switch (kind) {
+                case BOOLEAN:
+                    out.writeByte(field.getBoolean(obj) ? 1 : 0);
+                    break;
+                case BYTE:
+                    out.writeByte(field.getByte(obj));
+                    break;
+                case SHORT:
+                    out.writeZigZagInt(field.getShort(obj));
+                    break;
+                case CHAR:
+                    out.writeVarInt(field.getChar(obj));
+                    break;
+                case INT:
+                    out.writeZigZagInt(field.getInt(obj));
+                    break;
+                case LONG:
+                    out.writeZigZagLong(field.getLong(obj));
+                    break;
+                case FLOAT:
+                    out.writeInt(Float.floatToRawIntBits(field.getFloat(obj)));
+                    break;
+                case DOUBLE:
+                    out.writeLong(Double.doubleToRawLongBits(field.getDouble(obj)));
+                    break;
+                case STRING:
+                    out.writeString((String) field.get(obj));
+                    break;
+                default:
+                    writeReference(out, field.get(obj));
+            }
+        }
+
+        /**
+         * 引用类型先写入是否为null
+         */
+        private void writeReference(BinaryOutput out, Object v) {
+            if (v == null) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(1);
+            switch (kind) {
+                case BOXED_BOOLEAN:
+                    out.writeByte((Boolean) v ? 1 : 0);
+                    break;
+                case BOXED_BYTE:
+                    out.writeByte((Byte) v);
+                    break;
+                case BOXED_SHORT:
+                    out.writeZigZagInt((Short) v);
+                    break;
+                case BOXED_CHAR:
+                    out.writeVarInt((Character) v);
+                    break;
+                case BOXED_INT:
+                    out.writeZigZagInt((Integer) v);
+                    break;
+                case BOXED_LONG:
+                    out.writeZigZagLong((Long) v);
+                    break;
+                case BOXED_FLOAT:
+                    out.writeInt(Float.floatToRawIntBits((Float) v));
+                    break;
+                case BOXED_DOUBLE:
+                    out.writeLong(Double.doubleToRawLongBits((Double) v));
+                    break;
+                case BYTES:
+                    byte[] bytes = (byte[]) v;
+                    out.writeVarInt(bytes.length);
+                    out.write(bytes, 0, bytes.length);
+                    break;
+                case DATE:
+                    out.writeZigZagLong(((Date) v).getTime());
+                    break;
+                case BIG_DECIMAL:
+                    out.writeString(v.toString());
+                    break;
+                case ENUM:
+                    out.writeString(((Enum<?>) v).name());
+                    break;
+                default:
+                    byte[] serialized = SERIALIZER.convert(v);
+                    out.writeVarInt(serialized.length);
+                    out.write(serialized, 0, serialized.length);
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void read(BinaryInput in, Object obj, DeserializingConverter deserializer) throws IllegalAccessException {
+            switch (kind) {
+                case BOOLEAN:
+                    field.setBoolean(obj, in.readByte() != 0);
+                    return;
+                case BYTE:
+                    field.setByte(obj, (byte) in.readByte());
+                    return;
+                case SHORT:
+                    field.setShort(obj, (short) in.readZigZagInt());
+                    return;
+                case CHAR:
+                    field.setChar(obj, (char) in.readVarInt());
+                    return;
+                case INT:
+                    field.setInt(obj, in.readZigZagInt());
+                    return;
+                case LONG:
+                    field.setLong(obj, in.readZigZagLong());
+                    return;
+                case FLOAT:
+                    field.setFloat(obj, Float.intBitsToFloat(in.readInt()));
+                    return;
+                case DOUBLE:
+                    field.setDouble(obj, Double.longBitsToDouble(in.readLong()));
+                    return;
+                case STRING:
+                    field.set(obj, in.readString());
+                    return;
+                default:
+            }
+            if (in.readByte() == 0) {
+                field.set(obj, null);
+                return;
+            }
+            Object v;
+            switch (kind) {
+                case BOXED_BOOLEAN:
+                    v = in.readByte() != 0;
+                    break;
+                case BOXED_BYTE:
+                    v = (byte) in.readByte();
+                    break;
+                case BOXED_SHORT:
+                    v = (short) in.readZigZagInt();
+                    break;
+                case BOXED_CHAR:
+                    v = (char) in.readVarInt();
+                    break;
+                case BOXED_INT:
+                    v = in.readZigZagInt();
+                    break;
+                case BOXED_LONG:
+                    v = in.readZigZagLong();
+                    break;
+                case BOXED_FLOAT:
+                    v = Float.intBitsToFloat(in.readInt());
+                    break;
+                case BOXED_DOUBLE:
+                    v = Double.longBitsToDouble(in.readLong());
+                    break;
+                case BYTES:
+                    v = in.readBytes(in.readVarInt());
+                    break;
+                case DATE:
+                    v = new Date(in.readZigZagLong());
+                    break;
+                case BIG_DECIMAL:
+                    v = new BigDecimal(in.readString());
+                    break;
+                case ENUM:
+                    v = Enum.valueOf((Class) field.getType(), in.readString());
+                    break;
+                default:
+                    v = deserializer.convert(in.readBytes(in.readVarInt()));
+            }
+            field.set(obj, v);
+        }
+    }
+}
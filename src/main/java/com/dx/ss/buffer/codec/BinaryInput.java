@@ -0,0 +1,108 @@
+package com.dx.ss.buffer.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link BinaryOutput}写入的字节的读取，数据不完整时抛出{@link IllegalStateException}。
+ */
+final class BinaryInput {
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private final int limit;
+
+    BinaryInput(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    BinaryInput(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.limit = off + len;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    private void require(int n) {
+        if (n < 0 || pos + n > limit) {
+            throw new IllegalStateException("Encoded data is truncated.");
+        }
+    }
+
+    int readByte() {
+        require(1);
+        return buf[pos++];
+    }
+
+    byte[] readBytes(int len) {
+        require(len);
+        byte[] bytes = Arrays.copyOfRange(buf, pos, pos + len);
+        pos += len;
+        return bytes;
+    }
+
+    int readVarInt() {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("Malformed variable-length integer.");
+    }
+
+    long readVarLong() {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("Malformed variable-length integer.");
+    }
+
+    int readZigZagInt() {
+        int v = readVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    long readZigZagLong() {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    int readInt() {
+        require(4);
+        int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    long readLong() {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    String readString() {
+        int len = readVarInt() - 1;
+        if (len < 0) {
+            return null;
+        }
+        require(len);
+        String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return s;
+    }
+}
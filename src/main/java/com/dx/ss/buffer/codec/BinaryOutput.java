@@ -0,0 +1,157 @@
+package com.dx.ss.buffer.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 可扩容的字节输出，整数使用变长编码。可以重置之后重复使用。
+ */
+final class BinaryOutput {
+
+    private byte[] buf;
+
+    private int pos;
+
+    BinaryOutput(int initialCapacity) {
+        this.buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    void reset() {
+        pos = 0;
+    }
+
+    int size() {
+        return pos;
+    }
+
+    /**
+     * 当前的容量
+     */
+    int capacity() {
+        return buf.length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * 将已写入的内容复制到目标缓冲区的当前位置
+     */
+    void writeTo(ByteBuffer target) {
+        target.put(buf, 0, pos);
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+        }
+    }
+
+    void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    void write(byte[] bytes, int off, int len) {
+        ensure(len);
+        System.arraycopy(bytes, off, buf, pos, len);
+        pos += len;
+    }
+
+    /**
+     * 无符号的变长整数，每个字节7位
+     */
+    void writeVarInt(int v) {
+        ensure(5);
+        while ((v & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    /**
+     * 有符号的变长整数，绝对值小的负数同样只占很少的字节
+     */
+    void writeZigZagInt(int v) {
+        writeVarInt((v << 1) ^ (v >> 31));
+    }
+
+    void writeZigZagLong(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    void writeInt(int v) {
+        ensure(4);
+        buf[pos++] = (byte) (v >>> 24);
+        buf[pos++] = (byte) (v >>> 16);
+        buf[pos++] = (byte) (v >>> 8);
+        buf[pos++] = (byte) v;
+    }
+
+    void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    /**
+     * UTF-8字符串，先写入字节数加1，null写入0
+     */
+    void writeString(String s) {
+        if (s == null) {
+            writeVarInt(0);
+            return;
+        }
+        int n = s.length();
+        int utf8 = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                utf8++;
+            } else if (c < 0x800) {
+                utf8 += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                utf8 += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                utf8++;
+            } else {
+                utf8 += 3;
+            }
+        }
+        writeVarInt(utf8 + 1);
+        ensure(utf8);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                //孤立的代理字符与String.getBytes一样替换为'?'
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
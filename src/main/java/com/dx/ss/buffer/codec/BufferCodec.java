@@ -0,0 +1,80 @@
+package com.dx.ss.buffer.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 缓冲数据的编解码器，临时存储层和溢出、死信存储通过它将数据转换为字节。
+ * <p>
+ * 单条数据使用{@link #encode(Object)}，批量写入使用{@link #encodeAll(List)}编码成一个数据块，
+ * 两者的格式可以不同，存储层需要记录写入的是单条数据还是数据块。
+ * 实现必须是线程安全的。
+ *
+ * @param <E> 数据类型
+ */
+public interface BufferCodec<E> {
+
+    /**
+     * 编码一条数据。
+     */
+    byte[] encode(E e);
+
+    /**
+     * 将一条数据编码后写入目标缓冲区的当前位置，格式与{@link #encode(Object)}相同。
+     * 剩余空间不足时不写入任何内容，调用方可以按返回的字节数换一个缓冲区再写入。
+     * 默认实现先编码成字节数组再复制，能够直接写入的实现应该重写。
+     *
+     * @param e      数据对象
+     * @param target 目标缓冲区
+     * @return 编码后的字节数，大于剩余空间时表示没有写入
+     */
+    default int encode(E e, ByteBuffer target) {
+        byte[] bytes = encode(e);
+        if (bytes.length <= target.remaining()) {
+            target.put(bytes);
+        }
+        return bytes.length;
+    }
+
+    /**
+     * 解码{@link #encode(Object)}的结果。
+     */
+    E decode(byte[] bytes);
+
+    /**
+     * 一条数据编码后的字节数，可用作缓冲区按字节计量时的weigher。
+     * 作为weigher时每次放入数据都会在缓冲区的锁内调用，默认实现直接编码，能够廉价估算大小的实现应该重写。
+     */
+    default int sizeOf(E e) {
+        return encode(e).length;
+    }
+
+    /**
+     * 将多条数据编码成一个数据块。
+     * 默认实现逐条编码，依次写入每条数据的长度和内容。
+     */
+    default byte[] encodeAll(List<E> list) {
+        BinaryOutput out = new BinaryOutput(64 * list.size() + 8);
+        out.writeVarInt(list.size());
+        for (E e : list) {
+            byte[] bytes = encode(e);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 解码{@link #encodeAll(List)}的结果。
+     */
+    default List<E> decodeAll(byte[] bytes) {
+        BinaryInput in = new BinaryInput(bytes);
+        int count = in.readVarInt();
+        List<E> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(decode(in.readBytes(in.readVarInt())));
+        }
+        return list;
+    }
+}
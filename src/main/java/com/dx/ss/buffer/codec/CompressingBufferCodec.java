@@ -0,0 +1,110 @@
+package com.dx.ss.buffer.codec;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 为数据块增加LZ4块格式压缩的编解码器，单条数据不压缩。
+ * 数据块小于指定大小，或者压缩之后没有明显变小时，原样存储。
+ *
+ * @param <E> 数据类型
+ */
+public class CompressingBufferCodec<E> implements BufferCodec<E> {
+
+    /**
+     * 默认的最小压缩大小（单位：字节）
+     */
+    public static final int DEFAULT_MIN_BLOCK_SIZE = 512;
+
+    /**
+     * 数据块的格式：原样存储
+     */
+    private static final int RAW = 0;
+
+    /**
+     * 数据块的格式：压缩，之后是原始长度和压缩数据
+     */
+    private static final int COMPRESSED = 1;
+
+    private final BufferCodec<E> delegate;
+
+    /**
+     * 小于该大小的数据块不压缩（单位：字节）
+     */
+    private final int minBlockSize;
+
+    public CompressingBufferCodec(BufferCodec<E> delegate) {
+        this(delegate, DEFAULT_MIN_BLOCK_SIZE);
+    }
+
+    /**
+     * @param delegate     实际的编解码器
+     * @param minBlockSize 小于该大小的数据块不压缩（单位：字节）
+     */
+    public CompressingBufferCodec(BufferCodec<E> delegate, int minBlockSize) {
+        if (minBlockSize < 0) {
+            throw new IllegalArgumentException("minBlockSize is not a legal value.");
+        }
+        this.delegate = delegate;
+        this.minBlockSize = minBlockSize;
+    }
+
+    @Override
+    public byte[] encode(E e) {
+        return delegate.encode(e);
+    }
+
+    @Override
+    public int encode(E e, ByteBuffer target) {
+        return delegate.encode(e, target);
+    }
+
+    @Override
+    public int sizeOf(E e) {
+        return delegate.sizeOf(e);
+    }
+
+    @Override
+    public E decode(byte[] bytes) {
+        return delegate.decode(bytes);
+    }
+
+    @Override
+    public byte[] encodeAll(List<E> list) {
+        byte[] raw = delegate.encodeAll(list);
+        if (raw.length >= minBlockSize) {
+            byte[] compressed = LzBlockCompressor.compress(raw, raw.length);
+            //压缩率不足1/8时不值得解压的开销
+            if (compressed.length < raw.length - (raw.length >>> 3)) {
+                BinaryOutput out = new BinaryOutput(compressed.length + 6);
+                out.writeByte(COMPRESSED);
+                out.writeVarInt(raw.length);
+                out.write(compressed, 0, compressed.length);
+                return out.toByteArray();
+            }
+        }
+        byte[] bytes = new byte[raw.length + 1];
+        bytes[0] = RAW;
+        System.arraycopy(raw, 0, bytes, 1, raw.length);
+        return bytes;
+    }
+
+    @Override
+    public List<E> decodeAll(byte[] bytes) {
+        BinaryInput in = new BinaryInput(bytes);
+        int format = in.readByte();
+        if (format == RAW) {
+            return delegate.decodeAll(in.readBytes(bytes.length - 1));
+        }
+        if (format != COMPRESSED) {
+            throw new IllegalStateException("Unknown block format: " + format);
+        }
+        int rawLen = in.readVarInt();
+        int header = in.position();
+        return delegate.decodeAll(LzBlockCompressor.decompress(bytes, header, bytes.length - header, rawLen));
+    }
+
+    public BufferCodec<E> getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,200 @@
+package com.dx.ss.buffer.codec;
+
+import java.util.Arrays;
+
+/**
+ * LZ4块格式的压缩与解压，不包含帧格式，解压时需要知道原始长度。
+ * <p>
+ * 压缩使用单个哈希表查找4字节的重复序列，窗口为64KB，
+ * 牺牲一些压缩率换取接近内存拷贝的速度，适合批量写入的数据块。
+ * 哈希表按线程复用。
+ */
+final class LzBlockCompressor {
+
+    private static final int MIN_MATCH = 4;
+
+    private static final int HASH_LOG = 12;
+
+    /**
+     * 最后5个字节必须是字面量
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * 最后一个匹配必须在末尾12个字节之前开始
+     */
+    private static final int MF_LIMIT = 12;
+
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    private static final int RUN_MASK = 0x0F;
+
+    private static final ThreadLocal<int[]> TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    private LzBlockCompressor() {
+    }
+
+    /**
+     * 压缩后的最大长度
+     */
+    static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * 压缩src的前len个字节。
+     */
+    static byte[] compress(byte[] src, int len) {
+        byte[] dst = new byte[maxCompressedLength(len)];
+        int op = 0;
+        int anchor = 0;
+        if (len > MF_LIMIT) {
+            int[] table = TABLE.get();
+            Arrays.fill(table, -1);
+            int limit = len - MF_LIMIT;
+            int matchLimit = len - LAST_LITERALS;
+            int ip = 0;
+            while (ip < limit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                    ip++;
+                    continue;
+                }
+                //向前扩展匹配
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+                op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLen);
+                ip += matchLen;
+                anchor = ip;
+                if (ip - 2 < limit) {
+                    table[hash(readInt(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+        op = writeSequence(dst, op, src, anchor, len - anchor, 0, 0);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * 解压。
+     *
+     * @param src    压缩的数据
+     * @param off    起始位置
+     * @param len    压缩数据的长度
+     * @param rawLen 原始长度
+     */
+    static byte[] decompress(byte[] src, int off, int len, int rawLen) {
+        byte[] dst = new byte[rawLen];
+        int ip = off;
+        int end = off + len;
+        int op = 0;
+        try {
+            while (ip < end) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 0xFF);
+                }
+                if (ip + literals > end || op + literals > rawLen) {
+                    throw new IllegalStateException("Compressed block is corrupted.");
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= end) {
+                    //最后一个序列只有字面量
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = token & RUN_MASK;
+                if (matchLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 0xFF);
+                }
+                matchLen += MIN_MATCH;
+                if (offset == 0 || offset > op || op + matchLen > rawLen) {
+                    throw new IllegalStateException("Compressed block is corrupted.");
+                }
+                int ref = op - offset;
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    //重叠的匹配只能逐字节复制
+                    for (int i = 0; i < matchLen; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalStateException("Compressed block is corrupted.", e);
+        }
+        if (op != rawLen) {
+            throw new IllegalStateException("Compressed block is corrupted.");
+        }
+        return dst;
+    }
+
+    /**
+     * 写入一个序列：标记、字面量长度、字面量、偏移、匹配长度，matchLen为0表示最后一个序列
+     */
+    private static int writeSequence(byte[] dst, int op, byte[] src, int literalStart, int literals, int offset, int matchLen) {
+        int tokenPos = op++;
+        int token;
+        if (literals >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            op = writeLength(dst, op, literals - RUN_MASK);
+        } else {
+            token = literals << 4;
+        }
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int ml = matchLen - MIN_MATCH;
+            if (ml >= RUN_MASK) {
+                token |= RUN_MASK;
+                op = writeLength(dst, op, ml - RUN_MASK);
+            } else {
+                token |= ml;
+            }
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int len) {
+        while (len >= 0xFF) {
+            dst[op++] = (byte) 0xFF;
+            len -= 0xFF;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
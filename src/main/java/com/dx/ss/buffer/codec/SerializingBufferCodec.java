@@ -0,0 +1,41 @@
+package com.dx.ss.buffer.codec;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+
+/**
+ * 基于转换器的编解码器，默认使用JDK序列化，数据对象需要实现{@link java.io.Serializable}。
+ *
+ * @param <E> 数据类型
+ */
+public class SerializingBufferCodec<E> implements BufferCodec<E> {
+
+    private final Converter<Object, byte[]> serializer;
+
+    private final Converter<byte[], Object> deserializer;
+
+    public SerializingBufferCodec() {
+        this(new SerializingConverter(), new DeserializingConverter());
+    }
+
+    /**
+     * @param serializer   序列化
+     * @param deserializer 反序列化
+     */
+    public SerializingBufferCodec(Converter<Object, byte[]> serializer, Converter<byte[], Object> deserializer) {
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+    }
+
+    @Override
+    public byte[] encode(E e) {
+        return serializer.convert(e);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E decode(byte[] bytes) {
+        return (E) deserializer.convert(bytes);
+    }
+}
@@ -1,6 +1,7 @@
 package com.dx.ss.buffer.config;
 
 import com.dx.ss.buffer.core.BufferPool;
+import com.dx.ss.buffer.core.BufferPoolRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
@@ -9,6 +10,7 @@ import org.springframework.stereotype.Component;
 
 /**
  * 监听ApplicationContext的关闭事件，触发flush动作。
+ * 注册中心里的具名缓冲池和单独注入的缓冲池都会被关闭。
  */
 @Slf4j
 @Component
@@ -18,7 +20,13 @@ public class ApplicationShutdownEventListener implements ApplicationListener<Con
     public void onApplicationEvent(ContextClosedEvent contextClosedEvent) {
         ApplicationContext context = contextClosedEvent.getApplicationContext();
         log.warn("Flush data befor Application context closing.");
-        BufferPool bufferPool = context.getBean(BufferPool.class);
-        bufferPool.shutdown(true);
+        for (BufferPoolRegistry registry : context.getBeansOfType(BufferPoolRegistry.class).values()) {
+            registry.shutdown(true);
+        }
+        for (BufferPool<?> bufferPool : context.getBeansOfType(BufferPool.class).values()) {
+            if (!bufferPool.isShutdown()) {
+                bufferPool.shutdown(true);
+            }
+        }
     }
 }
@@ -1,10 +1,21 @@
 package com.dx.ss.buffer.config;
 
+import com.dx.ss.buffer.codec.CompressingBufferCodec;
+import com.dx.ss.buffer.core.OffHeapDataBuffer;
+import com.dx.ss.buffer.core.OverflowPolicy;
+import com.dx.ss.buffer.core.TwinsBufferPool;
+import com.dx.ss.buffer.storage.FileJournalTemporaryStorage;
+import com.dx.ss.buffer.storage.MongoPersistStorage;
+import com.dx.ss.buffer.storage.RedisTemporaryStorage;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Setter
 @Getter
@@ -23,7 +34,12 @@ public class BufferProperties {
     private boolean allowDuplicate = true;
 
     /**
-     * 缓冲区最大容量
+     * 是否使用无锁缓冲区，多生产者并发写入时不再争抢缓冲池的锁
+     */
+    private boolean lockFree = false;
+
+    /**
+     * 缓冲区最大容量，为空时配置了max-bytes则不限制条数（无锁缓冲区除外），否则为默认容量
      */
     private Integer capacity = null;
 
@@ -32,11 +48,66 @@ public class BufferProperties {
      */
     private BigDecimal threshold = null;
 
+    /**
+     * 缓冲区最大字节数，为0表示只按条数限制，与capacity先达到者为准
+     */
+    private long maxBytes = 0;
+
+    /**
+     * 按字节计算的缓冲阈值，为0时按threshold的比例从maxBytes折算
+     */
+    private long thresholdBytes = 0;
+
     /**
      * 缓冲池配置项
      */
     private Pool pool = new Pool();
 
+    /**
+     * 堆外缓冲区配置项，所有缓冲池共用
+     */
+    private OffHeap offHeap = new OffHeap();
+
+    /**
+     * 跨缓冲区的去重窗口，仅在不允许重复数据时生效
+     */
+    private DedupWindow dedupWindow = new DedupWindow();
+
+    /**
+     * 临时存储层配置项
+     */
+    private Temporary temporary = new Temporary();
+
+    /**
+     * 临时存储层以及溢出、死信存储的编解码器配置项
+     */
+    private Codec codec = new Codec();
+
+    /**
+     * 缓冲区溢出配置项
+     */
+    private Overflow overflow = new Overflow();
+
+    /**
+     * 持久化存储层配置项
+     */
+    private Persist persist = new Persist();
+
+    /**
+     * 死信配置项，具名缓冲池以缓冲池名称作为子目录
+     */
+    private DeadLetter deadLetter = new DeadLetter();
+
+    /**
+     * 度量指标配置项
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 具名缓冲池，key为缓冲池名称，每个缓冲池有各自的缓冲区配置、存储层和flush线程
+     */
+    private Map<String, Named> pools = new LinkedHashMap<>();
+
     @Getter
     @Setter
     public static class Pool {
@@ -46,9 +117,360 @@ public class BufferProperties {
          */
         private Integer bufferTimeInSeconds = null;
 
+        /**
+         * 最大缓冲时限（单位：毫秒），从缓冲区放入第一条数据开始计时，配置后优先于buffer-time-in-seconds
+         */
+        private Long bufferTimeMillis = null;
+
         /**
          * 是否启用临时存储层
          */
         private boolean enableTemporaryStorage = false;
+
+        /**
+         * 缓冲池分段数量，大于1时使用分段缓冲池，按线程分散写入
+         */
+        private int stripes = 1;
+
+        /**
+         * 恢复数据时每批读取的数据量
+         */
+        private int recoveryChunkSize = TwinsBufferPool.DEFAULT_RECOVERY_CHUNK_SIZE;
+
+        /**
+         * 是否在后台恢复数据，恢复期间缓冲池正常接收数据
+         */
+        private boolean backgroundRecovery = false;
+
+        /**
+         * 缓冲区数量，大于2时使用多Buffer缓冲池，写满的缓冲区可以排队等待flush
+         */
+        private int buffers = 2;
+
+        /**
+         * 缓冲区数量上限，flush积压时按需创建新的缓冲区，
+         * 为空则与buffers相同，同时配置了max-memory-bytes和max-bytes时按两者之比计算
+         */
+        private Integer maxBuffers = null;
+
+        /**
+         * 所有缓冲区（包括正在flush的）共用的字节数上限，为0表示不限制，用尽之后缓冲区视为已满
+         */
+        private long maxMemoryBytes = 0;
+
+        /**
+         * 自适应的缓冲阈值与缓冲时限
+         */
+        private Adaptive adaptive = new Adaptive();
+    }
+
+    @Getter
+    @Setter
+    public static class Adaptive {
+
+        /**
+         * 是否根据提交速率和flush耗时调整缓冲阈值与缓冲时限
+         */
+        private boolean enabled = false;
+
+        /**
+         * 目标批次大小，为0表示尽量接近阈值上限
+         */
+        private int targetBatchSize = 0;
+
+        /**
+         * 单次flush耗时的目标（单位：毫秒），为0表示不限制
+         */
+        private long targetLatencyMillis = 0;
+
+        /**
+         * 缓冲阈值下限
+         */
+        private int minThreshold = 1;
+
+        /**
+         * 缓冲阈值上限，为空则为缓冲区容量
+         */
+        private Integer maxThreshold = null;
+
+        /**
+         * 缓冲时限下限（单位：秒）
+         */
+        private int minBufferTimeInSeconds = 1;
+
+        /**
+         * 缓冲时限上限（单位：秒），为空则与缓冲时限相同，配置了buffer-time-millis时不超过该时限
+         */
+        private Integer maxBufferTimeInSeconds = null;
+    }
+
+    /**
+     * 具名缓冲池的配置项，未配置的参数与默认缓冲池相同
+     */
+    @Getter
+    @Setter
+    public static class Named {
+
+        /**
+         * 缓冲区最大容量，为空则与默认缓冲池相同
+         */
+        private Integer capacity = null;
+
+        /**
+         * 缓冲区容量阈值（不超过1），为空则与默认缓冲池相同
+         */
+        private BigDecimal threshold = null;
+
+        /**
+         * 缓冲区最大字节数，为空则与默认缓冲池相同
+         */
+        private Long maxBytes = null;
+
+        /**
+         * 按字节计算的缓冲阈值，为空则与默认缓冲池相同
+         */
+        private Long thresholdBytes = null;
+
+        /**
+         * 是否允许重复数据，为空则与默认缓冲池相同
+         */
+        private Boolean allowDuplicate = null;
+
+        /**
+         * 是否使用无锁缓冲区，为空则与默认缓冲池相同
+         */
+        private Boolean lockFree = null;
+
+        /**
+         * 缓冲池配置项，按参数逐个合并，未配置的参数与默认缓冲池的buffer.pool相同
+         */
+        private Pool pool = null;
+
+        /**
+         * 缓冲区溢出配置项，按参数逐个合并，未配置的参数与默认缓冲池的buffer.overflow相同，
+         * 溢出文件存放在spillDirectory下以缓冲池名称命名的子目录中
+         */
+        private Overflow overflow = null;
+
+        /**
+         * 持久化层的bean名称，为空则使用默认的持久化层
+         */
+        private String persistStorage = null;
+
+        /**
+         * 临时存储层的bean名称，为空则按buffer.temporary的配置单独创建，
+         * 与其他缓冲池的临时数据互相隔离
+         */
+        private String temporaryStorage = null;
+    }
+
+    @Getter
+    @Setter
+    public static class DedupWindow {
+
+        /**
+         * 是否启用去重窗口
+         */
+        private boolean enabled = false;
+
+        /**
+         * 窗口覆盖的缓冲区个数（包含当前缓冲区）
+         */
+        private int generations = 2;
+
+        /**
+         * 窗口时长（单位：秒），为0表示按缓冲区切换轮转
+         */
+        private int windowSeconds = 0;
+
+        /**
+         * 每一代预期的数据量，为空则取缓冲区容量，分段缓冲池按所有分段的容量合计
+         */
+        private Long expectedInsertions = null;
+
+        /**
+         * 误判率，误判的数据会被当作重复数据丢弃
+         */
+        private double falsePositiveRate = 0.001;
+
+        /**
+         * 过滤器的内存上限（单位：字节），为0表示不限制
+         */
+        private long maxBytes = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Temporary {
+
+        /**
+         * 临时存储层的实现：redis或者file（本地追加日志）
+         */
+        private String type = "redis";
+
+        /**
+         * 本地追加日志的配置项
+         */
+        private Journal journal = new Journal();
+
+        /**
+         * 写入方式：同步写入、后台批量写入、批量写入并等待确认
+         */
+        private RedisTemporaryStorage.WriteMode writeMode = RedisTemporaryStorage.WriteMode.SYNC;
+
+        /**
+         * 批量写入时的批次大小
+         */
+        private int batchSize = RedisTemporaryStorage.DEFAULT_BATCH_SIZE;
+
+        /**
+         * 批量写入时的写入时限（单位：毫秒），即允许尚未写入临时存储层的最长时间
+         */
+        private long flushIntervalMillis = RedisTemporaryStorage.DEFAULT_FLUSH_INTERVAL;
+    }
+
+    @Getter
+    @Setter
+    public static class OffHeap {
+
+        /**
+         * 是否使用堆外缓冲区，数据按buffer.codec编码后存放在直接内存中，启用后lockFree不再生效
+         */
+        private boolean enabled = false;
+
+        /**
+         * 直接内存字节块的大小（单位：字节）
+         */
+        private int slabSize = OffHeapDataBuffer.DEFAULT_SLAB_SIZE;
+    }
+
+    @Getter
+    @Setter
+    public static class Codec {
+
+        /**
+         * 编解码器：default（Redis使用RedisTemplate的序列化方式，本地文件使用JDK序列化）或者binary（按数据结构的二进制编码）
+         */
+        private String type = "default";
+
+        /**
+         * 是否压缩批量写入的数据块，仅对binary生效
+         */
+        private boolean compression = false;
+
+        /**
+         * 小于该大小的数据块不压缩（单位：字节）
+         */
+        private int compressionMinBlockSize = CompressingBufferCodec.DEFAULT_MIN_BLOCK_SIZE;
+
+        /**
+         * binary预先注册的数据类型（全限定类名），单条数据只写入注册的序号而不是类名，只能在末尾追加
+         */
+        private List<String> types = new ArrayList<>();
+    }
+
+    @Getter
+    @Setter
+    public static class Overflow {
+
+        /**
+         * 溢出策略：阻塞、由提交线程持久化、丢弃最早的数据、丢弃新数据、溢出到磁盘
+         */
+        private OverflowPolicy policy = OverflowPolicy.BLOCK;
+
+        /**
+         * 阻塞策略下的等待时限（单位：毫秒），超时后丢弃数据，为0表示一直等待
+         */
+        private long timeoutMillis = 0;
+
+        /**
+         * 溢出到磁盘时的分段文件目录，分段大小和刷盘策略与本地追加日志相同
+         */
+        private String spillDirectory = "buffer-spill";
+    }
+
+    @Getter
+    @Setter
+    public static class Persist {
+
+        /**
+         * 每批写入的文档数量
+         */
+        private int chunkSize = MongoPersistStorage.DEFAULT_CHUNK_SIZE;
+
+        /**
+         * 并行写入的批次数量，为1表示在flush线程中逐批写入
+         */
+        private int parallelism = MongoPersistStorage.DEFAULT_PARALLELISM;
+
+        /**
+         * 失败文档的重试次数
+         */
+        private int maxRetries = MongoPersistStorage.DEFAULT_MAX_RETRIES;
+
+        /**
+         * 初始退避时间（单位：毫秒），每次重试翻倍
+         */
+        private long backoffMillis = MongoPersistStorage.DEFAULT_BACKOFF_MILLIS;
+    }
+
+    @Getter
+    @Setter
+    public static class DeadLetter {
+
+        /**
+         * 是否将持久化失败的数据写入死信存储，之后由后台线程补写
+         */
+        private boolean enabled = false;
+
+        /**
+         * 死信存储的分段文件目录，分段大小和刷盘策略与本地追加日志相同
+         */
+        private String directory = "buffer-dead-letter";
+
+        /**
+         * 补写速率（单位：条/秒），为0表示不限速
+         */
+        private int drainRate = 1000;
+    }
+
+    @Getter
+    @Setter
+    public static class Metrics {
+
+        /**
+         * 存在MeterRegistry时是否注册度量指标
+         */
+        private boolean enabled = true;
+
+        /**
+         * 缓冲池名称，作为度量指标的pool标签
+         */
+        private String poolName = "default";
+    }
+
+    @Getter
+    @Setter
+    public static class Journal {
+
+        /**
+         * 分段文件所在目录
+         */
+        private String directory = "buffer-journal";
+
+        /**
+         * 分段大小（单位：字节）
+         */
+        private int segmentSize = FileJournalTemporaryStorage.DEFAULT_SEGMENT_SIZE;
+
+        /**
+         * 刷盘策略：每次写入、定时、由操作系统决定
+         */
+        private FileJournalTemporaryStorage.FsyncPolicy fsyncPolicy = FileJournalTemporaryStorage.FsyncPolicy.INTERVAL;
+
+        /**
+         * 定时刷盘的间隔（单位：毫秒）
+         */
+        private long fsyncIntervalMillis = FileJournalTemporaryStorage.DEFAULT_FSYNC_INTERVAL;
     }
 }
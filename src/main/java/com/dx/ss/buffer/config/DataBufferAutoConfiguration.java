@@ -1,24 +1,54 @@
 package com.dx.ss.buffer.config;
 
+import com.dx.ss.buffer.codec.BinaryBufferCodec;
+import com.dx.ss.buffer.codec.BufferCodec;
+import com.dx.ss.buffer.codec.CompressingBufferCodec;
+import com.dx.ss.buffer.codec.SerializingBufferCodec;
+import com.dx.ss.buffer.core.AdaptiveFlushController;
 import com.dx.ss.buffer.core.BufferPool;
+import com.dx.ss.buffer.core.BufferPoolRegistry;
+import com.dx.ss.buffer.core.BufferPoolWithStorage;
 import com.dx.ss.buffer.core.DataBuffer;
+import com.dx.ss.buffer.core.OverflowPolicy;
+import com.dx.ss.buffer.core.RingBufferPool;
+import com.dx.ss.buffer.core.StripedBufferPool;
 import com.dx.ss.buffer.core.TwinsBufferPool;
 import com.dx.ss.buffer.factory.ArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.ConcurrentArrayDataBufferFactory;
 import com.dx.ss.buffer.factory.DataBufferFactory;
+import com.dx.ss.buffer.factory.OffHeapDataBufferFactory;
+import com.dx.ss.buffer.filter.DuplicateFilter;
+import com.dx.ss.buffer.filter.RotatingBloomFilter;
+import com.dx.ss.buffer.metrics.BufferPoolMetrics;
+import com.dx.ss.buffer.metrics.MicrometerBufferPoolMetrics;
+import com.dx.ss.buffer.storage.FileJournalTemporaryStorage;
 import com.dx.ss.buffer.storage.MongoPersistStorage;
 import com.dx.ss.buffer.storage.PersistStorage;
 import com.dx.ss.buffer.storage.RedisTemporaryStorage;
 import com.dx.ss.buffer.storage.TemporaryStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.data.mongodb.MongoDbFactory;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.ClassUtils;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Map;
 
 @Configuration
 @EnableConfigurationProperties(BufferProperties.class)
@@ -26,46 +56,338 @@ public class DataBufferAutoConfiguration {
 
     private final BufferProperties properties;
 
-    public DataBufferAutoConfiguration(BufferProperties properties) {
+    private final Environment environment;
+
+    public DataBufferAutoConfiguration(BufferProperties properties, Environment environment) {
         this.properties = properties;
+        this.environment = environment;
     }
 
     /**
-     * 注入一个缓冲池，默认是双Buffer缓冲池{@link TwinsBufferPool}
+     * 注入一个缓冲池，默认是双Buffer缓冲池{@link TwinsBufferPool}，
+     * 配置了多个分段时使用分段缓冲池{@link StripedBufferPool}，
+     * 配置了更多的缓冲区或者内存预算时使用多Buffer缓冲池{@link RingBufferPool}
      *
      * @return 缓冲池
      */
     @Bean
     @ConditionalOnMissingBean(BufferPool.class)
-    public BufferPool bufferPool(TemporaryStorage<Object> temporaryStorage, PersistStorage<Object> persistStorage) {
-        DataBufferFactory factory = new ArrayDataBufferFactory();
-        DataBufferOptions.Builder builder = new DataBufferOptions.Builder().allowDuplicate(properties.isAllowDuplicate());
-        if (properties.getCapacity() != null) {
-            builder.capacity(properties.getCapacity());
-        }
-        if (properties.getThreshold() != null) {
-            builder.threshold(properties.getThreshold());
-        }
-        BufferProperties.Pool pool = properties.getPool();
-        DataBufferOptions options = builder.build();
-        DataBuffer<Object> buffer1 = factory.createDataBuffer(options);
-        DataBuffer<Object> buffer2 = factory.createDataBuffer(options);
-        TwinsBufferPool<Object> bufferPool = new TwinsBufferPool<>(buffer1, buffer2);
+    public BufferPool<Object> bufferPool(TemporaryStorage<Object> temporaryStorage, PersistStorage<Object> persistStorage,
+                                         ObjectProvider<BufferPoolMetrics> metricsProvider,
+                                         ObjectProvider<BufferCodec<Object>> codecProvider) {
+        BufferCodec<Object> codec = codecProvider.getIfAvailable();
+        DataBufferOptions options = options(properties.getCapacity(), properties.getThreshold(), properties.isAllowDuplicate(),
+                properties.getMaxBytes(), properties.getThresholdBytes(), properties.isLockFree(), properties.getPool(), codec);
+        BufferPoolMetrics metrics = metricsProvider.getIfAvailable(() -> BufferPoolMetrics.NOOP);
+        return createBufferPool(options, properties.isLockFree(), properties.getPool(), properties.getOverflow(),
+                new File(properties.getOverflow().getSpillDirectory()), deadLetterDirectory(null), temporaryStorage, false,
+                persistStorage, metrics, codec);
+    }
+
+    /**
+     * 注入缓冲池的注册中心，包含默认缓冲池以及buffer.pools下配置的所有具名缓冲池。
+     * 具名缓冲池未指定的配置项与默认缓冲池相同，临时存储层按缓冲池名称互相隔离。
+     *
+     * @param bufferPool 默认缓冲池
+     * @return 注册中心
+     */
+    @Bean
+    @ConditionalOnMissingBean(BufferPoolRegistry.class)
+    public BufferPoolRegistry bufferPoolRegistry(BufferPool<Object> bufferPool, PersistStorage<Object> persistStorage,
+                                                 ObjectProvider<RedisTemplate<String, Object>> redisTemplateProvider,
+                                                 ObjectProvider<BufferPoolMetrics> metricsProvider,
+                                                 ObjectProvider<BufferCodec<Object>> codecProvider, BeanFactory beanFactory) {
+        BufferPoolRegistry registry = new BufferPoolRegistry();
+        BufferCodec<Object> codec = codecProvider.getIfAvailable();
+        registry.register(BufferPoolRegistry.DEFAULT_POOL_NAME, bufferPool);
+        BufferPoolMetrics metrics = metricsProvider.getIfAvailable(() -> BufferPoolMetrics.NOOP);
+        for (Map.Entry<String, BufferProperties.Named> entry : properties.getPools().entrySet()) {
+            String name = entry.getKey();
+            BufferProperties.Named named = entry.getValue();
+            BufferProperties.Pool pool = inherit(name, "pool", new BufferProperties.Pool());
+            BufferProperties.Overflow overflow = inherit(name, "overflow", new BufferProperties.Overflow());
+            boolean lockFree = named.getLockFree() != null ? named.getLockFree() : properties.isLockFree();
+            DataBufferOptions options = options(
+                    named.getCapacity() != null ? named.getCapacity() : properties.getCapacity(),
+                    named.getThreshold() != null ? named.getThreshold() : properties.getThreshold(),
+                    named.getAllowDuplicate() != null ? named.getAllowDuplicate() : properties.isAllowDuplicate(),
+                    named.getMaxBytes() != null ? named.getMaxBytes() : properties.getMaxBytes(),
+                    named.getThresholdBytes() != null ? named.getThresholdBytes() : properties.getThresholdBytes(),
+                    lockFree, pool, codec);
+            PersistStorage<Object> namedPersistStorage = named.getPersistStorage() != null
+                    ? bean(beanFactory, named.getPersistStorage(), PersistStorage.class) : persistStorage;
+            TemporaryStorage<Object> namedTemporaryStorage = named.getTemporaryStorage() != null
+                    ? bean(beanFactory, named.getTemporaryStorage(), TemporaryStorage.class)
+                    : namedTemporaryStorage(name, redisTemplateProvider, codec);
+            registry.register(name, createBufferPool(options, lockFree, pool, overflow,
+                    new File(overflow.getSpillDirectory(), name), deadLetterDirectory(name),
+                    namedTemporaryStorage, named.getTemporaryStorage() == null, namedPersistStorage, metrics.forPool(name), codec));
+        }
+        return registry;
+    }
+
+    /**
+     * 合并具名缓冲池的配置项：先绑定默认缓冲池的buffer.xxx，再绑定buffer.pools.name.xxx，
+     * 具名缓冲池只覆盖自己配置了的参数，嵌套的配置项同样逐个合并
+     *
+     * @param name   缓冲池名称
+     * @param key    配置项名称，例如pool、overflow
+     * @param target 新建的配置项
+     */
+    private <T> T inherit(String name, String key, T target) {
+        Binder binder = Binder.get(environment);
+        Bindable<T> bindable = Bindable.ofInstance(target);
+        binder.bind("buffer." + key, bindable);
+        binder.bind("buffer.pools[" + name + "]." + key, bindable);
+        return target;
+    }
+
+    /**
+     * 按名称获取存储层的bean，泛型参数由配置保证
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T bean(BeanFactory beanFactory, String name, Class<?> type) {
+        return (T) beanFactory.getBean(name, type);
+    }
+
+    /**
+     * 按照buffer.temporary的配置为具名缓冲池创建临时存储层，
+     * Redis以缓冲池名称作为key的后缀，本地追加日志以缓冲池名称作为子目录。
+     */
+    private TemporaryStorage<Object> namedTemporaryStorage(String name, ObjectProvider<RedisTemplate<String, Object>> redisTemplateProvider,
+                                                           BufferCodec<Object> codec) {
+        BufferProperties.Temporary temporary = properties.getTemporary();
+        if ("file".equals(temporary.getType())) {
+            return journal(new File(temporary.getJournal().getDirectory(), name), codec);
+        }
+        RedisTemporaryStorage<Object> storage = new RedisTemporaryStorage<>(redisTemplateProvider.getObject(),
+                temporary.getWriteMode(), temporary.getBatchSize(), temporary.getFlushIntervalMillis(), codec);
+        storage.setCacheKey(storage.getCacheKey() + ":" + name);
+        return storage;
+    }
+
+    /**
+     * 创建本地追加日志，分段大小和刷盘策略与buffer.temporary.journal相同，未配置编解码器时使用JDK序列化
+     */
+    private FileJournalTemporaryStorage<Object> journal(File directory, BufferCodec<Object> codec) {
+        BufferProperties.Journal journal = properties.getTemporary().getJournal();
+        return new FileJournalTemporaryStorage<>(directory, journal.getSegmentSize(), journal.getFsyncPolicy(),
+                journal.getFsyncIntervalMillis(), codec != null ? codec : new SerializingBufferCodec<>());
+    }
+
+    /**
+     * 死信存储的目录，具名缓冲池以名称作为子目录，未启用时返回空
+     */
+    private File deadLetterDirectory(String name) {
+        BufferProperties.DeadLetter deadLetter = properties.getDeadLetter();
+        if (!deadLetter.isEnabled()) {
+            return null;
+        }
+        return name != null ? new File(deadLetter.getDirectory(), name) : new File(deadLetter.getDirectory());
+    }
+
+    /**
+     * 根据配置创建缓冲区参数，未配置的参数使用默认值。
+     * 配置了字节限制时，数组缓冲区以编解码器的输出长度作为数据的字节数，每次放入数据都会在锁内编码一次，
+     * 因此必须配置buffer.codec或者注入BufferCodec，否则启动失败，不会退回到开销很大的JDK序列化。
+     * 配置了max-bytes而未配置容量时不限制条数，无锁缓冲区的槽位需要预先分配，仍然使用默认容量
+     */
+    private DataBufferOptions options(Integer capacity, BigDecimal threshold, boolean allowDuplicate, long maxBytes,
+                                      long thresholdBytes, boolean lockFree, BufferProperties.Pool pool, BufferCodec<Object> codec) {
+        DataBufferOptions.Builder builder = new DataBufferOptions.Builder().allowDuplicate(allowDuplicate)
+                .maxBytes(maxBytes).thresholdBytes(thresholdBytes).poolMaxBytes(pool.getMaxMemoryBytes());
+        if (capacity != null) {
+            builder.capacity(capacity);
+        } else if (lockFree && !properties.getOffHeap().isEnabled()) {
+            builder.capacity(BufferProperties.DEFAULT_MAXIMUM_CAPACITY);
+        }
+        if (threshold != null) {
+            builder.threshold(threshold);
+        }
+        boolean byteLimited = maxBytes > 0 || thresholdBytes > 0 || pool.getMaxMemoryBytes() > 0;
+        if (byteLimited && !properties.getOffHeap().isEnabled()) {
+            if (codec == null) {
+                throw new IllegalStateException("Byte limits require buffer.codec.type=binary or a BufferCodec bean to weigh the data.");
+            }
+            builder.weigher(codec);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 创建缓冲区工厂，堆外缓冲区未配置编解码器时使用JDK序列化
+     */
+    private DataBufferFactory dataBufferFactory(boolean lockFree, BufferCodec<Object> codec) {
+        BufferProperties.OffHeap offHeap = properties.getOffHeap();
+        if (offHeap.isEnabled()) {
+            return new OffHeapDataBufferFactory(codec != null ? codec : new SerializingBufferCodec<>(), offHeap.getSlabSize());
+        }
+        return lockFree ? new ConcurrentArrayDataBufferFactory() : new ArrayDataBufferFactory();
+    }
+
+    /**
+     * 创建并启动一个缓冲池，每个缓冲池都有独立的flush线程。
+     * 专为该缓冲池创建的存储随缓冲池关闭，注入的bean由容器负责关闭
+     *
+     * @param ownTemporaryStorage 临时存储层是否专为该缓冲池创建
+     */
+    private BufferPool<Object> createBufferPool(DataBufferOptions options, boolean lockFree, BufferProperties.Pool pool,
+                                                BufferProperties.Overflow overflow, File spillDirectory, File deadLetterDirectory,
+                                                TemporaryStorage<Object> temporaryStorage, boolean ownTemporaryStorage,
+                                                PersistStorage<Object> persistStorage, BufferPoolMetrics metrics, BufferCodec<Object> codec) {
+        DataBufferFactory factory = dataBufferFactory(lockFree, codec);
+        DuplicateFilter duplicateFilter = duplicateFilter(options, pool.getStripes());
+        BufferPoolWithStorage<Object> bufferPool;
+        if (pool.getStripes() > 1) {
+            StripedBufferPool<Object> stripedBufferPool = new StripedBufferPool<>(factory, options, pool.getStripes());
+            stripedBufferPool.setDuplicateFilter(duplicateFilter);
+            stripedBufferPool.setMetrics(metrics);
+            if (pool.getAdaptive().isEnabled()) {
+                stripedBufferPool.setFlushControllers(() -> flushController(pool, options));
+            }
+            bufferPool = stripedBufferPool;
+        } else if (maxBuffers(pool, options) > 2) {
+            RingBufferPool<Object> ringBufferPool = new RingBufferPool<>(factory, options, pool.getBuffers(),
+                    maxBuffers(pool, options), null);
+            ringBufferPool.setDuplicateFilter(duplicateFilter);
+            ringBufferPool.setMetrics(metrics);
+            if (pool.getAdaptive().isEnabled()) {
+                ringBufferPool.setFlushController(flushController(pool, options));
+            }
+            bufferPool = ringBufferPool;
+        } else {
+            DataBufferOptions poolOptions = options.forPool();
+            DataBuffer<Object> buffer1 = factory.createDataBuffer(poolOptions);
+            DataBuffer<Object> buffer2 = factory.createDataBuffer(poolOptions);
+            TwinsBufferPool<Object> twinsBufferPool = new TwinsBufferPool<>(buffer1, buffer2);
+            twinsBufferPool.setDuplicateFilter(duplicateFilter);
+            twinsBufferPool.setMetrics(metrics);
+            if (pool.getAdaptive().isEnabled()) {
+                twinsBufferPool.setFlushController(flushController(pool, options));
+            }
+            bufferPool = twinsBufferPool;
+        }
         bufferPool.setTemporaryStorage(temporaryStorage);
+        if (ownTemporaryStorage && temporaryStorage instanceof AutoCloseable) {
+            bufferPool.addCloseable((AutoCloseable) temporaryStorage);
+        }
         bufferPool.setPersistStorage(persistStorage);
         bufferPool.setEnableTemporaryStorage(pool.isEnableTemporaryStorage());
-        bufferPool.setBufferTimeInSeconds(pool.getBufferTimeInSeconds() != null ? pool.getBufferTimeInSeconds() : BufferProperties.DEFAULT_BUFFER_TIME);
+        bufferPool.setRecoveryChunkSize(pool.getRecoveryChunkSize());
+        bufferPool.setBackgroundRecovery(pool.isBackgroundRecovery());
+        bufferPool.setOverflowPolicy(overflow.getPolicy());
+        bufferPool.setOverflowTimeoutMillis(overflow.getTimeoutMillis());
+        if (overflow.getPolicy() == OverflowPolicy.SPILL) {
+            FileJournalTemporaryStorage<Object> spillStorage = journal(spillDirectory, codec);
+            bufferPool.setSpillStorage(spillStorage);
+            bufferPool.addCloseable(spillStorage);
+        }
+        if (deadLetterDirectory != null) {
+            bufferPool.setDeadLetterDrainRate(properties.getDeadLetter().getDrainRate());
+            FileJournalTemporaryStorage<Object> deadLetterStorage = journal(deadLetterDirectory, codec);
+            bufferPool.setDeadLetterStorage(deadLetterStorage);
+            bufferPool.addCloseable(deadLetterStorage);
+        }
+        if (pool.getBufferTimeMillis() != null) {
+            bufferPool.setBufferTimeMillis(pool.getBufferTimeMillis());
+        } else {
+            bufferPool.setBufferTimeInSeconds(pool.getBufferTimeInSeconds() != null ? pool.getBufferTimeInSeconds() : BufferProperties.DEFAULT_BUFFER_TIME);
+        }
         bufferPool.start();
         return bufferPool;
     }
 
+    /**
+     * 根据配置创建自适应的flush控制器，阈值上限不超过缓冲区容量。
+     * 时限上限默认与缓冲时限相同，配置了buffer-time-millis时不会超过该时限
+     */
+    private AdaptiveFlushController flushController(BufferProperties.Pool pool, DataBufferOptions options) {
+        BufferProperties.Adaptive adaptive = pool.getAdaptive();
+        int maxThreshold = adaptive.getMaxThreshold() != null
+                ? Math.min(adaptive.getMaxThreshold(), options.getCapacity()) : options.getCapacity();
+        long bufferTime = pool.getBufferTimeMillis() != null ? pool.getBufferTimeMillis()
+                : (pool.getBufferTimeInSeconds() != null ? pool.getBufferTimeInSeconds() : BufferProperties.DEFAULT_BUFFER_TIME) * 1000L;
+        long maxBufferTime = adaptive.getMaxBufferTimeInSeconds() != null ? adaptive.getMaxBufferTimeInSeconds() * 1000L : bufferTime;
+        if (pool.getBufferTimeMillis() != null) {
+            maxBufferTime = Math.min(maxBufferTime, bufferTime);
+        }
+        maxBufferTime = Math.max(1, maxBufferTime);
+        return new AdaptiveFlushController.Builder()
+                .targetBatchSize(adaptive.getTargetBatchSize())
+                .targetLatencyMillis(adaptive.getTargetLatencyMillis())
+                .threshold(Math.min(adaptive.getMinThreshold(), maxThreshold), maxThreshold)
+                .bufferTimeMillis(Math.min(adaptive.getMinBufferTimeInSeconds() * 1000L, maxBufferTime), maxBufferTime)
+                .build();
+    }
+
+    /**
+     * 缓冲区数量上限，未配置时如果同时配置了max-memory-bytes和max-bytes，按两者之比计算，不会少于初始的缓冲区数量
+     */
+    private int maxBuffers(BufferProperties.Pool pool, DataBufferOptions options) {
+        int maxBuffers = pool.getMaxBuffers() != null ? pool.getMaxBuffers() : pool.getBuffers();
+        if (pool.getMaxBuffers() == null && pool.getMaxMemoryBytes() > 0 && options.getMaxBytes() > 0) {
+            maxBuffers = RingBufferPool.buffersOf(pool.getMaxMemoryBytes(), options);
+        }
+        return Math.max(maxBuffers, pool.getBuffers());
+    }
+
+    /**
+     * 根据配置创建跨缓冲区的去重过滤器，允许重复数据或者未启用时返回空。
+     * 分段共享同一个过滤器，每一代默认按所有分段的容量合计
+     */
+    private DuplicateFilter duplicateFilter(DataBufferOptions options, int stripes) {
+        BufferProperties.DedupWindow window = properties.getDedupWindow();
+        if (options.isAllowDuplicate() || !window.isEnabled()) {
+            return null;
+        }
+        //不限制条数时按默认容量估算
+        int capacity = options.getCapacity() != DataBufferOptions.UNBOUNDED_CAPACITY
+                ? options.getCapacity() : BufferProperties.DEFAULT_MAXIMUM_CAPACITY;
+        long expectedInsertions = window.getExpectedInsertions() != null ? window.getExpectedInsertions()
+                : (long) capacity * Math.max(1, stripes);
+        return new RotatingBloomFilter(window.getGenerations(), window.getWindowSeconds(), expectedInsertions,
+                window.getFalsePositiveRate(), window.getMaxBytes(), options.getKeyExtractor());
+    }
+
     /**
      * 注入一个临时存储层，默认是基于Redis实现
      */
     @Bean
     @ConditionalOnMissingBean(TemporaryStorage.class)
-    public TemporaryStorage<Object> temporaryStorage(RedisTemplate<String, Object> redisTemplate) {
-        return new RedisTemporaryStorage<>(redisTemplate);
+    @ConditionalOnProperty(prefix = "buffer.temporary", name = "type", havingValue = "redis", matchIfMissing = true)
+    public TemporaryStorage<Object> temporaryStorage(RedisTemplate<String, Object> redisTemplate,
+                                                     ObjectProvider<BufferCodec<Object>> codecProvider) {
+        BufferProperties.Temporary temporary = properties.getTemporary();
+        return new RedisTemporaryStorage<>(redisTemplate, temporary.getWriteMode(),
+                temporary.getBatchSize(), temporary.getFlushIntervalMillis(), codecProvider.getIfAvailable());
+    }
+
+    /**
+     * 注入一个基于本地追加日志的临时存储层
+     */
+    @Bean
+    @ConditionalOnMissingBean(TemporaryStorage.class)
+    @ConditionalOnProperty(prefix = "buffer.temporary", name = "type", havingValue = "file")
+    public TemporaryStorage<Object> fileJournalTemporaryStorage(ObjectProvider<BufferCodec<Object>> codecProvider) {
+        return journal(new File(properties.getTemporary().getJournal().getDirectory()), codecProvider.getIfAvailable());
+    }
+
+    /**
+     * 注入一个二进制编解码器，临时存储层和溢出、死信存储都会使用它，
+     * 未注入时Redis使用RedisTemplate的序列化方式，本地追加日志使用JDK序列化
+     */
+    @Bean
+    @ConditionalOnMissingBean(BufferCodec.class)
+    @ConditionalOnProperty(prefix = "buffer.codec", name = "type", havingValue = "binary")
+    public BufferCodec<Object> bufferCodec() {
+        BufferProperties.Codec codec = properties.getCodec();
+        ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+        Class<?>[] types = new Class<?>[codec.getTypes().size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = ClassUtils.resolveClassName(codec.getTypes().get(i), classLoader);
+        }
+        BufferCodec<Object> binary = new BinaryBufferCodec<>(classLoader, types);
+        return codec.isCompression() ? new CompressingBufferCodec<>(binary, codec.getCompressionMinBlockSize()) : binary;
     }
 
     /**
@@ -74,7 +396,9 @@ public class DataBufferAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean(PersistStorage.class)
     public PersistStorage<Object> persistStorage(MongoTemplate mongoTemplate) {
-        return new MongoPersistStorage<>(mongoTemplate);
+        BufferProperties.Persist persist = properties.getPersist();
+        return new MongoPersistStorage<>(mongoTemplate, persist.getChunkSize(), persist.getParallelism(),
+                persist.getMaxRetries(), persist.getBackoffMillis());
     }
 
     /**
@@ -96,6 +420,7 @@ public class DataBufferAutoConfiguration {
      * @return RedisTemplate
      */
     @Bean
+    @ConditionalOnMissingBean(name = "redisTemplate")
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory redisConnectionFactory) {
         RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
         redisTemplate.setConnectionFactory(redisConnectionFactory);
@@ -107,4 +432,23 @@ public class DataBufferAutoConfiguration {
         return redisTemplate;
     }
 
+
+    /**
+     * 存在Micrometer时，将缓冲池的度量指标注册到MeterRegistry
+     */
+    @Configuration
+    @ConditionalOnClass(MeterRegistry.class)
+    @ConditionalOnProperty(prefix = "buffer.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+    static class MetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(BufferPoolMetrics.class)
+        public BufferPoolMetrics bufferPoolMetrics(ObjectProvider<MeterRegistry> registryProvider, BufferProperties properties) {
+            MeterRegistry registry = registryProvider.getIfAvailable();
+            if (registry == null) {
+                return BufferPoolMetrics.NOOP;
+            }
+            return new MicrometerBufferPoolMetrics(registry, properties.getMetrics().getPoolName());
+        }
+    }
 }
@@ -1,11 +1,22 @@
 package com.dx.ss.buffer.config;
 
+import com.dx.ss.buffer.codec.BufferCodec;
+import com.dx.ss.buffer.core.MemoryBudget;
 import lombok.Getter;
 
 import java.math.BigDecimal;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 @Getter
 public class DataBufferOptions {
+
+    /**
+     * 不限制条数的容量，只配置了字节数上限而未指定容量时使用，数组缓冲区按需扩容，不会预先分配
+     */
+    public static final int UNBOUNDED_CAPACITY = Integer.MAX_VALUE;
+
     /**
      * 是否启用数据缓冲区，默认启用
      */
@@ -22,7 +33,7 @@ public class DataBufferOptions {
     private boolean enableTemporaryStorage;
 
     /**
-     * 缓冲区最大容量
+     * 缓冲区最大容量，只按字节数限制时为{@link #UNBOUNDED_CAPACITY}
      */
     private int capacity;
 
@@ -31,19 +42,91 @@ public class DataBufferOptions {
      */
     private int threshold;
 
+    /**
+     * 缓冲区最大字节数，为0表示不限制，与capacity先达到者为准
+     */
+    private long maxBytes;
+
+    /**
+     * 按字节计算的缓冲阈值，为0表示不限制，与threshold先达到者为准
+     */
+    private long thresholdBytes;
+
+    /**
+     * 缓冲池所有缓冲区共用的字节数上限，为0表示不限制
+     */
+    private long poolMaxBytes;
+
+    /**
+     * 缓冲池所有缓冲区共用的内存预算，只有{@link #forPool()}返回的配置才有，同一个缓冲池的缓冲区共用
+     */
+    private MemoryBudget memoryBudget;
+
+    /**
+     * 计算数据的字节数，配置了字节限制时数组缓冲区必须提供，堆外缓冲区使用编码后的长度
+     */
+    private ToIntFunction<Object> weigher;
+
     /**
      * 最大缓冲时限（单位：秒），超过此时间将会触发持久化
      */
     private int bufferTimeInSeconds;
 
+    /**
+     * 去重时提取业务主键，为空则直接使用数据对象的equals和hashCode
+     */
+    private Function<Object, Object> keyExtractor;
+
+    /**
+     * 聚合缓冲区合并同一主键的数据，参数依次为已有的数据和新数据，返回合并后的数据
+     */
+    private BinaryOperator<Object> merger;
 
     private DataBufferOptions(Builder builder) {
         this.enable = builder.enable;
         this.allowDuplicate = builder.allowDuplicate;
         this.enableTemporaryStorage = builder.enableTemporaryStorage;
         this.bufferTimeInSeconds = builder.bufferTimeInSeconds;
-        this.capacity = builder.capacity;
+        if (builder.capacity != null) {
+            this.capacity = builder.capacity;
+        } else {
+            this.capacity = builder.maxBytes > 0 ? UNBOUNDED_CAPACITY : BufferProperties.DEFAULT_MAXIMUM_CAPACITY;
+        }
         this.threshold = builder.threshold.multiply(new BigDecimal(capacity)).intValue();
+        this.maxBytes = builder.maxBytes;
+        if (builder.thresholdBytes > 0) {
+            this.thresholdBytes = builder.thresholdBytes;
+        } else if (maxBytes > 0) {
+            this.thresholdBytes = builder.threshold.multiply(new BigDecimal(maxBytes)).longValue();
+        }
+        this.poolMaxBytes = builder.poolMaxBytes;
+        this.weigher = builder.weigher;
+        this.keyExtractor = builder.keyExtractor;
+        this.merger = builder.merger;
+    }
+
+    private DataBufferOptions(DataBufferOptions source, MemoryBudget memoryBudget) {
+        this.enable = source.enable;
+        this.allowDuplicate = source.allowDuplicate;
+        this.enableTemporaryStorage = source.enableTemporaryStorage;
+        this.bufferTimeInSeconds = source.bufferTimeInSeconds;
+        this.capacity = source.capacity;
+        this.threshold = source.threshold;
+        this.maxBytes = source.maxBytes;
+        this.thresholdBytes = source.thresholdBytes;
+        this.poolMaxBytes = source.poolMaxBytes;
+        this.memoryBudget = memoryBudget;
+        this.weigher = source.weigher;
+        this.keyExtractor = source.keyExtractor;
+        this.merger = source.merger;
+    }
+
+    /**
+     * 为一个缓冲池复制配置，配置了poolMaxBytes时创建该缓冲池独占的内存预算，
+     * 同一个缓冲池的缓冲区都应当由返回的配置创建。未配置时返回自身。
+     */
+    public DataBufferOptions forPool() {
+        return poolMaxBytes > 0 ? new DataBufferOptions(this, new MemoryBudget(poolMaxBytes)) : this;
     }
 
     public static class Builder {
@@ -63,20 +146,50 @@ public class DataBufferOptions {
         private boolean enableTemporaryStorage = false;
 
         /**
-         * 缓冲区最大容量
+         * 缓冲区最大容量，为空时配置了maxBytes则不限制条数，否则为默认容量
          */
-        private int capacity = BufferProperties.DEFAULT_MAXIMUM_CAPACITY;
+        private Integer capacity = null;
 
         /**
          * 缓冲区容量阈值，由百分比转换过来的小数形式，达到此阈值将会触发持久化
          */
         private BigDecimal threshold = BufferProperties.DEFAULT_THRESHOLD;
 
+        /**
+         * 缓冲区最大字节数，为0表示不限制
+         */
+        private long maxBytes = 0;
+
+        /**
+         * 按字节计算的缓冲阈值，为0时按threshold的比例从maxBytes折算
+         */
+        private long thresholdBytes = 0;
+
+        /**
+         * 缓冲池所有缓冲区共用的字节数上限，为0表示不限制
+         */
+        private long poolMaxBytes = 0;
+
+        /**
+         * 计算数据的字节数
+         */
+        private ToIntFunction<Object> weigher;
+
         /**
          * 最大缓冲时限（单位：秒），超过此时间将会触发持久化
          */
         private int bufferTimeInSeconds = BufferProperties.DEFAULT_BUFFER_TIME;
 
+        /**
+         * 去重时提取业务主键
+         */
+        private Function<Object, Object> keyExtractor;
+
+        /**
+         * 聚合缓冲区合并同一主键的数据
+         */
+        private BinaryOperator<Object> merger;
+
         public Builder enable(final boolean enable) {
             this.enable = enable;
             return this;
@@ -108,6 +221,44 @@ public class DataBufferOptions {
             return this;
         }
 
+        public Builder maxBytes(final long maxBytes) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("maxBytes is not a legal value.");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder thresholdBytes(final long thresholdBytes) {
+            if (thresholdBytes < 0) {
+                throw new IllegalArgumentException("thresholdBytes is not a legal value.");
+            }
+            this.thresholdBytes = thresholdBytes;
+            return this;
+        }
+
+        public Builder poolMaxBytes(final long poolMaxBytes) {
+            if (poolMaxBytes < 0) {
+                throw new IllegalArgumentException("poolMaxBytes is not a legal value.");
+            }
+            this.poolMaxBytes = poolMaxBytes;
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <E> Builder weigher(final ToIntFunction<? super E> weigher) {
+            this.weigher = (ToIntFunction<Object>) weigher;
+            return this;
+        }
+
+        /**
+         * 以编解码器的输出长度作为数据的字节数，每次放入数据都会调用一次{@link BufferCodec#sizeOf(Object)}
+         */
+        @SuppressWarnings("unchecked")
+        public Builder weigher(final BufferCodec<?> codec) {
+            return weigher(((BufferCodec<Object>) codec)::sizeOf);
+        }
+
         public Builder bufferTimeInSeconds(final int bufferTimeInSeconds) {
             if (bufferTimeInSeconds <= 0) {
                 throw new IllegalArgumentException("bufferTimeInSeconds is not a legal value.");
@@ -116,6 +267,18 @@ public class DataBufferOptions {
             return this;
         }
 
+        @SuppressWarnings("unchecked")
+        public <E> Builder keyExtractor(final Function<? super E, ?> keyExtractor) {
+            this.keyExtractor = (Function<Object, Object>) keyExtractor;
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <E> Builder merger(final BinaryOperator<E> merger) {
+            this.merger = (BinaryOperator<Object>) merger;
+            return this;
+        }
+
         public DataBufferOptions build() {
             return new DataBufferOptions(this);
         }
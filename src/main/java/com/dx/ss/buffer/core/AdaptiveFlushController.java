@@ -0,0 +1,232 @@
+package com.dx.ss.buffer.core;
+
+/**
+ * 自适应的flush控制器，根据观测到的提交速率和flush耗时调整缓冲阈值与缓冲时限。
+ * <ul>
+ * <li>缓冲阈值：趋向目标批次大小，配置了flush耗时目标时，不超过按单条数据耗时估算的批次大小</li>
+ * <li>缓冲时限：按当前速率攒满一个批次所需的时间</li>
+ * </ul>
+ * 两者都限定在配置的上下限之内。流量低谷时缓冲时限自动拉长，
+ * 高峰时缓冲阈值自动提高，避免频繁flush小批次。
+ * <p>
+ * 观测值采用指数加权移动平均，每个缓冲池必须使用独立的实例。
+ */
+public class AdaptiveFlushController {
+
+    /**
+     * 指数加权移动平均的平滑系数，越大越偏向最近的观测值
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * 目标批次大小，为0表示尽量接近阈值上限
+     */
+    private final int targetBatchSize;
+
+    /**
+     * 单次flush耗时的目标（单位：纳秒），为0表示不限制
+     */
+    private final long targetLatencyNanos;
+
+    private final int minThreshold;
+
+    private final int maxThreshold;
+
+    private final long minBufferTimeMillis;
+
+    private final long maxBufferTimeMillis;
+
+    /**
+     * 提交速率（单位：条/秒）
+     */
+    private double rate;
+
+    /**
+     * 单条数据的flush耗时（单位：纳秒）
+     */
+    private double costNanos;
+
+    /**
+     * 当前生效的缓冲阈值
+     */
+    private volatile int threshold;
+
+    /**
+     * 当前生效的缓冲时限（单位：毫秒）
+     */
+    private volatile long bufferTimeMillis;
+
+    private AdaptiveFlushController(Builder builder) {
+        this.targetBatchSize = builder.targetBatchSize;
+        this.targetLatencyNanos = builder.targetLatencyMillis * 1_000_000L;
+        this.minThreshold = builder.minThreshold;
+        this.maxThreshold = Math.max(builder.minThreshold, builder.maxThreshold);
+        this.minBufferTimeMillis = builder.minBufferTimeMillis;
+        this.maxBufferTimeMillis = Math.max(builder.minBufferTimeMillis, builder.maxBufferTimeMillis);
+        this.threshold = clamp(targetBatchSize > 0 ? targetBatchSize : maxThreshold, minThreshold, maxThreshold);
+        this.bufferTimeMillis = maxBufferTimeMillis;
+    }
+
+    /**
+     * 切换了一次缓冲区，据此估算提交速率。
+     *
+     * @param length       被换下的缓冲区的数据量
+     * @param elapsedNanos 距离上次切换的时间（单位：纳秒）
+     */
+    public synchronized void onSwap(int length, long elapsedNanos) {
+        if (length <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        double observed = length * 1e9 / elapsedNanos;
+        rate = rate == 0 ? observed : rate + SMOOTHING * (observed - rate);
+        recompute();
+    }
+
+    /**
+     * 完成了一次flush，据此估算单条数据的flush耗时。
+     *
+     * @param size  flush的数据量
+     * @param nanos 持久化层的耗时（单位：纳秒），不包含在flush队列中等待的时间
+     */
+    public synchronized void onFlushed(int size, long nanos) {
+        if (size <= 0 || nanos <= 0) {
+            return;
+        }
+        double observed = (double) nanos / size;
+        costNanos = costNanos == 0 ? observed : costNanos + SMOOTHING * (observed - costNanos);
+        recompute();
+    }
+
+    private void recompute() {
+        double target = targetBatchSize > 0 ? targetBatchSize : maxThreshold;
+        if (targetLatencyNanos > 0 && costNanos > 0) {
+            target = Math.min(target, targetLatencyNanos / costNanos);
+        }
+        int t = clamp((int) Math.min(Integer.MAX_VALUE, target), minThreshold, maxThreshold);
+        this.threshold = t;
+        if (rate > 0) {
+            double millis = Math.ceil(t * 1000 / rate);
+            this.bufferTimeMillis = clamp((long) Math.min(Long.MAX_VALUE, millis), minBufferTimeMillis, maxBufferTimeMillis);
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * 当前生效的缓冲阈值
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 当前生效的缓冲时限（单位：毫秒）
+     */
+    public long getBufferTimeMillis() {
+        return bufferTimeMillis;
+    }
+
+    /**
+     * 当前生效的缓冲时限（单位：秒），不足一秒按一秒计算
+     */
+    public int getBufferTimeInSeconds() {
+        return (int) Math.min(Integer.MAX_VALUE, (bufferTimeMillis + 999) / 1000);
+    }
+
+    /**
+     * 观测到的提交速率（单位：条/秒）
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public static class Builder {
+
+        private int targetBatchSize = 0;
+
+        private long targetLatencyMillis = 0;
+
+        private int minThreshold = 1;
+
+        private int maxThreshold = Integer.MAX_VALUE;
+
+        private long minBufferTimeMillis = 1000;
+
+        private long maxBufferTimeMillis = 600_000;
+
+        /**
+         * 目标批次大小，为0表示尽量接近阈值上限
+         */
+        public Builder targetBatchSize(final int targetBatchSize) {
+            if (targetBatchSize < 0) {
+                throw new IllegalArgumentException("targetBatchSize is not a legal value.");
+            }
+            this.targetBatchSize = targetBatchSize;
+            return this;
+        }
+
+        /**
+         * 单次flush耗时的目标（单位：毫秒），为0表示不限制
+         */
+        public Builder targetLatencyMillis(final long targetLatencyMillis) {
+            if (targetLatencyMillis < 0) {
+                throw new IllegalArgumentException("targetLatencyMillis is not a legal value.");
+            }
+            this.targetLatencyMillis = targetLatencyMillis;
+            return this;
+        }
+
+        /**
+         * 缓冲阈值的上下限，上限超过缓冲区容量时以容量为准
+         */
+        public Builder threshold(final int minThreshold, final int maxThreshold) {
+            if (minThreshold <= 0) {
+                throw new IllegalArgumentException("minThreshold is not a legal value.");
+            }
+            if (maxThreshold < minThreshold) {
+                throw new IllegalArgumentException("maxThreshold is not a legal value.");
+            }
+            this.minThreshold = minThreshold;
+            this.maxThreshold = maxThreshold;
+            return this;
+        }
+
+        /**
+         * 缓冲时限的上下限（单位：秒）
+         */
+        public Builder bufferTimeInSeconds(final int minBufferTimeInSeconds, final int maxBufferTimeInSeconds) {
+            if (minBufferTimeInSeconds <= 0) {
+                throw new IllegalArgumentException("minBufferTimeInSeconds is not a legal value.");
+            }
+            if (maxBufferTimeInSeconds < minBufferTimeInSeconds) {
+                throw new IllegalArgumentException("maxBufferTimeInSeconds is not a legal value.");
+            }
+            return bufferTimeMillis(minBufferTimeInSeconds * 1000L, maxBufferTimeInSeconds * 1000L);
+        }
+
+        /**
+         * 缓冲时限的上下限（单位：毫秒）
+         */
+        public Builder bufferTimeMillis(final long minBufferTimeMillis, final long maxBufferTimeMillis) {
+            if (minBufferTimeMillis <= 0) {
+                throw new IllegalArgumentException("minBufferTimeMillis is not a legal value.");
+            }
+            if (maxBufferTimeMillis < minBufferTimeMillis) {
+                throw new IllegalArgumentException("maxBufferTimeMillis is not a legal value.");
+            }
+            this.minBufferTimeMillis = minBufferTimeMillis;
+            this.maxBufferTimeMillis = maxBufferTimeMillis;
+            return this;
+        }
+
+        public AdaptiveFlushController build() {
+            return new AdaptiveFlushController(this);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * 聚合缓冲区，按{@link DataBufferOptions#getKeyExtractor()}提取的主键合并数据，
+ * 同一主键在一个缓冲区内只保留一条，由{@link DataBufferOptions#getMerger()}与新数据合并，
+ * 每次flush每个主键最多持久化一条数据，适合计数器、最近状态等频繁更新同一实体的场景。
+ * <p>
+ * 合并函数的参数依次为已有的数据和新数据，例如求和：
+ * <pre>{@code
+ * new DataBufferOptions.Builder()
+ *         .<Counter>keyExtractor(Counter::getKey)
+ *         .<Counter>merger((a, b) -> new Counter(a.getKey(), a.getCount() + b.getCount()))
+ *         .build();
+ * }</pre>
+ * 容量和阈值按主键的数量计算，合并不占用容量。数据按主键第一次放入的顺序排列，淘汰时移除最早的主键。
+ * 合并函数可以直接修改并返回已有的数据，但不能修改新数据。
+ *
+ * @param <E> 数据类型
+ */
+@Slf4j
+public class AggregatingDataBuffer<E> implements DataBuffer<E> {
+
+    /**
+     * 主键到合并后数据的映射，按主键第一次放入的顺序排列
+     */
+    private final LinkedHashMap<Object, E> entries = new LinkedHashMap<>();
+
+    /**
+     * 归还的空闲数组，{@link #drain()}时用于交出数据
+     */
+    private final AtomicReference<Object[]> spare = new AtomicReference<>();
+
+    private final Function<Object, Object> keyExtractor;
+
+    private final BinaryOperator<E> merger;
+
+    /**
+     * 全部数据的字节数，只在配置了字节限制时计算
+     */
+    private long bytes;
+
+    /**
+     * 按字节计量的上限与阈值，未配置时为空
+     */
+    private final ByteLimit byteLimit;
+
+    private final boolean enableTemporaryStorage;
+
+    private final int capacity;
+
+    /**
+     * 缓冲阈值，可由自适应控制器调整
+     */
+    private volatile int threshold;
+
+    private final DataBufferOptions options;
+
+    @SuppressWarnings("unchecked")
+    public AggregatingDataBuffer(DataBufferOptions options) {
+        if (options.getKeyExtractor() == null) {
+            throw new IllegalArgumentException("keyExtractor is not a legal value.");
+        }
+        if (options.getMerger() == null) {
+            throw new IllegalArgumentException("merger is not a legal value.");
+        }
+        this.options = options;
+        this.keyExtractor = options.getKeyExtractor();
+        this.merger = (BinaryOperator<E>) options.getMerger();
+        this.enableTemporaryStorage = options.isEnableTemporaryStorage();
+        this.capacity = options.getCapacity();
+        this.threshold = options.getThreshold();
+        this.byteLimit = ByteLimit.of(options, true);
+    }
+
+    /**
+     * 保留新数据
+     */
+    public static <E> BinaryOperator<E> lastWriteWins() {
+        return (existing, update) -> update;
+    }
+
+    /**
+     * 保留较大的数据，相等时保留已有的数据
+     */
+    public static <E> BinaryOperator<E> maxBy(Comparator<? super E> comparator) {
+        return (existing, update) -> comparator.compare(update, existing) > 0 ? update : existing;
+    }
+
+    /**
+     * 获取合并后的数据，缓冲区变化之后视图不再有效。
+     */
+    @Override
+    public Collection<E> getDataList() {
+        return entries.values();
+    }
+
+    @Override
+    public int length() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * 放入数据，主键已存在时与已有的数据合并。
+     *
+     * @return 放入或者被合并的数据，缓冲区已满且主键不存在时返回null
+     */
+    @Override
+    public E put(E entity) {
+        Object key = keyExtractor.apply(entity);
+        E existing = entries.get(key);
+        if (existing != null) {
+            merge(key, existing, entity);
+            return entity;
+        }
+        if (isFull()) {
+            if (log.isDebugEnabled()) {
+                log.debug("{} is full, ignore it!", getBufferName());
+            }
+            return null;
+        }
+        add(key, entity);
+        return entity;
+    }
+
+    private void merge(Object key, E existing, E entity) {
+        //合并函数可能直接修改已有的数据，先按合并之前的大小计算
+        int before = byteLimit != null ? byteLimit.weigh(existing) : 0;
+        E merged = merger.apply(existing, entity);
+        entries.put(key, merged);
+        if (byteLimit != null) {
+            int after = byteLimit.weigh(merged);
+            bytes += after - before;
+            if (after > before) {
+                byteLimit.acquire(after - before);
+            } else {
+                byteLimit.release(before - after);
+            }
+        }
+    }
+
+    private void add(Object key, E entity) {
+        entries.put(key, entity);
+        if (byteLimit != null) {
+            int w = byteLimit.weigh(entity);
+            bytes += w;
+            byteLimit.acquire(w);
+        }
+    }
+
+    @Override
+    public boolean needStore() {
+        return this.enableTemporaryStorage;
+    }
+
+    @Override
+    public void putAll(Collection<? extends E> c) {
+        offerAll(c);
+    }
+
+    /**
+     * 批量放入，主键已存在的数据直接合并，新主键写满条数为止。字节限制只在开始时检查。
+     *
+     * @return 放入或者被合并的数据量
+     */
+    @Override
+    public int offerAll(Collection<? extends E> c) {
+        if (isFull()) {
+            //已满时仍然可以合并已有的主键
+            int merged = 0;
+            for (E e : c) {
+                Object key = keyExtractor.apply(e);
+                E existing = entries.get(key);
+                if (existing != null) {
+                    merge(key, existing, e);
+                    merged++;
+                }
+            }
+            return merged;
+        }
+        int accepted = 0;
+        for (E e : c) {
+            Object key = keyExtractor.apply(e);
+            E existing = entries.get(key);
+            if (existing != null) {
+                merge(key, existing, e);
+            } else if (entries.size() < capacity) {
+                add(key, e);
+            } else {
+                continue;
+            }
+            accepted++;
+        }
+        return accepted;
+    }
+
+    @Override
+    public boolean exists(E entity) {
+        return entries.containsKey(keyExtractor.apply(entity));
+    }
+
+    @Override
+    public E evictOldest() {
+        Iterator<E> it = entries.values().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        E oldest = it.next();
+        it.remove();
+        if (byteLimit != null) {
+            int w = byteLimit.weigh(oldest);
+            bytes -= w;
+            byteLimit.release(w);
+        }
+        return oldest;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        if (byteLimit != null) {
+            byteLimit.release(bytes);
+        }
+        bytes = 0;
+    }
+
+    /**
+     * 将合并后的数据放入空闲数组交出，每个主键一条。
+     */
+    @Override
+    public List<E> drain() {
+        Object[] array = spare.getAndSet(null);
+        if (array == null || array.length < entries.size()) {
+            //容量很大（例如只按字节数限制）时不按容量分配
+            array = new Object[Math.max(entries.size(), Math.min(capacity, ArrayDataBuffer.INITIAL_ARRAY_LENGTH))];
+        }
+        int n = 0;
+        for (E e : entries.values()) {
+            array[n++] = e;
+        }
+        List<E> drained = new ArraySlice<>(array, 0, n, bytes);
+        entries.clear();
+        bytes = 0;
+        return drained;
+    }
+
+    /**
+     * 归还内存预算，清除引用之后留作下一次{@link #drain()}的空闲数组
+     */
+    @Override
+    public void release(List<E> drained) {
+        if (drained instanceof ArraySlice) {
+            ArraySlice<E> slice = (ArraySlice<E>) drained;
+            if (byteLimit != null) {
+                byteLimit.release(slice.bytes());
+            }
+            slice.wipe();
+            spare.compareAndSet(null, slice.array());
+        }
+    }
+
+    /**
+     * 主键数量或字节数达到上限，此时仍然可以合并已有的主键。
+     */
+    @Override
+    public boolean isFull() {
+        return entries.size() >= capacity || (byteLimit != null && byteLimit.isFull(bytes));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int room = Math.max(0, capacity - entries.size());
+        return byteLimit != null ? Math.min(room, byteLimit.remainingCapacity(bytes)) : room;
+    }
+
+    @Override
+    public int remainingThreshold() {
+        int room = Math.max(0, threshold - entries.size());
+        return byteLimit != null ? Math.min(room, byteLimit.remainingThreshold(bytes)) : room;
+    }
+
+    @Override
+    public boolean reachThreshold() {
+        return threshold <= entries.size() || (byteLimit != null && byteLimit.reachThreshold(bytes));
+    }
+
+    public DataBufferOptions getOptions() {
+        return options;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 调整缓冲阈值，限定在1到容量之间
+     */
+    @Override
+    public boolean adjustThreshold(int threshold) {
+        this.threshold = Math.max(1, Math.min(capacity, threshold));
+        return true;
+    }
+}
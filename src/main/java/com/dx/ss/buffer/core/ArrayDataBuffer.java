@@ -3,14 +3,63 @@ package com.dx.ss.buffer.core;
 import com.dx.ss.buffer.config.DataBufferOptions;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 @Slf4j
 public class ArrayDataBuffer<E> implements DataBuffer<E> {
 
-    private List<E> dataList;
+    /**
+     * 容量很大时数组的初始长度，之后按需扩容
+     */
+    static final int INITIAL_ARRAY_LENGTH = 1024;
+
+    /**
+     * 按放入顺序排列的数据，环形数组，便于淘汰最早的数据。
+     * 长度不超过容量，容量很大（例如只按字节数限制）时按需扩容
+     */
+    private Object[] elements;
+
+    /**
+     * 最早放入的数据所在的下标
+     */
+    private int head;
+
+    /**
+     * 数据量
+     */
+    private int size;
+
+    /**
+     * 全部数据的字节数，只在配置了字节限制时计算
+     */
+    private long bytes;
+
+    /**
+     * 按字节计量的上限与阈值，未配置时为空
+     */
+    private final ByteLimit byteLimit;
+
+    /**
+     * 归还的空闲数组，{@link #drain()}交出底层数组之后以此替换，避免重新分配，
+     * 扩容过的数组也会被复用，因此数组长度会稳定在实际的批次大小
+     */
+    private final AtomicReference<Object[]> spare = new AtomicReference<>();
+
+    /**
+     * 不允许重复数据时的哈希索引，与dataList同步维护，
+     * 验重的时间复杂度为O(1)
+     */
+    private final Set<Object> index;
+
+    /**
+     * 去重时提取业务主键，为空则使用数据对象本身
+     */
+    private final Function<Object, Object> keyExtractor;
 
     private final boolean enableTemporaryStorage;
 
@@ -18,96 +67,245 @@ public class ArrayDataBuffer<E> implements DataBuffer<E> {
 
     private final int capacity;
 
-    private final int threshold;
+    /**
+     * 缓冲阈值，可由自适应控制器调整
+     */
+    private volatile int threshold;
 
     private final DataBufferOptions options;
 
     public ArrayDataBuffer(DataBufferOptions options) {
-        this.dataList = new ArrayList<>();
         this.options = options;
         this.enableTemporaryStorage = options.isEnableTemporaryStorage();
         this.capacity = options.getCapacity();
+        this.elements = new Object[initialLength()];
         this.threshold = options.getThreshold();
         this.allowDuplicate = options.isAllowDuplicate();
+        this.keyExtractor = options.getKeyExtractor();
+        this.index = allowDuplicate ? null : new HashSet<>();
+        this.byteLimit = ByteLimit.of(options, true);
     }
 
+    /**
+     * 获取当前数据的视图，不复制数据，缓冲区变化之后视图不再有效。
+     */
     @Override
     public Collection<E> getDataList() {
-        return dataList;
+        return new ArraySlice<>(elements, head, size);
     }
 
     @Override
     public int length() {
-        return dataList.size();
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-        return dataList.isEmpty();
+        return size == 0;
     }
 
     @Override
     public E put(E entity) {
         if (isFull()) {
-            log.warn(this.getBufferName() + " is full, ignore it!");
+            if (log.isDebugEnabled()) {
+                log.debug("{} is full, ignore it!", getBufferName());
+            }
             return null;
         }
-        if (!allowDuplicate && exists(entity)) {
+        if (!allowDuplicate && !index.add(keyOf(entity))) {
             log.debug("Detected duplicated data, ignore it!");
             return null;
         }
-        if (reachThreshold()) {
-            log.warn(this.getBufferName() + "has reach to the threshold.");
-        }
-        dataList.add(entity);
+        add(entity);
         return entity;
     }
 
+    /**
+     * 追加到环形数组的尾部，调用前需确认未满
+     */
+    private void add(E entity) {
+        if (size == elements.length) {
+            grow();
+        }
+        int tail = head + size;
+        elements[tail >= elements.length ? tail - elements.length : tail] = entity;
+        size++;
+        if (byteLimit != null) {
+            int w = byteLimit.weigh(entity);
+            bytes += w;
+            byteLimit.acquire(w);
+        }
+    }
+
+    /**
+     * 数组写满但未达到容量时扩容一倍，数据按顺序移到新数组的开头
+     */
+    private void grow() {
+        int length = (int) Math.min(capacity, Math.max(16L, (long) elements.length << 1));
+        Object[] grown = new Object[length];
+        int first = Math.min(size, elements.length - head);
+        System.arraycopy(elements, head, grown, 0, first);
+        System.arraycopy(elements, 0, grown, first, size - first);
+        elements = grown;
+        head = 0;
+    }
+
+    private int initialLength() {
+        return Math.min(capacity, INITIAL_ARRAY_LENGTH);
+    }
+
     @Override
     public boolean needStore() {
         return this.enableTemporaryStorage;
     }
 
+    /**
+     * 批量放入，字节限制只在开始时检查，之后写满条数为止，批次大小由{@link #remainingCapacity()}估算。
+     */
     @Override
     public void putAll(Collection<? extends E> c) {
         if (isFull()) {
-            log.warn(this.getBufferName() + " is full, ignore it!");
+            if (log.isDebugEnabled()) {
+                log.debug("{} is full, ignore it!", getBufferName());
+            }
             return;
         }
-        if (!allowDuplicate && dataList.containsAll(c)) {
-            log.debug("Detected duplicated data, ignore it!");
+        if (allowDuplicate && c.size() <= capacity - length()) {
+            for (E e : c) {
+                add(e);
+            }
             return;
         }
-        if (reachThreshold()) {
-            log.warn(this.getBufferName() + "has reach to the threshold.");
+        //逐个放入，跳过重复数据，写满为止
+        for (E e : c) {
+            if (size >= capacity) {
+                if (log.isDebugEnabled()) {
+                    log.debug("{} is full, ignore the rest.", getBufferName());
+                }
+                return;
+            }
+            if (allowDuplicate || index.add(keyOf(e))) {
+                add(e);
+            }
         }
-        dataList.addAll(c);
     }
 
     @Override
     public boolean exists(E entity) {
-        return dataList.contains(entity);
+        if (!allowDuplicate) {
+            return index.contains(keyOf(entity));
+        }
+        return getDataList().contains(entity);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E evictOldest() {
+        if (size == 0) {
+            return null;
+        }
+        E oldest = (E) elements[head];
+        elements[head] = null;
+        head = head + 1 == elements.length ? 0 : head + 1;
+        size--;
+        if (index != null) {
+            index.remove(keyOf(oldest));
+        }
+        if (byteLimit != null) {
+            int w = byteLimit.weigh(oldest);
+            bytes -= w;
+            byteLimit.release(w);
+        }
+        return oldest;
     }
 
     @Override
     public void clear() {
-        dataList.clear();
+        new ArraySlice<>(elements, head, size).wipe();
+        if (byteLimit != null) {
+            byteLimit.release(bytes);
+        }
+        reset();
+    }
+
+    /**
+     * 交出底层数组，换上归还的空闲数组，不复制数据。
+     */
+    @Override
+    public List<E> drain() {
+        List<E> drained = new ArraySlice<>(elements, head, size, bytes);
+        Object[] next = spare.getAndSet(null);
+        elements = next != null ? next : new Object[initialLength()];
+        reset();
+        return drained;
+    }
+
+    /**
+     * 归还内存预算，清除引用之后留作下一次{@link #drain()}的空闲数组，已有空闲数组时直接丢弃
+     */
+    @Override
+    public void release(List<E> drained) {
+        if (drained instanceof ArraySlice) {
+            ArraySlice<E> slice = (ArraySlice<E>) drained;
+            if (byteLimit != null) {
+                byteLimit.release(slice.bytes());
+            }
+            if (slice.array() != elements) {
+                slice.wipe();
+                spare.compareAndSet(null, slice.array());
+            }
+        }
+    }
+
+    private void reset() {
+        head = 0;
+        size = 0;
+        bytes = 0;
+        if (index != null) {
+            index.clear();
+        }
     }
 
     /**
-     * 缓冲区是否已满。
+     * 获取数据对象用于去重的主键
+     */
+    private Object keyOf(E entity) {
+        return keyExtractor == null ? entity : keyExtractor.apply(entity);
+    }
+
+    /**
+     * 缓冲区是否已满，条数和字节数先达到上限者为准。
      */
     @Override
     public boolean isFull() {
-        return length() >= this.capacity;
+        return length() >= this.capacity || (byteLimit != null && byteLimit.isFull(bytes));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int room = Math.max(0, this.capacity - length());
+        return byteLimit != null ? Math.min(room, byteLimit.remainingCapacity(bytes)) : room;
+    }
+
+    @Override
+    public int remainingThreshold() {
+        int room = Math.max(0, this.threshold - length());
+        return byteLimit != null ? Math.min(room, byteLimit.remainingThreshold(bytes)) : room;
     }
 
     /**
-     * 是否达到了缓冲阈值。
+     * 是否达到了缓冲阈值，条数和字节数先达到阈值者为准。
      */
     @Override
     public boolean reachThreshold() {
-        return this.threshold <= length();
+        return this.threshold <= length() || (byteLimit != null && byteLimit.reachThreshold(bytes));
+    }
+
+    /**
+     * 全部数据的字节数，未配置字节限制时为0
+     */
+    public long byteSize() {
+        return bytes;
     }
 
     public DataBufferOptions getOptions() {
@@ -129,4 +327,13 @@ public class ArrayDataBuffer<E> implements DataBuffer<E> {
     public int getThreshold() {
         return threshold;
     }
+
+    /**
+     * 调整缓冲阈值，限定在1到容量之间
+     */
+    @Override
+    public boolean adjustThreshold(int threshold) {
+        this.threshold = Math.max(1, Math.min(capacity, threshold));
+        return true;
+    }
 }
@@ -0,0 +1,75 @@
+package com.dx.ss.buffer.core;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * 数组上的只读视图，可以从任意位置开始并绕回数组头部。
+ * 缓冲区通过它交出底层数组而不复制数据，归还之后数组会被清空并复用。
+ *
+ * @param <E> 数据类型
+ */
+final class ArraySlice<E> extends AbstractList<E> implements RandomAccess {
+
+    private final Object[] array;
+
+    private final int head;
+
+    private final int size;
+
+    /**
+     * 视图内数据的字节数，缓冲区按字节计量时在归还之后释放内存预算
+     */
+    private final long bytes;
+
+    ArraySlice(Object[] array, int head, int size) {
+        this(array, head, size, 0);
+    }
+
+    ArraySlice(Object[] array, int head, int size, long bytes) {
+        this.array = array;
+        this.head = head;
+        this.size = size;
+        this.bytes = bytes;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int i = head + index;
+        return (E) array[i >= array.length ? i - array.length : i];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 视图所在的数组
+     */
+    Object[] array() {
+        return array;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 清除视图范围内的引用，数组随后可以被复用
+     */
+    void wipe() {
+        int end = head + size;
+        if (end <= array.length) {
+            Arrays.fill(array, head, end, null);
+        } else {
+            Arrays.fill(array, head, array.length, null);
+            Arrays.fill(array, 0, end - array.length, null);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.metrics.BufferPoolMetrics;
+import com.dx.ss.buffer.storage.EncodedBatch;
+import com.dx.ss.buffer.storage.PersistResult;
+import com.dx.ss.buffer.storage.PersistStorage;
+import com.dx.ss.buffer.storage.SampleColumns;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓冲区的flush阶段，由单独的线程负责持久化。
+ * 可以被多个缓冲池共享，同一时刻排队的多个缓冲区会合并成
+ * 一次{@link PersistStorage#store(List)}调用。
+ * 排队的全部是堆外缓冲区时，直接把字节块交给{@link PersistStorage#storeEncoded(EncodedBatch)}。
+ *
+ * @param <E> 缓冲的数据类型
+ */
+@Slf4j
+public class BufferFlusher<E> {
+
+    /**
+     * 等待flush的缓冲区
+     */
+    private final ConcurrentLinkedQueue<Task<E>> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * flush线程
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 持久化层
+     */
+    private volatile PersistStorage<E> persistStorage;
+
+    /**
+     * 死信数据，持久化失败的数据写入此处，为空则失败的数据随缓冲区一起丢弃
+     */
+    private volatile DeadLetterSpill<E> deadLetter;
+
+    /**
+     * 度量指标
+     */
+    private volatile BufferPoolMetrics metrics = BufferPoolMetrics.NOOP;
+
+    public BufferFlusher() {
+        this("BufferFlusher");
+    }
+
+    /**
+     * @param name flush线程的名称
+     */
+    public BufferFlusher(String name) {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(false);
+            return t;
+        });
+    }
+
+    /**
+     * 异步flush一个缓冲区，持久化之后清空缓冲区，再回调通知。
+     *
+     * @param buffer   写满的缓冲区，提交后不能再有生产者写入
+     * @param callback flush完成的回调
+     * @throws RejectedExecutionException flush线程已关闭
+     */
+    public void flush(DataBuffer<E> buffer, Callback callback) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("BufferFlusher has shutdown.");
+        }
+        tasks.offer(new Task<>(buffer, callback));
+        executor.execute(this::drain);
+    }
+
+    /**
+     * 取出所有排队的缓冲区，合并后一次性持久化。
+     * 前一次drain已经处理过的任务，这一次将会直接返回。
+     */
+    private void drain() {
+        List<Task<E>> batch = new ArrayList<>();
+        Task<E> task;
+        while ((task = tasks.poll()) != null) {
+            batch.add(task);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        final BufferPoolMetrics metrics = this.metrics;
+        long begin = metrics.isEnabled() ? System.nanoTime() : 0;
+        int[] counts = new int[batch.size()];
+        List<List<E>> drained = new ArrayList<>(batch.size());
+        List<EncodedBatch<E>> encoded = new ArrayList<>(batch.size());
+        boolean allEncoded = true;
+        for (int i = 0; i < batch.size(); i++) {
+            DataBuffer<E> buffer = batch.get(i).buffer;
+            //封存缓冲区，确保无锁写入的数据全部可见
+            buffer.seal();
+            //堆外缓冲区直接交出字节块，其余缓冲区交出底层数组，都不复制数据
+            EncodedBatch<E> bytes = buffer.drainEncoded();
+            encoded.add(bytes);
+            if (bytes != null) {
+                drained.add(null);
+                counts[i] = bytes.size();
+            } else {
+                List<E> data = buffer.drain();
+                drained.add(data);
+                counts[i] = data.size();
+                allEncoded = false;
+            }
+        }
+        int sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        final int total = sum;
+        Throwable cause = null;
+        long persistNanos = 0;
+        try {
+            if (total > 0) {
+                long persistBegin = System.nanoTime();
+                PersistResult<E> result = allEncoded ? storeEncoded(EncodedBatch.concat(encoded)) : storeAll(dataListOf(drained, encoded));
+                persistNanos = System.nanoTime() - persistBegin;
+                if (metrics.isEnabled()) {
+                    metrics.recordPersist(persistNanos);
+                }
+                if (!result.isSuccess()) {
+                    log.error("{} of {} data failed to persist.", result.getFailed().size(), total);
+                    cause = failureOf(result, deadLetter, metrics);
+                }
+            }
+            log.debug("Flush {} buffer(s), Total: {}", batch.size(), total);
+        } catch (Exception e) {
+            log.error("Exception occurred when flush buffer data: {}", e);
+            cause = e;
+        } finally {
+            //持久化层不会持有数据，归还数组供缓冲区下一次drain复用
+            for (int i = 0; i < batch.size(); i++) {
+                if (encoded.get(i) != null) {
+                    batch.get(i).buffer.release(encoded.get(i));
+                } else {
+                    batch.get(i).buffer.release(drained.get(i));
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                Task<E> t = batch.get(i);
+                try {
+                    //合并持久化的耗时按数据量分摊到每个缓冲区
+                    t.callback.onFlushed(counts[i], total > 0 ? persistNanos * counts[i] / total : 0, cause);
+                } catch (Exception e) {
+                    log.error("Exception occurred when complete flushing {}", t.buffer.getBufferName(), e);
+                }
+            }
+            if (metrics.isEnabled()) {
+                metrics.recordFlush(total, System.nanoTime() - begin);
+            }
+        }
+    }
+
+    private PersistResult<E> storeAll(List<E> dataList) {
+        try {
+            return persistStorage.storeAll(dataList);
+        } catch (RuntimeException e) {
+            return PersistResult.failure(dataList, e);
+        }
+    }
+
+    /**
+     * 直接持久化编码后的数据，失败时解码出失败的数据交给死信存储
+     */
+    private PersistResult<E> storeEncoded(EncodedBatch<E> batch) {
+        try {
+            return persistStorage.storeEncoded(batch);
+        } catch (RuntimeException e) {
+            return PersistResult.failure(batch.decode(), e);
+        }
+    }
+
+    /**
+     * 合并取出的数据，与普通缓冲区一起flush的堆外缓冲区需要先解码
+     */
+    private static <E> List<E> dataListOf(List<List<E>> drained, List<EncodedBatch<E>> encoded) {
+        List<List<E>> lists = new ArrayList<>(drained.size());
+        for (int i = 0; i < drained.size(); i++) {
+            lists.add(encoded.get(i) != null ? encoded.get(i).decode() : drained.get(i));
+        }
+        return lists.size() == 1 ? lists.get(0) : combine(lists);
+    }
+
+    /**
+     * 合并多个缓冲区的数据，列式的指标样本复制成一批，持久化层仍然可以按列写出
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> List<E> combine(List<List<E>> lists) {
+        List<SampleColumns> columns = new ArrayList<>(lists.size());
+        for (List<E> list : lists) {
+            if (!(list instanceof SampleColumns)) {
+                return new CompositeList<>(lists);
+            }
+            columns.add((SampleColumns) list);
+        }
+        return (List<E>) SampleColumns.concat(columns);
+    }
+
+    /**
+     * 处理持久化失败的数据，存在死信存储时写入其中。
+     *
+     * @return 数据仍未能保存的原因，全部写入死信存储则为null
+     */
+    static <E> Throwable failureOf(PersistResult<E> result, DeadLetterSpill<E> deadLetter, BufferPoolMetrics metrics) {
+        if (deadLetter != null) {
+            return deadLetter.divert(result, metrics);
+        }
+        return result.getCause() != null ? result.getCause()
+                : new IllegalStateException(result.getFailed().size() + " data failed to persist.");
+    }
+
+    /**
+     * 不再接收新的缓冲区，已排队的缓冲区会继续完成flush。
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 等待已排队的缓冲区flush完成
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 立即关闭，排队中的缓冲区将不会被flush
+     */
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public PersistStorage<E> getPersistStorage() {
+        return persistStorage;
+    }
+
+    public void setPersistStorage(PersistStorage<E> persistStorage) {
+        this.persistStorage = persistStorage;
+    }
+
+    DeadLetterSpill<E> getDeadLetter() {
+        return deadLetter;
+    }
+
+    void setDeadLetter(DeadLetterSpill<E> deadLetter) {
+        this.deadLetter = deadLetter;
+    }
+
+    public BufferPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(BufferPoolMetrics metrics) {
+        this.metrics = metrics != null ? metrics : BufferPoolMetrics.NOOP;
+    }
+
+    /**
+     * flush完成的回调
+     */
+    @FunctionalInterface
+    public interface Callback {
+
+        /**
+         * 缓冲区已经flush并清空
+         *
+         * @param flushed      该缓冲区持久化的数据量
+         * @param persistNanos 该缓冲区分摊的持久化层耗时（单位：纳秒），不包含在flush队列中等待的时间
+         * @param cause        持久化失败的原因，成功则为null
+         */
+        void onFlushed(int flushed, long persistNanos, Throwable cause);
+    }
+
+    /**
+     * 一个待flush的缓冲区
+     */
+    private static final class Task<E> {
+
+        private final DataBuffer<E> buffer;
+
+        private final Callback callback;
+
+        private Task(DataBuffer<E> buffer, Callback callback) {
+            this.buffer = buffer;
+            this.callback = callback;
+        }
+    }
+}
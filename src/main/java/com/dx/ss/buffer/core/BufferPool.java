@@ -1,12 +1,16 @@
 package com.dx.ss.buffer.core;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 有状态标识的缓冲池，可以同时对
  * 多个{@link DataBuffer}缓冲区进行切换和控制操作。
+ *
+ * @param <E> 缓冲的数据类型
  */
-public interface BufferPool {
+public interface BufferPool<E> {
 
     /**
      * 获取缓冲池的名称
@@ -23,9 +27,35 @@ public interface BufferPool {
     /**
      * 提交一条数据
      *
-     * @param data 缓冲数据，不限类型
+     * @param data 缓冲数据
+     * @return 提交的结果，缓冲区已满时取决于溢出策略
      */
-    void submit(Object data);
+    SubmitStatus submit(E data);
+
+    /**
+     * 异步提交一条数据，返回的结果在数据所在的批次持久化之后完成。
+     * 同一批次的数据共享同一个结果实例，没有放入缓冲区的数据返回已完成的结果。
+     *
+     * @param data 缓冲数据
+     * @return 数据持久化的结果，持久化失败则异常完成
+     */
+    CompletableFuture<SubmitStatus> submitAsync(E data);
+
+    /**
+     * 批量提交数据
+     *
+     * @param dataList 缓冲数据集合
+     * @return 被接收的数据量
+     */
+    default int submitAll(Collection<? extends E> dataList) {
+        int accepted = 0;
+        for (E data : dataList) {
+            if (submit(data).isAccepted()) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
 
     /**
      * 关闭缓冲池，不再接收任何缓冲数据。
@@ -43,7 +73,7 @@ public interface BufferPool {
      *
      * @return 不为空的缓冲区对象实例
      */
-    List<DataBuffer> shutdownNow();
+    List<DataBuffer<E>> shutdownNow();
 
     /**
      * 缓冲池是否已关闭
@@ -55,6 +85,14 @@ public interface BufferPool {
      */
     void setBufferTimeInSeconds(int bufferTimeInSeconds);
 
+    /**
+     * 最大缓冲时限（单位：毫秒），超过此时间将会触发持久化。
+     * 默认实现向上取整到秒。
+     */
+    default void setBufferTimeMillis(long bufferTimeMillis) {
+        setBufferTimeInSeconds((int) Math.min(Integer.MAX_VALUE, (bufferTimeMillis + 999) / 1000));
+    }
+
     /**
      * 是否启用临时存储层
      */
@@ -0,0 +1,101 @@
+package com.dx.ss.buffer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 具名缓冲池的注册中心。
+ * 数据量和写入速率差异较大的数据类型可以分别使用独立的缓冲池，
+ * 每个缓冲池有各自的缓冲区配置、存储层和flush线程，互不影响。
+ */
+@Slf4j
+public class BufferPoolRegistry {
+
+    /**
+     * 默认缓冲池的名称
+     */
+    public static final String DEFAULT_POOL_NAME = "default";
+
+    /**
+     * 已注册的缓冲池，按注册顺序排列
+     */
+    private final Map<String, BufferPool<?>> pools = new LinkedHashMap<>();
+
+    /**
+     * 注册一个缓冲池，名称不能重复。
+     *
+     * @param name 缓冲池名称
+     * @param pool 缓冲池
+     * @return 注册的缓冲池
+     */
+    public synchronized <E> BufferPool<E> register(String name, BufferPool<E> pool) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("name is not a legal value.");
+        }
+        if (pool == null) throw new NullPointerException("BufferPool is not allowed to be NULL.");
+        if (pools.containsKey(name)) {
+            throw new IllegalArgumentException("BufferPool " + name + " has already registered.");
+        }
+        pools.put(name, pool);
+        return pool;
+    }
+
+    /**
+     * 获取缓冲池，数据类型由调用方保证与注册时一致。
+     *
+     * @param name 缓冲池名称
+     * @return 缓冲池，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <E> BufferPool<E> getBufferPool(String name) {
+        return (BufferPool<E>) pools.get(name);
+    }
+
+    /**
+     * 获取默认的缓冲池
+     */
+    public <E> BufferPool<E> getDefaultBufferPool() {
+        return getBufferPool(DEFAULT_POOL_NAME);
+    }
+
+    /**
+     * 移除缓冲池，移除后由调用方负责关闭。
+     *
+     * @param name 缓冲池名称
+     * @return 被移除的缓冲池，不存在时返回null
+     */
+    public synchronized BufferPool<?> remove(String name) {
+        return pools.remove(name);
+    }
+
+    /**
+     * 所有缓冲池的名称
+     */
+    public synchronized Set<String> getNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(pools.keySet()));
+    }
+
+    /**
+     * 依次关闭所有尚未关闭的缓冲池，某个缓冲池关闭失败不影响其他缓冲池。
+     *
+     * @param safe 是否安全关闭
+     */
+    public synchronized void shutdown(boolean safe) {
+        for (Map.Entry<String, BufferPool<?>> entry : pools.entrySet()) {
+            BufferPool<?> pool = entry.getValue();
+            if (pool.isShutdown()) {
+                continue;
+            }
+            try {
+                pool.shutdown(safe);
+            } catch (Exception e) {
+                log.error("Exception occurred when shutdown buffer pool {}", entry.getKey(), e);
+            }
+        }
+    }
+}
@@ -6,7 +6,7 @@ import com.dx.ss.buffer.storage.TemporaryStorage;
 /**
  * 附带外部存储机制的缓冲池，进一步避免数据丢失。
  */
-public interface BufferPoolWithStorage<E> extends BufferPool {
+public interface BufferPoolWithStorage<E> extends BufferPool<E> {
 
     /**
      * 设置临时存储层。
@@ -28,4 +28,45 @@ public interface BufferPoolWithStorage<E> extends BufferPool {
      * @return 恢复的数量
      */
     int recovery();
+
+    /**
+     * 恢复数据时每批读取的数据量
+     */
+    void setRecoveryChunkSize(int recoveryChunkSize);
+
+    /**
+     * 是否在后台恢复数据，恢复期间缓冲池正常接收数据
+     */
+    void setBackgroundRecovery(boolean backgroundRecovery);
+
+    /**
+     * 缓冲区溢出策略，即当前缓冲区已满，且预备缓冲区仍在flush时，如何处理新提交的数据
+     */
+    void setOverflowPolicy(OverflowPolicy overflowPolicy);
+
+    /**
+     * 阻塞策略下的等待时限（单位：毫秒），超时后丢弃数据，为0表示一直等待
+     */
+    void setOverflowTimeoutMillis(long overflowTimeoutMillis);
+
+    /**
+     * 设置溢出存储，{@link OverflowPolicy#SPILL}策略下缓冲区已满时数据写入此处
+     */
+    void setSpillStorage(TemporaryStorage<E> spillStorage);
+
+    /**
+     * 设置死信存储，持久化失败的数据写入此处，之后由后台线程限速补写到持久化层
+     */
+    void setDeadLetterStorage(TemporaryStorage<E> deadLetterStorage);
+
+    /**
+     * 死信数据的补写速率（单位：条/秒），为0表示不限速
+     */
+    void setDeadLetterDrainRate(int deadLetterDrainRate);
+
+    /**
+     * 登记随缓冲池关闭的资源，例如专为该缓冲池创建的临时存储层、溢出存储和死信存储。
+     * 缓冲池关闭时，等待已排队的flush完成之后依次关闭，重复关闭缓冲池不会重复关闭资源。
+     */
+    void addCloseable(AutoCloseable closeable);
 }
@@ -0,0 +1,123 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * 缓冲区按字节计量的容量上限与缓冲阈值，以及所在缓冲池共用的内存预算。
+ * 缓冲区自行维护当前的字节数，这里负责判断是否达到限制，并估算批量放入时的剩余容量。
+ * <p>
+ * 估算按出现过的最大一条数据计算，不超过该大小的数据在估算的数量以内都能被接收。
+ */
+final class ByteLimit {
+
+    private final long maxBytes;
+
+    private final long thresholdBytes;
+
+    private final MemoryBudget budget;
+
+    private final ToIntFunction<Object> weigher;
+
+    /**
+     * 出现过的最大一条数据的字节数
+     */
+    private volatile int maxElementBytes;
+
+    private ByteLimit(DataBufferOptions options) {
+        this.maxBytes = options.getMaxBytes();
+        this.thresholdBytes = options.getThresholdBytes();
+        this.budget = options.getMemoryBudget();
+        this.weigher = options.getWeigher();
+    }
+
+    /**
+     * 根据配置创建，未配置任何字节限制时返回null
+     *
+     * @param requireWeigher 缓冲区是否需要通过weigher计算数据大小
+     */
+    static ByteLimit of(DataBufferOptions options, boolean requireWeigher) {
+        if (options.getMaxBytes() == 0 && options.getThresholdBytes() == 0 && options.getPoolMaxBytes() == 0) {
+            return null;
+        }
+        if (options.getPoolMaxBytes() > 0 && options.getMemoryBudget() == null) {
+            throw new IllegalStateException("poolMaxBytes requires options created by DataBufferOptions#forPool().");
+        }
+        if (requireWeigher && options.getWeigher() == null) {
+            throw new IllegalArgumentException("weigher is not a legal value.");
+        }
+        return new ByteLimit(options);
+    }
+
+    /**
+     * 计算一条数据的字节数
+     */
+    int weigh(Object e) {
+        int bytes = weigher.applyAsInt(e);
+        observe(bytes);
+        return bytes;
+    }
+
+    /**
+     * 记录一条数据的字节数，用于估算剩余容量
+     */
+    void observe(int bytes) {
+        if (bytes > maxElementBytes) {
+            maxElementBytes = bytes;
+        }
+    }
+
+    void acquire(long bytes) {
+        if (budget != null && bytes > 0) {
+            budget.acquire(bytes);
+        }
+    }
+
+    void release(long bytes) {
+        if (budget != null && bytes > 0) {
+            budget.release(bytes);
+        }
+    }
+
+    /**
+     * 字节数达到上限，或者内存预算已经用尽且缓冲区中有数据。
+     * 空缓冲区总能放入一条数据，避免共用预算的其他缓冲区迟迟不flush时，缓冲池一直无法切换
+     */
+    boolean isFull(long bytes) {
+        return (maxBytes > 0 && bytes >= maxBytes) || (bytes > 0 && budget != null && budget.isExhausted());
+    }
+
+    /**
+     * 字节数达到阈值，或者内存预算已经用尽且缓冲区中有数据
+     */
+    boolean reachThreshold(long bytes) {
+        return (thresholdBytes > 0 && bytes >= thresholdBytes) || (bytes > 0 && budget != null && budget.isExhausted());
+    }
+
+    int remainingCapacity(long bytes) {
+        int room = Integer.MAX_VALUE;
+        if (maxBytes > 0) {
+            room = estimate(maxBytes - bytes);
+        }
+        if (budget != null) {
+            room = Math.min(room, bytes > 0 ? estimate(budget.remaining()) : Math.max(1, estimate(budget.remaining())));
+        }
+        return room;
+    }
+
+    int remainingThreshold(long bytes) {
+        return thresholdBytes > 0 ? estimate(thresholdBytes - bytes) : Integer.MAX_VALUE;
+    }
+
+    private int estimate(long left) {
+        if (left <= 0) {
+            return 0;
+        }
+        int max = maxElementBytes;
+        if (max == 0) {
+            return 1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (left - 1) / max + 1);
+    }
+}
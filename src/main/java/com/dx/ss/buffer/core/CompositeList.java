@@ -0,0 +1,56 @@
+package com.dx.ss.buffer.core;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 多个列表首尾相接的只读视图，合并多个缓冲区的数据而不复制。
+ *
+ * @param <E> 数据类型
+ */
+final class CompositeList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final List<List<E>> parts;
+
+    /**
+     * 每个列表在视图中的起始下标
+     */
+    private final int[] offsets;
+
+    private final int size;
+
+    CompositeList(List<List<E>> parts) {
+        this.parts = parts;
+        this.offsets = new int[parts.size()];
+        int total = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            offsets[i] = total;
+            total += parts.get(i).size();
+        }
+        this.size = total;
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        //找到最后一个起始下标不大于index的列表，空列表会被跳过
+        int lo = 0, hi = offsets.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return parts.get(lo).get(index - offsets[lo]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
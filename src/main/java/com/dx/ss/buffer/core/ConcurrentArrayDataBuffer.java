@@ -0,0 +1,333 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 无锁的多生产者缓冲区。
+ * 预先分配容量大小的槽位数组，生产者通过原子递增的下标认领槽位，
+ * 写入数据后再设置槽位的发布标记，读取方只读取已发布的槽位。
+ *
+ * @param <E> 缓冲的数据类型
+ */
+@Slf4j
+public class ConcurrentArrayDataBuffer<E> implements DataBuffer<E> {
+
+    /**
+     * 封存后的认领下标，远大于任何容量，后续认领都会失败
+     */
+    private static final int SEALED = Integer.MAX_VALUE >> 1;
+
+    /**
+     * 数据槽位，{@link #drain()}时整体替换。
+     * 替换发生在封存且所有已认领的槽位发布之后，{@link #clear()}重新开放认领之前，
+     * 之后认领成功的生产者一定能看到新的数组
+     */
+    private Object[] slots;
+
+    /**
+     * 归还的空闲槽位数组，避免重新分配
+     */
+    private final AtomicReference<Object[]> spare = new AtomicReference<>();
+
+    /**
+     * 槽位发布标记，1表示数据已写入
+     */
+    private final AtomicIntegerArray published;
+
+    /**
+     * 下一个可认领的槽位下标
+     */
+    private final AtomicInteger claimed = new AtomicInteger(0);
+
+    /**
+     * 封存时已认领的槽位数量
+     */
+    private volatile int sealedLength;
+
+    /**
+     * 已发布数据的字节数，只在配置了字节限制时计算，在设置发布标记之前累加
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * 按字节计量的上限与阈值，未配置时为空
+     */
+    private final ByteLimit byteLimit;
+
+    /**
+     * 不允许重复数据时的去重索引
+     */
+    private final Set<Object> index;
+
+    /**
+     * 去重时提取业务主键，为空则使用数据对象本身
+     */
+    private final Function<Object, Object> keyExtractor;
+
+    private final boolean enableTemporaryStorage;
+
+    private final boolean allowDuplicate;
+
+    private final int capacity;
+
+    /**
+     * 缓冲阈值，可由自适应控制器调整
+     */
+    private volatile int threshold;
+
+    private final DataBufferOptions options;
+
+    public ConcurrentArrayDataBuffer(DataBufferOptions options) {
+        //槽位数组按容量预先分配，必须指定容量
+        if (options.getCapacity() == DataBufferOptions.UNBOUNDED_CAPACITY) {
+            throw new IllegalArgumentException("capacity is not a legal value.");
+        }
+        this.options = options;
+        this.enableTemporaryStorage = options.isEnableTemporaryStorage();
+        this.capacity = options.getCapacity();
+        this.threshold = options.getThreshold();
+        this.allowDuplicate = options.isAllowDuplicate();
+        this.slots = new Object[capacity];
+        this.published = new AtomicIntegerArray(capacity);
+        this.keyExtractor = options.getKeyExtractor();
+        this.index = allowDuplicate ? null : ConcurrentHashMap.newKeySet();
+        this.byteLimit = ByteLimit.of(options, true);
+    }
+
+    /**
+     * 获取已发布的数据，会等待已认领但尚未发布的槽位。
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Collection<E> getDataList() {
+        int n = length();
+        List<E> dataList = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            awaitPublished(i);
+            dataList.add((E) slots[i]);
+        }
+        return dataList;
+    }
+
+    private void awaitPublished(int i) {
+        while (published.get(i) == 0) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public int length() {
+        int c = claimed.get();
+        if (c >= SEALED) {
+            return sealedLength;
+        }
+        return Math.min(c, capacity);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return length() == 0;
+    }
+
+    /**
+     * 槽位认领完毕，或者字节数达到上限。
+     */
+    @Override
+    public boolean isFull() {
+        return claimed.get() >= capacity || (byteLimit != null && byteLimit.isFull(bytes.get()));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int room = Math.max(0, capacity - claimed.get());
+        return byteLimit != null ? Math.min(room, byteLimit.remainingCapacity(bytes.get())) : room;
+    }
+
+    @Override
+    public int remainingThreshold() {
+        int room = Math.max(0, threshold - claimed.get());
+        return byteLimit != null ? Math.min(room, byteLimit.remainingThreshold(bytes.get())) : room;
+    }
+
+    @Override
+    public boolean reachThreshold() {
+        return claimed.get() >= threshold || (byteLimit != null && byteLimit.reachThreshold(bytes.get()));
+    }
+
+    @Override
+    public E put(E entity) {
+        if (byteLimit != null && byteLimit.isFull(bytes.get())) {
+            return null;
+        }
+        if (!allowDuplicate && !index.add(keyOf(entity))) {
+            log.debug("Detected duplicated data, ignore it!");
+            return null;
+        }
+        int i = claimed.getAndIncrement();
+        if (i >= capacity) {
+            if (!allowDuplicate) {
+                index.remove(keyOf(entity));
+            }
+            return null;
+        }
+        slots[i] = entity;
+        if (byteLimit != null) {
+            int w = byteLimit.weigh(entity);
+            bytes.addAndGet(w);
+            byteLimit.acquire(w);
+        }
+        published.set(i, 1);
+        return entity;
+    }
+
+    @Override
+    public void putAll(Collection<? extends E> c) {
+        for (E e : c) {
+            if (put(e) == null && isFull()) {
+                log.warn("{} is full, ignore the rest.", this.getBufferName());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean needStore() {
+        return this.enableTemporaryStorage;
+    }
+
+    @Override
+    public boolean exists(E entity) {
+        if (!allowDuplicate) {
+            return index.contains(keyOf(entity));
+        }
+        return getDataList().contains(entity);
+    }
+
+    /**
+     * 清空缓冲区并重新开放认领，调用前需先{@link #seal()}。
+     */
+    @Override
+    public void clear() {
+        int n = length();
+        for (int i = 0; i < n; i++) {
+            awaitPublished(i);
+        }
+        Arrays.fill(slots, 0, n, null);
+        if (byteLimit != null) {
+            byteLimit.release(bytes.get());
+        }
+        reset(n);
+        claimed.set(0);
+    }
+
+    /**
+     * 交出槽位数组，换上归还的空闲数组，不复制数据。调用前需先{@link #seal()}。
+     * 交出之后缓冲区仍然处于封存状态，直到{@link #clear()}才重新开放写入，
+     * 持有旧引用的生产者不会把数据写入已经flush的缓冲区。
+     */
+    @Override
+    public List<E> drain() {
+        int n = length();
+        for (int i = 0; i < n; i++) {
+            awaitPublished(i);
+        }
+        List<E> drained = new ArraySlice<>(slots, 0, n, bytes.get());
+        Object[] next = spare.getAndSet(null);
+        slots = next != null ? next : new Object[capacity];
+        reset(n);
+        return drained;
+    }
+
+    /**
+     * 归还内存预算，清除引用之后留作下一次{@link #drain()}的空闲数组，已有空闲数组时直接丢弃
+     */
+    @Override
+    public void release(List<E> drained) {
+        if (drained instanceof ArraySlice) {
+            ArraySlice<E> slice = (ArraySlice<E>) drained;
+            if (byteLimit != null) {
+                byteLimit.release(slice.bytes());
+            }
+            if (slice.array().length == capacity && slice.array() != slots) {
+                slice.wipe();
+                spare.compareAndSet(null, slice.array());
+            }
+        }
+    }
+
+    /**
+     * 重置前n个槽位的发布标记，不改变封存状态
+     */
+    private void reset(int n) {
+        for (int i = 0; i < n; i++) {
+            published.set(i, 0);
+        }
+        if (index != null) {
+            index.clear();
+        }
+        sealedLength = 0;
+        bytes.set(0);
+    }
+
+    /**
+     * 获取数据对象用于去重的主键
+     */
+    private Object keyOf(E entity) {
+        return keyExtractor == null ? entity : keyExtractor.apply(entity);
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public void seal() {
+        int c = claimed.getAndSet(SEALED);
+        if (c < SEALED) {
+            sealedLength = Math.min(c, capacity);
+        }
+    }
+
+    public DataBufferOptions getOptions() {
+        return options;
+    }
+
+    public boolean isEnableTemporaryStorage() {
+        return enableTemporaryStorage;
+    }
+
+    public boolean isAllowDuplicate() {
+        return allowDuplicate;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 调整缓冲阈值，限定在1到容量之间
+     */
+    @Override
+    public boolean adjustThreshold(int threshold) {
+        this.threshold = Math.max(1, Math.min(capacity, threshold));
+        return true;
+    }
+}
@@ -1,6 +1,10 @@
 package com.dx.ss.buffer.core;
 
+import com.dx.ss.buffer.storage.EncodedBatch;
+
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * 缓冲区对象，提供数据对象的缓存，验重。
@@ -45,6 +49,33 @@ public interface DataBuffer<E> {
      */
     boolean reachThreshold();
 
+    /**
+     * 剩余的容量，批量放入数据时据此分批。
+     * 默认实现无法得知容量，未满时只保证还能放入一条数据。
+     */
+    default int remainingCapacity() {
+        return isFull() ? 0 : 1;
+    }
+
+    /**
+     * 距离缓冲阈值的数据量，达到阈值之后为0。
+     * 批量放入数据时不会越过阈值，保证与逐条放入时相同的切换时机。
+     */
+    default int remainingThreshold() {
+        return reachThreshold() ? 0 : 1;
+    }
+
+    /**
+     * 调整缓冲阈值，不会超过缓冲区容量。
+     * 默认实现不支持调整，返回false。
+     *
+     * @param threshold 新的缓冲阈值
+     * @return 是否支持调整
+     */
+    default boolean adjustThreshold(int threshold) {
+        return false;
+    }
+
     /**
      * 放入数据。
      *
@@ -59,6 +90,19 @@ public interface DataBuffer<E> {
      */
     void putAll(Collection<? extends E> c);
 
+    /**
+     * 批量放入数据，并返回被接收的数据量。
+     * 默认实现按放入前后的长度计算，合并数据的缓冲区需要重写。
+     *
+     * @param c 缓冲数据集合
+     * @return 被接收的数据量，其余为重复数据或者缓冲区已满
+     */
+    default int offerAll(Collection<? extends E> c) {
+        int before = length();
+        putAll(c);
+        return length() - before;
+    }
+
     /**
      * 是否需要临时存储
      */
@@ -71,9 +115,74 @@ public interface DataBuffer<E> {
      */
     boolean exists(E entity);
 
+    /**
+     * 淘汰最早放入的数据，为新数据腾出空间。
+     *
+     * @return 被淘汰的数据，缓冲区为空或者不支持淘汰时返回null
+     */
+    default E evictOldest() {
+        return null;
+    }
+
     /**
      * 清空缓冲区。
      */
     void clear();
 
+    /**
+     * 取出全部数据并清空缓冲区，返回的列表归调用方所有。
+     * 数组实现的缓冲区直接交出底层数组，并换上之前归还的数组，不复制数据。
+     * 已封存的缓冲区在drain之后仍然保持封存，直到{@link #clear()}。
+     * 默认实现复制数据后清空。
+     *
+     * @return 缓冲区中的全部数据，用完之后通过{@link #release(List)}归还
+     */
+    default List<E> drain() {
+        List<E> drained = new ArrayList<>(getDataList());
+        clear();
+        return drained;
+    }
+
+    /**
+     * 归还{@link #drain()}取出的列表，其底层数组会被清空并在下一次drain时复用，
+     * 归还之后不能再使用该列表。
+     *
+     * @param drained drain取出的列表
+     */
+    default void release(List<E> drained) {
+    }
+
+    /**
+     * 取出全部数据的编码形式并清空缓冲区，堆外缓冲区直接交出存放数据的字节块。
+     * 默认实现不支持，返回null，此时应使用{@link #drain()}。
+     *
+     * @return 编码后的全部数据，用完之后通过{@link #release(EncodedBatch)}归还
+     */
+    default EncodedBatch<E> drainEncoded() {
+        return null;
+    }
+
+    /**
+     * 归还{@link #drainEncoded()}取出的数据，其字节块会被复用，归还之后不能再使用。
+     *
+     * @param drained drainEncoded取出的数据
+     */
+    default void release(EncodedBatch<E> drained) {
+    }
+
+    /**
+     * 是否支持多线程无锁并发写入，
+     * 缓冲池会据此选择加锁或无锁的提交方式。
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * 封存缓冲区，此后的写入都会被拒绝，直到调用{@link #clear()}。
+     * 并发缓冲区在读取数据之前必须先封存，保证读取期间不会有新数据写入。
+     */
+    default void seal() {
+    }
+
 }
@@ -0,0 +1,158 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.metrics.BufferPoolMetrics;
+import com.dx.ss.buffer.storage.PersistResult;
+import com.dx.ss.buffer.storage.PersistStorage;
+import com.dx.ss.buffer.storage.TemporaryStorage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 死信数据，持久化失败的数据写入此处，不再随缓冲区一起丢弃。
+ * 后台线程每秒按限定的速率将死信数据补写到持久化层，补写失败时停止，
+ * 等待下一秒再试，因此持久化层故障期间生产者不受影响，恢复之后数据延迟写入。
+ * <p>
+ * 死信存储与溢出存储的机制相同，按代次写入，补写之前先切换代次，
+ * 通常使用基于本地追加日志的分段文件。共用同一个flush线程的缓冲池必须共享同一个实例。
+ */
+@Slf4j
+final class DeadLetterSpill<E> {
+
+    /**
+     * 默认的补写速率（单位：条/秒）
+     */
+    static final int DEFAULT_DRAIN_RATE = 1000;
+
+    /**
+     * 补写的间隔（单位：毫秒）
+     */
+    private static final long DRAIN_INTERVAL_MILLIS = 1000;
+
+    /**
+     * 每批补写的数据量上限
+     */
+    private static final int MAX_CHUNK_SIZE = 1000;
+
+    /**
+     * 死信数据按代次存储，复用溢出数据的写入与补写机制
+     */
+    private final OverflowSpill<E> spill;
+
+    /**
+     * 代次生成器，与缓冲区代次出自同一个生成器
+     */
+    private final LongSupplier epochs;
+
+    /**
+     * 补写的目标，即flush线程当前的持久化层
+     */
+    private final Supplier<PersistStorage<E>> persistStorage;
+
+    /**
+     * 补写速率（单位：条/秒），为0表示不限速
+     */
+    private volatile int drainRate;
+
+    /**
+     * 补写线程
+     */
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param storage        死信存储，必须支持按代次存储和恢复游标
+     * @param epochs         代次生成器
+     * @param persistStorage 补写的目标
+     * @param drainRate      补写速率（单位：条/秒），为0表示不限速
+     */
+    DeadLetterSpill(TemporaryStorage<E> storage, LongSupplier epochs, Supplier<PersistStorage<E>> persistStorage, int drainRate) {
+        setDrainRate(drainRate);
+        this.spill = new OverflowSpill<>(storage, epochs.getAsLong());
+        this.epochs = epochs;
+        this.persistStorage = persistStorage;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "DeadLetterSpill-drainer");
+            t.setDaemon(true);
+            return t;
+        });
+        //上次运行遗留的死信数据也会被补写
+        this.scheduler.scheduleWithFixedDelay(this::drain, DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 将持久化失败的数据写入死信存储。
+     *
+     * @param result  持久化的结果
+     * @param metrics 度量指标
+     * @return 写入死信存储之后仍未能保存的原因，全部写入则为null
+     */
+    Throwable divert(PersistResult<E> result, BufferPoolMetrics metrics) {
+        List<E> failed = result.getFailed();
+        try {
+            spill.spillAll(failed);
+        } catch (Exception e) {
+            log.error("Exception occurred when divert {} data to dead letter: {}", failed.size(), e);
+            return result.getCause() != null ? result.getCause() : e;
+        }
+        metrics.onDeadLettered(failed.size());
+        log.warn("{} data failed to persist and has been diverted to dead letter.", failed.size());
+        return null;
+    }
+
+    /**
+     * 按限定的速率补写一次
+     */
+    private void drain() {
+        PersistStorage<E> storage = persistStorage.get();
+        if (storage == null) {
+            return;
+        }
+        int rate = drainRate;
+        if (rate > 0) {
+            int chunkSize = Math.min(rate, MAX_CHUNK_SIZE);
+            spill.drain(storage, epochs.getAsLong(), chunkSize, rate / chunkSize);
+        } else {
+            spill.drain(storage, epochs.getAsLong(), MAX_CHUNK_SIZE, -1);
+        }
+    }
+
+    void setDrainRate(int drainRate) {
+        if (drainRate < 0) {
+            throw new IllegalArgumentException("drainRate is not a legal value.");
+        }
+        this.drainRate = drainRate;
+    }
+
+    /**
+     * 停止后台补写。
+     *
+     * @param drain 是否在停止之后再补写一次全部数据，补写失败的数据留待下次启动
+     */
+    void close(boolean drain) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        //正在进行的补写会继续完成
+        scheduler.shutdown();
+        if (drain) {
+            try {
+                scheduler.awaitTermination(DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            PersistStorage<E> storage = persistStorage.get();
+            if (storage != null) {
+                spill.drain(storage, epochs.getAsLong(), MAX_CHUNK_SIZE, -1);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.dx.ss.buffer.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多个缓冲区共用的内存预算（单位：字节）。
+ * 缓冲区放入数据时占用，数据持久化之后归还，因此也包括正在flush的数据。
+ * 预算用尽之后缓冲区视为已满，已有数据的缓冲区视为达到阈值，尽快flush以归还预算。
+ * <p>
+ * 与缓冲区的字节数上限相同，预算是软限制，未用尽时总会接收下一条数据，空缓冲区也总能放入一条数据。
+ */
+public class MemoryBudget {
+
+    private final long maxBytes;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @param maxBytes 预算的字节数
+     */
+    public MemoryBudget(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes is not a legal value.");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 占用预算
+     */
+    public void acquire(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 归还预算
+     */
+    public void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * 预算是否已经用尽
+     */
+    public boolean isExhausted() {
+        return usedBytes.get() >= maxBytes;
+    }
+
+    /**
+     * 剩余的预算，用尽之后为0
+     */
+    public long remaining() {
+        return Math.max(0, maxBytes - usedBytes.get());
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+}
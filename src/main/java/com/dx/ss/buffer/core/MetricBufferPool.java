@@ -0,0 +1,81 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.factory.DataBufferFactory;
+import com.dx.ss.buffer.factory.MetricDataBufferFactory;
+import com.dx.ss.buffer.storage.MetricSample;
+import com.dx.ss.buffer.storage.SampleColumns;
+
+/**
+ * 指标样本的缓冲池，提供原始类型的提交方法。
+ * 样本以{@link SampleColumns}的形式经过批量提交的流程，由{@link MetricDataBuffer}整批复制到列数组中，
+ * 提交和缓冲的过程都不会为样本创建对象；只有启用了临时存储层、跨缓冲区去重或者发生溢出时才会创建。
+ */
+public class MetricBufferPool extends RingBufferPool<MetricSample> {
+
+    /**
+     * 单个样本提交时复用的列数组
+     */
+    private static final ThreadLocal<Single> SINGLE = ThreadLocal.withInitial(Single::new);
+
+    /**
+     * 使用指标缓冲区的双Buffer缓冲池
+     */
+    public MetricBufferPool(DataBufferOptions options) {
+        this(new MetricDataBufferFactory(), options, 2);
+    }
+
+    /**
+     * @param factory 缓冲区工厂，应当创建{@link MetricDataBuffer}，否则提交时仍会创建样本对象
+     * @param options 缓冲区配置
+     * @param buffers 缓冲区数量，至少两个
+     */
+    public MetricBufferPool(DataBufferFactory factory, DataBufferOptions options, int buffers) {
+        super(factory, options, buffers);
+    }
+
+    /**
+     * 提交一个样本。
+     *
+     * @return 是否被接收
+     */
+    public boolean submit(long timestamp, double value) {
+        Single single = SINGLE.get();
+        if (single.inUse) {
+            //持久化层在提交线程中再次提交，不能复用
+            return submitAll(SampleColumns.of(new long[]{timestamp}, new double[]{value})) == 1;
+        }
+        single.inUse = true;
+        try {
+            single.timestamps[0] = timestamp;
+            single.values[0] = value;
+            return submitAll(single.columns) == 1;
+        } finally {
+            single.inUse = false;
+        }
+    }
+
+    /**
+     * 批量提交列式样本，提交过程中不能修改数组。
+     *
+     * @param timestamps 时间戳列
+     * @param values     数值列
+     * @param offset     第一个样本的下标
+     * @param length     样本数量
+     * @return 被接收的样本数量
+     */
+    public int submitAll(long[] timestamps, double[] values, int offset, int length) {
+        return submitAll(new SampleColumns(timestamps, values, offset, length));
+    }
+
+    private static final class Single {
+
+        private final long[] timestamps = new long[1];
+
+        private final double[] values = new double[1];
+
+        private final SampleColumns columns = new SampleColumns(timestamps, values, 0, 1);
+
+        private boolean inUse;
+    }
+}
@@ -0,0 +1,296 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.storage.MetricSample;
+import com.dx.ss.buffer.storage.SampleColumns;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 指标样本的缓冲区，时间戳和数值分别存放在long[]和double[]中，不为每个样本创建对象。
+ * <p>
+ * {@link #put(long, double)}直接写入原始类型，批量放入{@link SampleColumns}时整批复制列数组；
+ * 只有作为对象读取、淘汰或者写入临时存储层时才会创建{@link MetricSample}。
+ * flush时交出列数组上的{@link SampleColumns}视图，配合{@link com.dx.ss.buffer.storage.MetricPersistStorage}按列持久化。
+ * <p>
+ * 样本没有业务主键，不支持去重；每个样本按{@link #SAMPLE_BYTES}计量字节限制。
+ */
+@Slf4j
+public class MetricDataBuffer implements DataBuffer<MetricSample> {
+
+    /**
+     * 每个样本占用的字节数：时间戳和数值各8字节
+     */
+    public static final int SAMPLE_BYTES = 16;
+
+    private long[] timestamps;
+
+    private double[] values;
+
+    /**
+     * 最早的样本所在的下标，淘汰样本时后移，写到数组末尾时整体前移
+     */
+    private int head;
+
+    /**
+     * 样本数量
+     */
+    private int size;
+
+    /**
+     * 归还的空闲列数组，{@link #drain()}交出列数组之后以此替换，避免重新分配
+     */
+    private final AtomicReference<SampleColumns> spare = new AtomicReference<>();
+
+    /**
+     * 按字节计量的上限与阈值，未配置时为空
+     */
+    private final ByteLimit byteLimit;
+
+    private final boolean enableTemporaryStorage;
+
+    private final int capacity;
+
+    /**
+     * 缓冲阈值，可由自适应控制器调整
+     */
+    private volatile int threshold;
+
+    private final DataBufferOptions options;
+
+    public MetricDataBuffer(DataBufferOptions options) {
+        //槽位数组按容量预先分配，必须指定容量
+        if (options.getCapacity() == DataBufferOptions.UNBOUNDED_CAPACITY) {
+            throw new IllegalArgumentException("capacity is not a legal value.");
+        }
+        if (!options.isAllowDuplicate()) {
+            throw new IllegalArgumentException("allowDuplicate is not a legal value.");
+        }
+        this.options = options;
+        this.enableTemporaryStorage = options.isEnableTemporaryStorage();
+        this.capacity = options.getCapacity();
+        this.threshold = options.getThreshold();
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+        this.byteLimit = ByteLimit.of(options, false);
+        if (byteLimit != null) {
+            byteLimit.observe(SAMPLE_BYTES);
+        }
+    }
+
+    /**
+     * 获取当前样本的列式视图，不复制数据，缓冲区变化之后视图不再有效。
+     */
+    @Override
+    public Collection<MetricSample> getDataList() {
+        return new SampleColumns(timestamps, values, head, size);
+    }
+
+    @Override
+    public int length() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public MetricSample put(MetricSample sample) {
+        return put(sample.getTimestamp(), sample.getValue()) ? sample : null;
+    }
+
+    /**
+     * 放入一个样本，不创建对象。
+     *
+     * @return 是否放入，缓冲区已满时返回false
+     */
+    public boolean put(long timestamp, double value) {
+        if (isFull()) {
+            if (log.isDebugEnabled()) {
+                log.debug("{} is full, ignore it!", getBufferName());
+            }
+            return false;
+        }
+        int tail = tail(1);
+        timestamps[tail] = timestamp;
+        values[tail] = value;
+        size++;
+        if (byteLimit != null) {
+            byteLimit.acquire(SAMPLE_BYTES);
+        }
+        return true;
+    }
+
+    /**
+     * 写入位置，数组末尾放不下n个样本时先把数据前移到数组头部
+     */
+    private int tail(int n) {
+        if (head + size + n > capacity && head > 0) {
+            System.arraycopy(timestamps, head, timestamps, 0, size);
+            System.arraycopy(values, head, values, 0, size);
+            head = 0;
+        }
+        return head + size;
+    }
+
+    /**
+     * 批量放入，列式数据整批复制。字节限制只在开始时检查，之后写满条数为止。
+     */
+    @Override
+    public void putAll(Collection<? extends MetricSample> c) {
+        if (isFull()) {
+            if (log.isDebugEnabled()) {
+                log.debug("{} is full, ignore it!", getBufferName());
+            }
+            return;
+        }
+        if (c instanceof SampleColumns) {
+            SampleColumns columns = (SampleColumns) c;
+            int n = Math.min(columns.size(), capacity - size);
+            if (n < columns.size() && log.isDebugEnabled()) {
+                log.debug("{} is full, ignore the rest.", getBufferName());
+            }
+            columns.subList(0, n).copyTo(timestamps, values, tail(n));
+            size += n;
+            if (byteLimit != null) {
+                byteLimit.acquire((long) n * SAMPLE_BYTES);
+            }
+            return;
+        }
+        for (MetricSample sample : c) {
+            if (size >= capacity) {
+                if (log.isDebugEnabled()) {
+                    log.debug("{} is full, ignore the rest.", getBufferName());
+                }
+                return;
+            }
+            int tail = tail(1);
+            timestamps[tail] = sample.getTimestamp();
+            values[tail] = sample.getValue();
+            size++;
+            if (byteLimit != null) {
+                byteLimit.acquire(SAMPLE_BYTES);
+            }
+        }
+    }
+
+    @Override
+    public boolean needStore() {
+        return this.enableTemporaryStorage;
+    }
+
+    @Override
+    public boolean exists(MetricSample sample) {
+        for (int i = head; i < head + size; i++) {
+            if (timestamps[i] == sample.getTimestamp() && Double.compare(values[i], sample.getValue()) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public MetricSample evictOldest() {
+        if (size == 0) {
+            return null;
+        }
+        MetricSample oldest = new MetricSample(timestamps[head], values[head]);
+        head = --size == 0 ? 0 : head + 1;
+        if (byteLimit != null) {
+            byteLimit.release(SAMPLE_BYTES);
+        }
+        return oldest;
+    }
+
+    @Override
+    public void clear() {
+        if (byteLimit != null) {
+            byteLimit.release((long) size * SAMPLE_BYTES);
+        }
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * 交出列数组，换上归还的空闲数组，不复制数据。
+     */
+    @Override
+    public List<MetricSample> drain() {
+        SampleColumns drained = new SampleColumns(timestamps, values, head, size);
+        SampleColumns next = spare.getAndSet(null);
+        if (next != null) {
+            timestamps = next.getTimestamps();
+            values = next.getValues();
+        } else {
+            timestamps = new long[capacity];
+            values = new double[capacity];
+        }
+        head = 0;
+        size = 0;
+        return drained;
+    }
+
+    /**
+     * 归还内存预算，留作下一次{@link #drain()}的空闲数组，已有空闲数组时直接丢弃
+     */
+    @Override
+    public void release(List<MetricSample> drained) {
+        if (drained instanceof SampleColumns) {
+            SampleColumns columns = (SampleColumns) drained;
+            if (byteLimit != null) {
+                byteLimit.release((long) columns.size() * SAMPLE_BYTES);
+            }
+            if (columns.getTimestamps().length == capacity && columns.getTimestamps() != timestamps) {
+                spare.compareAndSet(null, columns);
+            }
+        }
+    }
+
+    @Override
+    public boolean isFull() {
+        return size >= capacity || (byteLimit != null && byteLimit.isFull((long) size * SAMPLE_BYTES));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int room = Math.max(0, capacity - size);
+        return byteLimit != null ? Math.min(room, byteLimit.remainingCapacity((long) size * SAMPLE_BYTES)) : room;
+    }
+
+    @Override
+    public int remainingThreshold() {
+        int room = Math.max(0, threshold - size);
+        return byteLimit != null ? Math.min(room, byteLimit.remainingThreshold((long) size * SAMPLE_BYTES)) : room;
+    }
+
+    @Override
+    public boolean reachThreshold() {
+        return threshold <= size || (byteLimit != null && byteLimit.reachThreshold((long) size * SAMPLE_BYTES));
+    }
+
+    public DataBufferOptions getOptions() {
+        return options;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 调整缓冲阈值，限定在1到容量之间
+     */
+    @Override
+    public boolean adjustThreshold(int threshold) {
+        this.threshold = Math.max(1, Math.min(capacity, threshold));
+        return true;
+    }
+}
@@ -0,0 +1,446 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.codec.BufferCodec;
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.storage.EncodedBatch;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * 堆外缓冲区，数据经编解码器编码之后存放在直接内存的字节块中，适合容量很大的缓冲区，
+ * 缓冲的数据不会增加垃圾回收的负担。
+ * <p>
+ * 每条数据在字节块中的格式为[长度][数据]，一个字节块写满之后再分配下一个，
+ * 超过字节块大小的数据单独分配一个字节块。配置了字节限制时，按编码后的长度（包括记录头）计量，
+ * 不使用{@link DataBufferOptions#getWeigher()}。字节数上限是软限制：未达到上限时总会接收下一条数据，
+ * 批量放入时按已有数据中最大的一条估算剩余容量，因此可能略微超出。
+ * <p>
+ * flush时通过{@link #drainEncoded()}直接交出字节块，由{@link com.dx.ss.buffer.storage.PersistStorage#storeEncoded(EncodedBatch)}
+ * 持久化，归还之后字节块会被复用。去重索引仍保存在堆内。与{@link ArrayDataBuffer}相同，不支持无锁并发写入。
+ *
+ * @param <E> 数据类型
+ */
+@Slf4j
+public class OffHeapDataBuffer<E> implements DataBuffer<E> {
+
+    /**
+     * 默认的字节块大小：1MB
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private final BufferCodec<E> codec;
+
+    private final int slabSize;
+
+    /**
+     * 写入中的字节块，每个字节块的position即写入的位置
+     */
+    private List<ByteBuffer> slabs = new ArrayList<>();
+
+    /**
+     * 第一个字节块中最早的数据所在的位置，淘汰数据时后移
+     */
+    private int headPosition;
+
+    /**
+     * 数据量
+     */
+    private int size;
+
+    /**
+     * 全部数据的字节数，包括记录头
+     */
+    private long bytes;
+
+    /**
+     * 按字节计量的上限与阈值，未配置时为空
+     */
+    private final ByteLimit byteLimit;
+
+    /**
+     * 归还的空闲字节块，只复用标准大小的字节块
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> spare = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已交出、尚未归还的字节块
+     */
+    private final Map<EncodedBatch<E>, Lease> outstanding = new ConcurrentHashMap<>();
+
+    /**
+     * 不允许重复数据时的哈希索引
+     */
+    private final Set<Object> index;
+
+    /**
+     * 去重时提取业务主键，为空则使用数据对象本身
+     */
+    private final Function<Object, Object> keyExtractor;
+
+    private final boolean enableTemporaryStorage;
+
+    private final boolean allowDuplicate;
+
+    private final int capacity;
+
+    /**
+     * 缓冲阈值，可由自适应控制器调整
+     */
+    private volatile int threshold;
+
+    private final DataBufferOptions options;
+
+    public OffHeapDataBuffer(DataBufferOptions options, BufferCodec<E> codec) {
+        this(options, codec, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param options  缓冲区配置
+     * @param codec    数据的编解码器
+     * @param slabSize 字节块大小
+     */
+    public OffHeapDataBuffer(DataBufferOptions options, BufferCodec<E> codec, int slabSize) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec is not a legal value.");
+        }
+        if (slabSize <= EncodedBatch.RECORD_HEADER) {
+            throw new IllegalArgumentException("slabSize is not a legal value.");
+        }
+        this.options = options;
+        this.codec = codec;
+        this.slabSize = slabSize;
+        this.enableTemporaryStorage = options.isEnableTemporaryStorage();
+        this.capacity = options.getCapacity();
+        this.allowDuplicate = options.isAllowDuplicate();
+        this.keyExtractor = options.getKeyExtractor();
+        this.index = allowDuplicate ? null : new HashSet<>();
+        this.threshold = options.getThreshold();
+        this.byteLimit = ByteLimit.of(options, false);
+    }
+
+    /**
+     * 解码全部数据，返回的列表与缓冲区无关。
+     */
+    @Override
+    public Collection<E> getDataList() {
+        return view().decode();
+    }
+
+    @Override
+    public int length() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public E put(E entity) {
+        if (isFull()) {
+            if (log.isDebugEnabled()) {
+                log.debug("{} is full, ignore it!", getBufferName());
+            }
+            return null;
+        }
+        if (!allowDuplicate && !index.add(keyOf(entity))) {
+            log.debug("Detected duplicated data, ignore it!");
+            return null;
+        }
+        append(entity);
+        return entity;
+    }
+
+    /**
+     * 编码后直接写入最后一个字节块，放不下时按编码后的长度换一个新的字节块重新写入
+     */
+    private void append(E entity) {
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < EncodedBatch.RECORD_HEADER) {
+            slab = newSlab(slabSize);
+        }
+        int dataLength = writeRecord(slab, entity);
+        if (dataLength < 0) {
+            if (slab.position() == 0) {
+                //新分配的字节块放不下，不留下空的字节块
+                slabs.remove(slabs.size() - 1);
+                recycle(slab);
+            }
+            dataLength = writeRecord(newSlab(EncodedBatch.RECORD_HEADER + ~dataLength), entity);
+        }
+        int length = EncodedBatch.RECORD_HEADER + dataLength;
+        size++;
+        bytes += length;
+        if (byteLimit != null) {
+            byteLimit.observe(length);
+            byteLimit.acquire(length);
+        }
+    }
+
+    /**
+     * 在字节块的当前位置写入一条记录
+     *
+     * @return 数据的长度，放不下时不写入任何内容，返回长度按位取反
+     */
+    private int writeRecord(ByteBuffer slab, E entity) {
+        int start = slab.position();
+        int room = slab.remaining() - EncodedBatch.RECORD_HEADER;
+        slab.position(start + EncodedBatch.RECORD_HEADER);
+        int dataLength = codec.encode(entity, slab);
+        if (dataLength > room) {
+            slab.position(start);
+            return ~dataLength;
+        }
+        slab.putInt(start, dataLength);
+        return dataLength;
+    }
+
+    private ByteBuffer newSlab(int length) {
+        ByteBuffer slab = null;
+        if (length <= slabSize) {
+            slab = spare.poll();
+        }
+        if (slab == null) {
+            slab = ByteBuffer.allocateDirect(Math.max(length, slabSize));
+        }
+        slabs.add(slab);
+        return slab;
+    }
+
+    @Override
+    public boolean needStore() {
+        return this.enableTemporaryStorage;
+    }
+
+    /**
+     * 批量放入，只在开始时检查字节数上限，之后写满条数为止。
+     */
+    @Override
+    public void putAll(Collection<? extends E> c) {
+        if (isFull()) {
+            if (log.isDebugEnabled()) {
+                log.debug("{} is full, ignore it!", getBufferName());
+            }
+            return;
+        }
+        for (E e : c) {
+            if (size >= capacity) {
+                if (log.isDebugEnabled()) {
+                    log.debug("{} is full, ignore the rest.", getBufferName());
+                }
+                return;
+            }
+            if (allowDuplicate || index.add(keyOf(e))) {
+                append(e);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(E entity) {
+        if (!allowDuplicate) {
+            return index.contains(keyOf(entity));
+        }
+        return getDataList().contains(entity);
+    }
+
+    @Override
+    public E evictOldest() {
+        if (size == 0) {
+            return null;
+        }
+        ByteBuffer first = slabs.get(0);
+        int length = first.getInt(headPosition);
+        byte[] data = new byte[length];
+        ByteBuffer record = first.duplicate();
+        record.position(headPosition + EncodedBatch.RECORD_HEADER);
+        record.get(data);
+        headPosition += EncodedBatch.RECORD_HEADER + length;
+        size--;
+        bytes -= EncodedBatch.RECORD_HEADER + length;
+        if (byteLimit != null) {
+            byteLimit.release(EncodedBatch.RECORD_HEADER + length);
+        }
+        if (headPosition == first.position()) {
+            //第一个字节块已经读完
+            if (slabs.size() > 1) {
+                recycle(slabs.remove(0));
+            } else {
+                first.clear();
+            }
+            headPosition = 0;
+        }
+        E oldest = codec.decode(data);
+        if (index != null) {
+            index.remove(keyOf(oldest));
+        }
+        return oldest;
+    }
+
+    @Override
+    public void clear() {
+        for (ByteBuffer slab : slabs) {
+            recycle(slab);
+        }
+        slabs.clear();
+        if (byteLimit != null) {
+            byteLimit.release(bytes);
+        }
+        reset();
+    }
+
+    /**
+     * 交出存放数据的字节块，不复制数据，换上空闲的字节块继续写入。
+     */
+    @Override
+    public EncodedBatch<E> drainEncoded() {
+        EncodedBatch<E> drained = view();
+        if (!slabs.isEmpty()) {
+            outstanding.put(drained, new Lease(slabs, bytes));
+            slabs = new ArrayList<>();
+        }
+        reset();
+        return drained;
+    }
+
+    /**
+     * 回收字节块留作之后写入，并归还内存预算
+     */
+    @Override
+    public void release(EncodedBatch<E> drained) {
+        Lease lease = outstanding.remove(drained);
+        if (lease != null) {
+            for (ByteBuffer slab : lease.slabs) {
+                recycle(slab);
+            }
+            if (byteLimit != null) {
+                byteLimit.release(lease.bytes);
+            }
+        }
+    }
+
+    /**
+     * 当前数据的只读视图
+     */
+    private EncodedBatch<E> view() {
+        List<ByteBuffer> views = new ArrayList<>(slabs.size());
+        for (int i = 0; i < slabs.size(); i++) {
+            ByteBuffer view = slabs.get(i).asReadOnlyBuffer();
+            view.flip();
+            if (i == 0) {
+                view.position(headPosition);
+            }
+            views.add(view);
+        }
+        return new EncodedBatch<>(views, size, codec);
+    }
+
+    private void recycle(ByteBuffer slab) {
+        if (slab.capacity() == slabSize) {
+            slab.clear();
+            spare.offer(slab);
+        }
+    }
+
+    private void reset() {
+        headPosition = 0;
+        size = 0;
+        bytes = 0;
+        if (index != null) {
+            index.clear();
+        }
+    }
+
+    /**
+     * 获取数据对象用于去重的主键
+     */
+    private Object keyOf(E entity) {
+        return keyExtractor == null ? entity : keyExtractor.apply(entity);
+    }
+
+    /**
+     * 条数或字节数达到上限。
+     */
+    @Override
+    public boolean isFull() {
+        return size >= capacity || (byteLimit != null && byteLimit.isFull(bytes));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int room = Math.max(0, capacity - size);
+        return byteLimit != null ? Math.min(room, byteLimit.remainingCapacity(bytes)) : room;
+    }
+
+    @Override
+    public int remainingThreshold() {
+        int room = Math.max(0, threshold - size);
+        return byteLimit != null ? Math.min(room, byteLimit.remainingThreshold(bytes)) : room;
+    }
+
+    /**
+     * 条数或字节数达到了缓冲阈值。
+     */
+    @Override
+    public boolean reachThreshold() {
+        return this.threshold <= size || (byteLimit != null && byteLimit.reachThreshold(bytes));
+    }
+
+    public DataBufferOptions getOptions() {
+        return options;
+    }
+
+    public BufferCodec<E> getCodec() {
+        return codec;
+    }
+
+    /**
+     * 全部数据的字节数，包括记录头
+     */
+    public long byteSize() {
+        return bytes;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 调整缓冲阈值，限定在1到容量之间
+     */
+    @Override
+    public boolean adjustThreshold(int threshold) {
+        this.threshold = Math.max(1, Math.min(capacity, threshold));
+        return true;
+    }
+
+    /**
+     * 交出的字节块以及其中数据的字节数
+     */
+    private static final class Lease {
+
+        private final List<ByteBuffer> slabs;
+
+        private final long bytes;
+
+        private Lease(List<ByteBuffer> slabs, long bytes) {
+            this.slabs = slabs;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.dx.ss.buffer.core;
+
+/**
+ * 缓冲区溢出策略，即当前缓冲区已满，且预备缓冲区仍在flush时，如何处理新提交的数据。
+ */
+public enum OverflowPolicy {
+
+    /**
+     * 阻塞等待flush结束，可以设置等待时限，超时后丢弃数据
+     */
+    BLOCK,
+
+    /**
+     * 由提交数据的线程直接持久化该数据，生产者被持久化层的速度自然限流。
+     * 持久化失败时写入死信存储，没有死信存储或者写入失败则丢弃
+     */
+    CALLER_RUNS,
+
+    /**
+     * 丢弃当前缓冲区中最早的数据，为新数据腾出空间。
+     * 缓冲区不支持淘汰时退化为{@link #DROP_NEWEST}
+     */
+    DROP_OLDEST,
+
+    /**
+     * 丢弃新提交的数据
+     */
+    DROP_NEWEST,
+
+    /**
+     * 将数据溢出到磁盘，每次flush之后分批补写到持久化层
+     */
+    SPILL
+}
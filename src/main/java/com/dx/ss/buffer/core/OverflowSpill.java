@@ -0,0 +1,144 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.metrics.BufferPoolMetrics;
+import com.dx.ss.buffer.storage.PersistResult;
+import com.dx.ss.buffer.storage.PersistStorage;
+import com.dx.ss.buffer.storage.RecoveryCursor;
+import com.dx.ss.buffer.storage.TemporaryStorage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 溢出到磁盘的数据，{@link OverflowPolicy#SPILL}策略下缓冲区已满时数据写入此处，
+ * 之后分批补写到持久化层。共用同一个溢出存储的缓冲池必须共享同一个实例。
+ * <p>
+ * 溢出数据按代次写入溢出存储，补写之前先切换代次，只补写切换之前的代次，
+ * 因此补写与写入可以同时进行。
+ */
+@Slf4j
+final class OverflowSpill<E> {
+
+    /**
+     * 溢出存储，必须支持按代次存储和恢复游标
+     */
+    private final TemporaryStorage<E> storage;
+
+    /**
+     * 当前写入的代次
+     */
+    private volatile long epoch;
+
+    /**
+     * 写入时持有读锁，切换代次时持有写锁，保证切换之后不会再有数据写入旧的代次
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 是否可能有尚未补写的数据，上次运行遗留的数据也需要补写
+     */
+    private final AtomicBoolean pending = new AtomicBoolean(true);
+
+    /**
+     * 同一时刻只有一个线程补写
+     */
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    OverflowSpill(TemporaryStorage<E> storage, long epoch) {
+        this.storage = storage;
+        this.epoch = epoch;
+    }
+
+    /**
+     * 将数据写入当前代次
+     */
+    void spill(E data, BufferPoolMetrics metrics) {
+        final ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            storage.store(epoch, data);
+        } finally {
+            readLock.unlock();
+        }
+        pending.set(true);
+        metrics.onSpilled();
+    }
+
+    /**
+     * 将多条数据写入当前代次，只会刷盘一次
+     */
+    void spillAll(List<E> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+        final ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            storage.store(epoch, list);
+        } finally {
+            readLock.unlock();
+        }
+        pending.set(true);
+    }
+
+    /**
+     * 将溢出的数据补写到持久化层。
+     * 分批补写时，已有其他线程在补写则直接返回；全部补写时会等待其他线程补写结束。
+     *
+     * @param persistStorage 持久化层
+     * @param nextEpoch      切换后的代次
+     * @param chunkSize      每批读取的数据量
+     * @param maxChunks      最多补写的批次，为负数表示全部补写
+     */
+    void drain(PersistStorage<E> persistStorage, long nextEpoch, int chunkSize, int maxChunks) {
+        if (maxChunks < 0) {
+            drainLock.lock();
+        } else if (!pending.get() || !drainLock.tryLock()) {
+            return;
+        }
+        boolean exhausted = false;
+        try {
+            if (!pending.get()) {
+                exhausted = true;
+                return;
+            }
+            pending.set(false);
+            long maxEpoch;
+            final ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
+            writeLock.lock();
+            try {
+                maxEpoch = epoch;
+                epoch = nextEpoch;
+            } finally {
+                writeLock.unlock();
+            }
+            try (RecoveryCursor<E> cursor = storage.cursor(maxEpoch, chunkSize)) {
+                for (int i = 0; maxChunks < 0 || i < maxChunks; i++) {
+                    List<E> chunk = cursor.next();
+                    if (chunk.isEmpty()) {
+                        exhausted = true;
+                        break;
+                    }
+                    PersistResult<E> result = persistStorage.storeAll(chunk);
+                    if (!result.isSuccess()) {
+                        //不提交游标，失败的批次留待下次补写
+                        log.error("{} of {} spilled data failed to persist: {}", result.getFailed().size(), chunk.size(), result.getCause());
+                        break;
+                    }
+                    cursor.commit();
+                    log.debug("{} spilled data has been persisted.", chunk.size());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Exception occurred when drain spilled data: {}", e);
+        } finally {
+            if (!exhausted) {
+                pending.set(true);
+            }
+            drainLock.unlock();
+        }
+    }
+}
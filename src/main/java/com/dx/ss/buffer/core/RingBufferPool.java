@@ -0,0 +1,91 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.factory.DataBufferFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 多Buffer缓冲池，是双Buffer缓冲池的推广。
+ * 持久化较慢时，多个写满的缓冲区可以同时排队等待flush，生产者继续写入空闲的缓冲区，
+ * 只有所有缓冲区都在flush时，才会按溢出策略处理新提交的数据。
+ * <p>
+ * 缓冲区数量可以固定，也可以在flush积压时按需创建新的缓冲区直到上限，
+ * 积压消失之后再逐个回收到初始数量。
+ */
+public class RingBufferPool<E> extends TwinsBufferPool<E> {
+
+    /**
+     * 固定数量的多Buffer缓冲池。
+     *
+     * @param factory 缓冲区工厂
+     * @param options 缓冲区配置
+     * @param buffers 缓冲区数量，至少两个
+     */
+    public RingBufferPool(DataBufferFactory factory, DataBufferOptions options, int buffers) {
+        this(factory, options, buffers, buffers, null);
+    }
+
+    /**
+     * 可以按flush积压情况伸缩的多Buffer缓冲池。
+     *
+     * @param factory    缓冲区工厂
+     * @param options    缓冲区配置
+     * @param minBuffers 初始的缓冲区数量，至少两个
+     * @param maxBuffers 缓冲区数量上限，等于minBuffers时数量固定
+     * @param flusher    共享的flush线程，为空则由缓冲池自行创建
+     */
+    public RingBufferPool(DataBufferFactory factory, DataBufferOptions options, int minBuffers, int maxBuffers,
+                          BufferFlusher<E> flusher) {
+        this(creator(factory, options.forPool()), minBuffers, maxBuffers, flusher);
+    }
+
+    private RingBufferPool(Supplier<DataBuffer<E>> creator, int minBuffers, int maxBuffers, BufferFlusher<E> flusher) {
+        super(createBuffers(creator, minBuffers), creator, maxBuffers, flusher);
+    }
+
+    /**
+     * 所有缓冲区由同一份配置创建，共用该缓冲池的内存预算
+     */
+    private static <E> Supplier<DataBuffer<E>> creator(DataBufferFactory factory, DataBufferOptions options) {
+        return () -> factory.createDataBuffer(options);
+    }
+
+    private static <E> List<DataBuffer<E>> createBuffers(Supplier<DataBuffer<E>> creator, int buffers) {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("buffers is not a legal value.");
+        }
+        List<DataBuffer<E>> list = new ArrayList<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            list.add(creator.get());
+        }
+        return list;
+    }
+
+    /**
+     * 按缓冲池的字节数上限计算缓冲区数量上限，即上限能容纳多少个写满的缓冲区，至少两个。
+     *
+     * @param poolMaxBytes 所有缓冲区共用的字节数上限
+     * @param options      缓冲区配置，必须配置了每个缓冲区的字节数上限
+     * @return 缓冲区数量
+     */
+    public static int buffersOf(long poolMaxBytes, DataBufferOptions options) {
+        if (poolMaxBytes <= 0) {
+            throw new IllegalArgumentException("poolMaxBytes is not a legal value.");
+        }
+        if (options.getMaxBytes() <= 0) {
+            throw new IllegalArgumentException("maxBytes is not a legal value.");
+        }
+        long buffers = poolMaxBytes / options.getMaxBytes();
+        return (int) Math.max(2, Math.min(Integer.MAX_VALUE, buffers));
+    }
+
+    /**
+     * 当前已创建的缓冲区数量
+     */
+    public int getBuffers() {
+        return bufferCount();
+    }
+}
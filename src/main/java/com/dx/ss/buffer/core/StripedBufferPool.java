@@ -0,0 +1,388 @@
+package com.dx.ss.buffer.core;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.factory.DataBufferFactory;
+import com.dx.ss.buffer.filter.DuplicateFilter;
+import com.dx.ss.buffer.filter.SharedDuplicateFilter;
+import com.dx.ss.buffer.metrics.BufferPoolMetrics;
+import com.dx.ss.buffer.storage.PersistStorage;
+import com.dx.ss.buffer.storage.TemporaryStorage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 分段的缓冲池，由多个相互独立的{@link TwinsBufferPool}组成。
+ * 生产者线程参考{@link java.util.concurrent.atomic.LongAdder}的做法，
+ * 按线程探针选择分段，遇到竞争时重新散列到其他分段。
+ * 每个分段独立切换缓冲区，所有分段共享一个{@link BufferFlusher}，
+ * 同时等待flush的缓冲区会合并成一次持久化调用。
+ */
+@Slf4j
+public class StripedBufferPool<E> implements BufferPoolWithStorage<E> {
+
+    /**
+     * 线程探针，初始值由线程ID散列得到，竞争时重新散列
+     */
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return new int[]{h == 0 ? 1 : h};
+    });
+
+    /**
+     * 所有的分段，数量是2的幂
+     */
+    private final TwinsBufferPool<E>[] stripes;
+
+    /**
+     * 分段下标掩码
+     */
+    private final int mask;
+
+    /**
+     * 所有分段共享的flush线程
+     */
+    private final BufferFlusher<E> flusher;
+
+    /**
+     * 所有分段共享的定时线程
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 所有分段共享的死信数据
+     */
+    private volatile DeadLetterSpill<E> deadLetter;
+
+    /**
+     * 死信数据的补写速率（单位：条/秒），为0表示不限速
+     */
+    private int deadLetterDrainRate = DeadLetterSpill.DEFAULT_DRAIN_RATE;
+
+    /**
+     * 随缓冲池关闭的资源
+     */
+    private final List<AutoCloseable> closeables = new CopyOnWriteArrayList<>();
+
+    /**
+     * 分段缓冲池，每个分段包含两个由工厂创建的缓冲区，所有分段共用一个内存预算。
+     *
+     * @param factory 缓冲区工厂
+     * @param options 缓冲区配置
+     * @param stripes 分段数量，会被向上取整为2的幂
+     */
+    public StripedBufferPool(DataBufferFactory factory, DataBufferOptions options, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes is not a legal value.");
+        }
+        int n = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.mask = n - 1;
+        this.flusher = new BufferFlusher<>("StripedBufferPool-flusher");
+        this.scheduler = Executors.newScheduledThreadPool(1);
+        @SuppressWarnings("unchecked")
+        TwinsBufferPool<E>[] stripeArray = (TwinsBufferPool<E>[]) new TwinsBufferPool<?>[n];
+        DataBufferOptions poolOptions = options.forPool();
+        for (int i = 0; i < n; i++) {
+            DataBuffer<E> buffer1 = factory.createDataBuffer(poolOptions);
+            DataBuffer<E> buffer2 = factory.createDataBuffer(poolOptions);
+            TwinsBufferPool<E> stripe = new TwinsBufferPool<>(buffer1, buffer2, flusher);
+            stripe.setScheduler(scheduler);
+            stripeArray[i] = stripe;
+        }
+        this.stripes = stripeArray;
+    }
+
+    /**
+     * 分段数量
+     */
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    @Override
+    public void setTemporaryStorage(TemporaryStorage<E> storage) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setTemporaryStorage(storage);
+        }
+    }
+
+    @Override
+    public void setPersistStorage(PersistStorage<E> storage) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setPersistStorage(storage);
+        }
+    }
+
+    /**
+     * 从存储层中恢复数据，所有分段共享同一个临时存储层，
+     * 只由第一个分段负责恢复。
+     *
+     * @return 恢复的数量
+     */
+    @Override
+    public int recovery() {
+        return stripes[0].recovery();
+    }
+
+    @Override
+    public void setRecoveryChunkSize(int recoveryChunkSize) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setRecoveryChunkSize(recoveryChunkSize);
+        }
+    }
+
+    @Override
+    public void setBackgroundRecovery(boolean backgroundRecovery) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setBackgroundRecovery(backgroundRecovery);
+        }
+    }
+
+    @Override
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setOverflowPolicy(overflowPolicy);
+        }
+    }
+
+    @Override
+    public void setOverflowTimeoutMillis(long overflowTimeoutMillis) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setOverflowTimeoutMillis(overflowTimeoutMillis);
+        }
+    }
+
+    /**
+     * 所有分段共享同一个溢出存储，任意分段flush之后都会补写溢出数据
+     */
+    @Override
+    public void setSpillStorage(TemporaryStorage<E> spillStorage) {
+        OverflowSpill<E> spill = spillStorage != null ? TwinsBufferPool.newSpill(spillStorage) : null;
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setSpill(spill);
+        }
+    }
+
+    /**
+     * 设置死信存储，所有分段与共享的flush线程使用同一个死信数据
+     */
+    @Override
+    public void setDeadLetterStorage(TemporaryStorage<E> deadLetterStorage) {
+        DeadLetterSpill<E> previous = this.deadLetter;
+        DeadLetterSpill<E> deadLetter = deadLetterStorage != null
+                ? TwinsBufferPool.newDeadLetter(deadLetterStorage, flusher, deadLetterDrainRate) : null;
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setDeadLetter(deadLetter);
+        }
+        this.deadLetter = deadLetter;
+        if (previous != null) {
+            previous.close(false);
+        }
+    }
+
+    @Override
+    public void setDeadLetterDrainRate(int deadLetterDrainRate) {
+        if (deadLetterDrainRate < 0) {
+            throw new IllegalArgumentException("deadLetterDrainRate is not a legal value.");
+        }
+        this.deadLetterDrainRate = deadLetterDrainRate;
+        DeadLetterSpill<E> deadLetter = this.deadLetter;
+        if (deadLetter != null) {
+            deadLetter.setDrainRate(deadLetterDrainRate);
+        }
+    }
+
+    /**
+     * 为每个分段设置独立的自适应flush控制器
+     *
+     * @param controllers 控制器的工厂，为空则取消自适应
+     */
+    public void setFlushControllers(Supplier<AdaptiveFlushController> controllers) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setFlushController(controllers != null ? controllers.get() : null);
+        }
+    }
+
+    /**
+     * 设置度量指标，所有分段共享同一个度量指标，缓冲区的数据量按分段汇总。
+     */
+    public void setMetrics(BufferPoolMetrics metrics) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setMetrics(metrics, false);
+        }
+        flusher.setMetrics(metrics);
+        flusher.getMetrics().bindBufferLengths(() -> {
+            int length = 0;
+            for (TwinsBufferPool<E> stripe : stripes) {
+                length += stripe.currentLength();
+            }
+            return length;
+        }, () -> {
+            int length = 0;
+            for (TwinsBufferPool<E> stripe : stripes) {
+                length += stripe.standbyLength();
+            }
+            return length;
+        });
+    }
+
+    @Override
+    public void start() {
+        stripes[0].start();
+        for (int i = 1; i < stripes.length; i++) {
+            stripes[i].start(false);
+        }
+    }
+
+    /**
+     * 提交一条数据到当前线程对应的分段
+     *
+     * @param data 缓冲数据
+     */
+    @Override
+    public SubmitStatus submit(E data) {
+        return stripe().submit(data);
+    }
+
+    /**
+     * 异步提交一条数据到当前线程对应的分段
+     *
+     * @param data 缓冲数据
+     * @return 数据持久化的结果
+     */
+    @Override
+    public CompletableFuture<SubmitStatus> submitAsync(E data) {
+        return stripe().submitAsync(data);
+    }
+
+    /**
+     * 批量提交数据到当前线程对应的分段，只获取一次该分段的锁
+     *
+     * @param dataList 缓冲数据集合
+     * @return 被接收的数据量
+     */
+    @Override
+    public int submitAll(Collection<? extends E> dataList) {
+        return stripe().submitAll(dataList);
+    }
+
+    /**
+     * 选择当前线程对应的分段，如果该分段正被其他线程占用，则重新散列到另一个分段。
+     */
+    private TwinsBufferPool<E> stripe() {
+        int[] probe = PROBE.get();
+        TwinsBufferPool<E> stripe = stripes[probe[0] & mask];
+        if (mask != 0 && stripe.isContended()) {
+            int h = probe[0];
+            h ^= h << 13;
+            h ^= h >>> 17;
+            h ^= h << 5;
+            probe[0] = h;
+            stripe = stripes[h & mask];
+        }
+        return stripe;
+    }
+
+    /**
+     * 依次关闭所有分段，最后关闭共享的flush线程。
+     *
+     * @param safe 是否安全关闭
+     */
+    @Override
+    public void shutdown(boolean safe) {
+        scheduler.shutdownNow();
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.shutdown(safe);
+        }
+        if (safe) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            flusher.shutdownNow();
+        }
+        if (deadLetter != null) {
+            deadLetter.close(safe);
+        }
+        TwinsBufferPool.closeAll(closeables);
+    }
+
+    @Override
+    public List<DataBuffer<E>> shutdownNow() {
+        scheduler.shutdownNow();
+        flusher.shutdownNow();
+        if (deadLetter != null) {
+            deadLetter.close(false);
+        }
+        List<DataBuffer<E>> notEmptyBuffers = new ArrayList<>();
+        for (TwinsBufferPool<E> stripe : stripes) {
+            notEmptyBuffers.addAll(stripe.shutdownNow());
+        }
+        TwinsBufferPool.closeAll(closeables);
+        return notEmptyBuffers;
+    }
+
+    /**
+     * 所有分段关闭、共享的flush线程结束之后关闭
+     */
+    @Override
+    public void addCloseable(AutoCloseable closeable) {
+        if (closeable == null) throw new NullPointerException("AutoCloseable is not allowed to be NULL.");
+        closeables.add(closeable);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            if (!stripe.isShutdown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void setBufferTimeInSeconds(int bufferTimeInSeconds) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setBufferTimeInSeconds(bufferTimeInSeconds);
+        }
+    }
+
+    @Override
+    public void setBufferTimeMillis(long bufferTimeMillis) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setBufferTimeMillis(bufferTimeMillis);
+        }
+    }
+
+    /**
+     * 设置跨缓冲区的去重过滤器，所有分段共享，可以拦截跨分段的重复数据。
+     * 所有分段合计切换分段数量次才轮转一次，窗口覆盖每个分段最近的若干个缓冲区，
+     * 因此每一代的预期数据量应当按所有分段合计。
+     */
+    public void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        DuplicateFilter shared = duplicateFilter != null && stripes.length > 1
+                ? new SharedDuplicateFilter(duplicateFilter, stripes.length) : duplicateFilter;
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setDuplicateFilter(shared);
+        }
+    }
+
+    @Override
+    public void setEnableTemporaryStorage(boolean enableTemporaryStorage) {
+        for (TwinsBufferPool<E> stripe : stripes) {
+            stripe.setEnableTemporaryStorage(enableTemporaryStorage);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.dx.ss.buffer.core;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步提交的结果。
+ * 同一个缓冲区内的数据共享同一个实例，在该缓冲区持久化之后完成，持久化失败则异常完成；
+ * 没有放入缓冲区的数据直接返回对应提交结果的已完成实例。
+ * <p>
+ * 实例只能由缓冲池完成，调用方手动完成或者取消都不会生效。
+ */
+final class SubmitFuture extends CompletableFuture<SubmitStatus> {
+
+    /**
+     * 各个提交结果对应的已完成实例
+     */
+    private static final Map<SubmitStatus, SubmitFuture> COMPLETED = new EnumMap<>(SubmitStatus.class);
+
+    static {
+        for (SubmitStatus status : SubmitStatus.values()) {
+            COMPLETED.put(status, new SubmitFuture(status));
+        }
+    }
+
+    /**
+     * 同步提交时返回的结果
+     */
+    private final SubmitStatus status;
+
+    /**
+     * 缓冲区的持久化结果
+     */
+    SubmitFuture() {
+        this.status = SubmitStatus.ACCEPTED;
+    }
+
+    private SubmitFuture(SubmitStatus status) {
+        this.status = status;
+        super.complete(status);
+    }
+
+    private SubmitFuture(SubmitFuture source, SubmitStatus status) {
+        this.status = status;
+        source.whenComplete((v, cause) -> done(cause));
+    }
+
+    /**
+     * 获取已完成的实例
+     */
+    static SubmitFuture of(SubmitStatus status) {
+        return COMPLETED.get(status);
+    }
+
+    SubmitStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * 与当前实例同时完成，但提交结果不同的实例
+     *
+     * @param status 提交结果
+     */
+    SubmitFuture as(SubmitStatus status) {
+        return new SubmitFuture(this, status);
+    }
+
+    /**
+     * 缓冲区已经flush
+     *
+     * @param cause 持久化失败的原因，成功则为null
+     */
+    void done(Throwable cause) {
+        if (cause == null) {
+            super.complete(status);
+        } else {
+            super.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public boolean complete(SubmitStatus value) {
+        return false;
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable ex) {
+        return false;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public void obtrudeValue(SubmitStatus value) {
+        throw new UnsupportedOperationException("SubmitFuture is completed by the buffer pool.");
+    }
+
+    @Override
+    public void obtrudeException(Throwable ex) {
+        throw new UnsupportedOperationException("SubmitFuture is completed by the buffer pool.");
+    }
+}
@@ -0,0 +1,54 @@
+package com.dx.ss.buffer.core;
+
+/**
+ * 提交数据的结果
+ */
+public enum SubmitStatus {
+
+    /**
+     * 已放入缓冲区
+     */
+    ACCEPTED,
+
+    /**
+     * 已放入缓冲区，但临时存储层未能确认写入，缓冲区持久化之前进程崩溃会丢失该数据
+     */
+    UNACKNOWLEDGED,
+
+    /**
+     * 缓冲区已满，已由提交数据的线程直接持久化
+     */
+    PERSISTED,
+
+    /**
+     * 缓冲区已满，已溢出到磁盘
+     */
+    SPILLED,
+
+    /**
+     * 重复数据，已忽略
+     */
+    DUPLICATE,
+
+    /**
+     * 缓冲区已满，或者等待超时，数据被丢弃
+     */
+    DROPPED,
+
+    /**
+     * 缓冲池已关闭，数据被拒绝
+     */
+    REJECTED,
+
+    /**
+     * 等待flush时被中断，数据被丢弃
+     */
+    INTERRUPTED;
+
+    /**
+     * 数据是否被接收，即已经放入缓冲区、持久化或者溢出到磁盘
+     */
+    public boolean isAccepted() {
+        return this == ACCEPTED || this == UNACKNOWLEDGED || this == PERSISTED || this == SPILLED;
+    }
+}
@@ -1,22 +1,48 @@
 package com.dx.ss.buffer.core;
 
 
-import com.dx.ss.buffer.queue.ArrayCycleQueue;
-import com.dx.ss.buffer.queue.CycleQueue;
+import com.dx.ss.buffer.filter.DuplicateFilter;
+import com.dx.ss.buffer.metrics.BufferPoolMetrics;
+import com.dx.ss.buffer.metrics.BufferPoolMetrics.DropReason;
+import com.dx.ss.buffer.storage.PersistResult;
 import com.dx.ss.buffer.storage.PersistStorage;
+import com.dx.ss.buffer.storage.RecoveryCursor;
 import com.dx.ss.buffer.storage.TemporaryStorage;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * 双Buffer设计，实际上是对两个{@link DataBuffer}的切换和控制。
+ * 缓冲区切换后，写满的缓冲区交由{@link BufferFlusher}异步持久化，
+ * 生产者继续写入新的当前缓冲区，只有当两个缓冲区都已写满且
+ * flush仍未完成时，生产者才会被阻塞。
+ * <p>
+ * 如果两个缓冲区都支持无锁并发写入（{@link DataBuffer#isConcurrent()}），
+ * 提交数据将不再加锁，缓冲区的切换通过CAS争夺切换令牌完成。
+ * <p>
+ * 空闲的缓冲区放在无锁队列中，flush完成后归还，因此同样适用于
+ * 多个缓冲区轮转的场景，参见{@link RingBufferPool}。
  */
 @Slf4j
 public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
@@ -46,6 +72,22 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
      */
     private static final int ST_RECOVERING = 5;
 
+    /**
+     * 缓冲区代次生成器，以启动时间为种子，重启后不会与尚未恢复的代次重复，
+     * 所有缓冲池共享，保证共用同一个临时存储层时代次唯一
+     */
+    private static final AtomicLong EPOCH = new AtomicLong(System.currentTimeMillis() << 16);
+
+    /**
+     * 需要恢复的最晚代次，之后的代次都属于本次启动的缓冲池
+     */
+    private static final long RECOVERABLE_EPOCH = EPOCH.get();
+
+    /**
+     * 默认的恢复批次大小
+     */
+    public static final int DEFAULT_RECOVERY_CHUNK_SIZE = 1000;
+
     /**
      * 缓冲池当前状态
      */
@@ -57,9 +99,61 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
     private final ReentrantLock lock = new ReentrantLock();
 
     /**
-     * 由两个缓冲区组成的循环队列
+     * flush完成的信号，用于唤醒因缓冲区写满而等待的生产者
+     */
+    private final Condition flushCompleted = lock.newCondition();
+
+    /**
+     * 切换缓冲区的令牌，只有通过CAS将其置为true的线程才能切换缓冲区，
+     * 切换完成后立即释放。安全关闭时会一直持有，此后不再切换
+     */
+    private final AtomicBoolean rotating = new AtomicBoolean(false);
+
+    /**
+     * 是否以无锁方式提交数据
+     */
+    private final boolean lockFree;
+
+    /**
+     * 专门负责flush的线程，持久化动作不再占用生产者线程
+     */
+    private final BufferFlusher<E> flusher;
+
+    /**
+     * flush线程是否由当前缓冲池创建，共享的flush线程由创建者负责关闭
+     */
+    private final boolean ownFlusher;
+
+    /**
+     * 空闲的缓冲区，当前缓冲区达到阈值，会切换到队首的缓冲区，
+     * flush完成的缓冲区封存后归还到队尾
+     */
+    private final ConcurrentLinkedQueue<DataBuffer<E>> free = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 正在flush的缓冲区，按切换的先后排列
+     */
+    private final ConcurrentLinkedQueue<Flight<E>> inFlight = new ConcurrentLinkedQueue<>();
+
+    /**
+     * flush积压时创建新的缓冲区，为空则缓冲区数量固定
+     */
+    private final Supplier<DataBuffer<E>> bufferSupplier;
+
+    /**
+     * 缓冲区数量下限，即初始的缓冲区数量，积压消失后回收到此数量
+     */
+    private final int minBuffers;
+
+    /**
+     * 缓冲区数量上限
      */
-    private final CycleQueue<DataBuffer<E>> queue;
+    private final int maxBuffers;
+
+    /**
+     * 已创建的缓冲区数量
+     */
+    private final AtomicInteger allocated = new AtomicInteger();
 
     /**
      * 当前所使用的缓冲区
@@ -67,14 +161,20 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
     private volatile DataBuffer<E> currentBuffer;
 
     /**
-     * 预备的缓冲区，当前缓冲区达到阈值，会先切换到预备缓冲区
+     * 当前缓冲区的代次，每次切换都会生成新的代次。
+     * 临时存储层按代次存储数据，flush时只清除该缓冲区对应代次的数据
      */
-    private volatile DataBuffer<E> standbyBuffer;
+    private volatile long currentEpoch = EPOCH.incrementAndGet();
 
     /**
-     * 最大缓冲时限（单位：秒），超过此时间将会触发持久化
+     * 当前缓冲区的持久化结果，缓冲区内的数据共享同一个实例
      */
-    private int bufferTimeInSeconds;
+    private volatile SubmitFuture currentFuture = new SubmitFuture();
+
+    /**
+     * 最大缓冲时限（单位：毫秒），从缓冲区放入第一条数据开始计时，超过此时间将会触发持久化
+     */
+    private long bufferTimeMillis;
 
     /**
      * 是否启用临时存储层
@@ -82,14 +182,50 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
     private boolean enableTemporaryStorage;
 
     /**
-     * 如果bufferTimeInSeconds>0，将会启用定时任务
+     * 如果bufferTimeMillis>0，将会启用定时任务
      */
     private ScheduledExecutorService scheduledExecutorService;
 
     /**
-     * 定时flush缓冲区，避免缓冲时间长，数据不落盘
+     * 定时器是否由当前缓冲池创建
+     */
+    private boolean ownScheduler = true;
+
+    /**
+     * 定时任务
+     */
+    private volatile ScheduledFuture<?> scheduledFuture;
+
+    /**
+     * 当前缓冲区的flush截止时刻（{@link System#nanoTime()}），为0表示缓冲区中还没有数据。
+     * 缓冲区放入第一条数据时设置，因此缓冲区内每条数据的缓冲时间都不会超过缓冲时限
+     */
+    private final AtomicLong deadline = new AtomicLong();
+
+    /**
+     * 是否已经安排了定时任务，同一时刻只有一个定时任务，在最近的截止时刻触发
+     */
+    private final AtomicBoolean timerArmed = new AtomicBoolean();
+
+    /**
+     * 定时器是否已经启动
+     */
+    private volatile boolean timerEnabled;
+
+    /**
+     * 自适应的flush控制器，为空则使用固定的缓冲阈值和缓冲时限
+     */
+    private volatile AdaptiveFlushController flushController;
+
+    /**
+     * 上一次切换缓冲区的时刻，只由持有切换令牌的线程读写
+     */
+    private long lastSwapNanos = System.nanoTime();
+
+    /**
+     * 跨缓冲区的去重过滤器，为空则只在缓冲区内去重
      */
-    private final AtomicInteger count = new AtomicInteger(0);
+    private DuplicateFilter duplicateFilter;
 
     /**
      * 临时存储层
@@ -101,6 +237,60 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
      */
     private PersistStorage<E> persistStorage;
 
+    /**
+     * 缓冲区溢出策略
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * 阻塞策略下的等待时限（单位：纳秒），为0表示一直等待
+     */
+    private long overflowTimeoutNanos;
+
+    /**
+     * 溢出到磁盘的数据，SPILL策略下缓冲区已满时数据写入此处
+     */
+    private volatile OverflowSpill<E> spill;
+
+    /**
+     * 死信数据，持久化失败的数据写入此处，由后台线程限速补写
+     */
+    private volatile DeadLetterSpill<E> deadLetter;
+
+    /**
+     * 死信数据的补写速率（单位：条/秒），为0表示不限速
+     */
+    private int deadLetterDrainRate = DeadLetterSpill.DEFAULT_DRAIN_RATE;
+
+    /**
+     * 度量指标，默认不记录
+     */
+    private BufferPoolMetrics metrics = BufferPoolMetrics.NOOP;
+
+    /**
+     * 恢复数据时每批读取的数据量
+     */
+    private int recoveryChunkSize = DEFAULT_RECOVERY_CHUNK_SIZE;
+
+    /**
+     * 是否在后台恢复数据，恢复期间缓冲池正常接收数据
+     */
+    private boolean backgroundRecovery;
+
+    /**
+     * 后台恢复线程
+     */
+    private Thread recoveryThread;
+
+    /**
+     * 已经恢复的数据量
+     */
+    private final AtomicLong recovered = new AtomicLong();
+
+    /**
+     * 随缓冲池关闭的资源
+     */
+    private final List<AutoCloseable> closeables = new CopyOnWriteArrayList<>();
 
     /**
      * 双Buffer缓冲池，必须同时指定两个缓冲区。
@@ -109,14 +299,48 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
      * @param buffer2 第二个缓冲区，容量达到阈值可替换buffer1的角色
      */
     public TwinsBufferPool(DataBuffer<E> buffer1, DataBuffer<E> buffer2) {
-        //添加两个缓冲区
-        List<DataBuffer<E>> buffers = new ArrayList<>(2);
-        buffers.add(buffer1);
-        buffers.add(buffer2);
-        this.queue = new ArrayCycleQueue<>(buffers);
-        //将队列移动到第一位
-        this.currentBuffer = this.queue.next();
+        this(buffer1, buffer2, null);
+    }
+
+    /**
+     * 双Buffer缓冲池，可以与其他缓冲池共享同一个flush线程。
+     *
+     * @param buffer1 第一个缓冲区，默认将其作为当前所使用的缓冲区
+     * @param buffer2 第二个缓冲区，容量达到阈值可替换buffer1的角色
+     * @param flusher 共享的flush线程，为空则由缓冲池自行创建
+     */
+    public TwinsBufferPool(DataBuffer<E> buffer1, DataBuffer<E> buffer2, BufferFlusher<E> flusher) {
+        this(Arrays.asList(buffer1, buffer2), null, 2, flusher);
+    }
 
+    /**
+     * 多个缓冲区轮转的缓冲池。
+     *
+     * @param buffers        初始的缓冲区，至少两个，第一个作为当前所使用的缓冲区
+     * @param bufferSupplier flush积压时创建新的缓冲区，为空则缓冲区数量固定
+     * @param maxBuffers     缓冲区数量上限
+     * @param flusher        共享的flush线程，为空则由缓冲池自行创建
+     */
+    TwinsBufferPool(List<DataBuffer<E>> buffers, Supplier<DataBuffer<E>> bufferSupplier, int maxBuffers, BufferFlusher<E> flusher) {
+        if (buffers.size() < 2) {
+            throw new IllegalArgumentException("buffers is not a legal value.");
+        }
+        if (maxBuffers < buffers.size()) {
+            throw new IllegalArgumentException("maxBuffers is not a legal value.");
+        }
+        this.ownFlusher = flusher == null;
+        this.flusher = flusher != null ? flusher : new BufferFlusher<>("TwinsBufferPool-flusher");
+        boolean concurrent = true;
+        for (DataBuffer<E> buffer : buffers) {
+            concurrent &= buffer.isConcurrent();
+        }
+        this.lockFree = concurrent;
+        this.bufferSupplier = bufferSupplier;
+        this.minBuffers = buffers.size();
+        this.maxBuffers = maxBuffers;
+        this.allocated.set(buffers.size());
+        this.currentBuffer = buffers.get(0);
+        this.free.addAll(buffers.subList(1, buffers.size()));
     }
 
     /**
@@ -138,10 +362,13 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
     @Override
     public void setPersistStorage(PersistStorage<E> storage) {
         this.persistStorage = storage;
+        this.flusher.setPersistStorage(storage);
     }
 
     /**
      * 从存储层中恢复数据。
+     * 通过恢复游标分批读取，每批数据持久化之后再从临时存储层中删除，
+     * 内存占用只与批次大小有关。
      *
      * @return 恢复的数量
      */
@@ -149,13 +376,10 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
     public int recovery() {
         //缓冲池状态=正在恢复数据
         this.state.set(ST_RECOVERING);
-        List<E> dataList = temporaryStorage.getAll();
-        if (!dataList.isEmpty()) {
-            persistStorage.store(dataList);
-            temporaryStorage.clear();
-            log.info("{} data has recovered.", dataList.size());
+        if (temporaryStorage == null) {
+            return 0;
         }
-        return dataList.size();
+        return recover(temporaryStorage.cursor(RECOVERABLE_EPOCH, recoveryChunkSize));
     }
 
     /**
@@ -163,173 +387,1380 @@ public class TwinsBufferPool<E> implements BufferPoolWithStorage<E> {
      */
     @Override
     public void start() {
-        recovery();
-        if (bufferTimeInSeconds > 0) {
-            //一秒钟检测一次，达到上限就flush
-            scheduledExecutorService = Executors.newScheduledThreadPool(1);
-            scheduledExecutorService.scheduleAtFixedRate(() -> {
-                int c = count.incrementAndGet();
-                if (c >= bufferTimeInSeconds) {
-                    log.debug("Buffer time exceed, flush current buffer.");
-                    flush(currentBuffer);
-                }
-            }, 0, 1, TimeUnit.SECONDS);
-        }
-        //缓冲池从数据恢复状态中转变为已启动状态
-        this.state.compareAndSet(ST_RECOVERING, ST_STARTED);
+        start(true);
     }
 
     /**
-     * 提交一条数据
+     * 开启缓冲池。
      *
-     * @param data 缓冲数据，不限类型
+     * @param recover 是否恢复临时存储层的数据，共享临时存储层的缓冲池只需要恢复一次
      */
-    @Override
-    public void submit(Object data) {
-        int s = this.state.get();
-        if (isRunning(s)) {
-            final ReentrantLock mainLock = this.lock;
-            mainLock.lock();
-            try {
-                if (currentBuffer.reachThreshold()) {
-                    log.debug("{} length is {}, has already reach to the threshold.", currentBuffer.getBufferName(), currentBuffer.length());
-                    swap();
-                    flush(standbyBuffer);
-                }
-                E o = currentBuffer.put((E) data);
-                if (enableTemporaryStorage && o != null) {
-                    //启用存储层
-                    if (temporaryStorage != null) {
-                        temporaryStorage.store(o);
-                    } else {
-                        log.warn("Temporary storage is enabled, but the TemporaryStorage is NULL.");
-                    }
+    void start(boolean recover) {
+        if (!recover) {
+            this.state.set(ST_RECOVERING);
+        } else if (backgroundRecovery && temporaryStorage != null && !temporaryStorage.isEpochAware()) {
+            //不区分代次的临时存储层无法只删除已经恢复的数据，只能在接收数据之前恢复
+            log.warn("{} does not support epochs, recovering before start.", temporaryStorage.getClass().getSimpleName());
+            recovery();
+        } else if (backgroundRecovery && temporaryStorage != null) {
+            //先打开游标再接收数据，避免恢复本次启动之后写入的数据
+            this.state.set(ST_RECOVERING);
+            final RecoveryCursor<E> cursor = temporaryStorage.cursor(RECOVERABLE_EPOCH, recoveryChunkSize);
+            recoveryThread = new Thread(() -> {
+                try {
+                    recover(cursor);
+                } catch (Exception e) {
+                    log.error("Exception occurred when recover data: {}", e);
+                } finally {
+                    this.state.compareAndSet(ST_RECOVERING, ST_STARTED);
                 }
-            } finally {
-                mainLock.unlock();
+            }, "TwinsBufferPool-recovery");
+            recoveryThread.setDaemon(true);
+        } else {
+            recovery();
+        }
+        if (bufferTimeMillis > 0) {
+            //不再定期轮询，只在当前缓冲区的截止时刻触发
+            if (scheduledExecutorService == null) {
+                scheduledExecutorService = Executors.newScheduledThreadPool(1);
+                ownScheduler = true;
             }
+            timerEnabled = true;
+            if (deadline.get() != 0) {
+                armTimer();
+            }
+        }
+        if (recoveryThread != null) {
+            recoveryThread.start();
+        } else {
+            //缓冲池从数据恢复状态中转变为已启动状态
+            this.state.compareAndSet(ST_RECOVERING, ST_STARTED);
         }
     }
 
     /**
-     * 关闭缓冲池，不再接收任何缓冲数据。
-     * 此方法会触发flush动作。
+     * 分批恢复游标中的数据，缓冲池关闭时停止，剩余的数据留待下次恢复。
      *
-     * @param safe 是否安全关闭，true表示会将依次对
-     *             Queue中的缓冲区触发flush动作，
-     *             否则只会flush当前缓冲区。
+     * @return 恢复的数量
      */
-    @Override
-    public void shutdown(boolean safe) {
-        final ReentrantLock mainLock = this.lock;
-        mainLock.lock();
+    private int recover(RecoveryCursor<E> cursor) {
+        int total = 0;
+        boolean exhausted = false;
         try {
-            //首先要停止定时器
-            if (scheduledExecutorService != null) {
-                scheduledExecutorService.shutdownNow();
-            }
-            if (!safe) {
-                shutdownNow();
-            } else {
-                this.state.compareAndSet(ST_STARTED, ST_SHUTTING_DOWN);
-                flush(currentBuffer);
-                this.state.compareAndSet(ST_SHUTTING_DOWN, ST_SHUTDOWN);
+            List<E> chunk;
+            while (this.state.get() == ST_RECOVERING) {
+                if ((chunk = cursor.next()).isEmpty()) {
+                    exhausted = true;
+                    break;
+                }
+                PersistResult<E> result = persistStorage.storeAll(chunk);
+                if (!result.isSuccess()) {
+                    //不提交游标，失败的批次留待下次恢复
+                    log.error("{} of {} data failed to recover: {}", result.getFailed().size(), chunk.size(), result.getCause());
+                    break;
+                }
+                cursor.commit();
+                metrics.onRecovered(chunk.size());
+                total += chunk.size();
+                recovered.addAndGet(chunk.size());
+                log.debug("{} data has recovered, continue recovering.", total);
             }
         } finally {
-            mainLock.unlock();
+            cursor.close();
         }
-        log.warn("Buffer pool has shutdown.");
+        if (exhausted && total > 0 && !temporaryStorage.isEpochAware()) {
+            //不区分代次的游标不会删除数据，此时缓冲池尚未接收数据，可以全部清空
+            temporaryStorage.clear();
+        }
+        if (total > 0) {
+            log.info("{} data has recovered.", total);
+        }
+        return total;
     }
 
     /**
-     * 关闭缓冲池，不再接收任何缓冲数据。
-     * 此方法将不会触发flush动作，有丢失数据的风险。
-     *
-     * @return 不为空的缓冲区对象实例
+     * 是否正在恢复数据
+     */
+    public boolean isRecovering() {
+        return state.get() == ST_RECOVERING;
+    }
+
+    /**
+     * 已经恢复的数据量，可用于观察后台恢复的进度
+     */
+    public long getRecoveredCount() {
+        return recovered.get();
+    }
+
+    /**
+     * 恢复数据时每批读取的数据量
      */
     @Override
-    public List<DataBuffer> shutdownNow() {
-        final ReentrantLock mainLock = this.lock;
-        mainLock.lock();
-        try {
-            //首先要停止定时器
-            if (scheduledExecutorService != null) {
-                scheduledExecutorService.shutdownNow();
-            }
-            this.state.compareAndSet(ST_STARTED, ST_SHUTDOWN);
-            List<DataBuffer> notEmptyBuffers = new ArrayList<>(2);
-            if (!currentBuffer.isEmpty()) {
-                notEmptyBuffers.add(currentBuffer);
-            }
-            DataBuffer next = queue.next();
-            if (!next.isEmpty()) {
-                notEmptyBuffers.add(next);
-            }
-            log.warn("Buffer pool has shutdown.");
-            return notEmptyBuffers;
-        } finally {
-            mainLock.unlock();
+    public void setRecoveryChunkSize(int recoveryChunkSize) {
+        if (recoveryChunkSize <= 0) {
+            throw new IllegalArgumentException("recoveryChunkSize is not a legal value.");
         }
+        this.recoveryChunkSize = recoveryChunkSize;
     }
 
     /**
-     * 缓冲池是否已关闭
+     * 是否在后台恢复数据，恢复期间缓冲池正常接收数据。
+     * 临时存储层不区分代次时仍然在启动之前恢复。
      */
     @Override
-    public boolean isShutdown() {
-        return !isRunning(state.get());
+    public void setBackgroundRecovery(boolean backgroundRecovery) {
+        this.backgroundRecovery = backgroundRecovery;
     }
 
     /**
-     * 最大缓冲时限（单位：秒），超过此时间将会触发持久化
+     * 缓冲区溢出策略，即当前缓冲区已满，且预备缓冲区仍在flush时，如何处理新提交的数据
      */
     @Override
-    public void setBufferTimeInSeconds(int bufferTimeInSeconds) {
-        this.bufferTimeInSeconds = bufferTimeInSeconds;
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) throw new NullPointerException("OverflowPolicy is not allowed to be NULL.");
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
     }
 
     /**
-     * 是否启用临时存储层
+     * 阻塞策略下的等待时限（单位：毫秒），超时后丢弃数据，为0表示一直等待
      */
     @Override
-    public void setEnableTemporaryStorage(boolean enableTemporaryStorage) {
-        this.enableTemporaryStorage = enableTemporaryStorage;
+    public void setOverflowTimeoutMillis(long overflowTimeoutMillis) {
+        if (overflowTimeoutMillis < 0) {
+            throw new IllegalArgumentException("overflowTimeoutMillis is not a legal value.");
+        }
+        this.overflowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(overflowTimeoutMillis);
     }
 
     /**
-     * 交换下一个缓冲区。
+     * 设置溢出存储，必须支持按代次存储和恢复游标。
+     * 上次运行遗留的溢出数据会在之后的flush中补写。
      */
-    private void swap() {
-        this.standbyBuffer = this.currentBuffer;
-        this.currentBuffer = queue.next();
-        log.debug("Buffer swapping complete! Current buffer is {}", currentBuffer.getBufferName());
+    @Override
+    public void setSpillStorage(TemporaryStorage<E> spillStorage) {
+        setSpill(spillStorage != null ? newSpill(spillStorage) : null);
     }
 
     /**
-     * 将缓冲区的数据持久化到磁盘。
-     * 每次flush都会重置计数器。
+     * 创建溢出数据，代次与缓冲区代次出自同一个生成器
      */
-    private void flush(DataBuffer<E> buffer) {
-        List<E> dataList = new ArrayList<>(buffer.getDataList());
-        if (!dataList.isEmpty()) {
-            persistStorage.store(dataList);
-            if (enableTemporaryStorage && temporaryStorage != null) {
-                temporaryStorage.clear();
-            }
-            buffer.clear();
+    static <E> OverflowSpill<E> newSpill(TemporaryStorage<E> spillStorage) {
+        if (!spillStorage.isEpochAware()) {
+            throw new IllegalArgumentException("spillStorage is not a legal value.");
         }
-        //重置计数器
-        count.set(0);
-        log.debug("Flush buffer data, Total: {}", dataList.size());
+        return new OverflowSpill<>(spillStorage, EPOCH.incrementAndGet());
     }
 
     /**
-     * 检测是否正在运行
+     * 设置溢出数据，共用同一个溢出存储的缓冲池必须共享同一个实例
+     */
+    void setSpill(OverflowSpill<E> spill) {
+        this.spill = spill;
+    }
+
+    /**
+     * 设置死信存储，必须支持按代次存储和恢复游标。
+     * 上次运行遗留的死信数据会由后台线程补写。
+     */
+    @Override
+    public void setDeadLetterStorage(TemporaryStorage<E> deadLetterStorage) {
+        setDeadLetter(deadLetterStorage != null ? newDeadLetter(deadLetterStorage, flusher, deadLetterDrainRate) : null);
+    }
+
+    /**
+     * 死信数据的补写速率（单位：条/秒），为0表示不限速
+     */
+    @Override
+    public void setDeadLetterDrainRate(int deadLetterDrainRate) {
+        if (deadLetterDrainRate < 0) {
+            throw new IllegalArgumentException("deadLetterDrainRate is not a legal value.");
+        }
+        this.deadLetterDrainRate = deadLetterDrainRate;
+        DeadLetterSpill<E> deadLetter = this.deadLetter;
+        if (deadLetter != null) {
+            deadLetter.setDrainRate(deadLetterDrainRate);
+        }
+    }
+
+    /**
+     * 创建死信数据，补写到flush线程当前的持久化层
+     */
+    static <E> DeadLetterSpill<E> newDeadLetter(TemporaryStorage<E> deadLetterStorage, BufferFlusher<E> flusher, int drainRate) {
+        if (!deadLetterStorage.isEpochAware()) {
+            throw new IllegalArgumentException("deadLetterStorage is not a legal value.");
+        }
+        return new DeadLetterSpill<>(deadLetterStorage, EPOCH::incrementAndGet, flusher::getPersistStorage, drainRate);
+    }
+
+    /**
+     * 设置死信数据，共用同一个flush线程的缓冲池必须共享同一个实例
+     */
+    void setDeadLetter(DeadLetterSpill<E> deadLetter) {
+        DeadLetterSpill<E> previous = this.deadLetter;
+        if (previous != null && previous != deadLetter && ownFlusher) {
+            previous.close(false);
+        }
+        this.deadLetter = deadLetter;
+        this.flusher.setDeadLetter(deadLetter);
+    }
+
+    /**
+     * 设置度量指标，独占的flush线程也会使用同一个度量指标。
+     */
+    public void setMetrics(BufferPoolMetrics metrics) {
+        setMetrics(metrics, true);
+    }
+
+    /**
+     * 设置度量指标。
      *
-     * @param s 当前状态
+     * @param bindBuffers 是否绑定缓冲区的数据量，分段缓冲池会汇总所有分段后统一绑定
      */
-    private static boolean isRunning(int s) {
-        return s < ST_SHUTDOWN;
+    void setMetrics(BufferPoolMetrics metrics, boolean bindBuffers) {
+        this.metrics = metrics != null ? metrics : BufferPoolMetrics.NOOP;
+        if (ownFlusher) {
+            flusher.setMetrics(this.metrics);
+        }
+        if (bindBuffers) {
+            this.metrics.bindBufferLengths(this::currentLength, this::standbyLength);
+        }
+    }
+
+    /**
+     * 当前缓冲区的数据量
+     */
+    int currentLength() {
+        return currentBuffer.length();
+    }
+
+    /**
+     * 正在flush的缓冲区的数据量
+     */
+    int standbyLength() {
+        int length = 0;
+        for (Flight<E> flight : inFlight) {
+            length += flight.buffer.length();
+        }
+        return length;
+    }
+
+    /**
+     * 已创建的缓冲区数量
+     */
+    int bufferCount() {
+        return allocated.get();
+    }
+
+    /**
+     * 是否还有可以切换的缓冲区，即存在空闲的缓冲区或者还能创建新的缓冲区
+     */
+    private boolean hasSpare() {
+        return !free.isEmpty() || (bufferSupplier != null && allocated.get() < maxBuffers);
+    }
+
+    /**
+     * 提交一条数据
+     *
+     * @param data 缓冲数据
+     * @return 提交的结果
+     */
+    @Override
+    public SubmitStatus submit(E data) {
+        return offer(data).getStatus();
+    }
+
+    /**
+     * 异步提交一条数据，返回的结果在数据所在的缓冲区持久化之后完成，持久化失败则异常完成。
+     * 同一个缓冲区内的数据共享同一个结果实例，不能手动完成或者取消；
+     * 没有放入缓冲区的数据返回已完成的结果，例如{@link SubmitStatus#DROPPED}。
+     * <p>
+     * {@link OverflowPolicy#DROP_OLDEST}策略下被淘汰的数据不会单独通知，
+     * 其结果仍然随缓冲区的持久化完成。
+     *
+     * @param data 缓冲数据
+     * @return 数据持久化的结果
+     */
+    @Override
+    public CompletableFuture<SubmitStatus> submitAsync(E data) {
+        return offer(data);
+    }
+
+    /**
+     * 批量提交数据，加锁模式下只获取一次锁，按当前缓冲区的剩余容量分批放入，
+     * 每批都不会越过缓冲阈值，切换时机与逐条提交相同。
+     * 当前缓冲区写满且无法切换时按溢出策略处理，阻塞策略等待flush完成时会释放锁，其他生产者可以继续写入。
+     * 临时存储层未能确认写入的数据仍在缓冲区中，同样计入接收的数据量，只记录日志。
+     *
+     * @param dataList 缓冲数据集合
+     * @return 被接收的数据量
+     */
+    @Override
+    public int submitAll(Collection<? extends E> dataList) {
+        if (lockFree) {
+            int accepted = 0;
+            for (E data : dataList) {
+                if (offer(data).getStatus().isAccepted()) {
+                    accepted++;
+                }
+            }
+            return accepted;
+        }
+        if (duplicateFilter == null && dataList instanceof List && dataList instanceof RandomAccess) {
+            //不需要跨缓冲区去重时直接使用原列表，列式数据可以整批复制到缓冲区
+            @SuppressWarnings("unchecked")
+            List<E> list = (List<E>) dataList;
+            return submitAllLocked(list);
+        }
+        List<E> list = new ArrayList<>(dataList.size());
+        for (E data : dataList) {
+            //只检查不记录，放入缓冲区之后再记录
+            if (duplicateFilter != null && duplicateFilter.mightContain(data)) {
+                metrics.onDropped(DropReason.DUPLICATE);
+                continue;
+            }
+            list.add(data);
+        }
+        return submitAllLocked(list);
+    }
+
+    /**
+     * 提交数据，返回值为数据持久化的结果
+     */
+    private SubmitFuture offer(E data) {
+        int s = this.state.get();
+        if (!isAccepting(s)) {
+            metrics.onDropped(DropReason.SHUTDOWN);
+            return SubmitFuture.of(SubmitStatus.REJECTED);
+        }
+        if (duplicateFilter != null && duplicateFilter.mightContain(data)) {
+            log.debug("Detected duplicated data in the dedup window, ignore it!");
+            metrics.onDropped(DropReason.DUPLICATE);
+            return SubmitFuture.of(SubmitStatus.DUPLICATE);
+        }
+        try {
+            SubmitFuture future = lockFree ? submitLockFree(data) : submitLocked(data);
+            if (duplicateFilter != null && future.getStatus().isAccepted()) {
+                //被丢弃或拒绝的数据不记录，重发时仍然可以接收
+                duplicateFilter.put(data);
+            }
+            return future;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.onDropped(DropReason.INTERRUPTED);
+            log.warn("Interrupted while waiting for flush, data is discarded.");
+            return SubmitFuture.of(SubmitStatus.INTERRUPTED);
+        }
+    }
+
+    /**
+     * 加锁批量提交数据。
+     *
+     * @param list 通过跨缓冲区去重的数据
+     * @return 被接收的数据量
+     */
+    private int submitAllLocked(List<E> list) {
+        final ReentrantLock mainLock = this.lock;
+        int accepted = 0;
+        int i = 0;
+        DropReason reason = null;
+        List<CompletableFuture<Integer>> stored = new ArrayList<>();
+        acquire(mainLock);
+        try {
+            final DataBuffer<E> first = currentBuffer;
+            long nanos = overflowTimeoutNanos;
+            while (i < list.size()) {
+                if (!isRunning(state.get())) {
+                    reason = DropReason.SHUTDOWN;
+                    break;
+                }
+                if (currentBuffer.reachThreshold()) {
+                    tryRotate(currentBuffer);
+                }
+                int room = currentBuffer.remainingCapacity();
+                if (room <= 0) {
+                    //当前缓冲区已满，且其他缓冲区都在flush
+                    if (overflowPolicy != OverflowPolicy.BLOCK) {
+                        break;
+                    }
+                    if (overflowTimeoutNanos == 0) {
+                        flushCompleted.await();
+                    } else if (nanos > 0) {
+                        nanos = flushCompleted.awaitNanos(nanos);
+                    } else {
+                        reason = DropReason.TIMEOUT;
+                        break;
+                    }
+                    continue;
+                }
+                //未达到阈值时只放到阈值为止，下一批放入之前切换缓冲区
+                int below = currentBuffer.remainingThreshold();
+                if (below > 0) {
+                    room = Math.min(room, below);
+                }
+                int end = Math.min(list.size(), i + room);
+                List<E> chunk = list.subList(i, end);
+                if (duplicateFilter != null && currentBuffer != first) {
+                    //切换之后，之前的缓冲区中的数据已经记录在过滤器中，同一批中重复的数据需要重新检查
+                    chunk = unseen(chunk);
+                }
+                int added = putAll(chunk, stored);
+                if (added > 0) {
+                    markDeadline();
+                }
+                if (duplicateFilter != null) {
+                    //未被放入的数据与缓冲区中已有的数据重复，记录与否结果相同
+                    for (E data : chunk) {
+                        duplicateFilter.put(data);
+                    }
+                }
+                for (int n = 0; n < added; n++) {
+                    metrics.onSubmit();
+                }
+                for (int n = i + added; n < end; n++) {
+                    metrics.onDropped(DropReason.DUPLICATE);
+                }
+                accepted += added;
+                i = end;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for flush, data is discarded.");
+            reason = DropReason.INTERRUPTED;
+        } finally {
+            mainLock.unlock();
+        }
+        for (CompletableFuture<Integer> f : stored) {
+            awaitStored(f);
+        }
+        for (; i < list.size(); i++) {
+            if (reason != null) {
+                metrics.onDropped(reason);
+                continue;
+            }
+            //非阻塞策略下逐个提交剩余的数据，在锁外处理溢出
+            try {
+                E data = list.get(i);
+                if (submitLocked(data).getStatus().isAccepted()) {
+                    if (duplicateFilter != null) {
+                        duplicateFilter.put(data);
+                    }
+                    accepted++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reason = DropReason.INTERRUPTED;
+                metrics.onDropped(reason);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * 过滤掉去重窗口内已经出现过的数据
+     */
+    private List<E> unseen(List<E> chunk) {
+        List<E> unseen = new ArrayList<>(chunk.size());
+        for (E data : chunk) {
+            if (!duplicateFilter.mightContain(data)) {
+                unseen.add(data);
+            }
+        }
+        return unseen;
+    }
+
+    /**
+     * 将数据批量放入当前缓冲区，调用时必须持有缓冲池的锁，且数据量不超过剩余容量。
+     * 启用临时存储层时需要知道哪些数据被放入了缓冲区，改为逐个放入。
+     *
+     * @param stored 收集临时存储层写入完成的结果，释放锁之后再等待
+     * @return 放入的数据量，其余为重复数据
+     */
+    private int putAll(List<E> chunk, List<CompletableFuture<Integer>> stored) {
+        final DataBuffer<E> buffer = this.currentBuffer;
+        if (!enableTemporaryStorage || temporaryStorage == null) {
+            return buffer.offerAll(chunk);
+        }
+        List<E> added = new ArrayList<>(chunk.size());
+        for (E data : chunk) {
+            E o = buffer.put(data);
+            if (o != null) {
+                added.add(o);
+            }
+        }
+        if (!added.isEmpty()) {
+            long begin = metrics.isEnabled() ? System.nanoTime() : 0;
+            stored.add(temporaryStorage.storeAsync(currentEpoch, added));
+            if (metrics.isEnabled()) {
+                metrics.recordTemporaryStore(System.nanoTime() - begin);
+            }
+        }
+        return added.size();
+    }
+
+    /**
+     * 加锁提交数据
+     */
+    private SubmitFuture submitLocked(E data) throws InterruptedException {
+        final ReentrantLock mainLock = this.lock;
+        boolean overflow = false;
+        SubmitFuture accepted;
+        CompletableFuture<Integer> stored;
+        acquire(mainLock);
+        try {
+            long nanos = overflowTimeoutNanos;
+            //当前缓冲区已满，且其他缓冲区都在flush，按溢出策略处理
+            while (isRunning(state.get()) && currentBuffer.isFull() && !hasSpare()) {
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST && currentBuffer.evictOldest() != null) {
+                    metrics.onDropped(DropReason.EVICTED);
+                    break;
+                }
+                if (overflowPolicy != OverflowPolicy.BLOCK) {
+                    overflow = true;
+                    break;
+                }
+                if (overflowTimeoutNanos == 0) {
+                    flushCompleted.await();
+                } else if (nanos > 0) {
+                    nanos = flushCompleted.awaitNanos(nanos);
+                } else {
+                    metrics.onDropped(DropReason.TIMEOUT);
+                    return SubmitFuture.of(SubmitStatus.DROPPED);
+                }
+            }
+            if (!overflow) {
+                if (!isRunning(state.get())) {
+                    metrics.onDropped(DropReason.SHUTDOWN);
+                    return SubmitFuture.of(SubmitStatus.REJECTED);
+                }
+                if (currentBuffer.reachThreshold()) {
+                    log.debug("{} length is {}, has already reach to the threshold.", currentBuffer.getBufferName(), currentBuffer.length());
+                    tryRotate(currentBuffer);
+                }
+                E o = currentBuffer.put(data);
+                if (o == null) {
+                    if (currentBuffer.isFull()) {
+                        metrics.onDropped(DropReason.FULL);
+                        return SubmitFuture.of(SubmitStatus.DROPPED);
+                    }
+                    metrics.onDropped(DropReason.DUPLICATE);
+                    return SubmitFuture.of(SubmitStatus.DUPLICATE);
+                }
+                metrics.onSubmit();
+                stored = store(o);
+                markDeadline();
+                accepted = currentFuture;
+            } else {
+                accepted = null;
+                stored = null;
+            }
+        } finally {
+            mainLock.unlock();
+        }
+        if (accepted != null) {
+            //在锁外等待临时存储层确认写入，其他生产者可以写入同一批次
+            return awaitStored(stored) ? accepted : accepted.as(SubmitStatus.UNACKNOWLEDGED);
+        }
+        //在锁外处理溢出，避免持久化或者写磁盘时阻塞其他生产者
+        return SubmitFuture.of(overflow(data));
+    }
+
+    /**
+     * 无锁提交数据，只有在两个缓冲区都已写满时才会按溢出策略处理。
+     * 并发缓冲区不支持淘汰数据，{@link OverflowPolicy#DROP_OLDEST}退化为丢弃新数据。
+     * <p>
+     * 切换缓冲区时先更新持久化结果再更新当前缓冲区，放入数据之后读到的结果
+     * 不会早于数据所在缓冲区的结果，只会在极少数情况下晚一个批次完成。
+     */
+    private SubmitFuture submitLockFree(E data) throws InterruptedException {
+        long deadline = overflowTimeoutNanos > 0 ? System.nanoTime() + overflowTimeoutNanos : 0;
+        while (isAccepting(state.get())) {
+            DataBuffer<E> buffer = this.currentBuffer;
+            if (buffer.reachThreshold() && hasSpare()) {
+                tryRotate(buffer);
+                continue;
+            }
+            E o = buffer.put(data);
+            if (o != null) {
+                metrics.onSubmit();
+                CompletableFuture<Integer> stored = store(o);
+                markDeadline();
+                SubmitFuture accepted = currentFuture;
+                return awaitStored(stored) ? accepted : accepted.as(SubmitStatus.UNACKNOWLEDGED);
+            }
+            if (!buffer.isFull()) {
+                //重复数据
+                metrics.onDropped(DropReason.DUPLICATE);
+                return SubmitFuture.of(SubmitStatus.DUPLICATE);
+            }
+            if (overflowPolicy != OverflowPolicy.BLOCK && currentBuffer == buffer && !hasSpare()) {
+                return SubmitFuture.of(overflow(data));
+            }
+            //缓冲区已满（或已被封存），等待flush结束后重试
+            final ReentrantLock mainLock = this.lock;
+            acquire(mainLock);
+            try {
+                while (isAccepting(state.get()) && currentBuffer == buffer && !hasSpare()) {
+                    if (deadline == 0) {
+                        flushCompleted.await();
+                        continue;
+                    }
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0) {
+                        metrics.onDropped(DropReason.TIMEOUT);
+                        return SubmitFuture.of(SubmitStatus.DROPPED);
+                    }
+                    flushCompleted.awaitNanos(nanos);
+                }
+            } finally {
+                mainLock.unlock();
+            }
+        }
+        metrics.onDropped(DropReason.SHUTDOWN);
+        return SubmitFuture.of(SubmitStatus.REJECTED);
+    }
+
+    /**
+     * 按溢出策略处理无法放入缓冲区的数据，调用时不能持有缓冲池的锁。
+     */
+    private SubmitStatus overflow(E data) {
+        switch (overflowPolicy) {
+            case CALLER_RUNS:
+                return persistDirectly(data);
+            case SPILL:
+                OverflowSpill<E> spill = this.spill;
+                if (spill != null) {
+                    spill.spill(data, metrics);
+                    return SubmitStatus.SPILLED;
+                }
+                log.warn("Overflow policy is SPILL, but the spill storage is NULL.");
+                break;
+            default:
+                break;
+        }
+        metrics.onDropped(DropReason.FULL);
+        return SubmitStatus.DROPPED;
+    }
+
+    /**
+     * 由提交数据的线程直接持久化，失败时写入死信存储，仍然失败则丢弃
+     *
+     * @return 持久化成功为PERSISTED，写入死信存储为SPILLED，否则为DROPPED
+     */
+    private SubmitStatus persistDirectly(E data) {
+        List<E> dataList = Collections.singletonList(data);
+        long begin = metrics.isEnabled() ? System.nanoTime() : 0;
+        PersistResult<E> result;
+        try {
+            result = persistStorage.storeAll(dataList);
+        } catch (RuntimeException e) {
+            result = PersistResult.failure(dataList, e);
+        }
+        if (metrics.isEnabled()) {
+            metrics.recordPersist(System.nanoTime() - begin);
+        }
+        if (result.isSuccess()) {
+            metrics.onSubmit();
+            return SubmitStatus.PERSISTED;
+        }
+        DeadLetterSpill<E> deadLetter = this.deadLetter;
+        if (deadLetter != null && deadLetter.divert(result, metrics) == null) {
+            return SubmitStatus.SPILLED;
+        }
+        log.error("Failed to persist overflow data, it is discarded: {}", String.valueOf(result.getCause()));
+        metrics.onDropped(DropReason.PERSIST_FAILED);
+        return SubmitStatus.DROPPED;
+    }
+
+    /**
+     * 将溢出的数据补写到持久化层
+     *
+     * @param maxChunks 最多补写的批次，为负数表示全部补写
+     */
+    private void drainSpill(int maxChunks) {
+        OverflowSpill<E> spill = this.spill;
+        if (spill != null) {
+            spill.drain(persistStorage, EPOCH.incrementAndGet(), recoveryChunkSize, maxChunks);
+        }
+    }
+
+    /**
+     * 写入临时存储层，必须在放入缓冲区之后调用。
+     * 切换缓冲区时先更新代次再更新当前缓冲区，因此这里读到的代次
+     * 不会早于数据实际所在缓冲区的代次，数据不会被提前清除。
+     *
+     * @param o 成功放入缓冲区的数据，为空则忽略
+     * @return 写入完成的结果，需要在释放锁之后通过{@link #awaitStored(CompletableFuture)}等待，未写入则为null
+     */
+    private CompletableFuture<Integer> store(E o) {
+        CompletableFuture<Integer> stored = null;
+        if (enableTemporaryStorage && o != null) {
+            //启用存储层
+            if (temporaryStorage != null) {
+                if (metrics.isEnabled()) {
+                    long begin = System.nanoTime();
+                    stored = temporaryStorage.storeAsync(currentEpoch, Collections.singletonList(o));
+                    metrics.recordTemporaryStore(System.nanoTime() - begin);
+                } else {
+                    stored = temporaryStorage.storeAsync(currentEpoch, Collections.singletonList(o));
+                }
+            } else {
+                log.warn("Temporary storage is enabled, but the TemporaryStorage is NULL.");
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * 等待临时存储层确认写入，调用时不能持有缓冲池的锁。
+     * 写入失败时数据仍在缓冲区中，随缓冲区持久化，但进程崩溃时无法恢复。
+     *
+     * @return 是否确认写入，未写入临时存储层时返回true
+     */
+    private boolean awaitStored(CompletableFuture<Integer> stored) {
+        if (stored == null) {
+            return true;
+        }
+        try {
+            stored.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Failed to write temporary storage: {}", e.getCause().toString());
+        }
+        return false;
+    }
+
+    /**
+     * 关闭缓冲池，不再接收任何缓冲数据。
+     * 此方法会触发flush动作。
+     *
+     * @param safe 是否安全关闭，true表示会将依次对
+     *             Queue中的缓冲区触发flush动作，
+     *             否则只会flush当前缓冲区。
+     */
+    @Override
+    public void shutdown(boolean safe) {
+        final ReentrantLock mainLock = this.lock;
+        mainLock.lock();
+        try {
+            if (this.state.get() == ST_SHUTDOWN) {
+                //重复关闭时直接返回，例如缓冲池同时注册在多个地方
+                return;
+            }
+            //首先要停止定时器
+            stopTimer();
+            if (!safe) {
+                shutdownNow();
+            } else {
+                advanceState(ST_SHUTTING_DOWN);
+                awaitRecovery();
+                //占有切换令牌，等待正在进行的flush结束，再flush当前缓冲区
+                while (!rotating.compareAndSet(false, true)) {
+                    Thread.yield();
+                }
+                while (!inFlight.isEmpty()) {
+                    flushCompleted.awaitUninterruptibly();
+                }
+                flush(currentBuffer, currentEpoch, currentFuture);
+                drainSpill(-1);
+                if (ownFlusher) {
+                    flusher.shutdown();
+                    closeDeadLetter(true);
+                }
+                this.state.compareAndSet(ST_SHUTTING_DOWN, ST_SHUTDOWN);
+                flushCompleted.signalAll();
+            }
+        } finally {
+            mainLock.unlock();
+        }
+        if (safe && ownFlusher && !closeables.isEmpty()) {
+            //flush回调需要获取锁，释放锁之后再等待最后的flush完成
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeAll(closeables);
+        log.warn("Buffer pool has shutdown.");
+    }
+
+    /**
+     * 关闭缓冲池，不再接收任何缓冲数据。
+     * 此方法将不会触发flush动作，有丢失数据的风险。
+     *
+     * @return 不为空的缓冲区对象实例
+     */
+    @Override
+    public List<DataBuffer<E>> shutdownNow() {
+        final ReentrantLock mainLock = this.lock;
+        mainLock.lock();
+        try {
+            //首先要停止定时器
+            stopTimer();
+            if (ownFlusher) {
+                flusher.shutdownNow();
+                closeDeadLetter(false);
+            }
+            advanceState(ST_SHUTDOWN);
+            flushCompleted.signalAll();
+            //未flush的缓冲区不会再持久化
+            IllegalStateException cause = new IllegalStateException("Buffer pool has shutdown.");
+            currentFuture.done(cause);
+            List<DataBuffer<E>> notEmptyBuffers = new ArrayList<>(2);
+            if (!currentBuffer.isEmpty()) {
+                notEmptyBuffers.add(currentBuffer);
+            }
+            for (Flight<E> flight : inFlight) {
+                if (ownFlusher) {
+                    flight.future.done(cause);
+                }
+                if (!flight.buffer.isEmpty()) {
+                    notEmptyBuffers.add(flight.buffer);
+                }
+            }
+            closeAll(closeables);
+            log.warn("Buffer pool has shutdown.");
+            return notEmptyBuffers;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 共享flush线程时，由flush线程的所有者在其结束之后关闭资源
+     */
+    @Override
+    public void addCloseable(AutoCloseable closeable) {
+        if (closeable == null) throw new NullPointerException("AutoCloseable is not allowed to be NULL.");
+        closeables.add(closeable);
+    }
+
+    /**
+     * 依次关闭登记的资源并清空，某个资源关闭失败不影响其他资源
+     */
+    static void closeAll(List<AutoCloseable> closeables) {
+        for (AutoCloseable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.error("Exception occurred when close {}: {}", closeable, e);
+            }
+        }
+        closeables.clear();
+    }
+
+    /**
+     * 停止死信数据的后台补写，共享的flush线程由其所有者负责
+     *
+     * @param drain 是否再补写一次全部死信数据
+     */
+    private void closeDeadLetter(boolean drain) {
+        DeadLetterSpill<E> deadLetter = this.deadLetter;
+        if (deadLetter != null) {
+            deadLetter.close(drain);
+        }
+    }
+
+    /**
+     * 从未就绪、已启动或者正在恢复的状态转变为目标状态，已经在关闭中的状态不变
+     *
+     * @param target 关闭中或者已关闭
+     */
+    private void advanceState(int target) {
+        for (; ; ) {
+            int s = state.get();
+            if (s == ST_SHUTDOWN || s == target || state.compareAndSet(s, target)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 等待后台恢复线程处理完当前批次
+     */
+    private void awaitRecovery() {
+        Thread t = this.recoveryThread;
+        if (t == null || t == Thread.currentThread()) {
+            return;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 缓冲池是否已关闭
+     */
+    @Override
+    public boolean isShutdown() {
+        return !isRunning(state.get());
+    }
+
+    /**
+     * 最大缓冲时限（单位：秒），超过此时间将会触发持久化
+     */
+    @Override
+    public void setBufferTimeInSeconds(int bufferTimeInSeconds) {
+        setBufferTimeMillis(TimeUnit.SECONDS.toMillis(bufferTimeInSeconds));
+    }
+
+    /**
+     * 最大缓冲时限（单位：毫秒），从缓冲区放入第一条数据开始计时，超过此时间将会触发持久化
+     */
+    @Override
+    public void setBufferTimeMillis(long bufferTimeMillis) {
+        if (bufferTimeMillis < 0) {
+            throw new IllegalArgumentException("bufferTimeMillis is not a legal value.");
+        }
+        this.bufferTimeMillis = bufferTimeMillis;
+    }
+
+    public long getBufferTimeMillis() {
+        return bufferTimeMillis;
+    }
+
+    /**
+     * 当前生效的缓冲时限（单位：纳秒），设置了自适应控制器时由控制器决定
+     */
+    private long bufferTimeNanos() {
+        AdaptiveFlushController controller = this.flushController;
+        return controller != null ? TimeUnit.MILLISECONDS.toNanos(controller.getBufferTimeMillis())
+                : TimeUnit.MILLISECONDS.toNanos(bufferTimeMillis);
+    }
+
+    /**
+     * 数据放入当前缓冲区之后调用，缓冲区的第一条数据决定截止时刻。
+     * 截止时刻已经设置时只有一次volatile读。
+     */
+    private void markDeadline() {
+        if (deadline.get() != 0 || bufferTimeMillis <= 0) {
+            return;
+        }
+        long d = System.nanoTime() + bufferTimeNanos();
+        if (deadline.compareAndSet(0, d == 0 ? 1 : d)) {
+            armTimer();
+        }
+    }
+
+    /**
+     * 尚未安排定时任务时，在当前的截止时刻安排一个
+     */
+    private void armTimer() {
+        if (timerEnabled && timerArmed.compareAndSet(false, true)) {
+            long d = deadline.get();
+            if (d == 0) {
+                timerArmed.set(false);
+                return;
+            }
+            schedule(d - System.nanoTime());
+        }
+    }
+
+    private void schedule(long delayNanos) {
+        try {
+            scheduledFuture = scheduledExecutorService.schedule(this::onDeadline, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            //共享的定时器已经关闭
+            timerArmed.set(false);
+        }
+    }
+
+    /**
+     * 定时任务：截止时刻已到则切换缓冲区，之后在新的截止时刻再次触发。
+     * 所有缓冲区都在flush而无法切换时，稍后重试。
+     */
+    private void onDeadline() {
+        if (!timerEnabled) {
+            timerArmed.set(false);
+            return;
+        }
+        try {
+            long d = deadline.get();
+            if (d != 0 && System.nanoTime() - d >= 0) {
+                log.debug("Buffer time exceed, flush current buffer.");
+                rotate();
+                if (deadline.get() == d) {
+                    if (currentBuffer.isEmpty()) {
+                        //截止时刻由已被换下的缓冲区的生产者设置，当前缓冲区并没有数据
+                        deadline.compareAndSet(d, 0);
+                    } else {
+                        schedule(Math.max(TimeUnit.MILLISECONDS.toNanos(1), bufferTimeNanos() / 10));
+                        return;
+                    }
+                }
+            }
+            d = deadline.get();
+            if (d != 0) {
+                schedule(d - System.nanoTime());
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Exception occurred when flush expired buffer: {}", e);
+        }
+        timerArmed.set(false);
+        //清除标记之前可能有生产者设置了截止时刻
+        if (deadline.get() != 0) {
+            armTimer();
+        }
+    }
+
+    /**
+     * 设置自适应的flush控制器，此后缓冲区被重新启用时按控制器调整缓冲阈值，
+     * 缓冲时限也由控制器决定。每个缓冲池必须使用独立的控制器。
+     */
+    public void setFlushController(AdaptiveFlushController flushController) {
+        this.flushController = flushController;
+        if (flushController != null) {
+            currentBuffer.adjustThreshold(flushController.getThreshold());
+            for (DataBuffer<E> buffer : free) {
+                buffer.adjustThreshold(flushController.getThreshold());
+            }
+        }
+    }
+
+    public AdaptiveFlushController getFlushController() {
+        return flushController;
+    }
+
+    /**
+     * 是否启用临时存储层
+     */
+    @Override
+    public void setEnableTemporaryStorage(boolean enableTemporaryStorage) {
+        this.enableTemporaryStorage = enableTemporaryStorage;
+    }
+
+    public boolean isEnableTemporaryStorage() {
+        return enableTemporaryStorage;
+    }
+
+    /**
+     * 设置跨缓冲区的去重过滤器，多个缓冲池共享同一个按切换轮转的过滤器时，
+     * 需要通过{@link com.dx.ss.buffer.filter.SharedDuplicateFilter}包装，否则窗口会随缓冲池数量缩小。
+     */
+    public void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+    }
+
+    /**
+     * 使用外部的定时器，多个缓冲池可以共享同一个定时线程。
+     * 外部定时器由创建者负责关闭，必须在{@link #start()}之前设置。
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduledExecutorService = scheduler;
+        this.ownScheduler = scheduler == null;
+    }
+
+    /**
+     * 当前缓冲池是否正在被其他线程加锁使用，无锁模式下始终返回false。
+     */
+    boolean isContended() {
+        return !lockFree && lock.isLocked();
+    }
+
+    /**
+     * 停止定时器
+     */
+    private void stopTimer() {
+        timerEnabled = false;
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        if (ownScheduler && scheduledExecutorService != null) {
+            scheduledExecutorService.shutdownNow();
+        }
+    }
+
+    /**
+     * 交换下一个缓冲区，只能由持有切换令牌的线程调用。
+     * 先更新持久化结果和代次，再更新当前缓冲区。
+     *
+     * @param next 下一个缓冲区
+     * @return 被换下的缓冲区
+     */
+    private Flight<E> swap(DataBuffer<E> next) {
+        metrics.onSwap();
+        long now = System.nanoTime();
+        AdaptiveFlushController controller = this.flushController;
+        if (controller != null) {
+            controller.onSwap(this.currentBuffer.length(), now - lastSwapNanos);
+        }
+        lastSwapNanos = now;
+        Flight<E> flight = new Flight<>(this.currentBuffer, this.currentEpoch, this.currentFuture);
+        inFlight.offer(flight);
+        this.currentFuture = new SubmitFuture();
+        this.currentEpoch = EPOCH.incrementAndGet();
+        //先重置截止时刻再发布新的缓冲区，写入新缓冲区的生产者一定能重新设置截止时刻
+        deadline.set(0);
+        this.currentBuffer = next;
+        if (duplicateFilter != null) {
+            duplicateFilter.onSwap();
+        }
+        log.debug("Buffer swapping complete! Current buffer is {}", next.getBufferName());
+        return flight;
+    }
+
+    /**
+     * 取出下一个缓冲区，没有空闲的缓冲区时在上限之内创建新的缓冲区。
+     * 空闲的缓冲区处于封存状态，取出后清空即可重新写入。
+     *
+     * @return 下一个缓冲区，所有缓冲区都在flush时返回null
+     */
+    private DataBuffer<E> nextBuffer() {
+        DataBuffer<E> next = free.poll();
+        if (next != null) {
+            next.clear();
+        } else if (bufferSupplier != null && allocated.get() < maxBuffers) {
+            next = bufferSupplier.get();
+            int n = allocated.incrementAndGet();
+            log.debug("All buffers are flushing, grow to {} buffers.", n);
+        }
+        AdaptiveFlushController controller = this.flushController;
+        if (next != null && controller != null) {
+            next.adjustThreshold(controller.getThreshold());
+        }
+        return next;
+    }
+
+    /**
+     * 定时器触发：当前缓冲区不为空时切换缓冲区，并异步flush。
+     * 若没有可以切换的缓冲区，则等待下一次检测。
+     */
+    private void rotate() {
+        DataBuffer<E> buffer = this.currentBuffer;
+        if (buffer.isEmpty()) {
+            return;
+        }
+        if (lockFree) {
+            tryRotate(buffer);
+            return;
+        }
+        final ReentrantLock mainLock = this.lock;
+        mainLock.lock();
+        try {
+            tryRotate(currentBuffer);
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 尝试切换缓冲区，并将写满的缓冲区交给flush线程异步持久化。
+     * 通过CAS争夺切换令牌，所有缓冲区都在flush或者缓冲区已被其他线程切换时放弃。
+     *
+     * @param expected 期望被切换的当前缓冲区
+     * @return 是否切换成功
+     */
+    private boolean tryRotate(DataBuffer<E> expected) {
+        if (!rotating.compareAndSet(false, true)) {
+            return false;
+        }
+        final Flight<E> flight;
+        try {
+            if (this.currentBuffer != expected) {
+                return false;
+            }
+            DataBuffer<E> next = nextBuffer();
+            if (next == null) {
+                return false;
+            }
+            flight = swap(next);
+        } finally {
+            rotating.set(false);
+        }
+        try {
+            flusher.flush(flight.buffer, (n, persistNanos, cause) -> {
+                AdaptiveFlushController controller = this.flushController;
+                if (controller != null && cause == null) {
+                    //只统计持久化层的耗时，flush积压时排队的时间不会压低缓冲阈值
+                    controller.onFlushed(n, persistNanos);
+                }
+                afterFlush(flight.epoch, n, cause);
+                recycle(flight);
+                flight.future.done(cause);
+                //每次flush之后补写一批溢出数据
+                drainSpill(1);
+            });
+        } catch (RejectedExecutionException e) {
+            //flush线程已关闭，退化为同步flush
+            try {
+                flush(flight.buffer, flight.epoch, flight.future);
+            } finally {
+                recycle(flight);
+            }
+            drainSpill(1);
+        }
+        return true;
+    }
+
+    /**
+     * flush结束，归还缓冲区并唤醒等待的生产者。
+     * flush时缓冲区已经封存，drain之后仍然保持封存，直到被重新取出时才清空，
+     * 持有旧引用的无锁生产者不会再写入空闲的缓冲区。
+     * 没有其他缓冲区在flush且已有空闲的缓冲区时，说明积压已经消失，多出的缓冲区不再归还。
+     */
+    private void recycle(Flight<E> flight) {
+        DataBuffer<E> buffer = flight.buffer;
+        inFlight.remove(flight);
+        if (allocated.get() > minBuffers && inFlight.isEmpty() && !free.isEmpty()) {
+            int n = allocated.decrementAndGet();
+            log.debug("Flush has caught up, shrink to {} buffers.", n);
+        } else {
+            free.offer(buffer);
+        }
+        final ReentrantLock mainLock = this.lock;
+        mainLock.lock();
+        try {
+            flushCompleted.signalAll();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 将缓冲区的数据持久化到磁盘。
+     * 每次flush都会重置计数器。
+     *
+     * @param buffer 缓冲区
+     * @param epoch  缓冲区的代次
+     * @param future 缓冲区的持久化结果
+     */
+    private void flush(DataBuffer<E> buffer, long epoch, SubmitFuture future) {
+        long begin = metrics.isEnabled() ? System.nanoTime() : 0;
+        //封存缓冲区，确保无锁写入的数据全部可见
+        buffer.seal();
+        //直接接管缓冲区的底层数组，不复制数据
+        List<E> dataList = buffer.drain();
+        final int total = dataList.size();
+        Throwable cause = null;
+        try {
+            cause = persist(dataList, future);
+        } finally {
+            buffer.release(dataList);
+        }
+        future.done(cause);
+        afterFlush(epoch, total, cause);
+        if (metrics.isEnabled()) {
+            metrics.recordFlush(total, System.nanoTime() - begin);
+        }
+        log.debug("Flush buffer data, Total: {}", total);
+    }
+
+    /**
+     * 持久化一个缓冲区的数据，存在死信存储时失败的数据写入其中。
+     *
+     * @param dataList 缓冲区的数据
+     * @param future   缓冲区的持久化结果，持久化抛出异常时以该异常结束
+     * @return 未能保存的原因，全部保存则为null
+     */
+    private Throwable persist(List<E> dataList, SubmitFuture future) {
+        Throwable cause = null;
+        if (!dataList.isEmpty()) {
+            long persistBegin = metrics.isEnabled() ? System.nanoTime() : 0;
+            DeadLetterSpill<E> deadLetter = this.deadLetter;
+            PersistResult<E> result;
+            try {
+                result = persistStorage.storeAll(dataList);
+            } catch (RuntimeException e) {
+                if (deadLetter == null) {
+                    future.done(e);
+                    throw e;
+                }
+                result = PersistResult.failure(dataList, e);
+            }
+            if (metrics.isEnabled()) {
+                metrics.recordPersist(System.nanoTime() - persistBegin);
+            }
+            if (!result.isSuccess()) {
+                log.error("{} of {} data failed to persist.", result.getFailed().size(), dataList.size());
+                cause = BufferFlusher.failureOf(result, deadLetter, metrics);
+            }
+        }
+        return cause;
+    }
+
+    /**
+     * 缓冲区持久化之后清理该代次的临时存储数据。
+     * 持久化失败且未能写入死信存储时保留临时存储，下次启动时由恢复流程补写。
+     *
+     * @param epoch   缓冲区的代次
+     * @param flushed 持久化的数据量
+     * @param cause   数据未能保存的原因，全部保存则为null
+     */
+    private void afterFlush(long epoch, int flushed, Throwable cause) {
+        if (cause != null) {
+            log.warn("Flush failed, keep the temporary storage of epoch {} for recovery.", epoch);
+            return;
+        }
+        if (flushed > 0 && enableTemporaryStorage && temporaryStorage != null) {
+            try {
+                temporaryStorage.clear(epoch);
+            } catch (Exception e) {
+                //清除失败只会在恢复时重复持久化，不能影响缓冲区的归还
+                log.error("Exception occurred when clear the temporary storage of epoch {}: {}", epoch, e);
+            }
+        }
+    }
+
+    /**
+     * 获取缓冲池的锁，只有在发生竞争时才记录等待时间
+     */
+    private void acquire(ReentrantLock mainLock) {
+        if (mainLock.tryLock()) {
+            return;
+        }
+        if (!metrics.isEnabled()) {
+            mainLock.lock();
+            return;
+        }
+        long begin = System.nanoTime();
+        mainLock.lock();
+        metrics.recordLockWait(System.nanoTime() - begin);
+    }
+
+    /**
+     * 检测是否正在运行
+     *
+     * @param s 当前状态
+     */
+    private static boolean isRunning(int s) {
+        return s != ST_SHUTDOWN;
+    }
+
+    /**
+     * 是否接收新数据。无锁模式下安全关闭期间不再接收，
+     * 当前缓冲区已经交给flush，此时写入的数据不会再被持久化
+     *
+     * @param s 当前状态
+     */
+    private boolean isAccepting(int s) {
+        return isRunning(s) && !(lockFree && s == ST_SHUTTING_DOWN);
+    }
+
+    /**
+     * 一个正在flush的缓冲区
+     */
+    private static final class Flight<E> {
+
+        private final DataBuffer<E> buffer;
+
+        private final long epoch;
+
+        private final SubmitFuture future;
+
+        private Flight(DataBuffer<E> buffer, long epoch, SubmitFuture future) {
+            this.buffer = buffer;
+            this.epoch = epoch;
+            this.future = future;
+        }
     }
 
 }
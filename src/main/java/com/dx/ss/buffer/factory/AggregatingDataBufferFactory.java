@@ -0,0 +1,14 @@
+package com.dx.ss.buffer.factory;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.AggregatingDataBuffer;
+import com.dx.ss.buffer.core.DataBuffer;
+
+public class AggregatingDataBufferFactory implements DataBufferFactory {
+
+    @Override
+    public <E> DataBuffer<E> createDataBuffer(DataBufferOptions options) {
+        return new AggregatingDataBuffer<>(options);
+    }
+
+}
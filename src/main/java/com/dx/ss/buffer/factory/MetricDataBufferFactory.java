@@ -0,0 +1,18 @@
+package com.dx.ss.buffer.factory;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.DataBuffer;
+import com.dx.ss.buffer.core.MetricDataBuffer;
+
+/**
+ * 创建指标缓冲区，数据类型只能是{@link com.dx.ss.buffer.storage.MetricSample}
+ */
+public class MetricDataBufferFactory implements DataBufferFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E> DataBuffer<E> createDataBuffer(DataBufferOptions options) {
+        return (DataBuffer<E>) new MetricDataBuffer(options);
+    }
+
+}
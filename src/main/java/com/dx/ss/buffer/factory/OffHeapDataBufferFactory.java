@@ -0,0 +1,33 @@
+package com.dx.ss.buffer.factory;
+
+import com.dx.ss.buffer.codec.BufferCodec;
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.DataBuffer;
+import com.dx.ss.buffer.core.OffHeapDataBuffer;
+
+public class OffHeapDataBufferFactory implements DataBufferFactory {
+
+    private final BufferCodec<?> codec;
+
+    private final int slabSize;
+
+    public OffHeapDataBufferFactory(BufferCodec<?> codec) {
+        this(codec, OffHeapDataBuffer.DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param codec    数据的编解码器，所有缓冲区共用
+     * @param slabSize 字节块大小
+     */
+    public OffHeapDataBufferFactory(BufferCodec<?> codec, int slabSize) {
+        this.codec = codec;
+        this.slabSize = slabSize;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E> DataBuffer<E> createDataBuffer(DataBufferOptions options) {
+        return new OffHeapDataBuffer<>(options, (BufferCodec<E>) codec, slabSize);
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.dx.ss.buffer.filter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的布隆过滤器，位数组在创建时分配，内存占用固定。
+ */
+public class BloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    /**
+     * 位数组
+     */
+    private final AtomicLongArray bits;
+
+    /**
+     * 位数组长度
+     */
+    private final long bitSize;
+
+    /**
+     * 哈希函数个数
+     */
+    private final int hashFunctions;
+
+    public BloomFilter(long bitSize, int hashFunctions) {
+        if (bitSize <= 0 || hashFunctions <= 0) {
+            throw new IllegalArgumentException("bitSize and hashFunctions must be positive.");
+        }
+        int words = (int) Math.min(Integer.MAX_VALUE, (bitSize + 63) >>> 6);
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = (long) words << 6;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * 根据预期的数据量和误判率计算位数组长度和哈希函数个数。
+     *
+     * @param expectedInsertions 预期的数据量
+     * @param fpp                误判率，(0, 1)
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        long bitSize = optimalBitSize(expectedInsertions, fpp);
+        return new BloomFilter(bitSize, optimalHashFunctions(expectedInsertions, bitSize));
+    }
+
+    /**
+     * 达到误判率所需的位数组长度
+     */
+    public static long optimalBitSize(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions must be positive.");
+        }
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("fpp must be in (0, 1).");
+        }
+        return (long) (-expectedInsertions * Math.log(fpp) / (LN2 * LN2));
+    }
+
+    /**
+     * 给定位数组长度下最优的哈希函数个数
+     */
+    public static int optimalHashFunctions(long expectedInsertions, long bitSize) {
+        return Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * LN2));
+    }
+
+    /**
+     * 记录一个主键。
+     *
+     * @return true表示至少有一位发生了变化，即该主键一定是首次出现
+     */
+    public boolean put(Object key) {
+        long hash = hash(key);
+        long h1 = hash;
+        long h2 = hash >>> 32;
+        boolean changed = false;
+        for (int i = 1; i <= hashFunctions; i++) {
+            changed |= set(index(h1 + i * h2));
+        }
+        return changed;
+    }
+
+    /**
+     * 主键是否可能已经存在
+     */
+    public boolean mightContain(Object key) {
+        long hash = hash(key);
+        long h1 = hash;
+        long h2 = hash >>> 32;
+        for (int i = 1; i <= hashFunctions; i++) {
+            long index = index(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 清空所有的位
+     */
+    public void clear() {
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, 0L);
+        }
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    /**
+     * 按64位组合哈希取模，位数组超过2^31位时同样可以用到所有的位
+     */
+    private long index(long combined) {
+        return (combined & Long.MAX_VALUE) % bitSize;
+    }
+
+    private boolean set(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(word);
+            if ((old & mask) != 0) {
+                return false;
+            }
+        } while (!bits.compareAndSet(word, old, old | mask));
+        return true;
+    }
+
+    /**
+     * 将hashCode扩散为64位哈希值（MurmurHash3的fmix64）
+     */
+    private static long hash(Object key) {
+        long h = key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
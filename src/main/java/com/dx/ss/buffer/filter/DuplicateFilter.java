@@ -0,0 +1,42 @@
+package com.dx.ss.buffer.filter;
+
+/**
+ * 跨缓冲区的去重过滤器，覆盖最近若干个缓冲区或者最近一段时间内提交的数据。
+ * 缓冲区自身的去重只针对当前缓冲区，切换或flush之后到达的重复数据需要由过滤器拦截。
+ */
+public interface DuplicateFilter {
+
+    /**
+     * 记录一条数据。
+     *
+     * @param data 数据对象
+     * @return true表示首次出现，false表示在窗口内可能已经出现过
+     */
+    default boolean putIfAbsent(Object data) {
+        if (mightContain(data)) {
+            return false;
+        }
+        put(data);
+        return true;
+    }
+
+    /**
+     * 数据在窗口内是否可能已经出现过，不记录数据。
+     *
+     * @param data 数据对象
+     * @return true表示可能已经出现过，false表示一定没有出现过
+     */
+    boolean mightContain(Object data);
+
+    /**
+     * 记录一条数据，缓冲池在数据放入缓冲区之后调用，没有被接收的数据不记录，重发时不会被误判为重复
+     *
+     * @param data 数据对象
+     */
+    void put(Object data);
+
+    /**
+     * 缓冲池切换缓冲区时调用
+     */
+    void onSwap();
+}
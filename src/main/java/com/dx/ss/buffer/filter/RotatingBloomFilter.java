@@ -0,0 +1,145 @@
+package com.dx.ss.buffer.filter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 由多代布隆过滤器组成的去重窗口。
+ * 新数据总是记录在当前一代中，轮转时清空最老的一代作为新的当前代，
+ * 因此窗口覆盖最近若干个缓冲区（按切换轮转），或者最近若干秒（按时间轮转）。
+ * 每一代的位数组在创建时分配，轮转时复用，内存占用固定。
+ */
+@Slf4j
+public class RotatingBloomFilter implements DuplicateFilter {
+
+    /**
+     * 各代过滤器，组成环形
+     */
+    private final BloomFilter[] generations;
+
+    /**
+     * 当前代的下标
+     */
+    private volatile int current;
+
+    /**
+     * 按时间轮转的间隔，为0表示按缓冲区切换轮转
+     */
+    private final long rotateIntervalNanos;
+
+    /**
+     * 上一次轮转的时间
+     */
+    private volatile long lastRotateNanos;
+
+    /**
+     * 提取业务主键，为空则使用数据对象本身
+     */
+    private final Function<Object, Object> keyExtractor;
+
+    private final ReentrantLock rotateLock = new ReentrantLock();
+
+    /**
+     * @param generations        代数，窗口覆盖的缓冲区个数（包含当前缓冲区）
+     * @param windowSeconds      窗口时长（单位：秒），为0表示按缓冲区切换轮转
+     * @param expectedInsertions 每一代预期的数据量
+     * @param fpp                每一代的误判率
+     * @param maxBytes           所有代合计的内存上限（单位：字节），为0表示不限制
+     * @param keyExtractor       提取业务主键，为空则使用数据对象本身
+     */
+    public RotatingBloomFilter(int generations, int windowSeconds, long expectedInsertions, double fpp,
+                               long maxBytes, Function<Object, Object> keyExtractor) {
+        if (generations <= 0) {
+            throw new IllegalArgumentException("generations is not a legal value.");
+        }
+        long bitSize = BloomFilter.optimalBitSize(expectedInsertions, fpp);
+        if (maxBytes > 0 && bitSize * generations > maxBytes * 8) {
+            bitSize = maxBytes * 8 / generations;
+            log.warn("Duplicate filter is limited to {} bytes, false positive rate will exceed {}.", maxBytes, fpp);
+        }
+        int hashFunctions = BloomFilter.optimalHashFunctions(expectedInsertions, bitSize);
+        this.generations = new BloomFilter[generations];
+        for (int i = 0; i < generations; i++) {
+            this.generations[i] = new BloomFilter(bitSize, hashFunctions);
+        }
+        this.rotateIntervalNanos = windowSeconds > 0 ? TimeUnit.SECONDS.toNanos(windowSeconds) / generations : 0;
+        this.lastRotateNanos = System.nanoTime();
+        this.keyExtractor = keyExtractor;
+    }
+
+    @Override
+    public boolean putIfAbsent(Object data) {
+        rotateIfExpired();
+        Object key = keyOf(data);
+        int c = current;
+        for (int i = 0; i < generations.length; i++) {
+            if (i != c && generations[i].mightContain(key)) {
+                return false;
+            }
+        }
+        return generations[c].put(key);
+    }
+
+    @Override
+    public boolean mightContain(Object data) {
+        rotateIfExpired();
+        Object key = keyOf(data);
+        for (BloomFilter generation : generations) {
+            if (generation.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void put(Object data) {
+        rotateIfExpired();
+        generations[current].put(keyOf(data));
+    }
+
+    private void rotateIfExpired() {
+        if (rotateIntervalNanos > 0 && System.nanoTime() - lastRotateNanos >= rotateIntervalNanos) {
+            rotate();
+        }
+    }
+
+    private Object keyOf(Object data) {
+        return keyExtractor == null ? data : keyExtractor.apply(data);
+    }
+
+    @Override
+    public void onSwap() {
+        if (rotateIntervalNanos == 0) {
+            rotate();
+        }
+    }
+
+    /**
+     * 淘汰最老的一代，并将其作为新的当前代
+     */
+    public void rotate() {
+        if (!rotateLock.tryLock()) {
+            //其他线程正在轮转
+            return;
+        }
+        try {
+            int next = (current + 1) % generations.length;
+            generations[next].clear();
+            current = next;
+            lastRotateNanos = System.nanoTime();
+        } finally {
+            rotateLock.unlock();
+        }
+    }
+
+    /**
+     * 所有代合计占用的内存（单位：字节）
+     */
+    public long getMemoryInBytes() {
+        return generations[0].getBitSize() / 8 * generations.length;
+    }
+}
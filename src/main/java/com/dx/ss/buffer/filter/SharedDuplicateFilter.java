@@ -0,0 +1,58 @@
+package com.dx.ss.buffer.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多个缓冲池共享的去重过滤器。
+ * 每个缓冲池切换缓冲区时都会通知过滤器，共享时每累计若干次切换才转发一次，
+ * 按切换轮转的窗口仍然覆盖每个缓冲池最近的若干个缓冲区，而不是所有缓冲池合计的若干个。
+ */
+public class SharedDuplicateFilter implements DuplicateFilter {
+
+    private final DuplicateFilter delegate;
+
+    /**
+     * 共享过滤器的缓冲池数量
+     */
+    private final int sharers;
+
+    /**
+     * 累计的切换次数
+     */
+    private final AtomicLong swaps = new AtomicLong();
+
+    /**
+     * @param delegate 被共享的过滤器
+     * @param sharers  共享过滤器的缓冲池数量
+     */
+    public SharedDuplicateFilter(DuplicateFilter delegate, int sharers) {
+        if (delegate == null) throw new NullPointerException("DuplicateFilter is not allowed to be NULL.");
+        if (sharers <= 0) {
+            throw new IllegalArgumentException("sharers is not a legal value.");
+        }
+        this.delegate = delegate;
+        this.sharers = sharers;
+    }
+
+    @Override
+    public boolean putIfAbsent(Object data) {
+        return delegate.putIfAbsent(data);
+    }
+
+    @Override
+    public boolean mightContain(Object data) {
+        return delegate.mightContain(data);
+    }
+
+    @Override
+    public void put(Object data) {
+        delegate.put(data);
+    }
+
+    @Override
+    public void onSwap() {
+        if (swaps.incrementAndGet() % sharers == 0) {
+            delegate.onSwap();
+        }
+    }
+}
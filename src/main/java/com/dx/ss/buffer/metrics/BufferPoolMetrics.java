@@ -0,0 +1,155 @@
+package com.dx.ss.buffer.metrics;
+
+import java.util.function.IntSupplier;
+
+/**
+ * 缓冲池的度量指标。
+ * <p>
+ * 缓冲池在关键路径上回调此接口，默认使用{@link #NOOP}，
+ * 此时不会计时，对提交数据的开销几乎没有影响。
+ */
+public interface BufferPoolMetrics {
+
+    /**
+     * 不记录任何指标
+     */
+    BufferPoolMetrics NOOP = new BufferPoolMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    /**
+     * 数据被丢弃的原因
+     */
+    enum DropReason {
+        /**
+         * 重复数据
+         */
+        DUPLICATE,
+        /**
+         * 缓冲区已满
+         */
+        FULL,
+        /**
+         * 缓冲区已满，最早的数据被淘汰
+         */
+        EVICTED,
+        /**
+         * 等待flush超时
+         */
+        TIMEOUT,
+        /**
+         * 缓冲池已关闭
+         */
+        SHUTDOWN,
+        /**
+         * 等待flush时被中断
+         */
+        INTERRUPTED,
+        /**
+         * 提交线程自行持久化失败，且未能写入死信存储
+         */
+        PERSIST_FAILED
+    }
+
+    /**
+     * 是否记录指标，为false时缓冲池不会计时
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * 获取指定缓冲池的度量指标，多个具名缓冲池需要分别记录时使用。
+     * 默认所有缓冲池共用同一个实例。
+     *
+     * @param poolName 缓冲池名称
+     */
+    default BufferPoolMetrics forPool(String poolName) {
+        return this;
+    }
+
+    /**
+     * 绑定当前缓冲区和预备缓冲区的数据量，用于观察缓冲区的填充程度
+     *
+     * @param current 当前缓冲区的数据量
+     * @param standby 预备缓冲区的数据量
+     */
+    default void bindBufferLengths(IntSupplier current, IntSupplier standby) {
+    }
+
+    /**
+     * 一条数据成功放入缓冲区
+     */
+    default void onSubmit() {
+    }
+
+    /**
+     * 一条数据被丢弃
+     */
+    default void onDropped(DropReason reason) {
+    }
+
+    /**
+     * 一条数据溢出到磁盘
+     */
+    default void onSpilled() {
+    }
+
+    /**
+     * 一批持久化失败的数据写入了死信存储
+     *
+     * @param count 数据量
+     */
+    default void onDeadLettered(int count) {
+    }
+
+    /**
+     * 切换了一次缓冲区
+     */
+    default void onSwap() {
+    }
+
+    /**
+     * 等待缓冲池的锁
+     *
+     * @param nanos 等待时间（单位：纳秒）
+     */
+    default void recordLockWait(long nanos) {
+    }
+
+    /**
+     * 完成一次flush
+     *
+     * @param size  持久化的数据量
+     * @param nanos flush耗时（单位：纳秒）
+     */
+    default void recordFlush(int size, long nanos) {
+    }
+
+    /**
+     * 写入一次持久化层
+     *
+     * @param nanos 耗时（单位：纳秒）
+     */
+    default void recordPersist(long nanos) {
+    }
+
+    /**
+     * 写入一次临时存储层
+     *
+     * @param nanos 耗时（单位：纳秒）
+     */
+    default void recordTemporaryStore(long nanos) {
+    }
+
+    /**
+     * 从临时存储层恢复了一批数据
+     *
+     * @param count 数据量
+     */
+    default void onRecovered(int count) {
+    }
+}
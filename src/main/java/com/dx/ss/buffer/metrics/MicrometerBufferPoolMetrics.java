@@ -0,0 +1,149 @@
+package com.dx.ss.buffer.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * 基于Micrometer的度量指标，所有指标都带有pool标签。
+ * <ul>
+ * <li>buffer.submitted：放入缓冲区的数据量</li>
+ * <li>buffer.dropped：被丢弃的数据量，reason标签为丢弃原因</li>
+ * <li>buffer.spilled：溢出到磁盘的数据量</li>
+ * <li>buffer.dead.letter：持久化失败后写入死信存储的数据量</li>
+ * <li>buffer.swaps：缓冲区切换次数</li>
+ * <li>buffer.flush.size、buffer.flush.duration：每次flush的数据量与耗时</li>
+ * <li>buffer.lock.wait：等待缓冲池锁的时间</li>
+ * <li>buffer.persist.latency、buffer.temporary.latency：存储层的写入耗时</li>
+ * <li>buffer.length：缓冲区中的数据量，buffer标签为current或standby</li>
+ * <li>buffer.recovered：从临时存储层恢复的数据量</li>
+ * </ul>
+ */
+public class MicrometerBufferPoolMetrics implements BufferPoolMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Tags tags;
+
+    private final Counter submitted;
+
+    private final Map<DropReason, Counter> dropped = new EnumMap<>(DropReason.class);
+
+    private final Counter spilled;
+
+    private final Counter deadLettered;
+
+    private final Counter swaps;
+
+    private final DistributionSummary flushSize;
+
+    private final Timer flushDuration;
+
+    private final Timer lockWait;
+
+    private final Timer persistLatency;
+
+    private final Timer temporaryLatency;
+
+    private final Counter recovered;
+
+    /**
+     * @param registry 指标注册中心
+     * @param poolName 缓冲池名称，作为pool标签
+     */
+    public MicrometerBufferPoolMetrics(MeterRegistry registry, String poolName) {
+        this.registry = registry;
+        this.tags = Tags.of("pool", poolName);
+        this.submitted = registry.counter("buffer.submitted", tags);
+        for (DropReason reason : DropReason.values()) {
+            dropped.put(reason, registry.counter("buffer.dropped", tags.and("reason", reason.name().toLowerCase())));
+        }
+        this.spilled = registry.counter("buffer.spilled", tags);
+        this.deadLettered = registry.counter("buffer.dead.letter", tags);
+        this.swaps = registry.counter("buffer.swaps", tags);
+        this.flushSize = DistributionSummary.builder("buffer.flush.size").tags(tags)
+                .publishPercentileHistogram().register(registry);
+        this.flushDuration = timer("buffer.flush.duration");
+        this.lockWait = timer("buffer.lock.wait");
+        this.persistLatency = timer("buffer.persist.latency");
+        this.temporaryLatency = timer("buffer.temporary.latency");
+        this.recovered = registry.counter("buffer.recovered", tags);
+    }
+
+    /**
+     * 使用同一个注册中心，以缓冲池名称作为pool标签
+     */
+    @Override
+    public BufferPoolMetrics forPool(String poolName) {
+        return new MicrometerBufferPoolMetrics(registry, poolName);
+    }
+
+    private Timer timer(String name) {
+        return Timer.builder(name).tags(tags).publishPercentileHistogram().register(registry);
+    }
+
+    @Override
+    public void bindBufferLengths(IntSupplier current, IntSupplier standby) {
+        Gauge.builder("buffer.length", current, IntSupplier::getAsInt).tags(tags.and("buffer", "current")).register(registry);
+        Gauge.builder("buffer.length", standby, IntSupplier::getAsInt).tags(tags.and("buffer", "standby")).register(registry);
+    }
+
+    @Override
+    public void onSubmit() {
+        submitted.increment();
+    }
+
+    @Override
+    public void onDropped(DropReason reason) {
+        dropped.get(reason).increment();
+    }
+
+    @Override
+    public void onSpilled() {
+        spilled.increment();
+    }
+
+    @Override
+    public void onDeadLettered(int count) {
+        deadLettered.increment(count);
+    }
+
+    @Override
+    public void onSwap() {
+        swaps.increment();
+    }
+
+    @Override
+    public void recordLockWait(long nanos) {
+        lockWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordFlush(int size, long nanos) {
+        flushSize.record(size);
+        flushDuration.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordPersist(long nanos) {
+        persistLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordTemporaryStore(long nanos) {
+        temporaryLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onRecovered(int count) {
+        recovered.increment(count);
+    }
+}
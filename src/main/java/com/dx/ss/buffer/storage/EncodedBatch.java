@@ -0,0 +1,123 @@
+package com.dx.ss.buffer.storage;
+
+import com.dx.ss.buffer.codec.BufferCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 编码后的一批数据，存放在若干个只读的字节块中，每个字节块从position到limit依次是[长度][数据]格式的记录。
+ * <p>
+ * 堆外缓冲区flush时直接交出存放数据的字节块，面向字节的持久化层可以直接写出记录，不必先解码成对象。
+ * 持久化之后字节块会被缓冲区复用，不能在调用之外持有。
+ *
+ * @param <E> 数据类型
+ */
+public final class EncodedBatch<E> {
+
+    /**
+     * 记录头：长度
+     */
+    public static final int RECORD_HEADER = 4;
+
+    private final List<ByteBuffer> slabs;
+
+    private final int size;
+
+    private final BufferCodec<E> codec;
+
+    /**
+     * @param slabs 只读的字节块
+     * @param size  数据量
+     * @param codec 数据的编解码器
+     */
+    public EncodedBatch(List<ByteBuffer> slabs, int size, BufferCodec<E> codec) {
+        this.slabs = Collections.unmodifiableList(slabs);
+        this.size = size;
+        this.codec = codec;
+    }
+
+    /**
+     * 合并多批数据，不复制字节块。
+     */
+    public static <E> EncodedBatch<E> concat(List<EncodedBatch<E>> batches) {
+        if (batches.size() == 1) {
+            return batches.get(0);
+        }
+        List<ByteBuffer> slabs = new ArrayList<>();
+        int size = 0;
+        for (EncodedBatch<E> batch : batches) {
+            slabs.addAll(batch.slabs);
+            size += batch.size;
+        }
+        return new EncodedBatch<>(slabs, size, batches.get(0).codec);
+    }
+
+    /**
+     * 数据量
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 所有记录的字节数，包括记录头
+     */
+    public long byteSize() {
+        long bytes = 0;
+        for (ByteBuffer slab : slabs) {
+            bytes += slab.remaining();
+        }
+        return bytes;
+    }
+
+    /**
+     * 只读的字节块
+     */
+    public List<ByteBuffer> getSlabs() {
+        return slabs;
+    }
+
+    public BufferCodec<E> getCodec() {
+        return codec;
+    }
+
+    /**
+     * 依次访问每条记录的数据。
+     * 参数是同一个字节块上复用的视图，position到limit之间是一条记录编码后的数据，只在回调期间有效。
+     */
+    public void forEach(Consumer<ByteBuffer> consumer) {
+        for (ByteBuffer slab : slabs) {
+            ByteBuffer record = slab.duplicate();
+            int pos = slab.position();
+            int end = slab.limit();
+            while (pos < end) {
+                int len = slab.getInt(pos);
+                record.limit(pos + RECORD_HEADER + len);
+                record.position(pos + RECORD_HEADER);
+                consumer.accept(record);
+                pos += RECORD_HEADER + len;
+            }
+        }
+    }
+
+    /**
+     * 解码全部数据。
+     */
+    public List<E> decode() {
+        List<E> dataList = new ArrayList<>(size);
+        forEach(record -> {
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            dataList.add(codec.decode(bytes));
+        });
+        return dataList;
+    }
+}
@@ -0,0 +1,787 @@
+package com.dx.ss.buffer.storage;
+
+import com.dx.ss.buffer.codec.BufferCodec;
+import com.dx.ss.buffer.codec.SerializingBufferCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.convert.converter.Converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 基于本地追加日志的临时存储层，不依赖外部服务。
+ * <p>
+ * 数据通过{@link BufferCodec}编码后追加写入内存映射的分段文件。每个分段只属于一个缓冲区代次，
+ * 分段头记录了代次和分段在该代次中的序号；每条记录的格式为
+ * [长度][CRC32][数据]，记录之后总是紧跟一个结束标记，回放时遇到结束标记，
+ * 或者CRC校验失败（写入过程中宕机）即停止。批量存储时多条数据编码成一个数据块作为一条记录，
+ * 长度的第30位标记数据块。
+ * <p>
+ * 清除某个代次时，只会使该代次的分段失效并放回空闲列表，分段文件会被循环复用，
+ * 不会被删除。恢复时已经提交的记录会被标记为跳过（长度取反），
+ * 同一代次的分段在全部恢复之后才会失效，数据块整体提交。
+ * 默认使用JDK序列化，数据对象需要实现{@link java.io.Serializable}。
+ */
+@Slf4j
+public class FileJournalTemporaryStorage<E> implements TemporaryStorage<E>, AutoCloseable {
+
+    /**
+     * 刷盘策略
+     */
+    public enum FsyncPolicy {
+        /**
+         * 每次写入后刷盘
+         */
+        EVERY_WRITE,
+        /**
+         * 定时刷盘
+         */
+        INTERVAL,
+        /**
+         * 由操作系统决定何时刷盘
+         */
+        OS
+    }
+
+    /**
+     * 默认的分段大小：64MB
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * 默认的刷盘间隔（单位：毫秒）
+     */
+    public static final long DEFAULT_FSYNC_INTERVAL = 1000;
+
+    /**
+     * 不区分代次的数据
+     */
+    private static final long NO_EPOCH = Long.MIN_VALUE;
+
+    /**
+     * 有效分段的魔数，空闲分段的魔数为0
+     */
+    private static final int MAGIC = 0x54424A4C;
+
+    /**
+     * 分段头：魔数 + 序号 + 代次
+     */
+    private static final int SEGMENT_HEADER = 16;
+
+    /**
+     * 结束标记
+     */
+    private static final int END = 0;
+
+    /**
+     * 记录头：长度 + CRC32
+     */
+    private static final int RECORD_HEADER = 8;
+
+    /**
+     * 长度中标记数据块的位
+     */
+    private static final int BLOCK_FLAG = 0x40000000;
+
+    /**
+     * 长度中的实际长度
+     */
+    private static final int LENGTH_MASK = BLOCK_FLAG - 1;
+
+    /**
+     * 每个数据块最多包含的数据量，恢复时以数据块为单位提交
+     */
+    private static final int MAX_BLOCK_SIZE = 256;
+
+    /**
+     * 已经跳过的记录
+     */
+    private static final byte[] SKIPPED = new byte[0];
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+    /**
+     * 分段文件所在目录
+     */
+    private final File directory;
+
+    /**
+     * 分段大小（单位：字节）
+     */
+    private final int segmentSize;
+
+    /**
+     * 刷盘策略
+     */
+    private final FsyncPolicy fsyncPolicy;
+
+    /**
+     * 数据的编解码器
+     */
+    private final BufferCodec<E> codec;
+
+    /**
+     * 所有的分段文件
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * 空闲的分段，优先复用
+     */
+    private final Deque<Segment> free = new ArrayDeque<>();
+
+    /**
+     * 尚未清除的代次，按代次先后排列
+     */
+    private final TreeMap<Long, Chain> chains = new TreeMap<>();
+
+    /**
+     * 上一次刷盘之后写入过的分段
+     */
+    private final Set<Segment> dirty = new LinkedHashSet<>();
+
+    /**
+     * 下一个新建分段文件的序号
+     */
+    private int nextFileIndex;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 定时刷盘
+     */
+    private ScheduledExecutorService syncer;
+
+    public FileJournalTemporaryStorage(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, FsyncPolicy.INTERVAL, DEFAULT_FSYNC_INTERVAL);
+    }
+
+    public FileJournalTemporaryStorage(File directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+        this(directory, segmentSize, fsyncPolicy, fsyncIntervalMillis, new SerializingBufferCodec<>());
+    }
+
+    /**
+     * @param directory           分段文件所在目录
+     * @param segmentSize         分段大小（单位：字节）
+     * @param fsyncPolicy         刷盘策略
+     * @param fsyncIntervalMillis 定时刷盘的间隔（单位：毫秒）
+     * @param serializer          序列化
+     * @param deserializer        反序列化
+     */
+    public FileJournalTemporaryStorage(File directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                                       Converter<Object, byte[]> serializer, Converter<byte[], Object> deserializer) {
+        this(directory, segmentSize, fsyncPolicy, fsyncIntervalMillis, new SerializingBufferCodec<>(serializer, deserializer));
+    }
+
+    /**
+     * @param directory           分段文件所在目录
+     * @param segmentSize         分段大小（单位：字节）
+     * @param fsyncPolicy         刷盘策略
+     * @param fsyncIntervalMillis 定时刷盘的间隔（单位：毫秒）
+     * @param codec               数据的编解码器
+     */
+    public FileJournalTemporaryStorage(File directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                                       BufferCodec<E> codec) {
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER + 4) {
+            throw new IllegalArgumentException("segmentSize is not a legal value.");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.codec = codec;
+        open();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            if (fsyncIntervalMillis <= 0) {
+                throw new IllegalArgumentException("fsyncIntervalMillis is not a legal value.");
+            }
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "FileJournal-fsync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 存储一条数据。
+     */
+    @Override
+    public E store(E e) {
+        return store(NO_EPOCH, e);
+    }
+
+    /**
+     * 存储多条数据。
+     */
+    @Override
+    public int store(List<E> list) {
+        return store(NO_EPOCH, list);
+    }
+
+    /**
+     * 按缓冲区代次存储一条数据。
+     */
+    @Override
+    public E store(long epoch, E e) {
+        byte[] bytes = codec.encode(e);
+        lock.lock();
+        try {
+            append(chain(epoch), bytes, false);
+            afterWrite();
+        } finally {
+            lock.unlock();
+        }
+        return e;
+    }
+
+    /**
+     * 按缓冲区代次存储多条数据，编码成若干个数据块写入，只会刷盘一次。
+     */
+    @Override
+    public int store(long epoch, List<E> list) {
+        if (list.isEmpty()) {
+            return 0;
+        }
+        List<byte[]> blocks = new ArrayList<>(list.size() / MAX_BLOCK_SIZE + 1);
+        for (int from = 0; from < list.size(); from += MAX_BLOCK_SIZE) {
+            encodeBlocks(list.subList(from, Math.min(list.size(), from + MAX_BLOCK_SIZE)), blocks);
+        }
+        lock.lock();
+        try {
+            Chain chain = chain(epoch);
+            for (byte[] bytes : blocks) {
+                append(chain, bytes, true);
+            }
+            afterWrite();
+        } finally {
+            lock.unlock();
+        }
+        return list.size();
+    }
+
+    /**
+     * 编码成数据块，超过分段能容纳的大小时对半拆分
+     */
+    private void encodeBlocks(List<E> list, List<byte[]> blocks) {
+        byte[] bytes = codec.encodeAll(list);
+        if (list.size() > 1 && SEGMENT_HEADER + RECORD_HEADER + bytes.length + 4 > segmentSize) {
+            int half = list.size() >>> 1;
+            encodeBlocks(list.subList(0, half), blocks);
+            encodeBlocks(list.subList(half, list.size()), blocks);
+            return;
+        }
+        blocks.add(bytes);
+    }
+
+    /**
+     * 按代次先后回放所有分段，获取全部的临时存储数据。
+     */
+    @Override
+    public List<E> getAll() {
+        List<E> dataList = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Chain chain : chains.values()) {
+                for (Segment segment : chain.segments) {
+                    scan(segment, (bytes, block) -> dataList.addAll(decode(bytes, block)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return dataList;
+    }
+
+    /**
+     * 清空临时存储的数据，所有分段都会失效并被循环复用。
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            for (Chain chain : chains.values()) {
+                release(chain);
+            }
+            chains.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEpochAware() {
+        return true;
+    }
+
+    /**
+     * 清除指定代次的数据，该代次的分段会失效并被循环复用。
+     */
+    @Override
+    public void clear(long epoch) {
+        lock.lock();
+        try {
+            Chain chain = chains.remove(epoch);
+            if (chain != null) {
+                release(chain);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 打开一个恢复游标，按代次先后分批回放分段，
+     * 每批提交之后将这些记录标记为跳过，代次全部恢复之后使其分段失效。
+     */
+    @Override
+    public RecoveryCursor<E> cursor(long maxEpoch, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize is not a legal value.");
+        }
+        lock.lock();
+        try {
+            return new JournalRecoveryCursor(new ArrayList<>(chains.headMap(maxEpoch, true).values()), chunkSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 刷盘并关闭所有分段文件。
+     */
+    @Override
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            log.error("Exception occurred when close journal: {}", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将写入过的分段刷盘
+     */
+    public void sync() {
+        lock.lock();
+        try {
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            dirty.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 分段文件数量
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 打开目录下已有的分段，按分段头归入各个代次，并定位到每个代次的末尾
+     */
+    private void open() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Can not create journal directory: " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> SEGMENT_NAME.matcher(name).matches());
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    nextFileIndex = Math.max(nextFileIndex, Integer.parseInt(matcher.group(1)) + 1);
+                }
+                Segment segment = mapSegment(file);
+                segments.add(segment);
+                ByteBuffer buffer = segment.buffer;
+                if (buffer.getInt(0) != MAGIC) {
+                    free.add(segment);
+                    continue;
+                }
+                segment.seq = buffer.getInt(4);
+                segment.epoch = buffer.getLong(8);
+                chains.computeIfAbsent(segment.epoch, Chain::new).segments.add(segment);
+            }
+        }
+        for (Chain chain : chains.values()) {
+            chain.segments.sort((s1, s2) -> Integer.compare(s1.seq, s2.seq));
+            chain.position = scan(chain.last(), null);
+        }
+    }
+
+    /**
+     * 获取代次对应的分段链，首次写入时分配第一个分段
+     */
+    private Chain chain(long epoch) {
+        Chain chain = chains.get(epoch);
+        if (chain == null) {
+            chain = new Chain(epoch);
+            chain.segments.add(allocate(epoch, 0));
+            chain.position = SEGMENT_HEADER;
+            chains.put(epoch, chain);
+        }
+        return chain;
+    }
+
+    /**
+     * 回放一个分段中的记录。
+     *
+     * @param consumer 记录的消费者，参数为记录的数据和是否为数据块，为空则只定位末尾
+     * @return 分段的末尾位置
+     */
+    private int scan(Segment segment, BiConsumer<byte[], Boolean> consumer) {
+        int pos = SEGMENT_HEADER;
+        byte[] bytes;
+        while ((bytes = read(segment, pos)) != null) {
+            if (consumer != null && bytes != SKIPPED) {
+                consumer.accept(bytes, isBlock(segment, pos));
+            }
+            pos += RECORD_HEADER + recordLength(segment, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * 记录数据的长度，已经跳过的记录长度为负数
+     */
+    private static int recordLength(Segment segment, int pos) {
+        return Math.abs(segment.buffer.getInt(pos)) & LENGTH_MASK;
+    }
+
+    private static boolean isBlock(Segment segment, int pos) {
+        return (Math.abs(segment.buffer.getInt(pos)) & BLOCK_FLAG) != 0;
+    }
+
+    /**
+     * 解码一条记录
+     */
+    private List<E> decode(byte[] bytes, boolean block) {
+        return block ? codec.decodeAll(bytes) : Collections.singletonList(codec.decode(bytes));
+    }
+
+    /**
+     * 读取指定位置的记录。
+     *
+     * @return 记录的数据，已经跳过的记录返回{@link #SKIPPED}，到达末尾返回null
+     */
+    private byte[] read(Segment segment, int pos) {
+        ByteBuffer buffer = segment.buffer;
+        if (pos + 4 > segmentSize) {
+            return null;
+        }
+        int header = buffer.getInt(pos);
+        int len = Math.abs(header) & LENGTH_MASK;
+        if (header == END || header == Integer.MIN_VALUE || pos + RECORD_HEADER + len > segmentSize) {
+            return null;
+        }
+        if (header < 0) {
+            return SKIPPED;
+        }
+        byte[] bytes = new byte[len];
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos + RECORD_HEADER);
+        view.get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, len);
+        if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+            log.warn("Journal record in {} at position {} is corrupted, ignore the rest.", segment.file.getName(), pos);
+            buffer.putInt(pos, END);
+            return null;
+        }
+        return bytes;
+    }
+
+    /**
+     * 追加一条记录，当前分段放不下时为该代次分配下一个分段。
+     *
+     * @param block 是否为数据块
+     */
+    private void append(Chain chain, byte[] bytes, boolean block) {
+        int recordSize = RECORD_HEADER + bytes.length;
+        if (bytes.length > LENGTH_MASK || SEGMENT_HEADER + recordSize + 4 > segmentSize) {
+            throw new IllegalArgumentException("Record size " + bytes.length + " exceeds the journal segment size.");
+        }
+        if (chain.position + recordSize + 4 > segmentSize) {
+            Segment last = chain.last();
+            chain.segments.add(allocate(last.epoch, last.seq + 1));
+            chain.position = SEGMENT_HEADER;
+        }
+        Segment segment = chain.last();
+        MappedByteBuffer buffer = segment.buffer;
+        int position = chain.position;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        //先写结束标记和数据，最后写长度，保证回放时不会读到不完整的记录
+        buffer.putInt(position + recordSize, END);
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + RECORD_HEADER);
+        view.put(bytes);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, block ? bytes.length | BLOCK_FLAG : bytes.length);
+        chain.position = position + recordSize;
+        dirty.add(segment);
+    }
+
+    /**
+     * 为代次分配一个分段，优先复用空闲分段
+     */
+    private Segment allocate(long epoch, int seq) {
+        Segment segment = free.poll();
+        if (segment == null) {
+            segment = mapSegment(new File(directory, String.format("segment-%05d.log", nextFileIndex++)));
+            segments.add(segment);
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(SEGMENT_HEADER, END);
+        buffer.putLong(8, epoch);
+        buffer.putInt(4, seq);
+        buffer.putInt(0, MAGIC);
+        segment.epoch = epoch;
+        segment.seq = seq;
+        dirty.add(segment);
+        return segment;
+    }
+
+    /**
+     * 使分段链上的所有分段失效，放回空闲列表
+     */
+    private void release(Chain chain) {
+        for (Segment segment : chain.segments) {
+            segment.buffer.putInt(0, 0);
+            if (fsyncPolicy != FsyncPolicy.OS) {
+                segment.buffer.force();
+            }
+            dirty.remove(segment);
+            free.add(segment);
+        }
+    }
+
+    private void afterWrite() {
+        if (fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+            sync();
+        }
+    }
+
+    private Segment mapSegment(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            if (raf.length() != segmentSize) {
+                raf.setLength(segmentSize);
+            }
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(file, channel, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not map journal segment: " + file, e);
+        }
+    }
+
+    /**
+     * 内存映射的分段文件
+     */
+    private static final class Segment {
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * 所属代次
+         */
+        private long epoch;
+
+        /**
+         * 在所属代次中的序号
+         */
+        private int seq;
+
+        private Segment(File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * 一个代次的分段链
+     */
+    private static final class Chain {
+
+        private final long epoch;
+
+        private final List<Segment> segments = new ArrayList<>();
+
+        /**
+         * 最后一个分段的写入位置
+         */
+        private int position;
+
+        private Chain(long epoch) {
+            this.epoch = epoch;
+        }
+
+        private Segment last() {
+            return segments.get(segments.size() - 1);
+        }
+    }
+
+    /**
+     * 按代次先后回放分段的恢复游标
+     */
+    private final class JournalRecoveryCursor implements RecoveryCursor<E> {
+
+        private final Iterator<Chain> chainIterator;
+
+        private final int chunkSize;
+
+        /**
+         * 正在回放的代次
+         */
+        private Chain chain;
+
+        private int segmentIndex;
+
+        private int position;
+
+        /**
+         * 上一批尚未提交的记录所在的分段和位置
+         */
+        private final List<Segment> pendingSegments = new ArrayList<>();
+
+        private final List<Integer> pendingPositions = new ArrayList<>();
+
+        /**
+         * 已经回放完毕的代次
+         */
+        private final List<Chain> exhausted = new ArrayList<>();
+
+        private JournalRecoveryCursor(List<Chain> chains, int chunkSize) {
+            this.chainIterator = chains.iterator();
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public List<E> next() {
+            List<E> chunk = new ArrayList<>();
+            lock.lock();
+            try {
+                while (chunk.size() < chunkSize) {
+                    if (chain == null) {
+                        if (!chainIterator.hasNext()) {
+                            break;
+                        }
+                        chain = chainIterator.next();
+                        segmentIndex = 0;
+                        position = SEGMENT_HEADER;
+                    }
+                    if (segmentIndex >= chain.segments.size()) {
+                        exhausted.add(chain);
+                        chain = null;
+                        continue;
+                    }
+                    Segment segment = chain.segments.get(segmentIndex);
+                    byte[] bytes = read(segment, position);
+                    if (bytes == null) {
+                        segmentIndex++;
+                        position = SEGMENT_HEADER;
+                        continue;
+                    }
+                    if (bytes != SKIPPED) {
+                        chunk.addAll(decode(bytes, isBlock(segment, position)));
+                        pendingSegments.add(segment);
+                        pendingPositions.add(position);
+                    }
+                    position += RECORD_HEADER + recordLength(segment, position);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return chunk;
+        }
+
+        @Override
+        public void commit() {
+            lock.lock();
+            try {
+                for (int i = 0; i < pendingSegments.size(); i++) {
+                    Segment segment = pendingSegments.get(i);
+                    int pos = pendingPositions.get(i);
+                    segment.buffer.putInt(pos, -segment.buffer.getInt(pos));
+                    dirty.add(segment);
+                }
+                pendingSegments.clear();
+                pendingPositions.clear();
+                releaseExhausted();
+                afterWrite();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (pendingSegments.isEmpty()) {
+                    releaseExhausted();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 回放完毕的代次已经全部提交，使其分段失效
+         */
+        private void releaseExhausted() {
+            for (Chain c : exhausted) {
+                if (chains.get(c.epoch) == c) {
+                    chains.remove(c.epoch);
+                    release(c);
+                }
+            }
+            exhausted.clear();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.dx.ss.buffer.storage;
+
+import java.util.List;
+
+/**
+ * 按列持久化指标样本的存储层，与指标缓冲区配合使用。
+ * 指标缓冲区flush时交出的就是列式视图，{@link #store(List)}直接转交给{@link #storeColumns(SampleColumns)}，
+ * 不会为每个样本创建对象。
+ */
+public interface MetricPersistStorage extends PersistStorage<MetricSample> {
+
+    /**
+     * 存储一批列式样本，与{@link #store(List)}相同，不能修改或在调用之外持有列数组。
+     *
+     * @param columns 列式样本
+     * @return 存储的样本数量
+     */
+    int storeColumns(SampleColumns columns);
+
+    @Override
+    default MetricSample store(MetricSample sample) {
+        storeColumns(SampleColumns.of(new long[]{sample.getTimestamp()}, new double[]{sample.getValue()}));
+        return sample;
+    }
+
+    @Override
+    default int store(List<MetricSample> list) {
+        return storeColumns(SampleColumns.from(list));
+    }
+}
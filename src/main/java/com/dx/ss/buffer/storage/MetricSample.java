@@ -0,0 +1,51 @@
+package com.dx.ss.buffer.storage;
+
+import java.io.Serializable;
+
+/**
+ * 一个指标样本：时间戳和数值。
+ * 指标缓冲区按列存放样本，只有作为对象读取时才会创建该对象。
+ */
+public final class MetricSample implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long timestamp;
+
+    private final double value;
+
+    public MetricSample(long timestamp, double value) {
+        this.timestamp = timestamp;
+        this.value = value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MetricSample)) {
+            return false;
+        }
+        MetricSample that = (MetricSample) o;
+        return timestamp == that.timestamp && Double.compare(value, that.value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(timestamp) + Double.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricSample(timestamp=" + timestamp + ", value=" + value + ")";
+    }
+}
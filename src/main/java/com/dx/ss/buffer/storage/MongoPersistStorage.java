@@ -1,17 +1,126 @@
 package com.dx.ss.buffer.storage;
 
+import com.mongodb.BulkWriteError;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 基于MongoDB的持久化层。
+ * 批量存储时按数据类型分组，再按批次大小切分，每一批以无序的批量插入写入，
+ * 多个批次在有界的线程池中并行执行。失败的文档按退避时间重试，
+ * 重试之后仍然失败的文档通过{@link #storeAll(List)}返回给调用方。
+ */
 @Slf4j
-public class MongoPersistStorage<E> implements PersistStorage<E> {
+public class MongoPersistStorage<E> implements PersistStorage<E>, AutoCloseable {
+
+    /**
+     * 默认的批次大小
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * 默认的并行度
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * 默认的重试次数
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * 默认的初始退避时间（单位：毫秒）
+     */
+    public static final long DEFAULT_BACKOFF_MILLIS = 100;
+
+    /**
+     * 退避时间上限（单位：毫秒）
+     */
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    /**
+     * 主键重复，说明文档已经写入，不再重试
+     */
+    private static final int DUPLICATE_KEY = 11000;
 
     private final MongoTemplate mongoTemplate;
 
+    /**
+     * 每批写入的文档数量
+     */
+    private final int chunkSize;
+
+    /**
+     * 失败文档的重试次数
+     */
+    private final int maxRetries;
+
+    /**
+     * 初始退避时间（单位：毫秒），每次重试翻倍
+     */
+    private final long backoffMillis;
+
+    /**
+     * 并行写入的线程池，并行度为1时为空，所有批次在调用线程中执行
+     */
+    private final ThreadPoolExecutor executor;
+
     public MongoPersistStorage(MongoTemplate mongoTemplate) {
+        this(mongoTemplate, DEFAULT_CHUNK_SIZE, DEFAULT_PARALLELISM, DEFAULT_MAX_RETRIES, DEFAULT_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param mongoTemplate MongoTemplate
+     * @param chunkSize     每批写入的文档数量
+     * @param parallelism   并行写入的批次数量
+     * @param maxRetries    失败文档的重试次数
+     * @param backoffMillis 初始退避时间（单位：毫秒），每次重试翻倍
+     */
+    public MongoPersistStorage(MongoTemplate mongoTemplate, int chunkSize, int parallelism, int maxRetries, long backoffMillis) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize is not a legal value.");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism is not a legal value.");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries is not a legal value.");
+        }
+        if (backoffMillis < 0) {
+            throw new IllegalArgumentException("backoffMillis is not a legal value.");
+        }
         this.mongoTemplate = mongoTemplate;
+        this.chunkSize = chunkSize;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        if (parallelism > 1) {
+            AtomicInteger index = new AtomicInteger();
+            //队列写满时由调用线程执行，限制排队的批次数量
+            this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(parallelism * 2), r -> {
+                Thread t = new Thread(r, "MongoPersistStorage-" + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            this.executor.allowCoreThreadTimeOut(true);
+        } else {
+            this.executor = null;
+        }
     }
 
     /**
@@ -30,15 +139,158 @@ public class MongoPersistStorage<E> implements PersistStorage<E> {
 
     /**
      * 存储多条数据。
+     *
+     * @return 成功存储的数据量，失败的数据已经记录日志
      */
     @Override
     public int store(List<E> list) {
-        try {
-            mongoTemplate.insertAll(list);
-            return list.size();
-        } catch (Exception ex) {
-            log.error("Exception occurred when persist data: {}", ex);
+        return storeAll(list).getStored();
+    }
+
+    /**
+     * 分批并行存储多条数据，返回重试之后仍然失败的数据。
+     */
+    @Override
+    public PersistResult<E> storeAll(List<E> list) {
+        if (list.isEmpty()) {
+            return PersistResult.success(0);
+        }
+        List<List<E>> chunks = chunk(list);
+        if (executor == null || chunks.size() == 1) {
+            int stored = 0;
+            List<E> failed = new ArrayList<>();
+            Throwable cause = null;
+            for (List<E> chunk : chunks) {
+                PersistResult<E> result = insert(chunk);
+                stored += result.getStored();
+                failed.addAll(result.getFailed());
+                cause = result.getCause() != null ? result.getCause() : cause;
+            }
+            return new PersistResult<>(stored, failed, cause);
+        }
+        List<Future<PersistResult<E>>> futures = new ArrayList<>(chunks.size());
+        for (List<E> chunk : chunks) {
+            futures.add(executor.submit(() -> insert(chunk)));
+        }
+        int stored = 0;
+        List<E> failed = new ArrayList<>();
+        Throwable cause = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                PersistResult<E> result = futures.get(i).get();
+                stored += result.getStored();
+                failed.addAll(result.getFailed());
+                cause = result.getCause() != null ? result.getCause() : cause;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                //尚未确认的批次都视为失败
+                for (int j = i; j < futures.size(); j++) {
+                    failed.addAll(chunks.get(j));
+                }
+                cause = e;
+                break;
+            } catch (ExecutionException e) {
+                failed.addAll(chunks.get(i));
+                cause = e.getCause();
+            }
+        }
+        return new PersistResult<>(stored, failed, cause);
+    }
+
+    /**
+     * 按数据类型分组，每组再按批次大小切分，同一批次的文档写入同一个集合。
+     * 所有数据类型相同时直接在原列表上切分，不复制数据
+     */
+    private List<List<E>> chunk(List<E> list) {
+        Map<Class<?>, List<E>> groups = new LinkedHashMap<>();
+        if (isSingleType(list)) {
+            groups.put(list.get(0).getClass(), list);
+        } else {
+            for (E e : list) {
+                groups.computeIfAbsent(e.getClass(), c -> new ArrayList<>()).add(e);
+            }
+        }
+        List<List<E>> chunks = new ArrayList<>(list.size() / chunkSize + groups.size());
+        for (List<E> group : groups.values()) {
+            for (int i = 0; i < group.size(); i += chunkSize) {
+                chunks.add(group.subList(i, Math.min(group.size(), i + chunkSize)));
+            }
+        }
+        return chunks;
+    }
+
+    private static boolean isSingleType(List<?> list) {
+        Class<?> type = list.get(0).getClass();
+        for (Object e : list) {
+            if (e.getClass() != type) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 以无序的批量插入写入一个批次，只重试失败的文档。
+     */
+    private PersistResult<E> insert(List<E> chunk) {
+        List<E> pending = chunk;
+        Throwable cause = null;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, pending.get(0).getClass());
+                operations.insert(pending).execute();
+                return new PersistResult<>(chunk.size(), null, null);
+            } catch (BulkOperationException e) {
+                pending = failedOf(pending, e);
+                cause = e;
+            } catch (Exception e) {
+                //无法得知哪些文档已经写入，整批重试
+                cause = e;
+            }
+            if (pending.isEmpty()) {
+                return new PersistResult<>(chunk.size(), null, null);
+            }
+            if (attempt >= maxRetries) {
+                break;
+            }
+            try {
+                Thread.sleep(Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt, 20)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            log.warn("{} of {} documents failed, retry: {}", pending.size(), chunk.size(), attempt + 1);
+        }
+        log.error("Exception occurred when persist data, {} of {} documents failed: {}", pending.size(), chunk.size(), cause);
+        return new PersistResult<>(chunk.size() - pending.size(), new ArrayList<>(pending), cause);
+    }
+
+    /**
+     * 批量插入中失败的文档，主键重复的文档已经写入，不计入失败
+     */
+    private List<E> failedOf(List<E> pending, BulkOperationException e) {
+        Set<Integer> indexes = new HashSet<>();
+        for (BulkWriteError error : e.getErrors()) {
+            if (error.getCode() != DUPLICATE_KEY) {
+                indexes.add(error.getIndex());
+            }
+        }
+        List<E> failed = new ArrayList<>(indexes.size());
+        for (int i = 0; i < pending.size(); i++) {
+            if (indexes.contains(i)) {
+                failed.add(pending.get(i));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * 关闭并行写入的线程池
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
         }
-        return 0;
     }
 }
@@ -0,0 +1,64 @@
+package com.dx.ss.buffer.storage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量持久化的结果，记录成功存储的数据量以及未能存储的数据，
+ * 调用方可以只重试或者转存失败的部分。
+ *
+ * @param <E> 数据类型
+ */
+public class PersistResult<E> {
+
+    /**
+     * 成功存储的数据量
+     */
+    private final int stored;
+
+    /**
+     * 未能存储的数据
+     */
+    private final List<E> failed;
+
+    /**
+     * 失败的原因，全部成功时为null
+     */
+    private final Throwable cause;
+
+    public PersistResult(int stored, List<E> failed, Throwable cause) {
+        this.stored = stored;
+        this.failed = failed != null ? failed : Collections.emptyList();
+        this.cause = cause;
+    }
+
+    /**
+     * 全部存储成功
+     */
+    public static <E> PersistResult<E> success(int stored) {
+        return new PersistResult<>(stored, null, null);
+    }
+
+    /**
+     * 整批存储失败
+     */
+    public static <E> PersistResult<E> failure(List<E> failed, Throwable cause) {
+        return new PersistResult<>(0, failed, cause);
+    }
+
+    public boolean isSuccess() {
+        return failed.isEmpty();
+    }
+
+    public int getStored() {
+        return stored;
+    }
+
+    public List<E> getFailed() {
+        return failed;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+}
@@ -11,6 +11,36 @@ public interface PersistStorage<E> {
 
     /**
      * 存储多条数据。
+     * 缓冲区flush时传入的是其底层数组的只读视图，调用结束之后数组会被清空复用，
+     * 实现不能修改或在调用之外持有该列表。
      */
     int store(List<E> list);
+
+    /**
+     * 存储多条数据，并返回未能存储的数据。
+     * 默认实现调用{@link #store(List)}，抛出异常时整批视为失败。
+     * 与{@link #store(List)}相同，不能在调用之外持有该列表。
+     *
+     * @param list 数据集合
+     * @return 持久化的结果
+     */
+    default PersistResult<E> storeAll(List<E> list) {
+        try {
+            return PersistResult.success(store(list));
+        } catch (RuntimeException e) {
+            return PersistResult.failure(list, e);
+        }
+    }
+
+    /**
+     * 存储编码后的一批数据，堆外缓冲区flush时调用。
+     * 默认实现解码之后调用{@link #storeAll(List)}，面向字节的实现可以直接写出每条记录。
+     * 与{@link #store(List)}相同，不能在调用之外持有这批数据。
+     *
+     * @param batch 编码后的数据
+     * @return 持久化的结果
+     */
+    default PersistResult<E> storeEncoded(EncodedBatch<E> batch) {
+        return storeAll(batch.decode());
+    }
 }
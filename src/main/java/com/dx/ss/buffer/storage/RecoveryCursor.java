@@ -0,0 +1,33 @@
+package com.dx.ss.buffer.storage;
+
+import java.util.List;
+
+/**
+ * 临时存储数据的恢复游标，每次只读取一批数据，
+ * 使恢复过程的内存占用与待恢复的数据总量无关。
+ * <p>
+ * 使用方式：调用{@link #next()}读取一批数据，持久化成功之后调用{@link #commit()}
+ * 从临时存储层中删除这批数据，如此反复直到读取到空的批次。
+ * 未提交的数据会保留在临时存储层中，下次恢复时再次读取。
+ */
+public interface RecoveryCursor<E> extends AutoCloseable {
+
+    /**
+     * 读取下一批数据。
+     *
+     * @return 一批数据，没有更多数据时返回空列表
+     */
+    List<E> next();
+
+    /**
+     * 上一批数据已经持久化，从临时存储层中删除。
+     */
+    void commit();
+
+    /**
+     * 关闭游标，释放占用的资源
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -1,19 +1,101 @@
 package com.dx.ss.buffer.storage;
 
+import com.dx.ss.buffer.codec.BufferCodec;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * 基于Redis List的临时存储层。
+ * <p>
+ * 每个缓冲区代次的数据存放在单独的List中（<code>cacheKey:epoch</code>），
+ * 所有尚未清除的代次记录在<code>cacheKey:EPOCHS</code>集合中，
+ * flush之后只删除该代次的List。不区分代次的数据仍然存放在cacheKey中。
+ * <p>
+ * 默认每次存储都是一次同步的RPUSH；开启批量写入后，数据先进入内存中的批次，
+ * 由后台线程在批次达到指定大小或者超过写入时限时，以pipeline的方式批量RPUSH，
+ * 参见{@link WriteMode}。
+ * <p>
+ * 恢复时按代次逐个读取List的头部，每批数据提交之后通过LTRIM删除。
+ * <p>
+ * 默认使用RedisTemplate的序列化方式，每个元素是一条数据；指定了{@link BufferCodec}之后，
+ * 每个元素是一个编码后的数据块，绕过RedisTemplate的序列化直接写入字节，恢复时以数据块为单位提交。
+ * 两种格式不兼容，更换之前需要先恢复临时存储中的数据。
+ */
 @Slf4j
-public class RedisTemporaryStorage<E> implements TemporaryStorage<E> {
+public class RedisTemporaryStorage<E> implements TemporaryStorage<E>, AutoCloseable {
+
+    /**
+     * 写入方式
+     */
+    public enum WriteMode {
+        /**
+         * 每条数据同步RPUSH
+         */
+        SYNC,
+        /**
+         * 后台批量写入，存储立即返回，未写入Redis的数据最多停留flushIntervalMillis
+         */
+        WRITE_BEHIND,
+        /**
+         * 后台批量写入，存储会等待所在批次通过pipeline写入Redis之后才返回。
+         * 缓冲池通过{@link #storeAsync(long, List)}在释放锁之后再等待，并发的生产者可以写入同一批次，
+         * 写入失败时提交结果为UNACKNOWLEDGED
+         */
+        PIPELINE_ACK
+    }
+
+    /**
+     * 默认的批次大小
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * 默认的写入时限（单位：毫秒）
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 50;
+
+    /**
+     * 一条RPUSH命令最多携带的数据量，较大的批次会拆分成多条命令放入同一个pipeline
+     */
+    private static final int MAX_PUSH_SIZE = 1000;
+
+    /**
+     * 不区分代次的数据
+     */
+    private static final long NO_EPOCH = Long.MIN_VALUE;
 
     /**
      * 默认的缓存KEY
      */
     private static final String DEFAULT_CACHE_KEY = "@TEMP_BUFFER_DATA";
 
+    /**
+     * 代次集合的KEY后缀
+     */
+    private static final String EPOCHS_SUFFIX = ":EPOCHS";
+
     /**
      * 缓存的KEY
      */
@@ -26,11 +108,101 @@ public class RedisTemporaryStorage<E> implements TemporaryStorage<E> {
 
     private final RedisTemplate<String, Object> redisTemplate;
 
+    /**
+     * 写入方式
+     */
+    private final WriteMode writeMode;
+
+    /**
+     * 数据的编解码器，为空时使用RedisTemplate的序列化方式
+     */
+    private final BufferCodec<E> codec;
+
+    /**
+     * 批次大小，达到后立即写入
+     */
+    private final int batchSize;
+
+    /**
+     * 写入时限（单位：纳秒），批次中最早的数据最多等待这么久
+     */
+    private final long flushIntervalNanos;
+
+    /**
+     * 已经登记到代次集合中的代次，避免每次写入都执行SADD
+     */
+    private final Set<Long> registeredEpochs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 保护当前批次
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 批次中有数据，或者批次已满
+     */
+    private final Condition available = lock.newCondition();
+
+    /**
+     * 串行化批次写入与代次清除，保证清除之后不会再有该代次的数据写入
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * 正在积累的批次
+     */
+    private Batch<E> batch = new Batch<>();
+
+    /**
+     * 后台写入线程
+     */
+    private Thread writer;
+
+    private volatile boolean running;
+
     public RedisTemporaryStorage(RedisTemplate<String, Object> redisTemplate) {
+        this(redisTemplate, WriteMode.SYNC, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param redisTemplate       RedisTemplate
+     * @param writeMode           写入方式
+     * @param batchSize           批次大小
+     * @param flushIntervalMillis 写入时限（单位：毫秒），即最多会有这么久的数据尚未写入Redis
+     */
+    public RedisTemporaryStorage(RedisTemplate<String, Object> redisTemplate, WriteMode writeMode,
+                                 int batchSize, long flushIntervalMillis) {
+        this(redisTemplate, writeMode, batchSize, flushIntervalMillis, null);
+    }
+
+    /**
+     * @param redisTemplate       RedisTemplate
+     * @param writeMode           写入方式
+     * @param batchSize           批次大小
+     * @param flushIntervalMillis 写入时限（单位：毫秒），即最多会有这么久的数据尚未写入Redis
+     * @param codec               数据的编解码器，为空时使用RedisTemplate的序列化方式
+     */
+    public RedisTemporaryStorage(RedisTemplate<String, Object> redisTemplate, WriteMode writeMode,
+                                 int batchSize, long flushIntervalMillis, BufferCodec<E> codec) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize is not a legal value.");
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis is not a legal value.");
+        }
         this.cacheKey = DEFAULT_CACHE_KEY;
         this.redisTemplate = redisTemplate;
         this.operations = redisTemplate.opsForList();
-
+        this.writeMode = writeMode;
+        this.codec = codec;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        if (writeMode != WriteMode.SYNC) {
+            this.running = true;
+            this.writer = new Thread(this::writeLoop, "RedisTemporaryStorage-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
     }
 
     /**
@@ -40,11 +212,7 @@ public class RedisTemporaryStorage<E> implements TemporaryStorage<E> {
      */
     @Override
     public E store(E e) {
-        Long c = operations.rightPush(cacheKey, e);
-        if (c != null && c > 0) {
-            return e;
-        }
-        return null;
+        return store(NO_EPOCH, e);
     }
 
     /**
@@ -54,7 +222,35 @@ public class RedisTemporaryStorage<E> implements TemporaryStorage<E> {
      */
     @Override
     public int store(List<E> list) {
-        Long c = operations.rightPushAll(cacheKey, list);
+        return store(NO_EPOCH, list);
+    }
+
+    /**
+     * 按缓冲区代次存储一条数据。
+     */
+    @Override
+    public E store(long epoch, E e) {
+        if (writeMode != WriteMode.SYNC) {
+            return enqueue(epoch, Collections.singletonList(e)) ? e : null;
+        }
+        register(epoch);
+        Long c = codec != null ? push(keyOf(epoch), Collections.singletonList(e)) : operations.rightPush(keyOf(epoch), e);
+        if (c != null && c > 0) {
+            return e;
+        }
+        return null;
+    }
+
+    /**
+     * 按缓冲区代次存储多条数据。
+     */
+    @Override
+    public int store(long epoch, List<E> list) {
+        if (writeMode != WriteMode.SYNC) {
+            return enqueue(epoch, list) ? list.size() : 0;
+        }
+        register(epoch);
+        Long c = codec != null ? push(keyOf(epoch), list) : operations.rightPushAll(keyOf(epoch), list.toArray());
         if (c != null && c > 0) {
             return list.size();
         }
@@ -62,11 +258,32 @@ public class RedisTemporaryStorage<E> implements TemporaryStorage<E> {
     }
 
     /**
-     * 获取全部的临时存储数据。
+     * 按缓冲区代次存储多条数据，批量写入时只放入当前批次，不等待写入完成。
+     * PIPELINE_ACK模式下返回的结果在批次写入Redis之后完成，写入失败则异常完成。
+     */
+    @Override
+    public CompletableFuture<Integer> storeAsync(long epoch, List<E> list) {
+        if (writeMode == WriteMode.SYNC) {
+            return CompletableFuture.completedFuture(store(epoch, list));
+        }
+        CompletableFuture<Void> done = add(epoch, list);
+        if (writeMode == WriteMode.WRITE_BEHIND) {
+            return CompletableFuture.completedFuture(list.size());
+        }
+        return done.thenApply(v -> list.size());
+    }
+
+    /**
+     * 获取全部的临时存储数据，按代次先后排列。
      */
     @Override
     public List<E> getAll() {
-        return (List<E>) operations.range(cacheKey, 0, -1);
+        flushPending();
+        List<E> dataList = new ArrayList<>(range(cacheKey, -1));
+        for (Long epoch : epochs()) {
+            dataList.addAll(range(keyOf(epoch), -1));
+        }
+        return dataList;
     }
 
     /**
@@ -74,7 +291,355 @@ public class RedisTemporaryStorage<E> implements TemporaryStorage<E> {
      */
     @Override
     public void clear() {
-        redisTemplate.delete(cacheKey);
+        if (writeMode != WriteMode.SYNC) {
+            //尚未写入的数据随之丢弃
+            Batch<E> discarded = takeBatch();
+            if (discarded != null) {
+                discarded.done.complete(null);
+            }
+        }
+        writeLock.lock();
+        try {
+            List<String> keys = new ArrayList<>();
+            keys.add(cacheKey);
+            keys.add(cacheKey + EPOCHS_SUFFIX);
+            for (Long epoch : epochs()) {
+                keys.add(keyOf(epoch));
+            }
+            redisTemplate.delete(keys);
+            registeredEpochs.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEpochAware() {
+        return true;
+    }
+
+    /**
+     * 清除指定代次的数据，尚未写入Redis的该代次数据会直接丢弃。
+     * 批次因此变空时不会再被写入，直接完成该批次，等待确认的生产者不会一直等待。
+     */
+    @Override
+    public void clear(long epoch) {
+        if (writeMode != WriteMode.SYNC) {
+            Batch<E> emptied = null;
+            lock.lock();
+            try {
+                if (batch.remove(epoch) && batch.size == 0) {
+                    emptied = batch;
+                    batch = new Batch<>();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (emptied != null) {
+                emptied.done.complete(null);
+            }
+        }
+        //等待正在写入的批次完成
+        writeLock.lock();
+        try {
+            redisTemplate.delete(keyOf(epoch));
+            if (epoch != NO_EPOCH) {
+                redisTemplate.opsForSet().remove(cacheKey + EPOCHS_SUFFIX, String.valueOf(epoch));
+                registeredEpochs.remove(epoch);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 打开一个恢复游标，按代次先后分批读取，每批提交之后从List头部删除。
+     */
+    @Override
+    public RecoveryCursor<E> cursor(long maxEpoch, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize is not a legal value.");
+        }
+        flushPending();
+        List<Long> recovering = new ArrayList<>();
+        recovering.add(NO_EPOCH);
+        for (Long epoch : epochs()) {
+            if (epoch <= maxEpoch) {
+                recovering.add(epoch);
+            }
+        }
+        return new RedisRecoveryCursor(recovering.iterator(), chunkSize);
+    }
+
+    /**
+     * 尚未清除的代次，按先后排列
+     */
+    public Set<Long> epochs() {
+        Set<Long> epochs = new TreeSet<>();
+        Set<Object> members = redisTemplate.opsForSet().members(cacheKey + EPOCHS_SUFFIX);
+        if (members != null) {
+            for (Object member : members) {
+                epochs.add(Long.parseLong(String.valueOf(member)));
+            }
+        }
+        return epochs;
+    }
+
+    /**
+     * 写入所有尚未写入的数据，并停止后台写入线程。
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        lock.lock();
+        try {
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushPending();
+    }
+
+    /**
+     * 代次对应的KEY
+     */
+    private String keyOf(long epoch) {
+        return epoch == NO_EPOCH ? cacheKey : cacheKey + ":" + epoch;
+    }
+
+    /**
+     * 将数据编码成数据块，直接以字节写入List的尾部，较大的批次拆分成多个数据块
+     *
+     * @return List的长度
+     */
+    private Long push(String key, List<E> list) {
+        byte[][] blocks = encode(list);
+        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.rPush(rawKey(key), blocks));
+    }
+
+    private byte[][] encode(List<E> list) {
+        byte[][] blocks = new byte[(list.size() + MAX_PUSH_SIZE - 1) / MAX_PUSH_SIZE][];
+        for (int i = 0; i < blocks.length; i++) {
+            int from = i * MAX_PUSH_SIZE;
+            blocks[i] = codec.encodeAll(list.subList(from, Math.min(list.size(), from + MAX_PUSH_SIZE)));
+        }
+        return blocks;
+    }
+
+    /**
+     * 读取List的前end+1个元素，end为-1表示全部。
+     * 使用编解码器时每个元素是一个数据块，返回所有数据块解码后的数据。
+     */
+    @SuppressWarnings("unchecked")
+    private List<E> range(String key, long end) {
+        if (codec == null) {
+            List<Object> list = operations.range(key, 0, end);
+            return list != null ? (List<E>) list : Collections.emptyList();
+        }
+        List<byte[]> blocks = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.lRange(rawKey(key), 0, end));
+        if (blocks == null) {
+            return Collections.emptyList();
+        }
+        List<E> dataList = new ArrayList<>();
+        for (byte[] block : blocks) {
+            dataList.addAll(codec.decodeAll(block));
+        }
+        return dataList;
+    }
+
+    /**
+     * 使用编解码器时，以数据块的方式通过一个pipeline写入一个批次
+     */
+    private void writeBlocks(Batch<E> b, List<Long> registering) {
+        byte[] epochsKey = rawKey(cacheKey + EPOCHS_SUFFIX);
+        Map<byte[], byte[][]> blocks = new LinkedHashMap<>();
+        for (Map.Entry<Long, List<E>> entry : b.items.entrySet()) {
+            blocks.put(rawKey(keyOf(entry.getKey())), encode(entry.getValue()));
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long epoch : registering) {
+                connection.sAdd(epochsKey, rawValue(String.valueOf(epoch)));
+            }
+            for (Map.Entry<byte[], byte[][]> entry : blocks.entrySet()) {
+                connection.rPush(entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] rawKey(String key) {
+        return ((RedisSerializer<String>) redisTemplate.getKeySerializer()).serialize(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] rawValue(Object value) {
+        return ((RedisSerializer<Object>) redisTemplate.getValueSerializer()).serialize(value);
+    }
+
+    /**
+     * 首次写入某个代次时，将其登记到代次集合中
+     */
+    private void register(long epoch) {
+        if (epoch != NO_EPOCH && registeredEpochs.add(epoch)) {
+            redisTemplate.opsForSet().add(cacheKey + EPOCHS_SUFFIX, String.valueOf(epoch));
+        }
+    }
+
+    /**
+     * 放入当前批次，PIPELINE_ACK模式下等待批次写入完成。
+     *
+     * @return 是否存储成功
+     */
+    private boolean enqueue(long epoch, Collection<? extends E> items) {
+        CompletableFuture<Void> done = add(epoch, items);
+        if (writeMode == WriteMode.PIPELINE_ACK) {
+            try {
+                done.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 放入当前批次，不等待写入
+     *
+     * @return 所在批次写入完成的结果
+     */
+    private CompletableFuture<Void> add(long epoch, Collection<? extends E> items) {
+        CompletableFuture<Void> done;
+        lock.lock();
+        try {
+            Batch<E> b = this.batch;
+            b.add(epoch, items);
+            if (b.createdNanos == 0) {
+                b.createdNanos = System.nanoTime();
+                available.signal();
+            } else if (b.size >= batchSize) {
+                available.signal();
+            }
+            done = b.done;
+        } finally {
+            lock.unlock();
+        }
+        if (!running) {
+            //后台线程已停止，由调用者自行写入
+            flushPending();
+        }
+        return done;
+    }
+
+    /**
+     * 后台写入线程：批次达到大小，或者最早的数据超过写入时限时，写入Redis。
+     */
+    private void writeLoop() {
+        while (running) {
+            lock.lock();
+            try {
+                while (running && batch.size == 0) {
+                    available.await();
+                }
+                long remaining = flushIntervalNanos - (System.nanoTime() - batch.createdNanos);
+                while (running && batch.size < batchSize && remaining > 0) {
+                    remaining = available.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            flushPending();
+        }
+    }
+
+    /**
+     * 立即写入当前批次。
+     * 持有写入锁时才取走批次，取走之后、写入之前不会有代次被清除，已清除的代次不会被重新写入。
+     */
+    private void flushPending() {
+        writeLock.lock();
+        try {
+            Batch<E> b = takeBatch();
+            if (b != null) {
+                write(b);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 取走当前批次，并开启一个新的批次
+     *
+     * @return 当前批次，为空则返回null
+     */
+    private Batch<E> takeBatch() {
+        lock.lock();
+        try {
+            if (batch.size == 0) {
+                return null;
+            }
+            Batch<E> b = this.batch;
+            this.batch = new Batch<>();
+            return b;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将一个批次按代次拆分成多条RPUSH命令，通过一个pipeline写入Redis，调用时必须持有写入锁
+     */
+    @SuppressWarnings("unchecked")
+    private void write(final Batch<E> b) {
+        final List<Long> registering = new ArrayList<>();
+        try {
+            for (Long epoch : b.items.keySet()) {
+                if (epoch != NO_EPOCH && registeredEpochs.add(epoch)) {
+                    registering.add(epoch);
+                }
+            }
+            if (codec != null) {
+                writeBlocks(b, registering);
+            } else {
+                redisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    public <K, V> Object execute(RedisOperations<K, V> ops) throws DataAccessException {
+                        RedisOperations<String, Object> redisOps = (RedisOperations<String, Object>) ops;
+                        for (Long epoch : registering) {
+                            redisOps.opsForSet().add(cacheKey + EPOCHS_SUFFIX, String.valueOf(epoch));
+                        }
+                        for (Map.Entry<Long, List<E>> entry : b.items.entrySet()) {
+                            List<E> items = entry.getValue();
+                            for (int from = 0; from < items.size(); from += MAX_PUSH_SIZE) {
+                                List<E> chunk = items.subList(from, Math.min(items.size(), from + MAX_PUSH_SIZE));
+                                redisOps.opsForList().rightPushAll(keyOf(entry.getKey()), chunk.toArray());
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            b.done.complete(null);
+        } catch (Exception ex) {
+            log.error("Exception occurred when write temporary data: {}", ex);
+            registeredEpochs.removeAll(registering);
+            b.done.completeExceptionally(ex);
+        }
     }
 
 
@@ -85,4 +650,132 @@ public class RedisTemporaryStorage<E> implements TemporaryStorage<E> {
     public void setCacheKey(String cacheKey) {
         this.cacheKey = (cacheKey == null || cacheKey.isEmpty()) ? DEFAULT_CACHE_KEY : cacheKey;
     }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    /**
+     * 逐个代次读取List头部的恢复游标
+     */
+    private final class RedisRecoveryCursor implements RecoveryCursor<E> {
+
+        private final Iterator<Long> epochs;
+
+        private final int chunkSize;
+
+        /**
+         * 正在读取的代次，为空表示需要读取下一个代次
+         */
+        private Long epoch;
+
+        /**
+         * 上一批尚未提交的List元素数量
+         */
+        private int pending;
+
+        private RedisRecoveryCursor(Iterator<Long> epochs, int chunkSize) {
+            this.epochs = epochs;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<E> next() {
+            while (true) {
+                if (epoch == null) {
+                    if (!epochs.hasNext()) {
+                        return Collections.emptyList();
+                    }
+                    epoch = epochs.next();
+                }
+                List<E> list = codec != null ? nextBlocks() : (List<E>) operations.range(keyOf(epoch), 0, chunkSize - 1);
+                if (list != null && !list.isEmpty()) {
+                    if (codec == null) {
+                        pending = list.size();
+                    }
+                    return list;
+                }
+                //该代次已经全部恢复
+                clear(epoch);
+                epoch = null;
+            }
+        }
+
+        /**
+         * 逐页读取数据块，每页的数量翻倍，直到数据量达到chunkSize或者读完该代次
+         */
+        private List<E> nextBlocks() {
+            byte[] key = rawKey(keyOf(epoch));
+            List<E> chunk = new ArrayList<>();
+            int blocks = 0;
+            for (int page = 1; chunk.size() < chunkSize; page <<= 1) {
+                final long from = blocks;
+                final long to = blocks + page - 1;
+                List<byte[]> list = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.lRange(key, from, to));
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                for (byte[] block : list) {
+                    chunk.addAll(codec.decodeAll(block));
+                    blocks++;
+                    if (chunk.size() >= chunkSize) {
+                        break;
+                    }
+                }
+                if (list.size() < page) {
+                    break;
+                }
+            }
+            pending = blocks;
+            return chunk;
+        }
+
+        @Override
+        public void commit() {
+            if (pending > 0) {
+                operations.trim(keyOf(epoch), pending, -1);
+                pending = 0;
+            }
+        }
+    }
+
+    /**
+     * 等待写入Redis的一批数据，按代次分组，所有数据共享同一个完成信号
+     */
+    private static final class Batch<E> {
+
+        private final Map<Long, List<E>> items = new LinkedHashMap<>();
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * 批次中的数据量
+         */
+        private int size;
+
+        /**
+         * 批次中第一条数据的放入时间
+         */
+        private long createdNanos;
+
+        private void add(long epoch, Collection<? extends E> list) {
+            items.computeIfAbsent(epoch, k -> new ArrayList<>()).addAll(list);
+            size += list.size();
+        }
+
+        /**
+         * @return 批次中是否有该代次的数据
+         */
+        private boolean remove(long epoch) {
+            List<E> removed = items.remove(epoch);
+            if (removed != null) {
+                size -= removed.size();
+            }
+            if (size == 0) {
+                createdNanos = 0;
+            }
+            return removed != null;
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package com.dx.ss.buffer.storage;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 按列存放的一批指标样本，时间戳和数值分别存放在long[]和double[]中，不为每个样本创建对象。
+ * 作为列表读取时才会逐个创建{@link MetricSample}，持久化层应当直接读取列数组。
+ * <p>
+ * 指标缓冲区flush时交出的是其底层数组上的视图，调用结束之后数组会被复用，不能修改或在调用之外持有。
+ */
+public final class SampleColumns extends AbstractList<MetricSample> implements RandomAccess {
+
+    private final long[] timestamps;
+
+    private final double[] values;
+
+    /**
+     * 第一个样本在列数组中的下标
+     */
+    private final int offset;
+
+    private final int size;
+
+    /**
+     * @param timestamps 时间戳列
+     * @param values     数值列
+     * @param offset     第一个样本的下标
+     * @param size       样本数量
+     */
+    public SampleColumns(long[] timestamps, double[] values, int offset, int size) {
+        if (offset < 0 || size < 0 || offset + size > timestamps.length || offset + size > values.length) {
+            throw new IllegalArgumentException("size is not a legal value.");
+        }
+        this.timestamps = timestamps;
+        this.values = values;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public static SampleColumns of(long[] timestamps, double[] values) {
+        return new SampleColumns(timestamps, values, 0, Math.min(timestamps.length, values.length));
+    }
+
+    /**
+     * 转换为列式数据，本身就是列式视图时直接返回。
+     */
+    public static SampleColumns from(List<MetricSample> list) {
+        if (list instanceof SampleColumns) {
+            return (SampleColumns) list;
+        }
+        long[] timestamps = new long[list.size()];
+        double[] values = new double[list.size()];
+        int i = 0;
+        for (MetricSample sample : list) {
+            timestamps[i] = sample.getTimestamp();
+            values[i] = sample.getValue();
+            i++;
+        }
+        return new SampleColumns(timestamps, values, 0, i);
+    }
+
+    /**
+     * 合并多批样本，只有一批时直接返回，否则复制到新的列数组中。
+     */
+    public static SampleColumns concat(List<SampleColumns> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int total = 0;
+        for (SampleColumns part : parts) {
+            total += part.size;
+        }
+        long[] timestamps = new long[total];
+        double[] values = new double[total];
+        int at = 0;
+        for (SampleColumns part : parts) {
+            part.copyTo(timestamps, values, at);
+            at += part.size;
+        }
+        return new SampleColumns(timestamps, values, 0, total);
+    }
+
+    /**
+     * 复制到目标列数组中
+     *
+     * @param at 目标数组的起始下标
+     */
+    public void copyTo(long[] timestamps, double[] values, int at) {
+        System.arraycopy(this.timestamps, offset, timestamps, at, size);
+        System.arraycopy(this.values, offset, values, at, size);
+    }
+
+    public long timestamp(int index) {
+        return timestamps[offset + checkIndex(index)];
+    }
+
+    public double value(int index) {
+        return values[offset + checkIndex(index)];
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+
+    @Override
+    public MetricSample get(int index) {
+        return new MetricSample(timestamp(index), value(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 同一列数组上的视图，不复制数据
+     */
+    @Override
+    public SampleColumns subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", Size: " + size);
+        }
+        return new SampleColumns(timestamps, values, offset + fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * 时间戳列，有效数据从{@link #getOffset()}开始，共{@link #size()}个
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * 数值列，有效数据从{@link #getOffset()}开始，共{@link #size()}个
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+}
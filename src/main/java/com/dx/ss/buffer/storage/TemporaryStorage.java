@@ -1,6 +1,8 @@
 package com.dx.ss.buffer.storage;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 为缓冲池为设置的临时存储层，通过外部缓存，或者
@@ -8,6 +10,14 @@ import java.util.List;
  * 临时存储层会在缓冲池工作的时候，同步更新。
  * 如果缓冲池遇到意外情况而被迫中断，下次缓冲池恢复的
  * 时候，将会先将临时存储的数据进行持久化落盘。
+ * <p>
+ * 缓冲池会为每个缓冲区分配一个代次（epoch），按代次存储数据，
+ * flush之后只清除该代次的数据，其他缓冲区的数据不受影响。
+ * 不区分代次的实现可以不重写带代次的方法，此时flush会清空全部数据，
+ * 也不能用于后台恢复、溢出存储和死信存储，见{@link #isEpochAware()}。
+ * <p>
+ * 缓冲池恢复数据时通过{@link #cursor(long, int)}分批读取，
+ * 每批数据持久化之后再从临时存储层中删除。
  */
 public interface TemporaryStorage<E> {
 
@@ -22,7 +32,42 @@ public interface TemporaryStorage<E> {
     int store(List<E> list);
 
     /**
-     * 获取全部的临时存储数据。
+     * 按缓冲区代次存储一条数据。
+     *
+     * @param epoch 缓冲区代次
+     * @param e     数据对象
+     */
+    default E store(long epoch, E e) {
+        return store(e);
+    }
+
+    /**
+     * 按缓冲区代次存储多条数据。
+     *
+     * @param epoch 缓冲区代次
+     * @param list  数据列表
+     */
+    default int store(long epoch, List<E> list) {
+        return store(list);
+    }
+
+    /**
+     * 按缓冲区代次存储多条数据，返回写入完成的结果。
+     * 缓冲池持有锁时调用此方法，释放锁之后再等待结果，需要等待外部存储确认的实现应当重写此方法，
+     * 只登记数据而不在调用线程中等待，否则其他生产者无法在等待期间写入同一批次。
+     * <p>
+     * 默认实现同步存储，返回已完成的结果。
+     *
+     * @param epoch 缓冲区代次
+     * @param list  数据列表
+     * @return 写入完成的结果，值为存储的数据量
+     */
+    default CompletableFuture<Integer> storeAsync(long epoch, List<E> list) {
+        return CompletableFuture.completedFuture(store(epoch, list));
+    }
+
+    /**
+     * 获取全部的临时存储数据，即所有尚未清除的代次的数据。
      */
     List<E> getAll();
 
@@ -30,4 +75,61 @@ public interface TemporaryStorage<E> {
      * 清空临时存储的数据。
      */
     void clear();
+
+    /**
+     * 清除指定代次的数据，该代次的缓冲区已经持久化。
+     *
+     * @param epoch 缓冲区代次
+     */
+    default void clear(long epoch) {
+        clear();
+    }
+
+    /**
+     * 是否按代次存储和清除数据，即重写了带代次的方法和{@link #cursor(long, int)}。
+     * 只有按代次区分的实现才能在接收新数据的同时恢复旧数据，
+     * 否则恢复完成时无法只删除已经恢复的数据。
+     */
+    default boolean isEpochAware() {
+        return false;
+    }
+
+    /**
+     * 打开一个恢复游标，分批读取不晚于指定代次的数据，不区分代次的数据总是包含在内。
+     * <p>
+     * 默认实现退化为一次性读取{@link #getAll()}，再按批次返回，提交批次时不删除任何数据，
+     * 由调用方在全部批次提交之后{@link #clear()}。数据量较大的实现应当重写此方法。
+     *
+     * @param maxEpoch  需要恢复的最晚代次，之后的代次属于正在运行的缓冲池
+     * @param chunkSize 每批数据的最大数量
+     */
+    default RecoveryCursor<E> cursor(long maxEpoch, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize is not a legal value.");
+        }
+        final List<E> dataList = getAll();
+        return new RecoveryCursor<E>() {
+
+            private int position;
+
+            private int pending;
+
+            @Override
+            public List<E> next() {
+                if (position >= dataList.size()) {
+                    return Collections.emptyList();
+                }
+                int to = Math.min(dataList.size(), position + chunkSize);
+                List<E> chunk = dataList.subList(position, to);
+                pending = chunk.size();
+                return chunk;
+            }
+
+            @Override
+            public void commit() {
+                position += pending;
+                pending = 0;
+            }
+        };
+    }
 }
@@ -0,0 +1,66 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.core.AdaptiveFlushController;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveFlushControllerTests {
+
+    private AdaptiveFlushController newController() {
+        return new AdaptiveFlushController.Builder()
+                .targetBatchSize(5000)
+                .targetLatencyMillis(200)
+                .threshold(100, 10000)
+                .bufferTimeInSeconds(1, 600)
+                .build();
+    }
+
+    @Test
+    public void bufferTimeFollowsRateTest() {
+        AdaptiveFlushController controller = newController();
+        Assert.assertEquals(5000, controller.getThreshold());
+        Assert.assertEquals(600, controller.getBufferTimeInSeconds());
+        //低谷：每秒10条，攒满一个批次需要500秒
+        controller.onSwap(600, TimeUnit.SECONDS.toNanos(60));
+        Assert.assertEquals(500, controller.getBufferTimeInSeconds());
+        //高峰：每秒10万条，1秒即可攒满
+        for (int i = 0; i < 50; i++) {
+            controller.onSwap(100000, TimeUnit.SECONDS.toNanos(1));
+        }
+        Assert.assertEquals(1, controller.getBufferTimeInSeconds());
+    }
+
+    @Test
+    public void thresholdFollowsLatencyTest() {
+        AdaptiveFlushController controller = newController();
+        //每条数据耗时0.1毫秒，200毫秒内最多flush 2000条
+        controller.onFlushed(1000, TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertEquals(2000, controller.getThreshold());
+        //持久化层变慢，阈值不低于下限
+        for (int i = 0; i < 50; i++) {
+            controller.onFlushed(1000, TimeUnit.SECONDS.toNanos(10));
+        }
+        Assert.assertEquals(100, controller.getThreshold());
+    }
+
+    @Test
+    public void bufferTimeMillisTest() {
+        AdaptiveFlushController controller = new AdaptiveFlushController.Builder()
+                .targetBatchSize(100)
+                .threshold(10, 1000)
+                .bufferTimeMillis(20, 200)
+                .build();
+        Assert.assertEquals(200, controller.getBufferTimeMillis());
+        //每秒1000条，攒满一个批次需要100毫秒
+        controller.onSwap(100, TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertEquals(100, controller.getBufferTimeMillis());
+        Assert.assertEquals(1, controller.getBufferTimeInSeconds());
+        //高峰时不低于下限
+        for (int i = 0; i < 50; i++) {
+            controller.onSwap(100000, TimeUnit.SECONDS.toNanos(1));
+        }
+        Assert.assertEquals(20, controller.getBufferTimeMillis());
+    }
+}
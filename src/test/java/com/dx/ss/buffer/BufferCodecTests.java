@@ -0,0 +1,134 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.codec.BinaryBufferCodec;
+import com.dx.ss.buffer.codec.BufferCodec;
+import com.dx.ss.buffer.codec.CompressingBufferCodec;
+import com.dx.ss.buffer.codec.SerializingBufferCodec;
+import lombok.Data;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BufferCodecTests {
+
+    @Data
+    static class Reading implements Serializable {
+
+        private long id;
+
+        private int value;
+
+        private double ratio;
+
+        private boolean valid;
+
+        private Integer code;
+
+        private String unit;
+
+        private Date time;
+
+        private BigDecimal amount;
+
+        private TimeUnit timeUnit;
+
+        private List<String> tags;
+
+        private transient String cache;
+    }
+
+    private Reading newReading(int i) {
+        Reading reading = new Reading();
+        reading.setId(-i);
+        reading.setValue(i * 31);
+        reading.setRatio(i / 7.0);
+        reading.setValid(i % 2 == 0);
+        reading.setCode(i % 3 == 0 ? null : i);
+        reading.setUnit("温度_" + i);
+        reading.setTime(new Date(1_500_000_000_000L + i));
+        reading.setAmount(new BigDecimal("12.34").add(BigDecimal.valueOf(i)));
+        reading.setTimeUnit(TimeUnit.SECONDS);
+        reading.setTags(new ArrayList<>(Arrays.asList("a", "b" + i)));
+        reading.setCache("cache");
+        return reading;
+    }
+
+    @Test
+    public void binaryTest() {
+        BufferCodec<Object> codec = new BinaryBufferCodec<>();
+        Reading reading = newReading(3);
+        Reading decoded = (Reading) codec.decode(codec.encode(reading));
+        Assert.assertNull(decoded.getCache());
+        decoded.setCache("cache");
+        Assert.assertEquals(reading, decoded);
+        //同一批次中的多种数据类型
+        List<Object> list = Arrays.asList(newReading(1), new BufferData("H_1", "0x1"), null, newReading(2));
+        Assert.assertEquals(Arrays.asList(newReading(1).getUnit(), "H_1", null, newReading(2).getUnit()),
+                unitsOf(codec.decodeAll(codec.encodeAll(list))));
+        //比JDK序列化紧凑
+        List<Object> readings = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            readings.add(newReading(i));
+        }
+        Assert.assertTrue(codec.encodeAll(readings).length * 2 < new SerializingBufferCodec<>().encodeAll(readings).length);
+    }
+
+    @Test
+    public void singleElementTest() {
+        BufferCodec<Object> codec = new BinaryBufferCodec<>();
+        BufferCodec<Object> registered = new BinaryBufferCodec<>(BufferData.class, Reading.class);
+        Reading reading = newReading(5);
+        byte[] bytes = registered.encode(reading);
+        Assert.assertEquals(reading.getUnit(), ((Reading) registered.decode(bytes)).getUnit());
+        //注册的类型不写入类名
+        Assert.assertTrue(bytes.length + Reading.class.getName().length() <= codec.encode(reading).length);
+        Assert.assertEquals(bytes.length, registered.sizeOf(reading));
+        Assert.assertNull(registered.decode(registered.encode(null)));
+        //旧格式的单条数据仍然可以解码
+        Assert.assertEquals(reading.getUnit(), ((Reading) codec.decode(codec.encodeAll(Arrays.asList(reading)))).getUnit());
+        //直接写入目标缓冲区，空间不足时不写入
+        ByteBuffer target = ByteBuffer.allocate(bytes.length + 1);
+        target.put((byte) 0);
+        Assert.assertEquals(bytes.length, registered.encode(reading, target));
+        Assert.assertEquals(bytes.length + 1, target.position());
+        Assert.assertEquals(bytes.length, registered.encode(reading, target));
+        Assert.assertEquals(bytes.length + 1, target.position());
+        byte[] copied = new byte[bytes.length];
+        target.flip();
+        target.position(1);
+        target.get(copied);
+        Assert.assertArrayEquals(bytes, copied);
+    }
+
+    @Test
+    public void compressionTest() {
+        BufferCodec<Object> binary = new BinaryBufferCodec<>();
+        BufferCodec<Object> codec = new CompressingBufferCodec<>(binary);
+        List<Object> list = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(new BufferData("H_" + (i % 10), "0X105EFF"));
+        }
+        byte[] compressed = codec.encodeAll(list);
+        Assert.assertTrue(compressed.length * 4 < binary.encodeAll(list).length);
+        Assert.assertEquals(list, codec.decodeAll(compressed));
+        //太小的数据块原样存储
+        List<Object> small = Arrays.asList(new BufferData("H_1", "0x1"));
+        Assert.assertEquals(small, codec.decodeAll(codec.encodeAll(small)));
+    }
+
+    private static List<String> unitsOf(List<Object> list) {
+        List<String> units = new ArrayList<>();
+        for (Object o : list) {
+            units.add(o == null ? null : o instanceof Reading ? ((Reading) o).getUnit() : ((BufferData) o).getHeader());
+        }
+        return units;
+    }
+}
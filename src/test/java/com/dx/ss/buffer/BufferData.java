@@ -4,13 +4,15 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.io.Serializable;
+
 /**
  * 测试用的实体类
  */
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-class BufferData {
+class BufferData implements Serializable {
 
     private String header;
 
@@ -0,0 +1,160 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.config.DataBufferAutoConfiguration;
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.BufferPool;
+import com.dx.ss.buffer.core.BufferPoolRegistry;
+import com.dx.ss.buffer.core.OverflowPolicy;
+import com.dx.ss.buffer.core.TwinsBufferPool;
+import com.dx.ss.buffer.factory.ArrayDataBufferFactory;
+import com.dx.ss.buffer.storage.PersistStorage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class BufferPoolRegistryTests {
+
+    static class ListPersistStorage<E> implements PersistStorage<E> {
+
+        private final List<E> stored = new CopyOnWriteArrayList<>();
+
+        @Override
+        public E store(E e) {
+            stored.add(e);
+            return e;
+        }
+
+        @Override
+        public int store(List<E> list) {
+            stored.addAll(list);
+            return list.size();
+        }
+    }
+
+    private <E> TwinsBufferPool<E> newPool(int capacity, PersistStorage<E> persistStorage) {
+        ArrayDataBufferFactory factory = new ArrayDataBufferFactory();
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(capacity).threshold(new BigDecimal("0.5")).build();
+        TwinsBufferPool<E> pool = new TwinsBufferPool<>(factory.createDataBuffer(options), factory.createDataBuffer(options));
+        pool.setPersistStorage(persistStorage);
+        pool.start();
+        return pool;
+    }
+
+    @Test
+    public void namedPoolsTest() {
+        ListPersistStorage<BufferData> dataStorage = new ListPersistStorage<>();
+        ListPersistStorage<String> eventStorage = new ListPersistStorage<>();
+        BufferPoolRegistry registry = new BufferPoolRegistry();
+        registry.register("data", newPool(100, dataStorage));
+        TwinsBufferPool<String> events = newPool(10, eventStorage);
+        registry.register("event", events);
+        try {
+            registry.register("event", events);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            //名称不能重复
+        }
+
+        BufferPool<BufferData> dataPool = registry.getBufferPool("data");
+        BufferPool<String> eventPool = registry.getBufferPool("event");
+        for (int i = 0; i < 30; i++) {
+            dataPool.submit(new BufferData("H_" + i, "0x" + i));
+            eventPool.submit("E_" + i);
+        }
+        //各自按照自己的阈值切换
+        Assert.assertTrue(dataStorage.stored.isEmpty());
+        Assert.assertFalse(eventStorage.stored.isEmpty());
+
+        registry.shutdown(true);
+        Assert.assertTrue(dataPool.isShutdown() && eventPool.isShutdown());
+        Assert.assertEquals(30, dataStorage.stored.size());
+        Assert.assertEquals(30, eventStorage.stored.size());
+        Assert.assertNull(registry.getBufferPool("absent"));
+    }
+
+    @Configuration
+    static class StorageConfiguration {
+
+        @Bean
+        public PersistStorage<Object> persistStorage() {
+            return new ListPersistStorage<>();
+        }
+
+        @Bean
+        public MongoTemplate mongoTemplate() {
+            return Mockito.mock(MongoTemplate.class);
+        }
+
+        @Bean
+        public RedisTemplate<String, Object> redisTemplate() {
+            RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
+            redisTemplate.setConnectionFactory(Mockito.mock(RedisConnectionFactory.class));
+            redisTemplate.setDefaultSerializer(new StringRedisSerializer());
+            redisTemplate.afterPropertiesSet();
+            return redisTemplate;
+        }
+    }
+
+    @Test
+    public void namedPoolInheritsDefaultsTest() throws Exception {
+        File directory = Files.createTempDirectory("twins-buffer-registry").toFile();
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(DataBufferAutoConfiguration.class))
+                .withUserConfiguration(StorageConfiguration.class)
+                .withPropertyValues("buffer.capacity=10",
+                        "buffer.pool.enable-temporary-storage=true",
+                        "buffer.pool.buffer-time-millis=200",
+                        "buffer.pool.adaptive.enabled=true",
+                        "buffer.overflow.policy=DROP_NEWEST",
+                        "buffer.temporary.type=file",
+                        "buffer.temporary.journal.directory=" + directory.getAbsolutePath(),
+                        "buffer.pools.event.pool.recovery-chunk-size=10",
+                        "buffer.pools.event.overflow.timeout-millis=5")
+                .run(context -> {
+                    BufferPoolRegistry registry = context.getBean(BufferPoolRegistry.class);
+                    TwinsBufferPool<String> events = (TwinsBufferPool<String>) registry.<String>getBufferPool("event");
+                    //只配置了部分参数，其余的与默认缓冲池相同
+                    Assert.assertTrue(events.isEnableTemporaryStorage());
+                    Assert.assertEquals(200, events.getBufferTimeMillis());
+                    Assert.assertEquals(OverflowPolicy.DROP_NEWEST, events.getOverflowPolicy());
+                    Assert.assertNotNull(events.getFlushController());
+                    Assert.assertEquals(10, events.getFlushController().getThreshold());
+                    //自适应的缓冲时限不超过buffer-time-millis
+                    Assert.assertEquals(200, events.getFlushController().getBufferTimeMillis());
+                    registry.shutdown(true);
+                });
+    }
+
+    @Test
+    public void byteLimitRequiresCodecTest() throws Exception {
+        File directory = Files.createTempDirectory("twins-buffer-registry").toFile();
+        ApplicationContextRunner runner = new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(DataBufferAutoConfiguration.class))
+                .withUserConfiguration(StorageConfiguration.class)
+                .withPropertyValues("buffer.max-bytes=1048576",
+                        "buffer.temporary.type=file",
+                        "buffer.temporary.journal.directory=" + directory.getAbsolutePath());
+        //没有编解码器时启动失败，不退回到JDK序列化
+        runner.run(context -> Assert.assertTrue(NestedExceptionUtils.getMostSpecificCause(context.getStartupFailure())
+                instanceof IllegalStateException));
+        runner.withPropertyValues("buffer.codec.type=binary").run(context -> {
+            Assert.assertNull(context.getStartupFailure());
+            context.getBean(BufferPoolRegistry.class).shutdown(true);
+        });
+    }
+}
@@ -12,7 +12,7 @@ import org.springframework.test.context.junit4.SpringRunner;
 public class BufferPoolTests {
 
     @Autowired
-    private BufferPool bufferPool;
+    private BufferPool<Object> bufferPool;
 
     @Test
     public void submitTest() throws Exception {
@@ -0,0 +1,260 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.codec.BinaryBufferCodec;
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.AggregatingDataBuffer;
+import com.dx.ss.buffer.core.ArrayDataBuffer;
+import com.dx.ss.buffer.core.ConcurrentArrayDataBuffer;
+import com.dx.ss.buffer.core.DataBuffer;
+import com.dx.ss.buffer.core.MetricDataBuffer;
+import com.dx.ss.buffer.core.OffHeapDataBuffer;
+import com.dx.ss.buffer.storage.EncodedBatch;
+import com.dx.ss.buffer.storage.MetricSample;
+import com.dx.ss.buffer.storage.SampleColumns;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DataBufferTests {
+
+    @Test
+    public void deduplicateTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().allowDuplicate(false).capacity(10).build();
+        DataBuffer<BufferData> buffer = new ArrayDataBuffer<>(options);
+        Assert.assertNotNull(buffer.put(new BufferData("H_5560", "0X105EFF")));
+        Assert.assertNull(buffer.put(new BufferData("H_5560", "0X105EFF")));
+        buffer.putAll(Arrays.asList(new BufferData("H_5560", "0X105EFF"), new BufferData("H_7100", "0X105F00")));
+        Assert.assertEquals(2, buffer.length());
+        Assert.assertTrue(buffer.exists(new BufferData("H_7100", "0X105F00")));
+        buffer.clear();
+        Assert.assertFalse(buffer.exists(new BufferData("H_7100", "0X105F00")));
+    }
+
+    @Test
+    public void keyExtractorTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().allowDuplicate(false)
+                .<BufferData>keyExtractor(BufferData::getHeader).build();
+        DataBuffer<BufferData> buffer = new ArrayDataBuffer<>(options);
+        Assert.assertNotNull(buffer.put(new BufferData("H_5560", "0X105EFF")));
+        Assert.assertNull(buffer.put(new BufferData("H_5560", "0X105F00")));
+        Assert.assertEquals(1, buffer.length());
+    }
+
+    @Test
+    public void drainTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(4).build();
+        DataBuffer<BufferData> buffer = new ArrayDataBuffer<>(options);
+        for (int i = 0; i < 4; i++) {
+            buffer.put(new BufferData("H_" + i, "0x" + i));
+        }
+        //环形数组淘汰最早的数据之后从头部绕回
+        Assert.assertEquals("H_0", buffer.evictOldest().getHeader());
+        buffer.put(new BufferData("H_4", "0x4"));
+        List<BufferData> drained = buffer.drain();
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertEquals(4, drained.size());
+        Assert.assertEquals("H_1", drained.get(0).getHeader());
+        Assert.assertEquals("H_4", drained.get(3).getHeader());
+        buffer.put(new BufferData("H_5", "0x5"));
+        buffer.release(drained);
+        Assert.assertEquals(1, buffer.length());
+        Assert.assertEquals("H_5", buffer.drain().get(0).getHeader());
+    }
+
+    @Test
+    public void concurrentDrainTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(4).build();
+        DataBuffer<BufferData> buffer = new ConcurrentArrayDataBuffer<>(options);
+        buffer.put(new BufferData("H_0", "0x0"));
+        buffer.put(new BufferData("H_1", "0x1"));
+        buffer.seal();
+        List<BufferData> drained = buffer.drain();
+        Assert.assertEquals(2, drained.size());
+        Assert.assertEquals("H_1", drained.get(1).getHeader());
+        //drain之后缓冲区仍然封存，clear之后才重新开放写入，写入的是换上的新数组
+        Assert.assertNull(buffer.put(new BufferData("H_2", "0x2")));
+        Assert.assertTrue(buffer.isEmpty());
+        buffer.clear();
+        Assert.assertNotNull(buffer.put(new BufferData("H_2", "0x2")));
+        Assert.assertEquals("H_0", drained.get(0).getHeader());
+        buffer.release(drained);
+        Assert.assertEquals(1, buffer.length());
+    }
+
+    @Test
+    public void offHeapTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().allowDuplicate(false).capacity(100).build();
+        //字节块很小，数据跨越多个字节块
+        DataBuffer<BufferData> buffer = new OffHeapDataBuffer<>(options, new BinaryBufferCodec<>(), 64);
+        for (int i = 0; i < 10; i++) {
+            buffer.put(new BufferData("H_" + i, "0x" + i));
+        }
+        Assert.assertNull(buffer.put(new BufferData("H_9", "0x9")));
+        Assert.assertEquals("H_0", buffer.evictOldest().getHeader());
+        Assert.assertFalse(buffer.exists(new BufferData("H_0", "0x0")));
+        EncodedBatch<BufferData> drained = buffer.drainEncoded();
+        Assert.assertTrue(buffer.isEmpty());
+        List<BufferData> dataList = drained.decode();
+        Assert.assertEquals(9, dataList.size());
+        Assert.assertEquals("H_1", dataList.get(0).getHeader());
+        Assert.assertEquals("H_9", dataList.get(8).getHeader());
+        buffer.release(drained);
+        buffer.put(new BufferData("H_10", "0x10"));
+        Assert.assertEquals("H_10", buffer.drain().get(0).getHeader());
+        //超过字节块大小的数据单独占用一个字节块
+        buffer.put(new BufferData("H_11", "0x11"));
+        buffer.put(new BufferData("H_12", new String(new char[100]).replace('\0', 'F')));
+        buffer.put(new BufferData("H_13", "0x13"));
+        dataList = buffer.drainEncoded().decode();
+        Assert.assertEquals(3, dataList.size());
+        Assert.assertEquals(100, dataList.get(1).getBody().length());
+        Assert.assertEquals("H_13", dataList.get(2).getHeader());
+    }
+
+    @Test
+    public void offHeapMaxBytesTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(1000).maxBytes(1024).build();
+        DataBuffer<BufferData> buffer = new OffHeapDataBuffer<>(options, new BinaryBufferCodec<>());
+        Assert.assertEquals(1, buffer.remainingCapacity());
+        buffer.put(new BufferData("H_0", "0x0"));
+        int room = buffer.remainingCapacity();
+        Assert.assertTrue(room > 1 && room < 1000);
+        //按估算的剩余容量批量放入，不会丢弃数据
+        List<BufferData> chunk = new ArrayList<>();
+        for (int i = 1; i <= room; i++) {
+            chunk.add(new BufferData("H_" + i, "0x" + i));
+        }
+        buffer.putAll(chunk);
+        Assert.assertEquals(room + 1, buffer.length());
+        Assert.assertTrue(buffer.isFull());
+        Assert.assertTrue(buffer.reachThreshold());
+        Assert.assertNull(buffer.put(new BufferData("H_X", "0xX")));
+    }
+
+    @Test
+    public void byteLimitTest() {
+        //按body的长度计量，上限100字节，阈值按比例折算为50字节
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(100).threshold(new BigDecimal("0.5"))
+                .maxBytes(100).<BufferData>weigher(d -> d.getBody().length()).build();
+        DataBuffer<BufferData> buffer = new ArrayDataBuffer<>(options);
+        buffer.put(new BufferData("H_0", repeat(40)));
+        Assert.assertFalse(buffer.reachThreshold());
+        Assert.assertEquals(2, buffer.remainingCapacity());
+        buffer.put(new BufferData("H_1", repeat(20)));
+        Assert.assertTrue(buffer.reachThreshold());
+        Assert.assertFalse(buffer.isFull());
+        buffer.put(new BufferData("H_2", repeat(40)));
+        Assert.assertTrue(buffer.isFull());
+        Assert.assertNull(buffer.put(new BufferData("H_3", "")));
+        buffer.evictOldest();
+        Assert.assertFalse(buffer.isFull());
+    }
+
+    @Test
+    public void memoryBudgetTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(100).poolMaxBytes(100)
+                .<BufferData>weigher(d -> d.getBody().length()).build().forPool();
+        DataBuffer<BufferData> buffer1 = new ArrayDataBuffer<>(options);
+        DataBuffer<BufferData> buffer2 = new ArrayDataBuffer<>(options);
+        buffer1.put(new BufferData("H_0", repeat(100)));
+        Assert.assertTrue(buffer1.isFull());
+        Assert.assertTrue(buffer1.reachThreshold());
+        //空缓冲区总能放入一条数据
+        Assert.assertFalse(buffer2.isFull());
+        buffer2.put(new BufferData("H_1", repeat(10)));
+        Assert.assertTrue(buffer2.isFull());
+        //flush之后归还预算
+        List<BufferData> drained = buffer1.drain();
+        Assert.assertTrue(buffer2.isFull());
+        buffer1.release(drained);
+        Assert.assertFalse(buffer2.isFull());
+        Assert.assertEquals(10, options.getMemoryBudget().getUsedBytes());
+    }
+
+    @Test
+    public void poolScopedBudgetTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().poolMaxBytes(100)
+                .<BufferData>weigher(d -> d.getBody().length()).build();
+        //每个缓冲池各自的内存预算
+        Assert.assertNotSame(options.forPool().getMemoryBudget(), options.forPool().getMemoryBudget());
+        try {
+            new ArrayDataBuffer<BufferData>(options);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            //共用的内存预算只能由缓冲池创建
+        }
+    }
+
+    @Test
+    public void byteOnlyLimitTest() {
+        //只按字节数限制时不限制条数，数组按需扩容
+        DataBufferOptions options = new DataBufferOptions.Builder().maxBytes(100_000)
+                .<BufferData>weigher(d -> 10).build();
+        Assert.assertEquals(DataBufferOptions.UNBOUNDED_CAPACITY, options.getCapacity());
+        DataBuffer<BufferData> buffer = new ArrayDataBuffer<>(options);
+        for (int i = 0; i < 5000; i++) {
+            buffer.put(new BufferData("H_" + i, "0x" + i));
+        }
+        Assert.assertEquals("H_0", buffer.evictOldest().getHeader());
+        for (int i = 5000; i < 20000; i++) {
+            buffer.put(new BufferData("H_" + i, "0x" + i));
+        }
+        Assert.assertEquals(10000, buffer.length());
+        Assert.assertTrue(buffer.isFull());
+        List<BufferData> drained = buffer.drain();
+        Assert.assertEquals("H_1", drained.get(0).getHeader());
+        Assert.assertEquals("H_10000", drained.get(9999).getHeader());
+        buffer.release(drained);
+    }
+
+    @Test
+    public void metricBufferTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(4).build();
+        MetricDataBuffer buffer = new MetricDataBuffer(options);
+        Assert.assertTrue(buffer.put(1L, 0.1));
+        buffer.putAll(SampleColumns.of(new long[]{2L, 3L, 4L, 5L}, new double[]{0.2, 0.3, 0.4, 0.5}));
+        Assert.assertTrue(buffer.isFull());
+        Assert.assertEquals(new MetricSample(1L, 0.1), buffer.evictOldest());
+        //写到数组末尾之后前移
+        Assert.assertTrue(buffer.put(5L, 0.5));
+        SampleColumns drained = (SampleColumns) buffer.drain();
+        Assert.assertEquals(4, drained.size());
+        Assert.assertEquals(2L, drained.timestamp(0));
+        Assert.assertEquals(0.5, drained.value(3), 0);
+        buffer.release(drained);
+        buffer.put(6L, 0.6);
+        Assert.assertEquals(new MetricSample(6L, 0.6), buffer.drain().get(0));
+    }
+
+    @Test
+    public void aggregatingTest() {
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(2)
+                .<BufferData>keyExtractor(BufferData::getHeader)
+                .<BufferData>merger((a, b) -> new BufferData(a.getHeader(), a.getBody() + b.getBody())).build();
+        DataBuffer<BufferData> buffer = new AggregatingDataBuffer<>(options);
+        buffer.put(new BufferData("H_1", "a"));
+        buffer.put(new BufferData("H_1", "b"));
+        buffer.put(new BufferData("H_2", "c"));
+        Assert.assertTrue(buffer.isFull());
+        //已满时仍然合并已有的主键，新主键不再放入
+        Assert.assertEquals(2, buffer.offerAll(Arrays.asList(new BufferData("H_2", "d"),
+                new BufferData("H_3", "e"), new BufferData("H_1", "f"))));
+        Assert.assertNull(buffer.put(new BufferData("H_3", "e")));
+        List<BufferData> drained = buffer.drain();
+        Assert.assertEquals(Arrays.asList(new BufferData("H_1", "abf"), new BufferData("H_2", "cd")), drained);
+        buffer.release(drained);
+        Assert.assertTrue(buffer.isEmpty());
+        buffer.put(new BufferData("H_3", "e"));
+        Assert.assertEquals(new BufferData("H_3", "e"), buffer.evictOldest());
+    }
+
+    private static String repeat(int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+}
@@ -0,0 +1,56 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.filter.BloomFilter;
+import com.dx.ss.buffer.filter.RotatingBloomFilter;
+import com.dx.ss.buffer.filter.SharedDuplicateFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DuplicateFilterTests {
+
+    @Test
+    public void bloomFilterTest() {
+        BloomFilter filter = BloomFilter.create(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("H_" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(filter.mightContain("H_" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 20000; i++) {
+            if (filter.mightContain("H_" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 300);
+    }
+
+    @Test
+    public void rotatingWindowTest() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(2, 0, 1000, 0.001, 0, null);
+        Assert.assertTrue(filter.putIfAbsent(new BufferData("H_5560", "0X105EFF")));
+        Assert.assertFalse(filter.putIfAbsent(new BufferData("H_5560", "0X105EFF")));
+        //切换一次，上一个缓冲区的数据仍在窗口内
+        filter.onSwap();
+        Assert.assertTrue(filter.mightContain(new BufferData("H_5560", "0X105EFF")));
+        //再切换一次，最老的一代被淘汰
+        filter.onSwap();
+        Assert.assertFalse(filter.mightContain(new BufferData("H_5560", "0X105EFF")));
+        Assert.assertTrue(filter.putIfAbsent(new BufferData("H_5560", "0X105EFF")));
+    }
+
+    @Test
+    public void sharedWindowTest() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(2, 0, 1000, 0.001, 0, null);
+        SharedDuplicateFilter shared = new SharedDuplicateFilter(filter, 4);
+        Assert.assertTrue(shared.putIfAbsent(new BufferData("H_5560", "0X105EFF")));
+        //四个缓冲池各切换一次才轮转一代
+        for (int i = 0; i < 7; i++) {
+            shared.onSwap();
+        }
+        Assert.assertTrue(shared.mightContain(new BufferData("H_5560", "0X105EFF")));
+        shared.onSwap();
+        Assert.assertFalse(shared.mightContain(new BufferData("H_5560", "0X105EFF")));
+    }
+}
@@ -0,0 +1,120 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.codec.BinaryBufferCodec;
+import com.dx.ss.buffer.codec.CompressingBufferCodec;
+import com.dx.ss.buffer.storage.FileJournalTemporaryStorage;
+import com.dx.ss.buffer.storage.RecoveryCursor;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FileJournalTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileJournalTemporaryStorage<String> open(File directory) {
+        return new FileJournalTemporaryStorage<>(directory, 256, FileJournalTemporaryStorage.FsyncPolicy.OS, 0,
+                o -> ((String) o).getBytes(StandardCharsets.UTF_8), b -> new String(b, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void replayTest() throws Exception {
+        File directory = folder.newFolder();
+        FileJournalTemporaryStorage<String> journal = open(directory);
+        List<String> dataList = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            dataList.add("H_" + i);
+        }
+        Assert.assertEquals(100, journal.store(dataList));
+        Assert.assertNotNull(journal.store("H_100"));
+        Assert.assertTrue(journal.getSegmentCount() > 1);
+        journal.close();
+
+        //重新打开，回放分段
+        journal = open(directory);
+        List<String> replayed = journal.getAll();
+        Assert.assertEquals(101, replayed.size());
+        Assert.assertEquals("H_100", replayed.get(100));
+        journal.store("H_101");
+        Assert.assertEquals(102, journal.getAll().size());
+        journal.close();
+    }
+
+    @Test
+    public void recycleTest() throws Exception {
+        File directory = folder.newFolder();
+        FileJournalTemporaryStorage<String> journal = open(directory);
+        for (int i = 0; i < 100; i++) {
+            journal.store("H_" + i);
+        }
+        int segments = journal.getSegmentCount();
+        journal.clear();
+        Assert.assertTrue(journal.getAll().isEmpty());
+        for (int i = 0; i < 10; i++) {
+            journal.store("B_" + i);
+        }
+        Assert.assertEquals(segments, journal.getSegmentCount());
+        journal.close();
+
+        journal = open(directory);
+        List<String> replayed = journal.getAll();
+        Assert.assertEquals(10, replayed.size());
+        Assert.assertEquals("B_0", replayed.get(0));
+        journal.close();
+    }
+
+    @Test
+    public void epochTest() throws Exception {
+        File directory = folder.newFolder();
+        FileJournalTemporaryStorage<String> journal = open(directory);
+        for (int i = 0; i < 30; i++) {
+            journal.store(1L, "A_" + i);
+            journal.store(2L, "B_" + i);
+        }
+        //只清除已经持久化的代次
+        journal.clear(1L);
+        journal.close();
+
+        journal = open(directory);
+        List<String> replayed = journal.getAll();
+        Assert.assertEquals(30, replayed.size());
+        Assert.assertEquals("B_0", replayed.get(0));
+        Assert.assertEquals("B_29", replayed.get(29));
+        journal.close();
+    }
+
+    @Test
+    public void codecTest() throws Exception {
+        File directory = folder.newFolder();
+        FileJournalTemporaryStorage<BufferData> journal = new FileJournalTemporaryStorage<>(directory, 64 * 1024,
+                FileJournalTemporaryStorage.FsyncPolicy.OS, 0, new CompressingBufferCodec<>(new BinaryBufferCodec<>()));
+        List<BufferData> dataList = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            dataList.add(new BufferData("H_" + i, "0X105EFF"));
+        }
+        journal.store(1L, dataList);
+        journal.store(1L, new BufferData("H_1000", "0X105EFF"));
+        journal.close();
+
+        journal = new FileJournalTemporaryStorage<>(directory, 64 * 1024,
+                FileJournalTemporaryStorage.FsyncPolicy.OS, 0, new CompressingBufferCodec<>(new BinaryBufferCodec<>()));
+        //以数据块为单位恢复并提交
+        RecoveryCursor<BufferData> cursor = journal.cursor(1L, 100);
+        List<BufferData> chunk = cursor.next();
+        Assert.assertTrue(chunk.size() >= 100);
+        Assert.assertEquals("H_0", chunk.get(0).getHeader());
+        cursor.commit();
+        cursor.close();
+        List<BufferData> rest = journal.getAll();
+        Assert.assertEquals(1001 - chunk.size(), rest.size());
+        Assert.assertEquals("H_1000", rest.get(rest.size() - 1).getHeader());
+        journal.close();
+    }
+}
@@ -0,0 +1,137 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.storage.MongoPersistStorage;
+import com.dx.ss.buffer.storage.PersistResult;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+public class MongoPersistStorageTests {
+
+    /**
+     * 每次批量插入的文档，按执行顺序记录
+     */
+    private final List<List<?>> attempts = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void partialFailureTest() {
+        //第一次写入时下标1的文档失败，下标3的文档主键重复，之后全部成功
+        MongoTemplate mongoTemplate = mongoTemplate(docs -> attempts.size() == 1
+                ? bulkFailure(new BulkWriteError(1, "failed", new BasicDBObject(), 1),
+                new BulkWriteError(11000, "duplicate key", new BasicDBObject(), 3)) : null);
+        MongoPersistStorage<Object> storage = new MongoPersistStorage<>(mongoTemplate, 100, 1, 3, 0);
+        List<Object> list = dataList(0, 5);
+        PersistResult<Object> result = storage.storeAll(list);
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(5, result.getStored());
+        //只重试失败的文档，主键重复的文档视为已经写入
+        Assert.assertEquals(2, attempts.size());
+        Assert.assertEquals(Collections.singletonList(list.get(1)), attempts.get(1));
+    }
+
+    @Test
+    public void duplicateKeyTest() {
+        MongoTemplate mongoTemplate = mongoTemplate(docs -> bulkFailure(
+                new BulkWriteError(11000, "duplicate key", new BasicDBObject(), 0),
+                new BulkWriteError(11000, "duplicate key", new BasicDBObject(), 2)));
+        MongoPersistStorage<Object> storage = new MongoPersistStorage<>(mongoTemplate, 100, 1, 3, 0);
+        PersistResult<Object> result = storage.storeAll(dataList(0, 3));
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(3, result.getStored());
+        Assert.assertEquals(1, attempts.size());
+    }
+
+    @Test
+    public void retriesExhaustedTest() {
+        MongoTemplate mongoTemplate = mongoTemplate(docs -> new IllegalStateException("connection refused"));
+        MongoPersistStorage<Object> storage = new MongoPersistStorage<>(mongoTemplate, 100, 1, 2, 0);
+        List<Object> list = dataList(0, 4);
+        PersistResult<Object> result = storage.storeAll(list);
+        //首次写入加两次重试，每次都整批重试
+        Assert.assertEquals(3, attempts.size());
+        Assert.assertFalse(result.isSuccess());
+        Assert.assertEquals(0, result.getStored());
+        Assert.assertEquals(list, result.getFailed());
+        Assert.assertTrue(result.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void parallelTest() throws Exception {
+        //包含H_55的批次一直失败
+        MongoTemplate mongoTemplate = mongoTemplate(docs -> docs.contains(new BufferData("H_55", "0x55"))
+                ? new IllegalStateException("write timeout") : null);
+        MongoPersistStorage<Object> storage = new MongoPersistStorage<>(mongoTemplate, 10, 4, 1, 0);
+        try {
+            List<Object> list = dataList(0, 100);
+            PersistResult<Object> result = storage.storeAll(list);
+            Assert.assertEquals(90, result.getStored());
+            Assert.assertEquals(list.subList(50, 60), result.getFailed());
+            //10个批次，失败的批次重试一次
+            Assert.assertEquals(11, attempts.size());
+            //不同的数据类型写入不同的批次
+            attempts.clear();
+            List<Object> mixed = new ArrayList<>(dataList(0, 3));
+            mixed.add(1, "H_X");
+            Assert.assertEquals(4, storage.storeAll(mixed).getStored());
+            Assert.assertEquals(2, attempts.size());
+        } finally {
+            storage.close();
+        }
+    }
+
+    private static List<Object> dataList(int from, int to) {
+        List<Object> list = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            list.add(new BufferData("H_" + i, "0x" + i));
+        }
+        return list;
+    }
+
+    private static BulkOperationException bulkFailure(BulkWriteError... errors) {
+        BulkWriteException source = Mockito.mock(BulkWriteException.class);
+        Mockito.when(source.getWriteErrors()).thenReturn(Arrays.asList(errors));
+        return new BulkOperationException("bulk write failed", source);
+    }
+
+    /**
+     * 模拟的MongoTemplate，每次批量插入时由failure决定抛出的异常，返回空表示写入成功
+     */
+    @SuppressWarnings("unchecked")
+    private MongoTemplate mongoTemplate(Function<List<?>, RuntimeException> failure) {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        Mockito.when(mongoTemplate.bulkOps(Mockito.any(BulkOperations.BulkMode.class), Mockito.any(Class.class)))
+                .thenAnswer(invocation -> {
+                    List<Object> inserted = new ArrayList<>();
+                    return Mockito.mock(BulkOperations.class, call -> {
+                        switch (call.getMethod().getName()) {
+                            case "insert":
+                                inserted.addAll((List<Object>) call.getArgument(0));
+                                return call.getMock();
+                            case "execute":
+                                attempts.add(inserted);
+                                RuntimeException e = failure.apply(inserted);
+                                if (e != null) {
+                                    throw e;
+                                }
+                                return null;
+                            default:
+                                return call.getMock();
+                        }
+                    });
+                });
+        return mongoTemplate;
+    }
+}
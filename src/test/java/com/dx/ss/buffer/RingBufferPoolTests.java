@@ -0,0 +1,59 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.OverflowPolicy;
+import com.dx.ss.buffer.core.RingBufferPool;
+import com.dx.ss.buffer.core.SubmitStatus;
+import com.dx.ss.buffer.factory.ArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.ConcurrentArrayDataBufferFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+public class RingBufferPoolTests {
+
+    private final DataBufferOptions options = new DataBufferOptions.Builder().capacity(100).threshold(new BigDecimal("0.5")).build();
+
+    private int submit(RingBufferPool<Object> pool, int from, int to) {
+        int accepted = 0;
+        for (int i = from; i < to; i++) {
+            if (pool.submit(new BufferData("H_" + i, "0x" + i)) == SubmitStatus.ACCEPTED) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Test
+    public void queuedFlushTest() {
+        TwinsBufferPoolTests.SlowPersistStorage persistStorage = new TwinsBufferPoolTests.SlowPersistStorage(300);
+        RingBufferPool<Object> pool = new RingBufferPool<>(new ArrayDataBufferFactory(), options, 4);
+        pool.setPersistStorage(persistStorage);
+        pool.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        //三个写满阈值的缓冲区排队flush，最后一个缓冲区写满后才开始丢弃
+        Assert.assertEquals(250, submit(pool, 0, 400));
+        pool.shutdown(true);
+        Assert.assertEquals(250, persistStorage.stored().size());
+    }
+
+    @Test
+    public void growAndShrinkTest() throws Exception {
+        TwinsBufferPoolTests.SlowPersistStorage persistStorage = new TwinsBufferPoolTests.SlowPersistStorage(300);
+        RingBufferPool<Object> pool = new RingBufferPool<>(new ConcurrentArrayDataBufferFactory(), options, 2, 4, null);
+        pool.setPersistStorage(persistStorage);
+        pool.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        Assert.assertEquals(250, submit(pool, 0, 400));
+        Assert.assertEquals(4, pool.getBuffers());
+        //flush跟上之后，每次切换都会回收一个多余的缓冲区
+        int n = 400;
+        for (int round = 0; round < 20 && pool.getBuffers() > 2; round++) {
+            Thread.sleep(350);
+            submit(pool, n, n + 60);
+            n += 60;
+        }
+        Assert.assertEquals(2, pool.getBuffers());
+        pool.shutdown(true);
+        Assert.assertEquals(250 + n - 400, persistStorage.stored().size());
+    }
+}
@@ -0,0 +1,57 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.StripedBufferPool;
+import com.dx.ss.buffer.factory.ArrayDataBufferFactory;
+import com.dx.ss.buffer.storage.PersistStorage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StripedBufferPoolTests {
+
+    @Test
+    public void stripedSubmitTest() throws Exception {
+        List<Object> stored = new CopyOnWriteArrayList<>();
+        AtomicInteger calls = new AtomicInteger();
+        PersistStorage<Object> persistStorage = new PersistStorage<Object>() {
+            @Override
+            public Object store(Object o) {
+                stored.add(o);
+                return o;
+            }
+
+            @Override
+            public int store(List<Object> list) {
+                calls.incrementAndGet();
+                stored.addAll(list);
+                return list.size();
+            }
+        };
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(200).threshold(new BigDecimal("0.5")).build();
+        StripedBufferPool<Object> pool = new StripedBufferPool<>(new ArrayDataBufferFactory(), options, 3);
+        Assert.assertEquals(4, pool.getStripes());
+        pool.setPersistStorage(persistStorage);
+        pool.start();
+        Thread[] producers = new Thread[8];
+        for (int t = 0; t < producers.length; t++) {
+            final int n = t;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    pool.submit(new BufferData("H_" + n, "0x" + i));
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pool.shutdown(true);
+        Assert.assertEquals(80000, stored.size());
+        Assert.assertTrue(pool.isShutdown());
+    }
+}
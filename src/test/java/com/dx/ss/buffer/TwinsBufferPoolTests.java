@@ -0,0 +1,796 @@
+package com.dx.ss.buffer;
+
+import com.dx.ss.buffer.codec.BinaryBufferCodec;
+import com.dx.ss.buffer.config.DataBufferOptions;
+import com.dx.ss.buffer.core.AggregatingDataBuffer;
+import com.dx.ss.buffer.core.BufferFlusher;
+import com.dx.ss.buffer.core.DataBuffer;
+import com.dx.ss.buffer.core.MetricBufferPool;
+import com.dx.ss.buffer.core.OverflowPolicy;
+import com.dx.ss.buffer.core.SubmitStatus;
+import com.dx.ss.buffer.core.TwinsBufferPool;
+import com.dx.ss.buffer.factory.AggregatingDataBufferFactory;
+import com.dx.ss.buffer.factory.ArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.ConcurrentArrayDataBufferFactory;
+import com.dx.ss.buffer.factory.DataBufferFactory;
+import com.dx.ss.buffer.factory.OffHeapDataBufferFactory;
+import com.dx.ss.buffer.filter.RotatingBloomFilter;
+import com.dx.ss.buffer.metrics.MicrometerBufferPoolMetrics;
+import com.dx.ss.buffer.storage.FileJournalTemporaryStorage;
+import com.dx.ss.buffer.storage.MetricPersistStorage;
+import com.dx.ss.buffer.storage.PersistResult;
+import com.dx.ss.buffer.storage.PersistStorage;
+import com.dx.ss.buffer.storage.RedisTemporaryStorage;
+import com.dx.ss.buffer.storage.TemporaryStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TwinsBufferPoolTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 模拟慢速的持久化层
+     */
+    static class SlowPersistStorage implements PersistStorage<Object> {
+
+        private final List<Object> stored = new CopyOnWriteArrayList<>();
+
+        private final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+        private final long latencyInMillis;
+
+        SlowPersistStorage(long latencyInMillis) {
+            this.latencyInMillis = latencyInMillis;
+        }
+
+        List<Object> stored() {
+            return stored;
+        }
+
+        @Override
+        public Object store(Object o) {
+            stored.add(o);
+            return o;
+        }
+
+        @Override
+        public int store(List<Object> list) {
+            try {
+                Thread.sleep(latencyInMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stored.addAll(list);
+            batches.add(list.size());
+            return list.size();
+        }
+    }
+
+    private TwinsBufferPool<Object> newPool(SlowPersistStorage persistStorage) {
+        return newPool(new ArrayDataBufferFactory(), persistStorage);
+    }
+
+    private TwinsBufferPool<Object> newPool(DataBufferFactory factory, SlowPersistStorage persistStorage) {
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(100).threshold(new BigDecimal("0.5")).build();
+        TwinsBufferPool<Object> pool = new TwinsBufferPool<>(factory.createDataBuffer(options), factory.createDataBuffer(options));
+        pool.setPersistStorage(persistStorage);
+        return pool;
+    }
+
+    @Test
+    public void submitDoesNotWaitForFlushTest() {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(500);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        long begin = System.currentTimeMillis();
+        //超过阈值触发一次切换，但不会写满当前缓冲区
+        for (int i = 0; i < 120; i++) {
+            pool.submit(new BufferData("H_" + i, "0x" + i));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - begin < 500);
+        pool.shutdown(true);
+        Assert.assertEquals(120, persistStorage.stored.size());
+    }
+
+    @Test
+    public void concurrentSubmitTest() throws Exception {
+        concurrentSubmit(new ArrayDataBufferFactory());
+    }
+
+    @Test
+    public void lockFreeSubmitTest() throws Exception {
+        concurrentSubmit(new ConcurrentArrayDataBufferFactory());
+    }
+
+    @Test
+    public void lockFreeShutdownTest() throws Exception {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(5);
+        TwinsBufferPool<Object> pool = newPool(new ConcurrentArrayDataBufferFactory(), persistStorage);
+        AtomicInteger accepted = new AtomicInteger();
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            final int n = t;
+            producers[t] = new Thread(() -> {
+                //安全关闭期间被拒绝，之前接收的数据全部持久化
+                for (int i = 0; ; i++) {
+                    SubmitStatus status = pool.submit(new BufferData("H_" + n, "0x" + i));
+                    if (status == SubmitStatus.REJECTED) {
+                        return;
+                    }
+                    if (status.isAccepted()) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        Thread.sleep(50);
+        pool.shutdown(true);
+        for (Thread producer : producers) {
+            producer.join(5000);
+            Assert.assertFalse(producer.isAlive());
+        }
+        Assert.assertEquals(accepted.get(), persistStorage.stored.size());
+    }
+
+    @Test
+    public void offHeapSubmitTest() throws Exception {
+        concurrentSubmit(new OffHeapDataBufferFactory(new BinaryBufferCodec<>(), 256));
+    }
+
+    @Test
+    public void memoryBudgetTest() throws Exception {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(5);
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(1000).poolMaxBytes(4096)
+                .<BufferData>weigher(d -> 64).build().forPool();
+        TwinsBufferPool<Object> pool = new TwinsBufferPool<>(new ArrayDataBufferFactory().createDataBuffer(options),
+                new ArrayDataBufferFactory().createDataBuffer(options));
+        pool.setPersistStorage(persistStorage);
+        for (int i = 0; i < 1000; i++) {
+            pool.submit(new BufferData("H_" + i, "0x" + i));
+        }
+        pool.shutdown(true);
+        //预算只够64条数据，按预算切换缓冲区，数据全部持久化且不超过预算
+        Assert.assertEquals(1000, persistStorage.stored.size());
+        for (int size : persistStorage.batches) {
+            Assert.assertTrue(size <= 64);
+        }
+        Assert.assertEquals(0, options.getMemoryBudget().getUsedBytes());
+    }
+
+    @Test
+    public void aggregatingSubmitTest() {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(5);
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(100)
+                .<BufferData>keyExtractor(BufferData::getHeader)
+                .<BufferData>merger(AggregatingDataBuffer.lastWriteWins()).build();
+        DataBufferFactory factory = new AggregatingDataBufferFactory();
+        TwinsBufferPool<Object> pool = new TwinsBufferPool<>(factory.createDataBuffer(options),
+                factory.createDataBuffer(options));
+        pool.setPersistStorage(persistStorage);
+        List<BufferData> dataList = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            dataList.add(new BufferData("H_" + (i % 10), "0x" + i));
+        }
+        //合并的数据同样计入接收的数量
+        Assert.assertEquals(1000, pool.submitAll(dataList));
+        pool.shutdown(true);
+        Assert.assertEquals(10, persistStorage.stored.size());
+        Assert.assertTrue(persistStorage.stored.contains(new BufferData("H_9", "0x999")));
+    }
+
+    @Test
+    public void metricSubmitTest() {
+        List<Long> timestamps = new CopyOnWriteArrayList<>();
+        MetricPersistStorage persistStorage = columns -> {
+            for (int i = 0; i < columns.size(); i++) {
+                timestamps.add(columns.timestamp(i));
+            }
+            return columns.size();
+        };
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(100).threshold(new BigDecimal("0.5")).build();
+        MetricBufferPool pool = new MetricBufferPool(options);
+        pool.setPersistStorage(persistStorage);
+        for (int i = 0; i < 120; i++) {
+            Assert.assertTrue(pool.submit(i, i * 0.5));
+        }
+        long[] ts = new long[80];
+        double[] vs = new double[80];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = 120 + i;
+        }
+        Assert.assertEquals(80, pool.submitAll(ts, vs, 0, ts.length));
+        pool.shutdown(true);
+        Assert.assertEquals(200, timestamps.size());
+        for (int i = 0; i < 200; i++) {
+            Assert.assertEquals(i, timestamps.get(i).longValue());
+        }
+    }
+
+    private void concurrentSubmit(DataBufferFactory factory) throws Exception {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(5);
+        TwinsBufferPool<Object> pool = newPool(factory, persistStorage);
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            final int n = t;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    pool.submit(new BufferData("H_" + n, "0x" + i));
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pool.shutdown(true);
+        Assert.assertEquals(20000, persistStorage.stored.size());
+    }
+
+    /**
+     * 模拟Redis的往返延迟，不执行命令，只统计pipeline的次数
+     */
+    static class StubRedisTemplate extends RedisTemplate<String, Object> {
+
+        private final AtomicInteger pipelines = new AtomicInteger();
+
+        StubRedisTemplate() {
+            setKeySerializer(new StringRedisSerializer());
+            setValueSerializer(new StringRedisSerializer());
+        }
+
+        @Override
+        public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+            return null;
+        }
+
+        @Override
+        public List<Object> executePipelined(SessionCallback<?> session) {
+            pipelines.incrementAndGet();
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.emptyList();
+        }
+    }
+
+    @Test
+    public void pipelineAckSubmitTest() throws Exception {
+        StubRedisTemplate redisTemplate = new StubRedisTemplate();
+        RedisTemporaryStorage<Object> storage = new RedisTemporaryStorage<>(redisTemplate,
+                RedisTemporaryStorage.WriteMode.PIPELINE_ACK, 8, 50);
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setTemporaryStorage(storage);
+        pool.setEnableTemporaryStorage(true);
+        AtomicInteger accepted = new AtomicInteger();
+        Thread[] producers = new Thread[8];
+        long begin = System.nanoTime();
+        for (int t = 0; t < producers.length; t++) {
+            final int n = t;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    if (pool.submit(new BufferData("H_" + n, "0x" + i)) == SubmitStatus.ACCEPTED) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        //在锁外等待确认，并发的生产者写入同一批次，不会每条数据都等到写入时限
+        Assert.assertEquals(200, accepted.get());
+        Assert.assertTrue("elapsed " + elapsed, elapsed < 2000);
+        Assert.assertTrue(redisTemplate.pipelines.get() < 200);
+        pool.shutdown(true);
+        Assert.assertEquals(200, persistStorage.stored.size());
+        storage.close();
+    }
+
+    @Test
+    public void pipelineAckClearTest() throws Exception {
+        RedisTemporaryStorage<Object> storage = new RedisTemporaryStorage<>(new StubRedisTemplate(),
+                RedisTemporaryStorage.WriteMode.PIPELINE_ACK, 1000, 60000);
+        CompletableFuture<Integer> stored = storage.storeAsync(1L, Collections.singletonList("H_0"));
+        Assert.assertFalse(stored.isDone());
+        //批次中只有被清除的代次，不会再写入，等待确认的生产者直接返回
+        storage.clear(1L);
+        Assert.assertEquals(1, stored.get(1, TimeUnit.SECONDS).intValue());
+        storage.close();
+    }
+
+    @Test
+    public void pipelineAckFailureTest() throws Exception {
+        RedisTemporaryStorage<Object> storage = new RedisTemporaryStorage<>(new StubRedisTemplate() {
+            @Override
+            public List<Object> executePipelined(SessionCallback<?> session) {
+                throw new IllegalStateException("unavailable");
+            }
+        }, RedisTemporaryStorage.WriteMode.PIPELINE_ACK, 1, 50);
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setTemporaryStorage(storage);
+        pool.setEnableTemporaryStorage(true);
+        //写入Redis失败时仍然放入缓冲区，但不会报告为已确认
+        Assert.assertEquals(SubmitStatus.UNACKNOWLEDGED, pool.submit(new BufferData("H_0", "0x0")));
+        CompletableFuture<SubmitStatus> future = pool.submitAsync(new BufferData("H_1", "0x1"));
+        pool.shutdown(true);
+        Assert.assertEquals(SubmitStatus.UNACKNOWLEDGED, future.getNow(null));
+        Assert.assertEquals(2, persistStorage.stored.size());
+        storage.close();
+    }
+
+    private FileJournalTemporaryStorage<Object> newJournal() throws Exception {
+        return new FileJournalTemporaryStorage<>(folder.newFolder(), 4096, FileJournalTemporaryStorage.FsyncPolicy.OS, 0,
+                o -> ((String) o).getBytes(StandardCharsets.UTF_8), b -> new String(b, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void chunkedRecoveryTest() throws Exception {
+        FileJournalTemporaryStorage<Object> journal = newJournal();
+        for (int i = 0; i < 2500; i++) {
+            journal.store(1L, "H_" + i);
+        }
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setTemporaryStorage(journal);
+        pool.setRecoveryChunkSize(1000);
+        Assert.assertEquals(2500, pool.recovery());
+        Assert.assertEquals(Arrays.asList(1000, 1000, 500), persistStorage.batches);
+        Assert.assertTrue(journal.getAll().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void backgroundRecoveryTest() throws Exception {
+        FileJournalTemporaryStorage<Object> journal = newJournal();
+        for (int i = 0; i < 2500; i++) {
+            journal.store(1L, "H_" + i);
+        }
+        SlowPersistStorage persistStorage = new SlowPersistStorage(100);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setTemporaryStorage(journal);
+        pool.setEnableTemporaryStorage(true);
+        pool.setRecoveryChunkSize(500);
+        pool.setBackgroundRecovery(true);
+        pool.start();
+        //恢复期间正常接收数据
+        Assert.assertTrue(pool.isRecovering());
+        for (int i = 0; i < 10; i++) {
+            pool.submit("B_" + i);
+        }
+        while (pool.isRecovering()) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2500, pool.getRecoveredCount());
+        pool.shutdown(true);
+        Assert.assertEquals(2510, persistStorage.stored.size());
+        Assert.assertTrue(journal.getAll().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void backgroundRecoveryWithoutEpochsTest() throws Exception {
+        ListTemporaryStorage storage = new ListTemporaryStorage();
+        for (int i = 0; i < 250; i++) {
+            storage.store("H_" + i);
+        }
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setTemporaryStorage(storage);
+        pool.setEnableTemporaryStorage(true);
+        pool.setRecoveryChunkSize(100);
+        pool.setBackgroundRecovery(true);
+        pool.start();
+        //不区分代次的临时存储层在启动之前恢复完成
+        Assert.assertFalse(pool.isRecovering());
+        Assert.assertEquals(250, pool.getRecoveredCount());
+        Assert.assertTrue(storage.getAll().isEmpty());
+        pool.submit("B_0");
+        Assert.assertEquals(1, storage.getAll().size());
+        pool.shutdown(true);
+        Assert.assertEquals(251, persistStorage.stored.size());
+        try {
+            pool.setSpillStorage(storage);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            //不区分代次的存储不能作为溢出存储
+        }
+    }
+
+    @Test
+    public void closeOnShutdownTest() {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(50);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        AtomicInteger storedWhenClosed = new AtomicInteger(-1);
+        pool.addCloseable(() -> storedWhenClosed.set(persistStorage.stored.size()));
+        for (int i = 0; i < 30; i++) {
+            pool.submit("H_" + i);
+        }
+        pool.shutdown(true);
+        //最后一次flush完成之后才关闭
+        Assert.assertEquals(30, storedWhenClosed.get());
+        storedWhenClosed.set(-1);
+        pool.shutdown(true);
+        Assert.assertEquals(-1, storedWhenClosed.get());
+    }
+
+    @Test
+    public void metricsTest() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setMetrics(new MicrometerBufferPoolMetrics(registry, "test"));
+        for (int i = 0; i < 120; i++) {
+            pool.submit(new BufferData("H_" + i, "0x" + i));
+        }
+        pool.shutdown(true);
+        pool.submit(new BufferData("H_120", "0x120"));
+        Assert.assertEquals(120, registry.get("buffer.submitted").counter().count(), 0);
+        Assert.assertEquals(1, registry.get("buffer.dropped").tag("reason", "shutdown").counter().count(), 0);
+        Assert.assertTrue(registry.get("buffer.swaps").counter().count() >= 1);
+        Assert.assertEquals(120, registry.get("buffer.flush.size").summary().totalAmount(), 0);
+        Assert.assertEquals(0, registry.get("buffer.length").tag("buffer", "current").gauge().value(), 0);
+    }
+
+    /**
+     * 第50条数据触发切换，flush期间写满当前缓冲区，之后的50条数据溢出
+     */
+    private Map<SubmitStatus, Integer> overflow(TwinsBufferPool<Object> pool, OverflowPolicy policy) {
+        pool.setOverflowPolicy(policy);
+        Map<SubmitStatus, Integer> statuses = new EnumMap<>(SubmitStatus.class);
+        for (int i = 0; i < 200; i++) {
+            statuses.merge(pool.submit(new BufferData("H_" + i, "0x" + i)), 1, Integer::sum);
+        }
+        pool.shutdown(true);
+        return statuses;
+    }
+
+    @Test
+    public void overflowPolicyTest() throws Exception {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(300);
+        Map<SubmitStatus, Integer> statuses = overflow(newPool(persistStorage), OverflowPolicy.DROP_NEWEST);
+        Assert.assertEquals(50, statuses.get(SubmitStatus.DROPPED).intValue());
+        Assert.assertEquals(150, persistStorage.stored.size());
+
+        persistStorage = new SlowPersistStorage(300);
+        statuses = overflow(newPool(persistStorage), OverflowPolicy.DROP_OLDEST);
+        Assert.assertEquals(200, statuses.get(SubmitStatus.ACCEPTED).intValue());
+        Assert.assertEquals(150, persistStorage.stored.size());
+        Assert.assertTrue(persistStorage.stored.contains(new BufferData("H_199", "0x199")));
+
+        persistStorage = new SlowPersistStorage(300);
+        statuses = overflow(newPool(persistStorage), OverflowPolicy.CALLER_RUNS);
+        //提交线程自行持久化期间flush通常已经结束，之后的数据重新放入缓冲区
+        Assert.assertTrue(statuses.get(SubmitStatus.PERSISTED) >= 1 && statuses.get(SubmitStatus.PERSISTED) < 50);
+        Assert.assertEquals(200, persistStorage.stored.size());
+
+        persistStorage = new SlowPersistStorage(300);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        FileJournalTemporaryStorage<Object> spill = new FileJournalTemporaryStorage<>(folder.newFolder());
+        pool.setSpillStorage(spill);
+        statuses = overflow(pool, OverflowPolicy.SPILL);
+        Assert.assertEquals(50, statuses.get(SubmitStatus.SPILLED).intValue());
+        Assert.assertEquals(200, persistStorage.stored.size());
+        spill.close();
+    }
+
+    @Test
+    public void flushLatencyTest() throws Exception {
+        BufferFlusher<Object> flusher = new BufferFlusher<>();
+        flusher.setPersistStorage(new SlowPersistStorage(100));
+        DataBufferOptions options = new DataBufferOptions.Builder().capacity(10).build();
+        List<Long> latencies = new CopyOnWriteArrayList<>();
+        CountDownLatch flushed = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            DataBuffer<Object> buffer = new ArrayDataBufferFactory().createDataBuffer(options);
+            buffer.put(new BufferData("H_" + i, "0x" + i));
+            flusher.flush(buffer, (n, persistNanos, cause) -> {
+                latencies.add(persistNanos);
+                flushed.countDown();
+            });
+        }
+        Assert.assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        //后两个缓冲区在队列中等待了一次持久化，但只统计持久化层的耗时
+        for (long latency : latencies) {
+            Assert.assertTrue("latency " + latency, latency > 0 && latency < TimeUnit.MILLISECONDS.toNanos(190));
+        }
+        flusher.shutdown();
+    }
+
+    @Test
+    public void callerRunsFailureTest() throws Exception {
+        //提交线程逐条持久化时失败，整批flush正常
+        SlowPersistStorage persistStorage = new SlowPersistStorage(300) {
+            @Override
+            public PersistResult<Object> storeAll(List<Object> list) {
+                if (list.size() == 1) {
+                    return PersistResult.failure(list, new IllegalStateException("unavailable"));
+                }
+                return super.storeAll(list);
+            }
+        };
+        Map<SubmitStatus, Integer> statuses = overflow(newPool(persistStorage), OverflowPolicy.CALLER_RUNS);
+        Assert.assertNull(statuses.get(SubmitStatus.PERSISTED));
+        Assert.assertTrue(statuses.get(SubmitStatus.DROPPED) >= 1);
+        Assert.assertEquals(200 - statuses.get(SubmitStatus.DROPPED), persistStorage.stored.size());
+
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        FileJournalTemporaryStorage<Object> deadLetter = new FileJournalTemporaryStorage<>(folder.newFolder());
+        pool.setDeadLetterStorage(deadLetter);
+        statuses = overflow(pool, OverflowPolicy.CALLER_RUNS);
+        Assert.assertNull(statuses.get(SubmitStatus.DROPPED));
+        Assert.assertTrue(statuses.get(SubmitStatus.SPILLED) >= 1);
+        deadLetter.close();
+    }
+
+    @Test
+    public void submitAsyncTest() throws Exception {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(200);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        List<CompletableFuture<SubmitStatus>> futures = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            futures.add(pool.submitAsync(new BufferData("H_" + i, "0x" + i)));
+        }
+        //同一个缓冲区内的数据共享同一个结果
+        Assert.assertSame(futures.get(0), futures.get(49));
+        Assert.assertNotSame(futures.get(49), futures.get(50));
+        Assert.assertFalse(futures.get(0).complete(SubmitStatus.DROPPED));
+        Assert.assertEquals(SubmitStatus.ACCEPTED, futures.get(0).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(50, persistStorage.stored.size());
+        Assert.assertFalse(futures.get(50).isDone());
+        pool.shutdown(true);
+        Assert.assertEquals(SubmitStatus.ACCEPTED, futures.get(50).getNow(null));
+        Assert.assertEquals(SubmitStatus.REJECTED, pool.submitAsync(new BufferData("H_60", "0x60")).getNow(null));
+
+        TwinsBufferPool<Object> failing = newPool(new SlowPersistStorage(0) {
+            @Override
+            public int store(List<Object> list) {
+                throw new IllegalStateException("unavailable");
+            }
+        });
+        CompletableFuture<SubmitStatus> future = failing.submitAsync(new BufferData("H_0", "0x0"));
+        for (int i = 1; i < 51; i++) {
+            failing.submitAsync(new BufferData("H_" + i, "0x" + i));
+        }
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        failing.shutdownNow();
+    }
+
+    @Test
+    public void partialFailureTest() throws Exception {
+        IllegalStateException cause = new IllegalStateException("partially failed");
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0) {
+            @Override
+            public PersistResult<Object> storeAll(List<Object> list) {
+                //只有偶数位置的数据存储成功
+                List<Object> failed = new ArrayList<>();
+                for (int i = 0; i < list.size(); i++) {
+                    if (i % 2 == 0) {
+                        store(list.get(i));
+                    } else {
+                        failed.add(list.get(i));
+                    }
+                }
+                return new PersistResult<>(list.size() - failed.size(), failed, cause);
+            }
+        };
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        CompletableFuture<SubmitStatus> future = pool.submitAsync(new BufferData("H_0", "0x0"));
+        for (int i = 1; i < 51; i++) {
+            pool.submitAsync(new BufferData("H_" + i, "0x" + i));
+        }
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(cause, e.getCause());
+        }
+        Assert.assertEquals(25, persistStorage.stored.size());
+        pool.shutdown(true);
+    }
+
+    @Test
+    public void failedFlushKeepsTemporaryStorageTest() throws Exception {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0) {
+            @Override
+            public int store(List<Object> list) {
+                throw new IllegalStateException("unavailable");
+            }
+        };
+        FileJournalTemporaryStorage<Object> journal = newJournal();
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setTemporaryStorage(journal);
+        pool.setEnableTemporaryStorage(true);
+        CompletableFuture<SubmitStatus> future = pool.submitAsync("H_0");
+        for (int i = 1; i < 51; i++) {
+            pool.submitAsync("H_" + i);
+        }
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals("unavailable", e.getCause().getMessage());
+        }
+        //持久化失败的代次不清除，恢复时仍然可以补写
+        Assert.assertEquals(51, journal.getAll().size());
+        pool.shutdown(true);
+        Assert.assertEquals(51, journal.getAll().size());
+        journal.close();
+    }
+
+    @Test
+    public void deadLetterTest() throws Exception {
+        AtomicBoolean available = new AtomicBoolean(false);
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0) {
+            @Override
+            public int store(List<Object> list) {
+                if (!available.get()) {
+                    throw new IllegalStateException("unavailable");
+                }
+                return super.store(list);
+            }
+        };
+        FileJournalTemporaryStorage<Object> journal = newJournal();
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setDeadLetterStorage(journal);
+        CompletableFuture<SubmitStatus> future = pool.submitAsync("H_0");
+        for (int i = 1; i < 51; i++) {
+            pool.submitAsync("H_" + i);
+        }
+        //持久化失败的数据写入死信存储，不再视为失败
+        Assert.assertEquals(SubmitStatus.ACCEPTED, future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(50, journal.getAll().size());
+        Assert.assertTrue(persistStorage.stored.isEmpty());
+        //持久化层恢复之后由后台线程补写
+        available.set(true);
+        for (int i = 0; i < 50 && persistStorage.stored.size() < 50; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(50, persistStorage.stored.size());
+        Assert.assertTrue(journal.getAll().isEmpty());
+        pool.shutdown(true);
+        Assert.assertEquals(51, persistStorage.stored.size());
+        journal.close();
+    }
+
+    @Test
+    public void bufferTimeTest() throws Exception {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(0);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setBufferTimeMillis(200);
+        pool.start();
+        Thread.sleep(300);
+        //缓冲区为空时不会触发flush
+        Assert.assertTrue(persistStorage.batches.isEmpty());
+        long begin = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            pool.submit(new BufferData("H_" + i, "0x" + i));
+        }
+        while (persistStorage.stored.size() < 10 && System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(2)) {
+            Thread.sleep(5);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        Assert.assertEquals(10, persistStorage.stored.size());
+        Assert.assertTrue("elapsed " + elapsed, elapsed >= 190 && elapsed < 600);
+        pool.shutdown(true);
+    }
+
+    @Test
+    public void submitAllTest() {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(300);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        List<Object> dataList = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            dataList.add(new BufferData("H_" + i, "0x" + i));
+        }
+        //两个缓冲区都写满之后等待flush完成
+        Assert.assertEquals(250, pool.submitAll(dataList));
+        pool.shutdown(true);
+        Assert.assertEquals(250, persistStorage.stored.size());
+
+        persistStorage = new SlowPersistStorage(300);
+        pool = newPool(persistStorage);
+        pool.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        Assert.assertEquals(150, pool.submitAll(dataList.subList(0, 200)));
+        pool.shutdown(true);
+        Assert.assertEquals(150, persistStorage.stored.size());
+    }
+
+    @Test
+    public void resendAfterDropTest() {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(300);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setDuplicateFilter(new RotatingBloomFilter(2, 0, 1000, 0.001, 0, null));
+        pool.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 150; i++) {
+            Assert.assertEquals(SubmitStatus.ACCEPTED, pool.submit(new BufferData("H_" + i, "0x" + i)));
+        }
+        Assert.assertEquals(SubmitStatus.DROPPED, pool.submit(new BufferData("H_150", "0x150")));
+        Assert.assertEquals(0, pool.submitAll(Arrays.asList(new BufferData("H_151", "0x151"), new BufferData("H_152", "0x152"))));
+        //被丢弃的数据没有记录在去重窗口内，flush之后重发仍然可以接收
+        pool.setOverflowPolicy(OverflowPolicy.BLOCK);
+        Assert.assertEquals(SubmitStatus.ACCEPTED, pool.submit(new BufferData("H_150", "0x150")));
+        Assert.assertEquals(2, pool.submitAll(Arrays.asList(new BufferData("H_151", "0x151"), new BufferData("H_152", "0x152"))));
+        Assert.assertEquals(SubmitStatus.DUPLICATE, pool.submit(new BufferData("H_150", "0x150")));
+        pool.shutdown(true);
+        Assert.assertEquals(153, persistStorage.stored.size());
+    }
+
+    @Test
+    public void blockTimeoutTest() {
+        SlowPersistStorage persistStorage = new SlowPersistStorage(1000);
+        TwinsBufferPool<Object> pool = newPool(persistStorage);
+        pool.setOverflowTimeoutMillis(50);
+        for (int i = 0; i < 150; i++) {
+            Assert.assertEquals(SubmitStatus.ACCEPTED, pool.submit(new BufferData("H_" + i, "0x" + i)));
+        }
+        Assert.assertEquals(SubmitStatus.DROPPED, pool.submit(new BufferData("H_150", "0x150")));
+        pool.shutdown(true);
+        Assert.assertEquals(150, persistStorage.stored.size());
+    }
+
+    /**
+     * 不区分代次的临时存储层
+     */
+    private static class ListTemporaryStorage implements TemporaryStorage<Object> {
+
+        private final List<Object> dataList = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Object store(Object o) {
+            dataList.add(o);
+            return o;
+        }
+
+        @Override
+        public int store(List<Object> list) {
+            dataList.addAll(list);
+            return list.size();
+        }
+
+        @Override
+        public List<Object> getAll() {
+            return new ArrayList<>(dataList);
+        }
+
+        @Override
+        public void clear() {
+            dataList.clear();
+        }
+    }
+}